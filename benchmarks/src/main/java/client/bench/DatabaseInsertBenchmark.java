@@ -0,0 +1,61 @@
+package client.bench;
+
+import client.databaseConnections.DatabaseConnection;
+import client.databaseConnections.ImageMetadata;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserting the row of an uploaded photo, against an embedded H2 database in MySQL mode.
+ *
+ * The absolute numbers say little about a MySQL server over the network,
+ * but the cost of the statement handling on the client side is the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatabaseInsertBenchmark {
+
+    private static final int PHOTOS = 1 << 18;
+
+    private List<ImageMetadata> photos;
+    private DatabaseConnection db;
+    private LocalDateTime uploaded;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        Fixtures.useEmbeddedDatabase();
+        photos = Fixtures.randomMetadata(PHOTOS, 5000, new Random(42));
+        uploaded = LocalDateTime.of(2018, 9, 1, 12, 0);
+        db = new DatabaseConnection();
+    }
+
+    /**
+     * Starts every iteration with an empty table, so ids can be inserted again.
+     */
+    @Setup(Level.Iteration)
+    public void clearTable() throws Exception {
+        Fixtures.clearEmbeddedDatabase();
+        next = 0;
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        db.close();
+    }
+
+    @Benchmark
+    public int insertPhotoRow() throws Exception {
+        ImageMetadata photo = photos.get(next);
+        if (++next == PHOTOS) throw new IllegalStateException("Ran out of photos, shorten the iterations");
+        return db.insertPhotoRow(photo, uploaded, 1, "bench", photo.getId() + "_E.jpg");
+    }
+}
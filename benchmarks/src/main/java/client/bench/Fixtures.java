@@ -0,0 +1,218 @@
+package client.bench;
+
+import client.databaseConnections.DatabaseConnection;
+import client.databaseConnections.ImageMetadata;
+import client.spatial.GeoMath;
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputDirectory;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Synthetic photos, sidecars, points and databases, so benchmarks don't need real trip photos or MySQL.
+ *
+ * Every fixture is derived from a seeded Random, so runs on different machines measure the same data.
+ */
+public final class Fixtures {
+
+    public static final double BRISTOL_LATITUDE = 51.4545;
+    public static final double BRISTOL_LONGITUDE = -2.5879;
+
+    public static final String H2_URL = "jdbc:h2:mem:bristol_streetview_schema;MODE=MySQL;DB_CLOSE_DELAY=-1";
+
+    private static final DateTimeFormatter EXIF_DATE_TIME = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+    private Fixtures() {
+    }
+
+    /**
+     * Returns a random 32 digit hex id, like the ImageUniqueID written by the camera.
+     */
+    public static String newId(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString().replace("-", "");
+    }
+
+    /**
+     * Renders an equirectangular panorama (sky above the horizon, ground below, noisy buildings in between)
+     * and encodes it as a JPEG without any metadata.
+     * The noise keeps the file size close to that of a real photo of the same resolution.
+     */
+    public static byte[] renderPanorama(int width, int height, Random random) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        int horizon = height / 2;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(24);
+                if (y < horizon - height / 8) {
+                    int blue = 255 - y * 96 / horizon;
+                    row[x] = rgb(120 + noise, 160 + noise, blue);
+                } else if (y < horizon) {
+                    // Facades, one block every 64 pixels
+                    int shade = ((x >> 6) * 37 % 80) + 90 + noise * 2;
+                    row[x] = rgb(shade, shade - 10, shade - 20);
+                } else {
+                    int grey = 70 + (y - horizon) * 40 / horizon + noise;
+                    row[x] = rgb(grey, grey, grey);
+                }
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "jpg", out)) throw new IOException("No JPEG writer available");
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a rendered panorama with the EXIF tags the client reads: ImageUniqueID, DateTimeOriginal and GPS.
+     * The pixels are copied as they are, only the metadata is added.
+     */
+    public static void writeImage(byte[] panorama, Path file, String id, LocalDateTime taken,
+                                  double latitude, double longitude) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            TiffOutputSet exif = new TiffOutputSet();
+            TiffOutputDirectory directory = exif.getOrCreateExifDirectory();
+            directory.add(ExifTagConstants.EXIF_TAG_IMAGE_UNIQUE_ID, id);
+            directory.add(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL, taken.format(EXIF_DATE_TIME));
+            exif.setGPSInDegrees(longitude, latitude);
+            new ExifRewriter().updateExifMetadataLossless(panorama, out, exif);
+        } catch (ImageReadException | ImageWriteException e) {
+            throw new IOException("Couldn't write the metadata of " + file, e);
+        }
+    }
+
+    /**
+     * Writes a sidecar (_I.json) like the one the app saves next to every panorama.
+     */
+    public static void writeSidecar(Path file, String id, double bearing, double bearingAccuracy,
+                                    double locationAccuracy) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8); JsonWriter out = new JsonWriter(writer)) {
+            out.beginObject();
+            out.name("id").value(id);
+            out.name("locationAccuracy").value(locationAccuracy);
+            out.name("bearing").value(bearing);
+            out.name("bearingAccuracy").value(bearingAccuracy);
+            out.endObject();
+        }
+    }
+
+    /**
+     * Returns n points spread uniformly over a disc around the centre of Bristol,
+     * as {latitudes, longitudes}.
+     */
+    public static double[][] randomPoints(int n, double radiusMeters, Random random) {
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        double metersPerDegree = Math.toRadians(GeoMath.EARTH_RADIUS_METERS);
+        for (int i = 0; i < n; i++) {
+            double distance = radiusMeters * Math.sqrt(random.nextDouble());
+            double angle = random.nextDouble() * 2 * Math.PI;
+            latitudes[i] = BRISTOL_LATITUDE + distance * Math.cos(angle) / metersPerDegree;
+            longitudes[i] = BRISTOL_LONGITUDE + distance * Math.sin(angle) / (metersPerDegree * Math.cos(Math.toRadians(BRISTOL_LATITUDE)));
+        }
+        return new double[][]{latitudes, longitudes};
+    }
+
+    public static List<ImageMetadata> randomMetadata(int n, double radiusMeters, Random random) {
+        double[][] points = randomPoints(n, radiusMeters, random);
+        LocalDateTime start = LocalDateTime.of(2018, 8, 31, 10, 0);
+        List<ImageMetadata> images = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            images.add(new ImageMetadata(newId(random), 2688, 5376, start.plusSeconds(i * 2),
+                    points[0][i], points[1][i], "R58M1234567", 1,
+                    random.nextDouble() * 360, 5 + random.nextDouble() * 10, 3 + random.nextDouble() * 7));
+        }
+        return images;
+    }
+
+    /**
+     * Points every new {@link DatabaseConnection} at an in-memory H2 database with the schema of init.sql.
+     * The database lives until the JVM exits.
+     */
+    public static void useEmbeddedDatabase() throws SQLException {
+        System.setProperty(DatabaseConnection.URL_PROPERTY, H2_URL);
+        System.setProperty(DatabaseConnection.USER_PROPERTY, "sa");
+        System.setProperty(DatabaseConnection.PASSWORD_PROPERTY, "");
+
+        try (Connection connection = DriverManager.getConnection(H2_URL, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS Photo (" +
+                    "id CHAR(32) NOT NULL PRIMARY KEY, " +
+                    "height INT NOT NULL, " +
+                    "width INT NOT NULL, " +
+                    "photoTimestamp TIMESTAMP NULL, " +
+                    "uploadTimestamp TIMESTAMP NULL, " +
+                    "latitude DOUBLE NULL, " +
+                    "longitude DOUBLE NULL, " +
+                    "routeId INT NOT NULL, " +
+                    "bucketName VARCHAR(100) NULL, " +
+                    "fileKey VARCHAR(200) NULL, " +
+                    "cameraSerialNumber VARCHAR(45) NULL, " +
+                    "locationAccuracy DOUBLE NULL, " +
+                    "bearing DOUBLE NULL, " +
+                    "bearingAccuracy DOUBLE NULL)");
+            statement.execute("CREATE INDEX IF NOT EXISTS photo_taken_idx ON Photo (bucketName, photoTimestamp, id)");
+            statement.execute("CREATE INDEX IF NOT EXISTS photo_uploaded_idx ON Photo (bucketName, uploadTimestamp, id)");
+            statement.execute("CREATE INDEX IF NOT EXISTS photo_route_idx ON Photo (bucketName, routeId, photoTimestamp, id)");
+        }
+    }
+
+    /**
+     * Removes every photo from the embedded database.
+     */
+    public static void clearEmbeddedDatabase() throws SQLException {
+        try (Connection connection = DriverManager.getConnection(H2_URL, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("DELETE FROM Photo");
+        }
+    }
+
+    public static void deleteRecursively(Path folder) throws IOException {
+        if (!Files.exists(folder)) return;
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static int rgb(int red, int green, int blue) {
+        return (clamp(red) << 16) | (clamp(green) << 8) | clamp(blue);
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,64 @@
+package client.bench;
+
+import client.databaseConnections.ExtraPhotoInfo;
+import client.databaseConnections.ImageMetadata;
+import client.databaseConnections.SidecarReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the metadata of a panorama and its sidecar, done once for every uploaded photo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageMetadataBenchmark {
+
+    @Param({"2048"})
+    public int width;
+
+    private Path folder;
+    private File image;
+    private File sidecar;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        folder = Files.createTempDirectory("bsv-metadata");
+        String id = Fixtures.newId(random);
+        image = folder.resolve("0001_E.jpg").toFile();
+        sidecar = folder.resolve("0001_I.json").toFile();
+        Fixtures.writeImage(Fixtures.renderPanorama(width, width / 2, random), image.toPath(), id,
+                LocalDateTime.of(2018, 8, 31, 10, 15), Fixtures.BRISTOL_LATITUDE, Fixtures.BRISTOL_LONGITUDE);
+        Fixtures.writeSidecar(sidecar.toPath(), id, 123.4, 8.5, 4.2);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Fixtures.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public ImageMetadata parseImageAndSidecar() throws Exception {
+        return new ImageMetadata(image, sidecar, 1);
+    }
+
+    @Benchmark
+    public ImageMetadata parseImage() throws Exception {
+        return new ImageMetadata(image, 1);
+    }
+
+    @Benchmark
+    public ExtraPhotoInfo parseSidecar() throws Exception {
+        return SidecarReader.read(sidecar.toPath());
+    }
+}
@@ -0,0 +1,244 @@
+package client.bench;
+
+import client.handler.ConcreteBucketHandler;
+import client.handler.FileHolder;
+import client.ingest.IngestItem;
+import client.ingest.TripScanner;
+import client.storageConnections.StorageType;
+import client.storageConnections.TransferMode;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads synthetic trips end to end, the way --upload does: scanned with {@link TripScanner} and handed
+ * one by one to a {@link ConcreteBucketHandler} writing into a LOCAL bucket and an embedded H2 database.
+ *
+ * For every trip size it reports the throughput, the latency of each stage and the peak heap:
+ *      <li> parse - reading the metadata, on the calling thread
+ *      <li> copy - from the handler accepting the photo until it is in the bucket, including the wait for a thread
+ *      <li> db - from the copy until the row is inserted and the photo added to the index, including the wait for a thread
+ *      <li> total - the whole upload of a photo
+ * At most {@value #MAX_IN_FLIGHT} photos are handed to the handler before earlier ones are stored or have failed,
+ * which keeps the handler's queue of 1000 transfers from filling up.
+ * Photos the handler refuses anyway are counted as rejected, photos still in progress after the timeout as failed.
+ *
+ * Usage: IngestHarness [PHOTOS...], defaults to 1000 10000 100000.
+ * -Dbsv.bench.width sets the width of the panoramas (default {@value TripGenerator#DEFAULT_WIDTH}),
+ * -Dbsv.bench.transferMode the transfer mode of the bucket (default COPY),
+ * -Dbsv.bench.timeoutMinutes how long to wait for the photos of one trip (default {@value #DEFAULT_TIMEOUT_MINUTES}).
+ * Trips are generated into a temp folder, which needs room for about twice the size of the largest trip.
+ */
+public final class IngestHarness {
+
+    private static final int[] DEFAULT_SIZES = {1000, 10000, 100000};
+    private static final long HEAP_SAMPLE_MILLIS = 20;
+    // Every photo takes up to two places in the handler's queue, one for the copy and one for the database
+    private static final int MAX_IN_FLIGHT = 400;
+    private static final int DEFAULT_TIMEOUT_MINUTES = 60;
+
+    private IngestHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray() : DEFAULT_SIZES;
+        int width = Integer.getInteger("bsv.bench.width", TripGenerator.DEFAULT_WIDTH);
+        TransferMode transferMode = TransferMode.valueOf(System.getProperty("bsv.bench.transferMode", TransferMode.COPY.name()));
+        long timeoutMinutes = Long.getLong("bsv.bench.timeoutMinutes", DEFAULT_TIMEOUT_MINUTES);
+
+        Fixtures.useEmbeddedDatabase();
+        List<Result> results = new ArrayList<>();
+        for (int size : sizes) {
+            Path folder = Files.createTempDirectory("bsv-ingest-" + size);
+            try {
+                Path trip = folder.resolve("trip");
+                System.out.println("Generating " + size + " photos in " + trip);
+                TripGenerator.generate(trip, size, width, 42);
+
+                System.setProperty("user.home", folder.resolve("home").toString());
+                Files.createDirectories(folder.resolve("home").resolve("bench"));
+                Fixtures.clearEmbeddedDatabase();
+                System.gc();
+
+                System.out.println("Uploading " + size + " photos");
+                Result result = run(trip, transferMode, timeoutMinutes);
+                System.out.println(result);
+                results.add(result);
+            } finally {
+                Fixtures.deleteRecursively(folder);
+            }
+        }
+
+        System.out.println();
+        System.out.println("width=" + width + " transferMode=" + transferMode);
+        System.out.println(Result.HEADER);
+        for (Result result : results) System.out.println(result);
+    }
+
+    private static Result run(Path trip, TransferMode transferMode, long timeoutMinutes) throws Exception {
+        HeapSampler heap = new HeapSampler();
+        heap.start();
+
+        long start = System.nanoTime();
+        List<IngestItem> items = TripScanner.scan(trip, Runtime.getRuntime().availableProcessors());
+        long scanned = System.nanoTime();
+
+        int n = items.size();
+        long[] submitted = new long[n];
+        long[] parsed = new long[n];
+        long[] copied = new long[n];
+        long[] stored = new long[n];
+        // 0 = in progress, 1 = stored, 2 = failed
+        AtomicIntegerArray states = new AtomicIntegerArray(n);
+        CountDownLatch done = new CountDownLatch(n);
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        AtomicLong bytes = new AtomicLong();
+        int rejected = 0;
+
+        ConcreteBucketHandler handler = new ConcreteBucketHandler("bench", StorageType.LOCAL);
+        handler.setTransferMode(transferMode);
+        for (int i = 0; i < n; i++) {
+            IngestItem item = items.get(i);
+            int index = i;
+            FileHolder upload = handler.newFileHolder(item.getImage().toFile(),
+                    item.getSidecar() != null ? item.getSidecar().toFile() : null);
+            upload.setUploadCompletionListener((fileHolder) -> copied[index] = System.nanoTime());
+            upload.setUploadFailureListener((error) -> finish(states, done, inFlight, index, 2));
+            upload.setDbUpdateCompletionListener((fileHolder) -> {
+                stored[index] = System.nanoTime();
+                bytes.addAndGet(item.getImageSize() + item.getSidecarSize());
+                finish(states, done, inFlight, index, 1);
+            });
+            upload.setDbFailureListener((error) -> finish(states, done, inFlight, index, 2));
+
+            inFlight.acquire();
+            submitted[i] = System.nanoTime();
+            try {
+                handler.upload(upload, 1);
+            } catch (RejectedExecutionException e) {
+                rejected++;
+                finish(states, done, inFlight, index, 2);
+            }
+            parsed[i] = System.nanoTime();
+        }
+        if (!done.await(timeoutMinutes, TimeUnit.MINUTES)) {
+            System.out.println("Timed out after " + timeoutMinutes + " minutes, " + done.getCount() + " photos still in progress");
+        }
+        long uploaded = System.nanoTime();
+
+        handler.close();
+        long end = System.nanoTime();
+        heap.interrupt();
+        heap.join();
+
+        Result result = new Result();
+        result.photos = n;
+        for (int i = 0; i < n; i++) {
+            if (states.get(i) == 1) result.stored++;
+        }
+        result.failed = n - result.stored - rejected;
+        result.rejected = rejected;
+        result.seconds = (uploaded - start) / 1e9;
+        result.bytes = bytes.get();
+        result.scanMillis = (scanned - start) / 1e6;
+        result.flushMillis = (end - uploaded) / 1e6;
+        result.parse = percentiles(states, submitted, parsed);
+        result.copy = percentiles(states, parsed, copied);
+        result.db = percentiles(states, copied, stored);
+        result.total = percentiles(states, submitted, stored);
+        result.peakHeapBytes = heap.peak;
+        return result;
+    }
+
+    private static void finish(AtomicIntegerArray states, CountDownLatch done, Semaphore inFlight, int index, int state) {
+        // Failures can be reported more than once, or after the photo was stored
+        if (states.compareAndSet(index, 0, state)) {
+            inFlight.release();
+            done.countDown();
+        }
+    }
+
+    /**
+     * Returns the 50th and 99th percentile of to - from in ms, over the photos which were stored.
+     */
+    private static double[] percentiles(AtomicIntegerArray states, long[] from, long[] to) {
+        long[] durations = new long[from.length];
+        int n = 0;
+        for (int i = 0; i < from.length; i++) {
+            if (states.get(i) == 1) durations[n++] = to[i] - from[i];
+        }
+        if (n == 0) return new double[]{Double.NaN, Double.NaN};
+        Arrays.sort(durations, 0, n);
+        return new double[]{durations[(n - 1) / 2] / 1e6, durations[(int) Math.ceil(n * 0.99) - 1] / 1e6};
+    }
+
+    /**
+     * Records the most heap in use while it runs, sampled every {@value #HEAP_SAMPLE_MILLIS} ms.
+     */
+    private static final class HeapSampler extends Thread {
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private volatile long peak;
+
+        HeapSampler() {
+            super("heap-sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(HEAP_SAMPLE_MILLIS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+        }
+    }
+
+    private static final class Result {
+
+        private static final String HEADER = String.format("%8s %8s %8s %8s %9s %8s %17s %17s %17s %17s %9s %9s",
+                "photos", "failed", "rejected", "files/s", "MB/s", "scan ms", "parse p50/p99 ms", "copy p50/p99 ms",
+                "db p50/p99 ms", "total p50/p99 ms", "flush ms", "heap MB");
+
+        private int photos;
+        private int stored;
+        private int failed;
+        private int rejected;
+        private double seconds;
+        private long bytes;
+        private double scanMillis;
+        private double flushMillis;
+        private double[] parse;
+        private double[] copy;
+        private double[] db;
+        private double[] total;
+        private long peakHeapBytes;
+
+        @Override
+        public String toString() {
+            return String.format("%8d %8d %8d %8.1f %9.2f %8.0f %17s %17s %17s %17s %9.0f %9.0f",
+                    photos, failed, rejected, stored / seconds, bytes / 1e6 / seconds, scanMillis,
+                    format(parse), format(copy), format(db), format(total), flushMillis, peakHeapBytes / 1e6);
+        }
+
+        private static String format(double[] percentiles) {
+            return String.format("%.2f/%.2f", percentiles[0], percentiles[1]);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package client.bench;
+
+import client.projections.Projection2;
+import client.projections.RectilinearProjection;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering a view of a panorama, including reading the panorama and writing the result like the projections do.
+ *
+ * RectilinearProjection prints every pixel it maps, so standard output is discarded while it runs,
+ * otherwise the benchmark would mostly measure the console.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ProjectionBenchmark {
+
+    @Param({"512"})
+    public int width;
+
+    private Path folder;
+    private File panorama;
+    private PrintStream standardOutput;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        folder = Files.createTempDirectory("bsv-projection");
+        panorama = folder.resolve("0001_E.jpg").toFile();
+        Fixtures.writeImage(Fixtures.renderPanorama(width, width / 2, random), panorama.toPath(), Fixtures.newId(random),
+                LocalDateTime.of(2018, 8, 31, 10, 15), Fixtures.BRISTOL_LATITUDE, Fixtures.BRISTOL_LONGITUDE);
+
+        standardOutput = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        System.setOut(standardOutput);
+        Fixtures.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public Projection2 projection2() throws Exception {
+        Projection2 projection = new Projection2(panorama, 0, width, 0, width / 2, 90, 60, 30, 0);
+        projection.transform();
+        return projection;
+    }
+
+    @Benchmark
+    public RectilinearProjection rectilinearProjection() throws Exception {
+        RectilinearProjection projection = new RectilinearProjection(panorama, 0, 0, 0, 0, 0);
+        projection.transformImage();
+        return projection;
+    }
+}
@@ -0,0 +1,102 @@
+package client.bench;
+
+import client.spatial.GeoMath;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.InternalStructure;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.Serializer;
+import com.github.davidmoten.rtree.Serializers;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The RTree of a bucket: adding an uploaded photo, searching around a point and (de)serialising the whole tree,
+ * with the same serializer as the storage connections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RTreeBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Param({"50"})
+    public double radiusMeters;
+
+    private RTree<String, Geometry> tree;
+    private byte[] serialised;
+    private Serializer<String, Geometry> serializer;
+
+    private double[] addLatitudes;
+    private double[] addLongitudes;
+    private double[][] queries;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        double[][] points = Fixtures.randomPoints(size, 5000, random);
+        tree = RTree.create();
+        for (int i = 0; i < size; i++) {
+            tree = tree.add(Fixtures.newId(random), Geometries.point(points[0][i], points[1][i]));
+        }
+
+        double[][] added = Fixtures.randomPoints(QUERIES, 5000, random);
+        addLatitudes = added[0];
+        addLongitudes = added[1];
+        queries = Fixtures.randomPoints(QUERIES, 5000, random);
+
+        serializer = Serializers.flatBuffers().utf8();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.write(tree, out);
+        serialised = out.toByteArray();
+    }
+
+    /**
+     * The tree is immutable, so every photo is added to the same tree of the given size.
+     */
+    @Benchmark
+    public RTree<String, Geometry> add() {
+        int i = next++ & (QUERIES - 1);
+        return tree.add("bench", Geometries.point(addLatitudes[i], addLongitudes[i]));
+    }
+
+    @Benchmark
+    public void search(Blackhole blackhole) {
+        int i = next++ & (QUERIES - 1);
+        double latitude = queries[0][i];
+        double longitude = queries[1][i];
+        for (double[] box : GeoMath.boundingBoxes(latitude, longitude, radiusMeters)) {
+            for (Entry<String, Geometry> entry : tree.search(Geometries.rectangle(box[0], box[1], box[2], box[3])).toBlocking().toIterable()) {
+                blackhole.consume(entry);
+            }
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int serialise() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(serialised.length);
+        serializer.write(tree, out);
+        return out.size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RTree<String, Geometry> deserialise() throws Exception {
+        return serializer.read(new ByteArrayInputStream(serialised), serialised.length, InternalStructure.DEFAULT);
+    }
+}
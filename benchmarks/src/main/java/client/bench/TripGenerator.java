@@ -0,0 +1,152 @@
+package client.bench;
+
+import client.ingest.TripScanner;
+import client.spatial.GeoMath;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes a synthetic trip: equirectangular panoramas with EXIF metadata and their sidecars,
+ * laid out like a trip copied off the camera, with one folder per day.
+ *
+ * Every day is made of routes walked through Bristol: a photo every {@value #SECONDS_PER_PHOTO} seconds,
+ * a few meters apart, slowly changing direction and turning at junctions now and then.
+ * The pixels are rendered once per panorama variant, only the metadata differs between photos.
+ *
+ * Usage: TripGenerator FOLDER PHOTOS [WIDTH]
+ */
+public final class TripGenerator {
+
+    public static final int DEFAULT_WIDTH = 1024;
+
+    static final int SECONDS_PER_PHOTO = 2;
+    private static final int PHOTOS_PER_DAY = 5000;
+    private static final int PHOTOS_PER_ROUTE = 500;
+    private static final int VARIANTS = 8;
+    private static final double START_RADIUS_METERS = 3000;
+
+    private TripGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: TripGenerator FOLDER PHOTOS [WIDTH]");
+            System.exit(1);
+        }
+        int width = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_WIDTH;
+        long start = System.nanoTime();
+        long bytes = generate(Paths.get(args[0]), Integer.parseInt(args[1]), width, 42);
+        System.out.printf("%s photos, %.1f MB written in %.1f s%n", args[1], bytes / 1e6, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Writes the photos into the folder and returns the number of bytes written.
+     */
+    public static long generate(Path folder, int photos, int width, long seed) throws IOException {
+        Random random = new Random(seed);
+        byte[][] variants = new byte[VARIANTS][];
+        for (int i = 0; i < VARIANTS; i++) variants[i] = Fixtures.renderPanorama(width, width / 2, random);
+
+        List<Photo> trip = plan(photos, random);
+        AtomicLong bytes = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int day = 0; day * PHOTOS_PER_DAY < photos; day++) {
+                List<Photo> dayPhotos = trip.subList(day * PHOTOS_PER_DAY, Math.min(photos, (day + 1) * PHOTOS_PER_DAY));
+                Path dayFolder = folder.resolve(dayPhotos.get(0).taken.toLocalDate().toString());
+                Files.createDirectories(dayFolder);
+                futures.add(executor.submit(() -> {
+                    for (Photo photo : dayPhotos) {
+                        Path image = dayFolder.resolve(photo.name + TripScanner.IMAGE_SUFFIX);
+                        Path sidecar = dayFolder.resolve(photo.name + TripScanner.SIDECAR_SUFFIX);
+                        Fixtures.writeImage(variants[photo.variant], image, photo.id, photo.taken, photo.latitude, photo.longitude);
+                        Fixtures.writeSidecar(sidecar, photo.id, photo.bearing, photo.bearingAccuracy, photo.locationAccuracy);
+                        bytes.addAndGet(Files.size(image) + Files.size(sidecar));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Couldn't generate the trip", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating the trip", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return bytes.get();
+    }
+
+    /**
+     * Lays out the routes, in the order the photos were taken.
+     */
+    private static List<Photo> plan(int photos, Random random) {
+        List<Photo> trip = new ArrayList<>(photos);
+        double metersPerDegree = Math.toRadians(GeoMath.EARTH_RADIUS_METERS);
+        double latitude = 0;
+        double longitude = 0;
+        double heading = 0;
+        LocalDateTime taken = null;
+
+        for (int i = 0; i < photos; i++) {
+            if (i % PHOTOS_PER_DAY == 0) {
+                taken = LocalDateTime.of(2018, 8, 31, 9, 0).plusDays(i / PHOTOS_PER_DAY);
+            }
+            if (i % PHOTOS_PER_ROUTE == 0) {
+                double[][] start = Fixtures.randomPoints(1, START_RADIUS_METERS, random);
+                latitude = start[0][0];
+                longitude = start[1][0];
+                heading = random.nextDouble() * 360;
+                // A break between two routes
+                taken = taken.plusMinutes(10);
+            } else {
+                if (random.nextDouble() < 0.02) heading += random.nextBoolean() ? 90 : -90;
+                heading += random.nextGaussian() * 3;
+                double step = 3 + random.nextDouble() * 3;
+                latitude += step * Math.cos(Math.toRadians(heading)) / metersPerDegree;
+                longitude += step * Math.sin(Math.toRadians(heading)) / (metersPerDegree * Math.cos(Math.toRadians(latitude)));
+                taken = taken.plusSeconds(SECONDS_PER_PHOTO);
+            }
+
+            Photo photo = new Photo();
+            photo.name = String.format("%06d", i);
+            photo.id = Fixtures.newId(random);
+            photo.taken = taken;
+            photo.latitude = latitude;
+            photo.longitude = longitude;
+            photo.bearing = ((heading + random.nextGaussian() * 5) % 360 + 360) % 360;
+            photo.bearingAccuracy = 5 + random.nextDouble() * 10;
+            photo.locationAccuracy = 3 + random.nextDouble() * 7;
+            photo.variant = random.nextInt(VARIANTS);
+            trip.add(photo);
+        }
+        return trip;
+    }
+
+    private static final class Photo {
+
+        private String name;
+        private String id;
+        private LocalDateTime taken;
+        private double latitude;
+        private double longitude;
+        private double bearing;
+        private double bearingAccuracy;
+        private double locationAccuracy;
+        private int variant;
+    }
+}
@@ -0,0 +1,88 @@
+package client.handler;
+
+import client.bench.Fixtures;
+import client.storageConnections.LocalStorageConnection;
+import client.storageConnections.TransferMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Copying a panorama into a local bucket, once per transfer mode.
+ * LINK and CLONE fall back to COPY where the temp folder doesn't support them.
+ *
+ * The bucket is created in a temp folder, which is used as the home folder of the benchmark.
+ * Lives in client.handler to set up the {@link FileHolder} like the bucket handler does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalCopyBenchmark {
+
+    private static final String BUCKET = "bench";
+
+    @Param({"COPY", "LINK", "CLONE"})
+    public TransferMode transferMode;
+
+    @Param({"4096"})
+    public int width;
+
+    private Path home;
+    private String originalHome;
+    private FileHolder fileHolder;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        home = Files.createTempDirectory("bsv-copy");
+        originalHome = System.getProperty("user.home");
+        System.setProperty("user.home", home.toString());
+        Files.createDirectories(home.resolve(BUCKET));
+
+        Path image = home.resolve("trip").resolve("0001_E.jpg");
+        Files.createDirectories(image.getParent());
+        Fixtures.writeImage(Fixtures.renderPanorama(width, width / 2, random), image, Fixtures.newId(random),
+                LocalDateTime.of(2018, 8, 31, 10, 15), Fixtures.BRISTOL_LATITUDE, Fixtures.BRISTOL_LONGITUDE);
+
+        fileHolder = new FileHolder();
+        fileHolder.setFile(image.toFile());
+        fileHolder.setBucket(BUCKET);
+        fileHolder.setUploadFailureListener((error) -> {
+            throw new IllegalStateException(error);
+        });
+    }
+
+    @Setup(Level.Invocation)
+    public void nextKey() {
+        fileHolder.setKey("photo" + next++ + "_E.jpg");
+    }
+
+    @TearDown(Level.Invocation)
+    public void removeCopy() throws Exception {
+        // Photos may be sharded into sub folders of the bucket
+        try (Stream<Path> files = Files.walk(home.resolve(BUCKET))) {
+            files.filter(file -> file.getFileName().toString().startsWith("photo")).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        System.setProperty("user.home", originalHome);
+        Fixtures.deleteRecursively(home);
+    }
+
+    @Benchmark
+    public FileHolder copyFile() {
+        new LocalStorageConnection(fileHolder, transferMode).copyFile();
+        return fileHolder;
+    }
+}
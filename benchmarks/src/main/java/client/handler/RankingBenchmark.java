@@ -0,0 +1,38 @@
+package client.handler;
+
+import client.PhotoSet;
+import client.bench.Fixtures;
+import client.databaseConnections.ImageMetadata;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ranking the photos found around a point into a {@link PhotoSet}, closest first.
+ * Lives in client.handler to reach {@link ConcreteBucketHandler#getPhotoSet}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RankingBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    private List<ImageMetadata> images;
+
+    @Setup
+    public void setUp() {
+        images = Fixtures.randomMetadata(size, 200, new Random(42));
+    }
+
+    @Benchmark
+    public PhotoSet getPhotoSet() {
+        return ConcreteBucketHandler.getPhotoSet(Fixtures.BRISTOL_LATITUDE, Fixtures.BRISTOL_LONGITUDE, images);
+    }
+}
@@ -0,0 +1,87 @@
+package client.bench;
+
+import client.databaseConnections.ExtraPhotoInfo;
+import client.databaseConnections.ImageMetadata;
+import client.databaseConnections.SidecarReader;
+import client.ingest.IngestItem;
+import client.ingest.TripScanner;
+import client.spatial.GeoMath;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+public class TripGeneratorTest {
+
+    private static final int PHOTOS = 12;
+    private static final int WIDTH = 64;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void generateTest() throws Exception {
+        Path trip = folder.getRoot().toPath();
+        long bytes = TripGenerator.generate(trip, PHOTOS, WIDTH, 42);
+
+        List<IngestItem> items = TripScanner.scan(trip, 2);
+        Assert.assertEquals("Wrong number of panoramas", PHOTOS, items.size());
+
+        long size = 0;
+        ImageMetadata previous = null;
+        for (IngestItem item : items) {
+            Assert.assertNotNull("Panorama without a sidecar: " + item.getImage(), item.getSidecar());
+            Assert.assertEquals("Not in a folder per day", "2018-08-31", item.getImage().getParent().getFileName().toString());
+            size += item.getImageSize() + item.getSidecarSize();
+
+            // Read the way the client reads the photos it uploads
+            ImageMetadata metadata = new ImageMetadata(item.getImage().toFile(), item.getSidecar().toFile(), 0);
+            ExtraPhotoInfo info = SidecarReader.read(item.getSidecar());
+            Assert.assertTrue("Wrong id: " + metadata.getId(), metadata.getId().matches("[0-9a-f]{32}"));
+            Assert.assertEquals("Sidecar of another photo", metadata.getId(), info.getId());
+            Assert.assertEquals("Wrong width", WIDTH, metadata.getWidth());
+            Assert.assertEquals("Not equirectangular", WIDTH / 2, metadata.getHeight());
+            Assert.assertNotNull("Time left out", metadata.getPhotoDateTime());
+            Assert.assertTrue("Bearing outside [0, 360): " + metadata.getBearing(),
+                    metadata.getBearing() >= 0 && metadata.getBearing() < 360);
+            Assert.assertTrue("Outside Bristol", GeoMath.haversineMeters(Fixtures.BRISTOL_LATITUDE, Fixtures.BRISTOL_LONGITUDE,
+                    metadata.getLatitude(), metadata.getLongitude()) < 3100);
+
+            if (previous == null) {
+                Assert.assertEquals("Wrong start of the trip", LocalDateTime.of(2018, 8, 31, 9, 10), metadata.getPhotoDateTime());
+            } else {
+                // Photos of one route, a few meters and a few seconds apart
+                Assert.assertEquals("Wrong time", previous.getPhotoDateTime().plusSeconds(TripGenerator.SECONDS_PER_PHOTO),
+                        metadata.getPhotoDateTime());
+                Assert.assertTrue("Photos too far apart", GeoMath.haversineMeters(previous.getLatitude(), previous.getLongitude(),
+                        metadata.getLatitude(), metadata.getLongitude()) < 10);
+                Assert.assertNotEquals("Duplicate id", previous.getId(), metadata.getId());
+            }
+            previous = metadata;
+        }
+        Assert.assertEquals("Wrong number of bytes", size, bytes);
+    }
+
+    @Test
+    public void seedTest() throws Exception {
+        Path first = folder.newFolder("first").toPath();
+        Path second = folder.newFolder("second").toPath();
+        TripGenerator.generate(first, PHOTOS, WIDTH, 7);
+        TripGenerator.generate(second, PHOTOS, WIDTH, 7);
+
+        List<IngestItem> firstItems = TripScanner.scan(first, 2);
+        List<IngestItem> secondItems = TripScanner.scan(second, 2);
+        Assert.assertEquals("Wrong number of panoramas", firstItems.size(), secondItems.size());
+        for (int i = 0; i < firstItems.size(); i++) {
+            Assert.assertArrayEquals("Same seed, different photo",
+                    Files.readAllBytes(firstItems.get(i).getImage()), Files.readAllBytes(secondItems.get(i).getImage()));
+            Assert.assertArrayEquals("Same seed, different sidecar",
+                    Files.readAllBytes(firstItems.get(i).getSidecar()), Files.readAllBytes(secondItems.get(i).getSidecar()));
+        }
+    }
+}
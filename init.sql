@@ -29,7 +29,10 @@ CREATE TABLE Photo
   bearing            DOUBLE       NULL,
   bearingAccuracy    DOUBLE       NULL,
   CONSTRAINT id_UNIQUE
-  UNIQUE (id)
+  UNIQUE (id),
+  INDEX photo_taken_idx (bucketName, photoTimestamp, id),
+  INDEX photo_uploaded_idx (bucketName, uploadTimestamp, id),
+  INDEX photo_route_idx (bucketName, routeId, photoTimestamp, id)
 )
   ENGINE = InnoDB
   CHARSET = latin1;
@@ -1,9 +1,18 @@
 package client;
 
+import client.databaseConnections.DatabaseConnection;
 import client.handler.BucketHandler;
 import client.handler.ConcreteBucketHandler;
 import client.handler.FileHolder;
+import client.ingest.IngestItem;
+import client.ingest.TripScanner;
+import client.ingest.WatchFolderIngest;
+import client.metrics.Metrics;
+import client.server.QueryServer;
+import client.storageConnections.BucketMigration;
+import client.storageConnections.PackStorageConnection;
 import client.storageConnections.StorageType;
+import client.storageConnections.TransferMode;
 import client.util.Log;
 import me.tongfei.progressbar.ProgressBar;
 import picocli.CommandLine;
@@ -13,11 +22,15 @@ import picocli.CommandLine.Parameters;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
 import java.util.concurrent.Callable;
-import java.util.stream.Collectors;
 
 @Command(mixinStandardHelpOptions = true, version = "BSV DB CLIENT 1.0")
 public class MainCLI implements Callable<Void> {
@@ -38,9 +51,30 @@ public class MainCLI implements Callable<Void> {
     @Option(names = {"-f", "--logToFile"}, description = "Send the log output to the specified file.")
     private String logToFile;
 
+    @Option(names = {"--metrics"}, description = "Print the metrics of the run (stage timings, failures, queues) in the Prometheus text format when the client exits.")
+    private boolean printMetrics;
+
     @Option(names = {"-u", "--upload"}, description = "Upload 360 degree images from the given folder.")
     private File folderToUpload;
 
+    @Option(names = {"--watch"}, arity = "1..*", description = "Keep uploading photos dropped into the given folders until interrupted. A photo is uploaded once its _E.jpg and _I.json have stopped changing.")
+    private File[] watchFolders;
+
+    @Option(names = {"--serve"}, description = "Answer geo, route and time queries over HTTP on the given local port until interrupted.")
+    private int servePort;
+
+    @Option(names = {"--serveThreads"}, description = "Number of queries answered at the same time with --serve. Defaults to 8")
+    private int serveThreads = 8;
+
+    @Option(names = {"--storage"}, description = "How the bucket is stored: LOCAL (one file per photo) or PACK (large pack files). Defaults to LOCAL")
+    private StorageType storageType = StorageType.LOCAL;
+
+    @Option(names = {"--compactPacks"}, description = "Reclaim the space of deleted photos in a PACK bucket.")
+    private boolean compactPacks;
+
+    @Option(names = {"--transferMode"}, description = "How uploaded files are stored in the bucket, and how saved photos are written to the output directory: ${COMPLETION-CANDIDATES}. LINK and CLONE fall back to COPY across volumes. Defaults to COPY")
+    private TransferMode transferMode = TransferMode.COPY;
+
     @Option(names = {"-g", "--saveAsGpxAfterUpload"}, description = "Collect all just uploaded files into a GPX file")
     private boolean saveAsGpxAfterUpload;
 
@@ -51,12 +85,18 @@ public class MainCLI implements Callable<Void> {
     @Option(names = {"-s", "--save"}, description = "Save photos with the corresponding ids to the output directory.")
     private boolean save;
 
+    @Option(names = {"--incremental"}, description = "Update the output directory instead of clearing it. Only new photos are copied, photos no longer in the result are removed.")
+    private boolean incremental;
+
     @Option(names = {"-d", "--delete"}, description = "Delete the photos with the corresponding ids.")
     private boolean delete;
 
     @Option(names = {"--deleteAll"}, description = "Delete all elements from the bucket.")
     private boolean deleteAll;
 
+    @Option(names = {"--migrateBucketLayout"}, description = "Move the files of an existing flat bucket into sharded sub folders. Never run it while another client uses the bucket.")
+    private boolean migrateBucketLayout;
+
     @Option(names = {"-r", "--route"}, description = "Route ID that will be associated with the uploaded pictures.")
     private int route;
 
@@ -72,6 +112,18 @@ public class MainCLI implements Callable<Void> {
     @Option(names = {"--maxGeoResults"}, description = "Maximum number of results allowed from the geographical search. Defaults to 100")
     private int maxGeoResults = 100;
 
+    @Option(names = {"--facing"}, description = "Only find photos whose camera faces the point given by --latitude and --longitude, best view first.")
+    private boolean facing;
+
+    @Option(names = {"--maxAngle"}, description = "Largest angle in degrees between the camera heading and the point for --facing. Defaults to 45")
+    private double maxAngle = 45;
+
+    @Option(names = {"--takenFrom"}, description = "Only find photos taken at or after the given local date and time, e.g. 2018-08-31T10:15")
+    private String takenFrom;
+
+    @Option(names = {"--takenTo"}, description = "Only find photos taken at or before the given local date and time, e.g. 2018-08-31T18:00")
+    private String takenTo;
+
     @Option(names = {"-b", "--bucket"}, description = "Folder where the processed images are or will be stored.")
     private String bucket;
 
@@ -82,6 +134,7 @@ public class MainCLI implements Callable<Void> {
     private ProgressBar pb;
     private int numberOfImagesToProcess;
     private int done;
+    private boolean finished;
 
 
     public static void main(String[] args) {
@@ -103,30 +156,84 @@ public class MainCLI implements Callable<Void> {
                 Log.stopLoggingToFile();
             }
         }
-
-        if (folderToUpload != null && folderToUpload.isDirectory()) {
+        // Uploads and exports finish on other threads, so the metrics are only complete on exit
+        if (printMetrics) Runtime.getRuntime().addShutdownHook(new Thread(MainCLI::printMetrics));
+
+        if (migrateBucketLayout) {
+            System.out.println("MIGRATING BUCKET LAYOUT...");
+            int moved = BucketMigration.migrateToShardedLayout(bucket);
+            System.out.println(moved + " FILES MOVED");
+        } else if (compactPacks) {
+            if (storageType != StorageType.PACK) {
+                System.err.println("Only PACK buckets can be compacted, add --storage=PACK");
+                return null;
+            }
+            System.out.println("COMPACTING PACK FILES...");
+            bucketHandler = getBucketHandler();
+            long reclaimed = new PackStorageConnection(bucketHandler.newEmptyFileHolder()).compact();
+            bucketHandler.close();
+            System.out.println(reclaimed + " BYTES RECLAIMED");
+        } else if (servePort != 0) {
+            System.out.println("SERVING QUERIES...");
+            // The handler's own executors need connections too
+            DatabaseConnection.enablePooling(serveThreads + 2);
+            ConcreteBucketHandler handler = new ConcreteBucketHandler(bucket, storageType);
+            // Every request thread may be waiting for a geo result to be filled
+            handler.setQueryThreads(serveThreads);
+            bucketHandler = handler;
+
+            QueryServer server = new QueryServer(handler, new InetSocketAddress(InetAddress.getLoopbackAddress(), servePort), serveThreads);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                try {
+                    handler.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                DatabaseConnection.disablePooling();
+            }));
+            server.start();
+            try {
+                server.awaitClose();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else if (watchFolders != null) {
+            System.out.println("WATCHING FOR NEW PHOTOS...");
+            ConcreteBucketHandler handler = getBucketHandler();
+            // Runs until interrupted and never saves a route, so don't keep every photo for one
+            handler.setRecordingRoute(false);
+            bucketHandler = handler;
+            List<Path> folders = new ArrayList<>();
+            for (File folder : watchFolders) folders.add(folder.toPath());
+
+            WatchFolderIngest ingest = new WatchFolderIngest(handler, route, folders);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    ingest.close();
+                    handler.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }));
+            ingest.run();
+        } else if (folderToUpload != null && folderToUpload.isDirectory()) {
             System.out.println("UPLOADING FROM " + folderToUpload.getAbsolutePath());
             bucketHandler = getBucketHandler();
-            File[] files = folderToUpload.listFiles();
-            Objects.requireNonNull(files, "File array was null");
-            List<File> filesList = Arrays.asList(files);
-
-            List<File> actualImages = filesList
-                    .stream()
-                    .filter((file) -> file.getPath().contains("_E.jpg"))
-                    .collect(Collectors.toList());
+            List<IngestItem> items = TripScanner.scan(folderToUpload.toPath(), Runtime.getRuntime().availableProcessors());
 
             if (saveAsGpxAfterUpload) {
-                setProgressMonitoring(actualImages.size() + 1);
+                setProgressMonitoring(items.size() + 1);
             } else {
-                setProgressMonitoring(actualImages.size());
+                setProgressMonitoring(items.size());
             }
-            actualImages.forEach(this::handleFile);
+            items.forEach(this::handleItem);
         } else if (save) {
             System.out.println("RETRIEVING PHOTOS...");
             bucketHandler = getBucketHandler();
             setProgressMonitoring(ids.length);
-            bucketHandler.downloadPhotos(this::onDone, ids);
+            if (incremental) bucketHandler.exportPhotos(this::onDone, ids);
+            else bucketHandler.downloadPhotos(this::onDone, ids);
         } else if (delete) {
             System.out.println("DELETING PHOTOS...");
             bucketHandler = getBucketHandler();
@@ -139,29 +246,55 @@ public class MainCLI implements Callable<Void> {
             bucketHandler.deleteAll(this::onDone);
         } else if (geographicSearchRadius != 0) {
             System.out.println("GEOGRAPHIC SEARCH...");
-            bucketHandler = new ConcreteBucketHandler(bucket, StorageType.LOCAL, geographicSearchRadius);
-            PhotoSet set = bucketHandler.getPhotosAround(latitude, longitude, maxGeoResults);
-            setProgressMonitoring(set.getIds().size());
-            bucketHandler.downloadPhotoSet(this::onDone, set);
+            ConcreteBucketHandler handler = new ConcreteBucketHandler(bucket, storageType, geographicSearchRadius);
+            handler.setTransferMode(transferMode);
+            bucketHandler = handler;
+            PhotoSet set;
+            if (facing) {
+                set = bucketHandler.getPhotosFacing(latitude, longitude, geographicSearchRadius, maxAngle, maxGeoResults);
+            } else if (takenFrom != null || takenTo != null) {
+                set = bucketHandler.getPhotosAround(latitude, longitude, geographicSearchRadius, maxGeoResults,
+                        takenFrom != null ? LocalDateTime.parse(takenFrom) : LocalDateTime.MIN,
+                        takenTo != null ? LocalDateTime.parse(takenTo) : LocalDateTime.MAX);
+            } else {
+                set = bucketHandler.streamPhotosAround(latitude, longitude, geographicSearchRadius, maxGeoResults);
+            }
+            setProgressMonitoring(set.getExpectedSize());
+            try {
+                if (incremental) bucketHandler.exportPhotoSet(this::onDone, set);
+                else bucketHandler.downloadPhotoSet(this::onDone, set);
+            } finally {
+                // Photos missing from the database are left out, so the set may have ended up smaller than expected
+                setNumberOfImagesToProcess(set.size());
+                // Copies already submitted still finish
+                bucketHandler.close();
+            }
         }
         System.out.println("FINISHED!");
         return null;
     }
 
     private ConcreteBucketHandler getBucketHandler() {
-        return new ConcreteBucketHandler(bucket, StorageType.LOCAL);
+        ConcreteBucketHandler handler = new ConcreteBucketHandler(bucket, storageType);
+        handler.setTransferMode(transferMode);
+        return handler;
     }
 
-    private void handleFile(File file) {
-        if (file != null && file.getPath().contains("_E.jpg")) {
-            FileHolder upload = bucketHandler.newFileHolder(file);
-            if (upload != null) {
-                setDefaultListeners(upload);
-                bucketHandler.upload(upload, route);
-            }
+    private static void printMetrics() {
+        try {
+            Metrics.write(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
+    private void handleItem(IngestItem item) {
+        File sidecar = item.getSidecar() != null ? item.getSidecar().toFile() : null;
+        FileHolder upload = bucketHandler.newFileHolder(item.getImage().toFile(), sidecar);
+        setDefaultListeners(upload);
+        bucketHandler.upload(upload, route);
+    }
+
     private void setDefaultListeners(FileHolder upload) {
 //        upload.setUploadCompletionListener(this::onDone);
         upload.setUploadFailureListener((error) -> Log.e(TAG, error));
@@ -178,6 +311,15 @@ public class MainCLI implements Callable<Void> {
         numberOfImagesToProcess = n;
     }
 
+    /**
+     * Corrects the number of images once it is known for sure, finishing if they have all been processed already.
+     */
+    private synchronized void setNumberOfImagesToProcess(int n) {
+        numberOfImagesToProcess = n;
+        pb.maxHint(n);
+        if (done == numberOfImagesToProcess) finish();
+    }
+
     private synchronized void onDone(FileHolder fh) {
         pb.step();
         done++;
@@ -193,15 +335,21 @@ public class MainCLI implements Callable<Void> {
             bucketHandler.saveJustUploadedAsNewRoute(this::onDone, route);
         }
 
-        if (done == numberOfImagesToProcess) {
-            try {
-                bucketHandler.close();
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                pb.close();
-                Log.close();
-            }
+        if (done == numberOfImagesToProcess) finish();
+    }
+
+    private void finish() {
+        if (finished) return;
+        finished = true;
+        try {
+            bucketHandler.close();
+        } catch (IOException e) {
+            // The photos are in the bucket and the database, but the geo search won't find them
+            System.err.println("The spatial index of " + bucket + " could not be saved, new photos are not indexed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            pb.close();
+            Log.close();
         }
     }
 }
@@ -2,36 +2,198 @@ package client;
 
 import client.databaseConnections.ImageMetadata;
 
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.function.IntConsumer;
 
+/**
+ * Result of a query: image ids ordered by rank, their distances from the query point and their metadata.
+ *
+ * Everything is stored in parallel primitive arrays, so a result costs a few dozen bytes per photo
+ * instead of a String, a boxed Double, an ImageMetadata and two hash map entries.
+ * {@link ImageMetadata} objects are only created when they are asked for.
+ *
+ * A set can be filled while it is being read, see {@link #filling(double, double, int)}:
+ * {@link #forEach(IntConsumer)} hands out every photo as soon as it has been added,
+ * so consumers can start working on the best results while the rest are still being fetched.
+ *
+ * @author Chris Gora
+ * @version 1.0, 01.09.2018
+ */
 public class PhotoSet {
 
+    private static final long NO_TIME = Long.MIN_VALUE;
+
     private double pointLatitude;
     private double pointLongitude;
 
-//    Image IDs, closest images first, furthest images last
-    private List<String> ids;
+//    Number of photos the set will contain once it is complete, -1 if unknown
+    private final int expectedSize;
+
+//    Image IDs, closest (best) images first, furthest images last
+    private String[] ids;
+    private double[] distances;
 
-//    Map between Image IDs and distances from the specified point
-    private Map<String, Double> distances;
+//    Metadata columns, indexed like the ids. Photos without a time have NO_TIME as their epoch second
+    private int[] heights;
+    private int[] widths;
+    private long[] photoEpochSeconds;
+    private int[] photoNanos;
+    private double[] latitudes;
+    private double[] longitudes;
+    private String[] serialNumbers;
+    private int[] routeNumbers;
+    private double[] bearings;
+    private double[] bearingAccuracies;
+    private double[] locationAccuracies;
 
-//    Map between Image IDs and their metadata
-    private Map<String, ImageMetadata> images;
+    private int size;
+    private boolean complete;
+
+//    Map between Image IDs and their position, only built if the map views are used
+    private Map<String, Integer> positions;
 
     public PhotoSet(double pointLatitude, double pointLongitude) {
+        this(pointLatitude, pointLongitude, 16, -1, true);
+    }
+
+    private PhotoSet(double pointLatitude, double pointLongitude, int capacity, int expectedSize, boolean complete) {
         this.pointLatitude = pointLatitude;
         this.pointLongitude = pointLongitude;
+        this.expectedSize = expectedSize;
+        this.complete = complete;
+        allocate(Math.max(1, capacity));
+    }
+
+    /**
+     * Returns an empty set which is going to be filled with the given number of photos by another thread.
+     * The producer has to call {@link #markComplete()} when it is done, even if it fails.
+     */
+    public static PhotoSet filling(double pointLatitude, double pointLongitude, int expectedSize) {
+        return new PhotoSet(pointLatitude, pointLongitude, expectedSize, expectedSize, false);
+    }
+
+    private void allocate(int capacity) {
+        ids = ids == null ? new String[capacity] : Arrays.copyOf(ids, capacity);
+        distances = distances == null ? new double[capacity] : Arrays.copyOf(distances, capacity);
+        heights = heights == null ? new int[capacity] : Arrays.copyOf(heights, capacity);
+        widths = widths == null ? new int[capacity] : Arrays.copyOf(widths, capacity);
+        photoEpochSeconds = photoEpochSeconds == null ? new long[capacity] : Arrays.copyOf(photoEpochSeconds, capacity);
+        photoNanos = photoNanos == null ? new int[capacity] : Arrays.copyOf(photoNanos, capacity);
+        latitudes = latitudes == null ? new double[capacity] : Arrays.copyOf(latitudes, capacity);
+        longitudes = longitudes == null ? new double[capacity] : Arrays.copyOf(longitudes, capacity);
+        serialNumbers = serialNumbers == null ? new String[capacity] : Arrays.copyOf(serialNumbers, capacity);
+        routeNumbers = routeNumbers == null ? new int[capacity] : Arrays.copyOf(routeNumbers, capacity);
+        bearings = bearings == null ? new double[capacity] : Arrays.copyOf(bearings, capacity);
+        bearingAccuracies = bearingAccuracies == null ? new double[capacity] : Arrays.copyOf(bearingAccuracies, capacity);
+        locationAccuracies = locationAccuracies == null ? new double[capacity] : Arrays.copyOf(locationAccuracies, capacity);
+    }
+
+    public synchronized void add(ImageMetadata imageMetadata, double distance) {
+        if (size == ids.length) allocate(size * 2);
+
+        ids[size] = imageMetadata.getId();
+        distances[size] = distance;
+        heights[size] = imageMetadata.getHeight();
+        widths[size] = imageMetadata.getWidth();
+        LocalDateTime photoDateTime = imageMetadata.getPhotoDateTime();
+        photoEpochSeconds[size] = photoDateTime != null ? photoDateTime.toEpochSecond(ZoneOffset.UTC) : NO_TIME;
+        photoNanos[size] = photoDateTime != null ? photoDateTime.getNano() : 0;
+        latitudes[size] = imageMetadata.getLatitude();
+        longitudes[size] = imageMetadata.getLongitude();
+        // Photos usually come from a handful of cameras
+        serialNumbers[size] = imageMetadata.getSerialNumber() == null ? null : imageMetadata.getSerialNumber().intern();
+        routeNumbers[size] = imageMetadata.getRouteNumber();
+        bearings[size] = imageMetadata.getBearing();
+        bearingAccuracies[size] = imageMetadata.getBearingAccuracy();
+        locationAccuracies[size] = imageMetadata.getLocationAccuracy();
+
+        if (positions != null) positions.put(ids[size], size);
+        size++;
+        notifyAll();
+    }
+
+    /**
+     * Signals that no more photos are going to be added.
+     */
+    public synchronized void markComplete() {
+        complete = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Blocks until the set is complete.
+     */
+    public synchronized void awaitComplete() throws InterruptedException {
+        while (!complete) wait();
+    }
+
+    /**
+     * Returns the number of photos added so far.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of photos the set will contain once it is complete, which is known before they are added.
+     * Fewer photos are added if some of them can't be fetched.
+     */
+    public synchronized int getExpectedSize() {
+        return complete || expectedSize < 0 ? size : expectedSize;
+    }
+
+    /**
+     * Passes the index of every photo to the consumer in rank order, waiting for photos which are still being added.
+     * Returns when the set is complete and every photo was consumed, or when the thread is interrupted.
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; ; i++) {
+            synchronized (this) {
+                try {
+                    while (i >= size && !complete) wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (i >= size) return;
+            }
+            consumer.accept(i);
+        }
+    }
 
-        this.ids = new ArrayList<>();
-        this.distances = new HashMap<>();
-        this.images = new HashMap<>();
+    /**
+     * Returns the photos [cursor, cursor + pageSize) as a complete set, waiting for them if necessary.
+     * Cursors are positions in the rank order, the first page starts at 0, see {@link #getNextCursor(int, int)}.
+     */
+    public PhotoSet getPage(int cursor, int pageSize) {
+        int to;
+        synchronized (this) {
+            try {
+                while (size < cursor + pageSize && !complete) wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            to = Math.min(size, cursor + pageSize);
+        }
+
+        PhotoSet page = new PhotoSet(pointLatitude, pointLongitude, Math.max(0, to - cursor), -1, true);
+        for (int i = cursor; i < to; i++) page.add(getImage(i), getDistance(i));
+        return page;
     }
 
-    public void add(ImageMetadata imageMetadata, Double distance) {
-        String id = imageMetadata.getId();
-        ids.add(id);
-        distances.put(id, distance);
-        images.put(id, imageMetadata);
+    /**
+     * Returns the cursor of the page after the given one, or -1 if it was the last page.
+     */
+    public synchronized int getNextCursor(int cursor, int pageSize) {
+        int next = cursor + pageSize;
+        boolean hasMore = complete ? next < size : next < getExpectedSize() || expectedSize < 0;
+        return hasMore ? next : -1;
     }
 
     public double getPointLatitude() {
@@ -42,15 +204,151 @@ public class PhotoSet {
         return pointLongitude;
     }
 
+    public synchronized String getId(int index) {
+        checkIndex(index);
+        return ids[index];
+    }
+
+    public synchronized double getDistance(int index) {
+        checkIndex(index);
+        return distances[index];
+    }
+
+    public synchronized double getLatitude(int index) {
+        checkIndex(index);
+        return latitudes[index];
+    }
+
+    public synchronized double getLongitude(int index) {
+        checkIndex(index);
+        return longitudes[index];
+    }
+
+    /**
+     * Creates the metadata of the photo with the given index.
+     */
+    public synchronized ImageMetadata getImage(int index) {
+        checkIndex(index);
+        return new ImageMetadata(
+                ids[index],
+                heights[index],
+                widths[index],
+                photoEpochSeconds[index] != NO_TIME ? LocalDateTime.ofEpochSecond(photoEpochSeconds[index], photoNanos[index], ZoneOffset.UTC) : null,
+                latitudes[index],
+                longitudes[index],
+                serialNumbers[index],
+                routeNumbers[index],
+                bearings[index],
+                bearingAccuracies[index],
+                locationAccuracies[index]
+        );
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    private synchronized int indexOf(Object id) {
+        if (positions == null) {
+            positions = new HashMap<>();
+            for (int i = 0; i < size; i++) positions.put(ids[i], i);
+        }
+        Integer position = positions.get(id);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * Read only view of the ids added so far.
+     */
     public List<String> getIds() {
-        return Collections.unmodifiableList(ids);
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return getId(index);
+            }
+
+            @Override
+            public int size() {
+                return PhotoSet.this.size();
+            }
+        };
     }
 
+    /**
+     * Read only view of the distances, the values are boxed when they are read.
+     */
     public Map<String, Double> getDistances() {
-        return Collections.unmodifiableMap(distances);
+        return new View<Double>() {
+            @Override
+            Double valueAt(int index) {
+                return getDistance(index);
+            }
+        };
     }
 
+    /**
+     * Read only view of the metadata, the values are created when they are read.
+     */
     public Map<String, ImageMetadata> getImages() {
-        return Collections.unmodifiableMap(images);
+        return new View<ImageMetadata>() {
+            @Override
+            ImageMetadata valueAt(int index) {
+                return getImage(index);
+            }
+        };
+    }
+
+    /**
+     * Map keyed by the image ids, in rank order.
+     */
+    private abstract class View<V> extends AbstractMap<String, V> {
+
+        abstract V valueAt(int index);
+
+        @Override
+        public V get(Object key) {
+            int index = indexOf(key);
+            return index < 0 ? null : valueAt(index);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return PhotoSet.this.size();
+        }
+
+        @Override
+        public Set<Entry<String, V>> entrySet() {
+            return new AbstractSet<Entry<String, V>>() {
+                @Override
+                public Iterator<Entry<String, V>> iterator() {
+                    int end = PhotoSet.this.size();
+                    return new Iterator<Entry<String, V>>() {
+                        private int next = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < end;
+                        }
+
+                        @Override
+                        public Entry<String, V> next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            int index = next++;
+                            return new SimpleImmutableEntry<>(getId(index), valueAt(index));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return PhotoSet.this.size();
+                }
+            };
+        }
     }
 }
@@ -0,0 +1,111 @@
+package client.databaseConnections;
+
+import client.util.Log;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed size pool of JDBC connections, used by long running clients, see {@link DatabaseConnection#enablePooling(int)}.
+ *
+ * Connections are opened when they are first needed and checked before they are handed out again,
+ * so connections dropped by the server are replaced transparently.
+ */
+final class ConnectionPool implements AutoCloseable {
+
+    private static final String TAG = "ConnectionPool";
+    private static final long BORROW_TIMEOUT_SECONDS = 30;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+
+    interface Factory {
+        Connection open() throws SQLException;
+    }
+
+    private final Factory factory;
+    private final int maxConnections;
+    private final Semaphore permits;
+    private final BlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+    private volatile boolean closed;
+
+    ConnectionPool(Factory factory, int maxConnections) {
+        this.factory = factory;
+        this.maxConnections = maxConnections;
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * Returns an idle connection or opens a new one, waiting if all connections are in use.
+     */
+    Connection borrow() throws SQLException {
+        if (closed) throw new SQLException("Connection pool closed");
+        try {
+            if (!permits.tryAcquire(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new SQLException("No database connection available after " + BORROW_TIMEOUT_SECONDS + "s");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            Connection connection;
+            // Most recently used first, they are the least likely to have timed out
+            while ((connection = idle.pollFirst()) != null) {
+                if (connection.isValid(VALIDATION_TIMEOUT_SECONDS)) return connection;
+                closeQuietly(connection);
+            }
+            return factory.open();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    void release(Connection connection) {
+        try {
+            if (closed || connection.isClosed()) closeQuietly(connection);
+            else idle.offerFirst(connection);
+        } catch (SQLException e) {
+            closeQuietly(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Number of connections currently borrowed.
+     */
+    int getActive() {
+        return maxConnections - permits.availablePermits();
+    }
+
+    int getIdle() {
+        return idle.size();
+    }
+
+    int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Closes the idle connections, borrowed connections are closed when they are released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) closeQuietly(connection);
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            Log.w(TAG, "Couldn't close a connection: " + e.toString());
+        }
+    }
+}
@@ -1,18 +1,25 @@
 package client.databaseConnections;
 
+import client.metrics.Metrics;
 import client.util.Log;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.regions.Regions;
 import com.google.common.annotations.VisibleForTesting;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.security.cert.CertificateException;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.function.Consumer;
 
 public class DatabaseConnection implements AutoCloseable {
 
@@ -25,6 +32,11 @@ public class DatabaseConnection implements AutoCloseable {
     private static final String USERNAME = "java-db-client";
     private static final String PASSWORD = "Re278nErRowD";
 
+//    Point the client at another database, e.g. an embedded one for benchmarks
+    public static final String URL_PROPERTY = "bsv.db.url";
+    public static final String USER_PROPERTY = "bsv.db.user";
+    public static final String PASSWORD_PROPERTY = "bsv.db.password";
+
     private static final String KEY_STORE_TYPE = "JKS";
     private static final String KEY_STORE_PROVIDER = "SUN";
     private static final String KEY_STORE_FILE_PREFIX = "sys-connect-via-ssl-test-cacerts";
@@ -33,9 +45,25 @@ public class DatabaseConnection implements AutoCloseable {
 
     private static final String SSL_CERTIFICATE = "rds-ca-2015-eu-west-2.pem";
 
+    private static final String PHOTO_TIMESTAMP = "photoTimestamp";
+    private static final String UPLOAD_TIMESTAMP = "uploadTimestamp";
+    private static final int MAX_IDS_PER_QUERY = 1000;
+    private static final String METADATA_COLUMNS = "id, height, width, photoTimestamp, uploadTimestamp, latitude, longitude, cameraSerialNumber, routeId, bearing, bearingAccuracy, locationAccuracy";
+
+//    Shared by every connection once pooling is enabled
+    private static ConnectionPool sharedPool;
+
     private Connection connection;
+    @Nullable
+    private final ConnectionPool pool;
 
     public DatabaseConnection() throws SQLException {
+        this.pool = getSharedPool();
+        if (pool != null) {
+            this.connection = pool.borrow();
+            return;
+        }
+
         try {
             this.connection = newConnection();
             testConnection();
@@ -45,14 +73,52 @@ public class DatabaseConnection implements AutoCloseable {
         }
     }
 
-    private Connection newConnection() throws SQLException, IOException, CertificateException {
+    /**
+     * Makes every new DatabaseConnection borrow one of at most maxConnections pooled connections
+     * instead of opening its own, {@link #close()} then returns it to the pool.
+     * Meant for long running clients, which would otherwise open a connection for every operation.
+     */
+    public static synchronized void enablePooling(int maxConnections) {
+        if (sharedPool != null) return;
+        sharedPool = new ConnectionPool(() -> {
+            try {
+                return newConnection();
+            } catch (IOException | CertificateException e) {
+                throw new SQLException(e);
+            }
+        }, maxConnections);
+        ConnectionPool pool = sharedPool;
+        Metrics.gauge("bsv_db_pool_active", "Pooled database connections in use", pool::getActive);
+        Metrics.gauge("bsv_db_pool_idle", "Pooled database connections waiting to be used", pool::getIdle);
+        Metrics.gauge("bsv_db_pool_max", "Most database connections the pool opens", pool::getMaxConnections);
+        Log.v(TAG, "Pooling up to " + maxConnections + " connections");
+    }
+
+    /**
+     * Closes the pooled connections, new DatabaseConnections open their own connection again.
+     */
+    public static synchronized void disablePooling() {
+        if (sharedPool == null) return;
+        Metrics.remove("bsv_db_pool_active");
+        Metrics.remove("bsv_db_pool_idle");
+        Metrics.remove("bsv_db_pool_max");
+        sharedPool.close();
+        sharedPool = null;
+    }
+
+    @Nullable
+    private static synchronized ConnectionPool getSharedPool() {
+        return sharedPool;
+    }
+
+    private static Connection newConnection() throws SQLException, IOException, CertificateException {
         try {
             Class.forName("com.mysql.cj.jdbc.Driver");
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
         }
-        Properties info = newMySqlProperties();
-        return DriverManager.getConnection(JDBC_URL, info);
+        String url = System.getProperty(URL_PROPERTY, JDBC_URL);
+        return DriverManager.getConnection(url, newProperties(url));
     }
 
     private void testConnection() throws SQLException {
@@ -72,19 +138,25 @@ public class DatabaseConnection implements AutoCloseable {
         }
     }
 
-    private Properties newMySqlProperties() {
-        Properties mysqlProperties = new Properties();
+    private static Properties newProperties(String url) {
+        Properties properties = new Properties();
 
-        mysqlProperties.setProperty("verifyServerCertificate", "true");
-        mysqlProperties.setProperty("useSSL", "false");
-        mysqlProperties.setProperty("user", USERNAME);
-        mysqlProperties.setProperty("password", PASSWORD);
+        if (url.startsWith("jdbc:mysql:")) {
+            properties.setProperty("verifyServerCertificate", "true");
+            properties.setProperty("useSSL", "false");
+        }
+        properties.setProperty("user", System.getProperty(USER_PROPERTY, USERNAME));
+        properties.setProperty("password", System.getProperty(PASSWORD_PROPERTY, PASSWORD));
 
-        return mysqlProperties;
+        return properties;
     }
 
     @Override
     public void close() throws SQLException {
+        if (pool != null) {
+            pool.release(connection);
+            return;
+        }
         this.connection.close();
         Log.v(TAG, "DB Connection closed");
     }
@@ -139,7 +211,8 @@ public class DatabaseConnection implements AutoCloseable {
 
         int n = -1;
 
-        Timestamp photoTimestamp = Timestamp.valueOf(photoDateTime);
+        // Photos without a time are stored, but left out of the time range and route queries
+        Timestamp photoTimestamp = photoDateTime != null ? Timestamp.valueOf(photoDateTime) : null;
         Timestamp uploadTimeStamp = Timestamp.valueOf(uploadDateTime);
 
         try (PreparedStatement statement = connection.prepareStatement(sql)) {
@@ -210,6 +283,58 @@ public class DatabaseConnection implements AutoCloseable {
 
     }
 
+    /**
+     * Reads the metadata and the file path of a photo with a single query.
+     */
+    public PhotoRecord getRecord(String id) throws SQLException {
+        Map<String, PhotoRecord> records = getRecords(Collections.singletonList(id));
+        return records.get(id);
+    }
+
+    /**
+     * Reads the metadata and the file paths of the photos with the given ids, using one query per chunk of ids.
+     *
+     * @throws SQLException if any of the photos is not in the database
+     */
+    public Map<String, PhotoRecord> getRecords(Collection<String> ids) throws SQLException {
+        Map<String, PhotoRecord> records = findRecords(ids);
+        for (String id : ids) {
+            if (!records.containsKey(id)) throw new SQLException("No entry for the given id: " + id);
+        }
+        return records;
+    }
+
+    /**
+     * Like {@link #getRecords(Collection)}, but photos missing from the database are left out of the result.
+     */
+    public Map<String, PhotoRecord> findRecords(Collection<String> ids) throws SQLException {
+        List<String> idList = new ArrayList<>(ids);
+        Map<String, PhotoRecord> records = new HashMap<>();
+
+        for (int from = 0; from < idList.size(); from += MAX_IDS_PER_QUERY) {
+            List<String> chunk = idList.subList(from, Math.min(idList.size(), from + MAX_IDS_PER_QUERY));
+            String sql = "SELECT " + METADATA_COLUMNS + ", bucketName, fileKey FROM Photo " +
+                    "WHERE id IN (" + placeholders(chunk.size()) + ");";
+
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) statement.setString(i + 1, chunk.get(i));
+                try (ResultSet results = statement.executeQuery()) {
+                    while (results.next()) {
+                        String bucket = results.getString("bucketName");
+                        String key = results.getString("fileKey");
+                        if (bucket == null || key == null) throw new SQLException("Bucket or key was null");
+
+                        FilePath filePath = new FilePath();
+                        filePath.setBucket(bucket);
+                        filePath.setKey(key);
+                        records.put(results.getString("id"), new PhotoRecord(newImageMetadata(results), filePath));
+                    }
+                }
+            }
+        }
+        return records;
+    }
+
     public List<ImageMetadata> getPhotosTakenAt(double latitude, double longitude) throws SQLException {
         String sql = "SELECT id, height, width, photoTimestamp, latitude, longitude, cameraSerialNumber, routeId, bearing, bearingAccuracy, locationAccuracy FROM Photo " +
                 "WHERE latitude = ? " +
@@ -235,11 +360,12 @@ public class DatabaseConnection implements AutoCloseable {
     }
 
     private ImageMetadata newImageMetadata(ResultSet results) throws SQLException {
+        Timestamp photoTimestamp = results.getTimestamp("photoTimestamp");
         return new ImageMetadata(
                 results.getString("id"),
                 results.getInt("height"),
                 results.getInt("width"),
-                LocalDateTime.ofInstant(results.getTimestamp("photoTimestamp").toInstant(), ZoneId.systemDefault()),
+                photoTimestamp != null ? LocalDateTime.ofInstant(photoTimestamp.toInstant(), ZoneId.systemDefault()) : null,
                 results.getDouble("latitude"),
                 results.getDouble("longitude"),
                 results.getString("cameraSerialNumber"),
@@ -332,6 +458,204 @@ public class DatabaseConnection implements AutoCloseable {
         return getPhotosBetween(date1, date2, "uploadTimestamp");
     }
 
+    //    Time range and route queries -------------------------------------------------------------------------------------
+    //    Rows are ordered by (timestamp, id), which matches the indexes created by init.sql / migrate_indexes.sql,
+    //    so pages are read straight off the index instead of sorting the whole table.
+
+    /**
+     * Returns a page of the photos in the bucket taken within [from, to].
+     *
+     * @param after Cursor of the previous page, null for the first page
+     */
+    public PhotoPage getPhotosTakenBetween(String bucket, LocalDateTime from, LocalDateTime to, @Nullable PhotoPage.Cursor after, int pageSize) throws SQLException {
+        return getPhotosBetween(PHOTO_TIMESTAMP, bucket, from, to, after, pageSize);
+    }
+
+    /**
+     * Returns a page of the photos in the bucket uploaded within [from, to].
+     *
+     * @param after Cursor of the previous page, null for the first page
+     */
+    public PhotoPage getPhotosUploadedBetween(String bucket, LocalDateTime from, LocalDateTime to, @Nullable PhotoPage.Cursor after, int pageSize) throws SQLException {
+        return getPhotosBetween(UPLOAD_TIMESTAMP, bucket, from, to, after, pageSize);
+    }
+
+    /**
+     * Returns a page of the photos of the route, in the order they were taken.
+     * Photos without a photoTimestamp have no place in that order and are left out, like in the time range queries.
+     *
+     * @param after Cursor of the previous page, null for the first page
+     */
+    public PhotoPage getPhotosOnRoute(String bucket, int routeId, @Nullable PhotoPage.Cursor after, int pageSize) throws SQLException {
+        String sql = "SELECT " + METADATA_COLUMNS + " FROM Photo " +
+                "WHERE bucketName = ? AND routeId = ? AND photoTimestamp IS NOT NULL " +
+                afterCursor(PHOTO_TIMESTAMP, after) +
+                "ORDER BY photoTimestamp, id LIMIT ?;";
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, bucket);
+            statement.setInt(2, routeId);
+            int index = setCursor(statement, 3, after);
+            statement.setInt(index, pageSize);
+            return readPage(statement, PHOTO_TIMESTAMP, pageSize);
+        }
+    }
+
+    public void forEachPhotoTakenBetween(String bucket, LocalDateTime from, LocalDateTime to, Consumer<ImageMetadata> consumer) throws SQLException {
+        forEachPhotoBetween(PHOTO_TIMESTAMP, bucket, from, to, consumer);
+    }
+
+    public void forEachPhotoUploadedBetween(String bucket, LocalDateTime from, LocalDateTime to, Consumer<ImageMetadata> consumer) throws SQLException {
+        forEachPhotoBetween(UPLOAD_TIMESTAMP, bucket, from, to, consumer);
+    }
+
+    /**
+     * Passes every photo of the route to the consumer, in the order they were taken.
+     * Photos without a photoTimestamp are left out, see {@link #getPhotosOnRoute}.
+     * The rows are streamed, so no other query can run on this connection until it returns.
+     */
+    public void forEachPhotoOnRoute(String bucket, int routeId, Consumer<ImageMetadata> consumer) throws SQLException {
+        String sql = "SELECT " + METADATA_COLUMNS + " FROM Photo " +
+                "WHERE bucketName = ? AND routeId = ? AND photoTimestamp IS NOT NULL " +
+                "ORDER BY photoTimestamp, id;";
+
+        try (PreparedStatement statement = newStreamingStatement(sql)) {
+            statement.setString(1, bucket);
+            statement.setInt(2, routeId);
+            stream(statement, consumer);
+        }
+    }
+
+    /**
+     * Passes every photo of the bucket to the consumer, in no particular order.
+     * The rows are streamed, so no other query can run on this connection until it returns.
+     */
+    public void forEachPhoto(String bucket, Consumer<ImageMetadata> consumer) throws SQLException {
+        String sql = "SELECT " + METADATA_COLUMNS + " FROM Photo " +
+                "WHERE bucketName = ?;";
+
+        try (PreparedStatement statement = newStreamingStatement(sql)) {
+            statement.setString(1, bucket);
+            stream(statement, consumer);
+        }
+    }
+
+    private PhotoPage getPhotosBetween(String column, String bucket, LocalDateTime from, LocalDateTime to, @Nullable PhotoPage.Cursor after, int pageSize) throws SQLException {
+        String sql = "SELECT " + METADATA_COLUMNS + " FROM Photo " +
+                "WHERE bucketName = ? AND " + column + " BETWEEN ? AND ? " +
+                afterCursor(column, after) +
+                "ORDER BY " + column + ", id LIMIT ?;";
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, bucket);
+            statement.setTimestamp(2, Timestamp.valueOf(from));
+            statement.setTimestamp(3, Timestamp.valueOf(to));
+            int index = setCursor(statement, 4, after);
+            statement.setInt(index, pageSize);
+            return readPage(statement, column, pageSize);
+        }
+    }
+
+    /**
+     * Passes every photo within [from, to] to the consumer, ordered by the given timestamp column.
+     * The rows are streamed, so no other query can run on this connection until it returns.
+     */
+    private void forEachPhotoBetween(String column, String bucket, LocalDateTime from, LocalDateTime to, Consumer<ImageMetadata> consumer) throws SQLException {
+        String sql = "SELECT " + METADATA_COLUMNS + " FROM Photo " +
+                "WHERE bucketName = ? AND " + column + " BETWEEN ? AND ? " +
+                "ORDER BY " + column + ", id;";
+
+        try (PreparedStatement statement = newStreamingStatement(sql)) {
+            statement.setString(1, bucket);
+            statement.setTimestamp(2, Timestamp.valueOf(from));
+            statement.setTimestamp(3, Timestamp.valueOf(to));
+            stream(statement, consumer);
+        }
+    }
+
+    private String afterCursor(String column, @Nullable PhotoPage.Cursor after) {
+        // Expanded instead of a row comparison, which older MySQL versions can't answer with an index range scan
+        if (after == null) return "";
+        return "AND (" + column + " > ? OR (" + column + " = ? AND id > ?)) ";
+    }
+
+    private int setCursor(PreparedStatement statement, int index, @Nullable PhotoPage.Cursor after) throws SQLException {
+        if (after == null) return index;
+        statement.setTimestamp(index++, after.getTimestamp());
+        statement.setTimestamp(index++, after.getTimestamp());
+        statement.setString(index++, after.getId());
+        return index;
+    }
+
+    private PhotoPage readPage(PreparedStatement statement, String column, int pageSize) throws SQLException {
+        List<ImageMetadata> images = new ArrayList<>(Math.min(pageSize, 1000));
+        PhotoPage.Cursor last = null;
+        try (ResultSet results = statement.executeQuery()) {
+            while (results.next()) {
+                images.add(newImageMetadata(results));
+                last = new PhotoPage.Cursor(results.getTimestamp(column), results.getString("id"));
+            }
+        }
+        // A full page might be followed by more rows
+        return new PhotoPage(images, images.size() == pageSize ? last : null);
+    }
+
+    /**
+     * MySQL Connector/J only streams rows one by one for forward only, read only statements with this fetch size,
+     * otherwise the whole result set is loaded into memory.
+     */
+    private PreparedStatement newStreamingStatement(String sql) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(Integer.MIN_VALUE);
+        return statement;
+    }
+
+    private void stream(PreparedStatement statement, Consumer<ImageMetadata> consumer) throws SQLException {
+        try (ResultSet results = statement.executeQuery()) {
+            while (results.next()) {
+                consumer.accept(newImageMetadata(results));
+            }
+        }
+    }
+
+    /**
+     * Reads the camera headings of the photos with the given ids, using one query per chunk of ids.
+     * Photos without a heading, or missing from the database, get NaN.
+     */
+    public void getBearings(List<String> ids, double[] bearings, double[] bearingAccuracies) throws SQLException {
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            positions.put(ids.get(i), i);
+            bearings[i] = Double.NaN;
+            bearingAccuracies[i] = Double.NaN;
+        }
+
+        for (int from = 0; from < ids.size(); from += MAX_IDS_PER_QUERY) {
+            List<String> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_IDS_PER_QUERY));
+            String sql = "SELECT id, bearing, bearingAccuracy FROM Photo " +
+                    "WHERE id IN (" + placeholders(chunk.size()) + ");";
+
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) statement.setString(i + 1, chunk.get(i));
+                try (ResultSet results = statement.executeQuery()) {
+                    while (results.next()) {
+                        int position = positions.get(results.getString("id"));
+                        double bearing = results.getDouble("bearing");
+                        if (!results.wasNull()) bearings[position] = bearing;
+                        double bearingAccuracy = results.getDouble("bearingAccuracy");
+                        bearingAccuracies[position] = results.wasNull() ? 0 : bearingAccuracy;
+                    }
+                }
+            }
+        }
+    }
+
+    private String placeholders(int n) {
+        StringBuilder builder = new StringBuilder(n * 2);
+        for (int i = 0; i < n; i++) builder.append(i == 0 ? "?" : ",?");
+        return builder.toString();
+    }
+
     public void deleteAll(String bucket) {
         String sql = "DELETE FROM Photo " +
                 "WHERE bucketName = ?;";
@@ -386,6 +710,25 @@ public class DatabaseConnection implements AutoCloseable {
         }
     }
 
+    /**
+     * Deletes the rows of the given photos, using one statement per chunk of ids.
+     * Returns the number of deleted rows.
+     */
+    public int delete(Collection<String> ids) throws SQLException {
+        List<String> idList = new ArrayList<>(ids);
+        int deleted = 0;
+        for (int from = 0; from < idList.size(); from += MAX_IDS_PER_QUERY) {
+            List<String> chunk = idList.subList(from, Math.min(idList.size(), from + MAX_IDS_PER_QUERY));
+            String sql = "DELETE FROM Photo WHERE id IN (" + placeholders(chunk.size()) + ");";
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) statement.setString(i + 1, chunk.get(i));
+                deleted += statement.executeUpdate();
+            }
+        }
+        Log.i(TAG, deleted + " rows were deleted from the database");
+        return deleted;
+    }
+
     //    ------------------------------------------------------------------------------------------------------------------
 
 /*
@@ -1,6 +1,6 @@
 package client.databaseConnections;
 
-class ExtraPhotoInfo {
+public class ExtraPhotoInfo {
 
     private String id;
     private double locationAccuracy;
@@ -13,7 +13,6 @@ import com.drew.metadata.Tag;
 import com.drew.metadata.exif.ExifSubIFDDirectory;
 import com.drew.metadata.jpeg.JpegDirectory;
 import com.drew.metadata.xmp.XmpDirectory;
-import com.google.gson.Gson;
 import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.Imaging;
 import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
@@ -24,8 +23,6 @@ import org.apache.commons.imaging.formats.tiff.taginfos.TagInfo;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
@@ -92,8 +89,10 @@ public class ImageMetadata {
      * @param file Json file to read in
      */
     private void readJsonMetadata(File file) throws IOException {
-        String jsonString = new String(Files.readAllBytes(Paths.get(file.getAbsolutePath())));
-        ExtraPhotoInfo extraPhotoInfo = new Gson().fromJson(jsonString, ExtraPhotoInfo.class);
+        setExtraPhotoInfo(SidecarReader.read(file.toPath()));
+    }
+
+    private void setExtraPhotoInfo(ExtraPhotoInfo extraPhotoInfo) {
         assert (this.id.equals(extraPhotoInfo.getId()));
         this.bearing = extraPhotoInfo.getBearing();
         this.bearingAccuracy = extraPhotoInfo.getBearingAccuracy();
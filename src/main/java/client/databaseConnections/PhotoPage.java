@@ -0,0 +1,87 @@
+package client.databaseConnections;
+
+import javax.annotation.Nullable;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One page of a time range or route query, ordered by timestamp and id.
+ *
+ * Pages are fetched with keyset pagination: the next page starts right after the {@link Cursor} of the last row,
+ * so fetching a page costs the same no matter how deep into the results it is.
+ */
+public class PhotoPage {
+
+    private final List<ImageMetadata> images;
+    @Nullable
+    private final Cursor next;
+
+    PhotoPage(List<ImageMetadata> images, @Nullable Cursor next) {
+        this.images = Collections.unmodifiableList(images);
+        this.next = next;
+    }
+
+    public List<ImageMetadata> getImages() {
+        return images;
+    }
+
+    /**
+     * Returns the cursor of the next page, or null if this is the last page.
+     */
+    @Nullable
+    public Cursor getNext() {
+        return next;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    /**
+     * Position of the last row of a page. Can be passed around as a string, see {@link #parse(String)}.
+     */
+    public static final class Cursor {
+
+        private static final char SEPARATOR = '_';
+
+        private final Timestamp timestamp;
+        private final String id;
+
+        Cursor(Timestamp timestamp, String id) {
+            this.timestamp = Objects.requireNonNull(timestamp, "Timestamp was null");
+            this.id = Objects.requireNonNull(id, "Id was null");
+        }
+
+        Timestamp getTimestamp() {
+            return timestamp;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        /**
+         * Parses a cursor created by {@link #toString()}.
+         *
+         * @throws IllegalArgumentException if the string is not a valid cursor
+         */
+        public static Cursor parse(String cursor) {
+            String[] parts = cursor.split(String.valueOf(SEPARATOR), 3);
+            if (parts.length != 3) throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            try {
+                Timestamp timestamp = new Timestamp(Long.parseLong(parts[0]));
+                timestamp.setNanos(Integer.parseInt(parts[1]));
+                return new Cursor(timestamp, parts[2]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "" + timestamp.getTime() + SEPARATOR + timestamp.getNanos() + SEPARATOR + id;
+        }
+    }
+}
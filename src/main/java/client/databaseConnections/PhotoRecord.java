@@ -0,0 +1,25 @@
+package client.databaseConnections;
+
+import java.util.Objects;
+
+/**
+ * Everything the client needs to know about a stored photo: its metadata and where its file is kept.
+ */
+public class PhotoRecord {
+
+    private final ImageMetadata metadata;
+    private final FilePath path;
+
+    PhotoRecord(ImageMetadata metadata, FilePath path) {
+        this.metadata = Objects.requireNonNull(metadata, "Metadata was null");
+        this.path = Objects.requireNonNull(path, "Path was null");
+    }
+
+    public ImageMetadata getMetadata() {
+        return metadata;
+    }
+
+    public FilePath getPath() {
+        return path;
+    }
+}
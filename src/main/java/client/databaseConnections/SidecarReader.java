@@ -0,0 +1,90 @@
+package client.databaseConnections;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the json sidecar files (_I.json) written by the camera next to every panorama.
+ *
+ * The files are streamed through a hand-written adapter instead of being bound by reflection:
+ * only the fields of {@link ExtraPhotoInfo} are read, anything else is skipped without being parsed into a tree.
+ * The adapter has no state, so a single instance is shared by every thread.
+ */
+public final class SidecarReader {
+
+    private static final TypeAdapter<ExtraPhotoInfo> ADAPTER = new ExtraPhotoInfoAdapter();
+
+    private SidecarReader() {
+    }
+
+    public static ExtraPhotoInfo read(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            ExtraPhotoInfo info = ADAPTER.read(new JsonReader(reader));
+            if (info == null) throw new IOException("Empty sidecar: " + file);
+            return info;
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed sidecar: " + file, e);
+        }
+    }
+
+    private static class ExtraPhotoInfoAdapter extends TypeAdapter<ExtraPhotoInfo> {
+
+        @Override
+        public ExtraPhotoInfo read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            ExtraPhotoInfo info = new ExtraPhotoInfo();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.skipValue();
+                    continue;
+                }
+                switch (name) {
+                    case "id":
+                        info.setId(in.nextString());
+                        break;
+                    case "locationAccuracy":
+                        info.setLocationAccuracy(in.nextDouble());
+                        break;
+                    case "bearing":
+                        info.setBearing(in.nextDouble());
+                        break;
+                    case "bearingAccuracy":
+                        info.setBearingAccuracy(in.nextDouble());
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return info;
+        }
+
+        @Override
+        public void write(JsonWriter out, ExtraPhotoInfo info) throws IOException {
+            if (info == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(info.getId());
+            out.name("locationAccuracy").value(info.getLocationAccuracy());
+            out.name("bearing").value(info.getBearing());
+            out.name("bearingAccuracy").value(info.getBearingAccuracy());
+            out.endObject();
+        }
+    }
+}
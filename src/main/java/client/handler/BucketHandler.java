@@ -1,6 +1,8 @@
 package client.handler;
 
 import client.PhotoSet;
+import client.databaseConnections.ImageMetadata;
+import client.databaseConnections.PhotoPage;
 import client.observers.CompletionObserver;
 
 import javax.annotation.Nullable;
@@ -8,13 +10,27 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.function.Consumer;
 
 public interface BucketHandler extends Closeable {
 
     FileHolder newFileHolder(File file);
 
+    /**
+     * For photos whose sidecar (_I.json) has already been looked up, e.g. by a {@link client.ingest.TripScanner}.
+     * A null sidecar means the photo doesn't have one.
+     */
+    FileHolder newFileHolder(File file, @Nullable File sidecar);
+
     FileHolder newEmptyFileHolder();
 
+    /**
+     * Saves the spatial indexes if photos were added or removed since they were last saved.
+     * They are always saved when the handler is closed, long running clients call this periodically.
+     */
+    void saveIndexes() throws IOException;
+
     void upload(FileHolder upload);
 
     void upload(FileHolder upload, int routeNumber);
@@ -22,23 +38,75 @@ public interface BucketHandler extends Closeable {
     int saveJustUploadedAsNewRoute(CompletionObserver callback, int routeId);
 
     PhotoSet getPhotosAround(double latitude, double longitude, int maxResults);
+    PhotoSet getPhotosAround(double latitude, double longitude, double radiusMeters, int maxResults);
+
+    /**
+     * Returns the photos within the radius as soon as they are ranked, while their metadata is still being fetched.
+     * See {@link PhotoSet#forEach(java.util.function.IntConsumer)}.
+     */
+    PhotoSet streamPhotosAround(double latitude, double longitude, double radiusMeters, int maxResults);
+
+    /**
+     * Returns the photos within the radius which were taken within [from, to], closest first.
+     */
+    PhotoSet getPhotosAround(double latitude, double longitude, double radiusMeters, int maxResults, LocalDateTime from, LocalDateTime to);
+
+    /**
+     * Returns the panoramas within the given distance of a target whose camera faces it,
+     * best view first, see {@link client.spatial.VisibilityQuery}.
+     * The distances of the set are the distances from the target.
+     *
+     * @param maxOffsetDegrees Largest allowed angle between the camera heading and the direction of the target
+     */
+    PhotoSet getPhotosFacing(double latitude, double longitude, double maxDistanceMeters, double maxOffsetDegrees, int maxResults);
+
     void downloadPhotoSet(CompletionObserver callback, PhotoSet set) throws IOException;
 
     void downloadPhotos(CompletionObserver callback, String... ids);
 
+    void exportPhotoSet(CompletionObserver callback, PhotoSet set);
+
+    void exportPhotos(CompletionObserver callback, String... ids);
+
     void deletePhotos(CompletionObserver callback, String... ids);
+
+    /**
+     * Deletes the photos in bulk. The callback is notified once for every id.
+     */
+    void deletePhotos(CompletionObserver callback, Collection<String> ids);
     void deleteAll(CompletionObserver callback);
 
-//    PhotoSet getPhotosTakenOn(LocalDateTime dateTime);
-//    void savePhotosTakenOn(LocalDateTime dateTime);
-//
-//    PhotoSet getPhotosUploadedOn(LocalDateTime dateTime);
-//    void savePhotosUploadedOn(LocalDateTime dateTime);
-//
-//    PhotoSet getPhotosTakenBetween(LocalDateTime dateTime1, LocalDateTime dateTime2);
-//    void savePhotosTakenBetween(LocalDateTime dateTime1, LocalDateTime dateTime2);
-//
-//    PhotoSet getPhotosUploadedBetween(LocalDateTime dateTime1, LocalDateTime dateTime2);
-//    void savePhotosUploadedBetween(LocalDateTime dateTime1, LocalDateTime dateTime2);
+    /**
+     * Returns a page of the photos taken within [from, to], ordered by the time they were taken.
+     *
+     * @param after Cursor of the previous page, null for the first page
+     */
+    @Nullable
+    PhotoPage getPhotosTakenBetween(LocalDateTime from, LocalDateTime to, @Nullable PhotoPage.Cursor after, int pageSize);
+
+    /**
+     * Returns a page of the photos uploaded within [from, to], ordered by the time they were uploaded.
+     *
+     * @param after Cursor of the previous page, null for the first page
+     */
+    @Nullable
+    PhotoPage getPhotosUploadedBetween(LocalDateTime from, LocalDateTime to, @Nullable PhotoPage.Cursor after, int pageSize);
+
+    /**
+     * Returns a page of the photos of a route, ordered by the time they were taken.
+     *
+     * @param after Cursor of the previous page, null for the first page
+     */
+    @Nullable
+    PhotoPage getPhotosOnRoute(int routeId, @Nullable PhotoPage.Cursor after, int pageSize);
+
+    /**
+     * Streams every photo taken within [from, to] to the consumer, without loading the whole result into memory.
+     */
+    void forEachPhotoTakenBetween(LocalDateTime from, LocalDateTime to, Consumer<ImageMetadata> consumer);
+
+    void forEachPhotoUploadedBetween(LocalDateTime from, LocalDateTime to, Consumer<ImageMetadata> consumer);
+
+    void forEachPhotoOnRoute(int routeId, Consumer<ImageMetadata> consumer);
 
 }
@@ -3,28 +3,30 @@ package client.handler;
 import client.databaseConnections.ImageMetadata;
 import client.PhotoSet;
 import client.databaseConnections.DatabaseConnection;
+import client.databaseConnections.PhotoPage;
+import client.databaseConnections.PhotoRecord;
+import client.metrics.Metric;
+import client.metrics.Metrics;
+import client.metrics.Timer;
 import client.observers.CompletionObserver;
+import client.spatial.DistanceRanker;
+import client.spatial.GeoQueryCache;
+import client.spatial.NearbyPoints;
+import client.spatial.SpatioTemporalIndex;
+import client.spatial.VisibilityQuery;
 import client.storageConnections.LocalStorageConnection;
+import client.storageConnections.PackStorageConnection;
 import client.storageConnections.S3Connection;
 import client.storageConnections.StorageConnection;
 import client.storageConnections.StorageType;
+import client.storageConnections.TransferMode;
 import client.util.Log;
 import com.drew.imaging.ImageProcessingException;
 import com.drew.metadata.MetadataException;
-import com.github.davidmoten.grumpy.core.Position;
-import com.github.davidmoten.rtree.Entry;
-import com.github.davidmoten.rtree.RTree;
-import com.github.davidmoten.rtree.geometry.Geometries;
-import com.github.davidmoten.rtree.geometry.Geometry;
-import com.github.davidmoten.rtree.geometry.Point;
-import com.github.davidmoten.rtree.geometry.Rectangle;
-import com.google.gson.Gson;
+import com.google.common.annotations.VisibleForTesting;
 import io.jenetics.jpx.GPX;
-import io.jenetics.jpx.Length;
 import io.jenetics.jpx.WayPoint;
-import io.jenetics.jpx.geom.Geoid;
 import org.apache.commons.imaging.ImageReadException;
-import rx.Observable;
 
 import javax.annotation.Nullable;
 import java.io.*;
@@ -36,9 +38,14 @@ import java.time.ZoneOffset;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Manipulates a bucket storing the 360 photos and the associated database.
@@ -62,9 +69,45 @@ public class ConcreteBucketHandler implements BucketHandler {
     private final double searchRadiusMeters;
     private final String bucket;
     private final StorageType type;
+    // Total number of photos held by the cached geo queries
+    private static final int GEO_QUERY_CACHE_POINTS = 200000;
+    // Larger searches aren't cached, their areas would hold too many photos
+    private static final double MAX_CACHED_RADIUS_METERS = 10000;
+    private static final int METADATA_CACHE_SIZE = 10000;
+    // Number of photos whose metadata is fetched with one query while a result is streamed
+    private static final int STREAM_CHUNK_SIZE = 32;
+    private static final int DELETE_CHUNK_SIZE = 1000;
+    private static final int DELETE_PARALLELISM = 8;
+
+    private static final Timer METADATA_PARSE = Metrics.timer("bsv_metadata_parse_seconds", "Reading the metadata of an uploaded photo and its sidecar");
+    private static final Timer STORAGE_COPY = Metrics.timer("bsv_storage_copy_seconds", "Copying an uploaded photo into the bucket");
+    private static final Timer DB_INSERT = Metrics.timer("bsv_db_insert_seconds", "Inserting the row of an uploaded photo");
+    private static final Timer INDEX_UPDATE = Metrics.timer("bsv_index_update_seconds", "Adding an uploaded photo to the spatial indexes");
+    private static final Timer EXPORT = Metrics.timer("bsv_export_seconds", "Copying a photo into the output directory");
+
     private ExecutorService executor;
+    // Fills streamed query results, separate from the executor so it never waits behind transfers.
+    // Its threads are daemons, as a result nobody reads any more must not keep the client running
+    private final ThreadPoolExecutor queryExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(1, runnable -> {
+        Thread thread = new Thread(runnable, "query-fill");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Removes the files of deleted photos, shared by all deletes so they never start more than a few threads
+    private final ExecutorService removalExecutor = Executors.newFixedThreadPool(DELETE_PARALLELISM, runnable -> {
+        Thread thread = new Thread(runnable, "file-removal");
+        thread.setDaemon(true);
+        return thread;
+    });
     private SpatialDatabaseConnection spatialDatabaseConnection;
+    private GeoQueryCache<NearbyPoints> geoQueryCache;
+    private MetadataCache metadataCache;
     private List<FileHolder> doneUploads;
+    private boolean recordingRoute;
+    private boolean closed;
+    private TransferMode transferMode;
+    // Read from this handler, removed when it is closed
+    private final List<Metric> gauges = new ArrayList<>();
 
     public ConcreteBucketHandler(String bucket, StorageType type) {
         this(bucket, type, 500000000);
@@ -74,10 +117,67 @@ public class ConcreteBucketHandler implements BucketHandler {
         this.type = type;
         this.bucket = bucket;
         this.searchRadiusMeters = searchRadiusMeters;
-        this.spatialDatabaseConnection = new SpatialDatabaseConnection();
-        this.executor = new DebuggingExecutor(2, 2, 10, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1000));
+        this.geoQueryCache = new GeoQueryCache<>(GEO_QUERY_CACHE_POINTS, GeoQueryCache.DEFAULT_PRECISION, NearbyPoints::size);
+        this.metadataCache = new MetadataCache(METADATA_CACHE_SIZE);
+        this.spatialDatabaseConnection = new SpatialDatabaseConnection(
+                () -> getStorageConnection(newEmptyFileHolder()),
+                geoQueryCache,
+                this::readSpatioTemporalIndex
+        );
+        ThreadPoolExecutor pool = new DebuggingExecutor(2, 2, 10, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1000));
+        this.executor = pool;
 //        this.executor = Executors.newFixedThreadPool(8);
-        this.doneUploads = new ArrayList<>();
+        this.doneUploads = Collections.synchronizedList(new ArrayList<>());
+        this.recordingRoute = true;
+        this.transferMode = TransferMode.COPY;
+        registerGauges(pool);
+    }
+
+    /**
+     * Exposes the state of this handler, replacing the metrics of any handler created before.
+     * They are removed when this handler is closed, unless a newer handler has replaced them.
+     */
+    private void registerGauges(ThreadPoolExecutor pool) {
+        gauges.add(Metrics.gauge("bsv_executor_queue_depth", "Transfers and database updates waiting for a thread", () -> pool.getQueue().size()));
+        gauges.add(Metrics.gauge("bsv_executor_active_threads", "Threads busy with transfers and database updates", pool::getActiveCount));
+        gauges.add(Metrics.gauge("bsv_metadata_cache_size", "Photos in the metadata cache", metadataCache::size));
+        gauges.add(Metrics.counter("bsv_metadata_cache_hits_total", "Metadata cache hits", () -> metadataCache.stats().hitCount()));
+        gauges.add(Metrics.counter("bsv_metadata_cache_misses_total", "Metadata cache misses", () -> metadataCache.stats().missCount()));
+        gauges.add(Metrics.counter("bsv_metadata_cache_evictions_total", "Photos evicted from the metadata cache", () -> metadataCache.stats().evictionCount()));
+        gauges.add(Metrics.counter("bsv_geo_query_cache_hits_total", "Geo queries answered from the cache", geoQueryCache::getHits));
+        gauges.add(Metrics.counter("bsv_geo_query_cache_misses_total", "Geo queries not found in the cache", geoQueryCache::getMisses));
+    }
+
+    /**
+     * Sets how uploaded files are transferred into a LOCAL bucket.
+     * Defaults to {@link TransferMode#COPY}. Ignored by the other storage types.
+     */
+    public void setTransferMode(TransferMode transferMode) {
+        this.transferMode = Objects.requireNonNull(transferMode, "Transfer mode was null");
+    }
+
+    /**
+     * Sets whether uploaded photos are kept for {@link #saveJustUploadedAsNewRoute}. Defaults to true.
+     * Turn it off when uploading for a long time, e.g. while watching folders, which never saves a route.
+     */
+    public void setRecordingRoute(boolean recordingRoute) {
+        this.recordingRoute = recordingRoute;
+    }
+
+    /**
+     * Sets how many streamed query results are filled at the same time. Defaults to 1.
+     * A server should use one thread per request thread, so queries don't wait for each other's results.
+     */
+    public void setQueryThreads(int queryThreads) {
+        if (queryThreads < 1) throw new IllegalArgumentException("Query threads must be at least 1: " + queryThreads);
+        // The maximum may never be below the core size
+        if (queryThreads > queryExecutor.getMaximumPoolSize()) {
+            queryExecutor.setMaximumPoolSize(queryThreads);
+            queryExecutor.setCorePoolSize(queryThreads);
+        } else {
+            queryExecutor.setCorePoolSize(queryThreads);
+            queryExecutor.setMaximumPoolSize(queryThreads);
+        }
     }
 
     private StorageConnection getStorageConnection(FileHolder fileHolder) {
@@ -86,17 +186,34 @@ public class ConcreteBucketHandler implements BucketHandler {
                 return new S3Connection(fileHolder);
 
             case LOCAL:
-                return new LocalStorageConnection(fileHolder);
+                return new LocalStorageConnection(fileHolder, transferMode);
+
+            case PACK:
+                return new PackStorageConnection(fileHolder);
 
                 default:
-                    return new LocalStorageConnection(fileHolder);
+                    return new LocalStorageConnection(fileHolder, transferMode);
         }
     }
 
+    /**
+     * Saves the indexes and lets the transfers already submitted finish. Closing more than once has no effect.
+     */
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
         spatialDatabaseConnection.close();
         executor.shutdown();
+        queryExecutor.shutdown();
+        removalExecutor.shutdown();
+        gauges.forEach(Metrics::remove);
+        Log.v(TAG, "Metadata cache: " + metadataCache.stats());
+    }
+
+    @Override
+    public void saveIndexes() throws IOException {
+        spatialDatabaseConnection.flush();
     }
 
     @Override
@@ -107,6 +224,13 @@ public class ConcreteBucketHandler implements BucketHandler {
         return fileHolder;
     }
 
+    @Override
+    public FileHolder newFileHolder(File file, @Nullable File sidecar) {
+        FileHolder fileHolder = newFileHolder(file);
+        fileHolder.setSidecar(sidecar);
+        return fileHolder;
+    }
+
     @Override
     public FileHolder newEmptyFileHolder() {
         FileHolder fileHolder = new FileHolder();
@@ -131,9 +255,9 @@ public class ConcreteBucketHandler implements BucketHandler {
         upload.setKey(getKey(upload, id));
 
         StorageConnection storageConnection = getStorageConnection(upload);
-        executor.submit(storageConnection::copyFile);
+        executor.submit(() -> STORAGE_COPY.time(storageConnection::copyFile));
         upload.setUploadCompletionListener(this::updateDatabase);
-        upload.setDbUpdateCompletionListener(doneUploads::add);
+        if (recordingRoute) upload.setDbUpdateCompletionListener(doneUploads::add);
     }
 
     private String getKey(FileHolder upload, String id) {
@@ -160,7 +284,15 @@ public class ConcreteBucketHandler implements BucketHandler {
 
     private ImageMetadata getImageMetadata(FileHolder upload, int routeNumber) {
         ImageMetadata metadata = null;
+        long start = METADATA_PARSE.start();
         try {
+            if (upload.isSidecarKnown()) {
+                File sidecar = upload.getSidecar();
+                return sidecar != null
+                        ? new ImageMetadata(upload.getFile(), sidecar, routeNumber)
+                        : new ImageMetadata(upload.getFile(), routeNumber);
+            }
+
             String jsonPath = null;
             if (upload.getFile().getName().contains("_E.jpg")) {
                 jsonPath = upload.getFile().getAbsolutePath().replace("_E.jpg", "_I.json");
@@ -184,6 +316,8 @@ public class ConcreteBucketHandler implements BucketHandler {
             e.printStackTrace();
             upload.onUploadFailure(e.toString());
             return null;
+        } finally {
+            METADATA_PARSE.stop(start);
         }
     }
 
@@ -195,6 +329,7 @@ public class ConcreteBucketHandler implements BucketHandler {
             try (DatabaseConnection db = new DatabaseConnection()) {
                 Log.v(TAG, "Established a DB connection");
                 ImageMetadata metadata = upload.getMetadata();
+                long insertStart = DB_INSERT.start();
                 int result = db.insertPhotoRow(
                         metadata,
                         localDateTime,
@@ -202,9 +337,12 @@ public class ConcreteBucketHandler implements BucketHandler {
                         upload.getBucket(),
                         upload.getKey()
                 );
+                DB_INSERT.stop(insertStart);
 
                 if (result == 1) {
-                    spatialDatabaseConnection.add(metadata.getId(), metadata.getLatitude(), metadata.getLongitude());
+                    long indexStart = INDEX_UPDATE.start();
+                    spatialDatabaseConnection.add(metadata.getId(), metadata.getLatitude(), metadata.getLongitude(), metadata.getPhotoDateTime());
+                    INDEX_UPDATE.stop(indexStart);
                     upload.onDbSuccess();
                 } else {
                     upload.onDbFailure("Database error - database returned: " + result);
@@ -275,10 +413,14 @@ public class ConcreteBucketHandler implements BucketHandler {
 
     private List<WayPoint> getWayPoints() {
         List<WayPoint> wayPoints = new ArrayList<>();
+        List<FileHolder> uploads;
+        synchronized (doneUploads) {
+            uploads = new ArrayList<>(doneUploads);
+        }
 
-        doneUploads.sort(Comparator.comparing(file -> file.getMetadata().getPhotoDateTime()));
+        uploads.sort(Comparator.comparing(file -> file.getMetadata().getPhotoDateTime()));
 
-        for (FileHolder fileHolder : doneUploads) {
+        for (FileHolder fileHolder : uploads) {
 
             // FIXME: 13/08/18 Getter call on a getter!
 
@@ -300,46 +442,135 @@ public class ConcreteBucketHandler implements BucketHandler {
             return;
         }
 
-        int i = 1;
-        for (String id : ids) {
-            ImageMetadata metadata = null;
-            try (DatabaseConnection db = new DatabaseConnection()) {
-                metadata = db.getMetadata(id);
-                copyToOutput(i, id, metadata, null, callback);
-            } catch (SQLException | IOException e) {
-                e.printStackTrace();
-            }
+        Map<String, PhotoRecord> records;
+        try {
+            records = metadataCache.findAll(Arrays.asList(ids));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        try (ResultManifest manifest = openManifest()) {
+            int i = 1;
+            for (String id : ids) {
+                PhotoRecord record = records.get(id);
+                if (record == null) {
+                    // Still counts as processed, so the caller isn't left waiting for it
+                    Log.e(TAG, "Photo not found: " + id);
+                    if (callback != null) notifyCompleted(callback, id);
+                    i++;
+                    continue;
+                }
+
+                try {
+                    copyToOutput(manifest, String.valueOf(i), i, id, record.getMetadata(), null, callback);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
 
-            i++;
+                i++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
     @Override
     public void deletePhotos(CompletionObserver callback, String... ids) {
-        for (String id : ids) {
-            try {
-                deleteFromStorage(id);
-            } catch (IOException e) {
-                Log.e(TAG, e.toString());
-                break;
-            }
-            ImageMetadata metadata = null;
+        deletePhotos(callback, Arrays.asList(ids));
+    }
+
+    /**
+     * Deletes many photos at once:
+     *      <li> the keys and coordinates of all photos are read with one query per chunk of ids
+     *      <li> the files are removed by a few threads in parallel
+     *      <li> the rows of the photos whose files were removed are deleted with one statement per chunk of ids
+     *      <li> the spatial indexes are updated once
+     *
+     * Files are removed before the rows, so a failure never leaves a file in the bucket which no row points at.
+     * Photos whose file couldn't be removed keep their rows and can be deleted again later.
+     * The callback is notified once for every id (the key of the holder is the id) when it has been dealt with,
+     * including ids which were not found or couldn't be deleted. Failures are logged.
+     */
+    @Override
+    public void deletePhotos(CompletionObserver callback, Collection<String> ids) {
+        Map<String, PhotoRecord> records;
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            records = db.findRecords(ids);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            records = Collections.emptyMap();
+        }
+
+        List<String> removed = removeFiles(new ArrayList<>(records.keySet()), records);
+
+        List<String> deleted = new ArrayList<>();
+        if (!removed.isEmpty()) {
             try (DatabaseConnection db = new DatabaseConnection()) {
-                metadata = db.getMetadata(id);
+                for (int from = 0; from < removed.size(); from += DELETE_CHUNK_SIZE) {
+                    List<String> chunk = removed.subList(from, Math.min(removed.size(), from + DELETE_CHUNK_SIZE));
+                    db.delete(chunk);
+                    deleted.addAll(chunk);
+                }
             } catch (SQLException e) {
                 e.printStackTrace();
             }
+        }
 
-            Objects.requireNonNull(metadata, "No entry for the given id: " + id);
+        if (!deleted.isEmpty()) {
+            List<ImageMetadata> deletedPhotos = new ArrayList<>(deleted.size());
+            for (String id : deleted) deletedPhotos.add(records.get(id).getMetadata());
+            spatialDatabaseConnection.delete(deletedPhotos);
+            metadataCache.invalidateAll(deleted);
+        }
+
+        Set<String> notDeleted = new HashSet<>(ids);
+        notDeleted.removeAll(new HashSet<>(deleted));
+        Set<String> removedFiles = new HashSet<>(removed);
+        for (String id : notDeleted) {
+            if (removedFiles.contains(id)) Log.e(TAG, "File of " + id + " removed, but its row was not deleted");
+            else Log.e(TAG, "Photo not deleted: " + id);
+        }
 
-            deleteFromSpatialDatabase(id, metadata.getLatitude(), metadata.getLongitude());
+        if (callback != null) {
+            for (String id : ids) notifyCompleted(callback, id);
+        }
+    }
+
+    /**
+     * Removes the files of the photos, returns the ids of the photos whose files were removed.
+     */
+    private List<String> removeFiles(List<String> ids, Map<String, PhotoRecord> records) {
+        Set<String> removed = ConcurrentHashMap.newKeySet();
+        List<Future<?>> removals = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            removals.add(removalExecutor.submit(() -> {
+                FileHolder holder = newEmptyFileHolder();
+                holder.setKey(records.get(id).getPath().getKey());
+                holder.setRemoveCompletionListener((fileHolder) -> removed.add(id));
+                holder.setRemoveFailureListener((error) -> Log.e(TAG, "File of " + id + " not removed: " + error));
+                try {
+                    getStorageConnection(holder).removeFile();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "File of " + id + " not removed: " + e.toString());
+                }
+            }));
+        }
+
+        for (Future<?> removal : removals) {
             try {
-                deleteFromDatabase(id);
-            } catch (SQLException e) {
+                removal.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
                 e.printStackTrace();
             }
-            notifyCompleted(callback, id);
         }
+
+        List<String> result = new ArrayList<>(ids);
+        result.retainAll(removed);
+        return result;
     }
 
     private void notifyCompleted(CompletionObserver callback, String id) {
@@ -358,6 +589,8 @@ public class ConcreteBucketHandler implements BucketHandler {
             bucketHolder.setRemoveFailureListener((error) -> Log.e(TAG, error));
             StorageConnection storageConnection = getStorageConnection(bucketHolder);
             storageConnection.removeAll();
+            spatialDatabaseConnection.clear();
+            metadataCache.invalidateAll();
         } catch (SQLException | IOException e) {
             e.printStackTrace();
         }
@@ -373,75 +606,139 @@ public class ConcreteBucketHandler implements BucketHandler {
             e.printStackTrace();
             return;
         }
-        int i = 1;
-        for (String id : set.getIds()) {
-            ImageMetadata metadata = set.getImages().get(id);
-            Double distance = set.getDistances().get(id);
-            copyToOutput(i, id, metadata, distance, callback);
-            i++;
+        // Photos are exported as soon as they are added to the set
+        try (ResultManifest manifest = openManifest()) {
+            set.forEach(i -> {
+                int rank = i + 1;
+                try {
+                    copyToOutput(manifest, String.valueOf(rank), rank, set.getId(i), set.getImage(i), set.getDistance(i), callback);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
         }
     }
 
-    private void copyToOutput(int i, String id, ImageMetadata metadata, Double distance, CompletionObserver callback) throws IOException {
-        copyPhotoToOutput(i, id, null);
-
-        File tempFile = getTemporaryGsonFile(metadata, distance);
-        FileHolder outputHolder = newFileHolder(tempFile);
-
-        if (Log.debugging) {
-            printFileContents(outputHolder);
+    @Override
+    public void exportPhotos(CompletionObserver callback, String... ids) {
+        Map<String, ImageMetadata> images = new HashMap<>();
+        try {
+            for (Map.Entry<String, PhotoRecord> entry : metadataCache.findAll(Arrays.asList(ids)).entrySet()) {
+                images.put(entry.getKey(), entry.getValue().getMetadata());
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return;
         }
 
-        outputHolder.setBucket(bucket);
-        outputHolder.setKey(i + ".json");
-        if (callback != null) outputHolder.setUploadCompletionListener(callback);
-
-        StorageConnection storageConnection = getStorageConnection(outputHolder);
-        executor.submit(storageConnection::copyFileToOutput);
+        List<String> found = new ArrayList<>(images.size());
+        for (String id : ids) {
+            if (images.containsKey(id)) {
+                found.add(id);
+            } else {
+                Log.e(TAG, "Photo not found: " + id);
+                if (callback != null) notifyCompleted(callback, id);
+            }
+        }
+        exportIncrementally(callback, found, images, Collections.emptyMap());
     }
 
-    private void printFileContents(FileHolder outputHolder) throws IOException {
-        File file = outputHolder.getFile();
-        BufferedReader br = new BufferedReader(new FileReader(file));
-        String line = null;
-        while ((line = br.readLine()) != null) {
-            System.out.println(">>>>>>>>>>>>>>");
-            System.out.println(line);
+    @Override
+    public void exportPhotoSet(CompletionObserver callback, PhotoSet set) {
+        // Stale output files can only be told apart once the whole result is known
+        try {
+            set.awaitComplete();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
         }
+        exportIncrementally(callback, set.getIds(), set.getImages(), set.getDistances());
     }
 
-    private File getTemporaryGsonFile(ImageMetadata metadata, Double distance) throws IOException {
-        File tempFile = File.createTempFile("bsv", ".json");
-        tempFile.deleteOnExit();
-        PhotoResult photoInfo = new PhotoResult(metadata, distance);
-        Gson gson = new Gson();
-        try (Writer writer = new FileWriter(tempFile)) {
-            gson.toJson(photoInfo, writer);
+    /**
+     * Brings the output directory in line with the given ids without clearing it first.
+     * Output files are named after the image id, so photos already exported by a previous run are kept,
+     * only new photos are copied (or linked) and photos which are no longer requested are removed.
+     * Photos only appear under their output name once completely written, so a run which was interrupted
+     * leaves partial files behind, which are removed like any other stale file, rather than truncated photos.
+     * The manifest is always rewritten, as the rank and the distance may have changed.
+     */
+    private void exportIncrementally(CompletionObserver callback, List<String> ids, Map<String, ImageMetadata> images, Map<String, Double> distances) {
+        StorageConnection output = getStorageConnection(newEmptyFileHolder());
+        Set<String> existingKeys;
+        try {
+            existingKeys = output.listOutput();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        Set<String> requested = new HashSet<>(ids);
+        Set<String> alreadyExported = new HashSet<>();
+
+        for (String key : existingKeys) {
+            if (key.equals(ResultManifest.MANIFEST_FILE)) continue;
+            String id = key.contains(".") ? key.substring(0, key.lastIndexOf('.')) : key;
+            // Metadata used to be exported as one json file per photo
+            if (!requested.contains(id) || key.endsWith(".json")) {
+                try {
+                    output.removeFromOutput(key);
+                    Log.v(TAG, "Removed stale output file: " + key);
+                } catch (IOException e) {
+                    Log.e(TAG, e.toString());
+                }
+            } else {
+                alreadyExported.add(id);
+            }
         }
-        return tempFile;
-    }
 
-    private void copyPhotoToOutput(int i, String id, CompletionObserver callback) throws IOException {
-        StorageConnection storageConnection = buildStorageConnection(Optional.of(i), id, callback);
-        executor.submit(storageConnection::copyFileToOutput);
+        Log.i(TAG, "Export: " + (ids.size() - alreadyExported.size()) + " new, " + alreadyExported.size() + " unchanged");
+
+        try (ResultManifest manifest = new ResultManifest(output.openOutput(ResultManifest.MANIFEST_FILE))) {
+            int i = 1;
+            for (String id : ids) {
+                try {
+                    manifest.write(images.get(id), distances.get(id), i);
+                    if (!alreadyExported.contains(id)) {
+                        copyPhotoToOutput(id, id, callback);
+                    } else if (callback != null) {
+                        FileHolder exported = newEmptyFileHolder();
+                        exported.setKey(id);
+                        callback.onDone(exported);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                i++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
-    private void deleteFromStorage(String id) throws IOException {
-        StorageConnection storageConnection = buildStorageConnection(Optional.empty(), id, null);
-        executor.submit(storageConnection::removeFile);
+    private ResultManifest openManifest() throws IOException {
+        return new ResultManifest(getStorageConnection(newEmptyFileHolder()).openOutput(ResultManifest.MANIFEST_FILE));
     }
 
-    private StorageConnection buildStorageConnection(Optional<Integer> outputFileNumber, String id, CompletionObserver callback) throws IOException {
-        FileHolder outputHolder = newEmptyFileHolder();
+    private void copyToOutput(ResultManifest manifest, String outputName, int rank, String id, ImageMetadata metadata, Double distance, CompletionObserver callback) throws IOException {
+        manifest.write(metadata, distance, rank);
+        copyPhotoToOutput(outputName, id, callback);
+    }
 
+    private void copyPhotoToOutput(String outputName, String id, CompletionObserver callback) {
         String key = getKeyFromId(id);
-        StorageConnection storageConnection = getStorageConnection(outputHolder);
-        File file = getFileFromKey(key, storageConnection);
+        if (key == null) {
+            Log.e(TAG, "No file for the photo: " + id);
+            if (callback != null) notifyCompleted(callback, id);
+            return;
+        }
+        StorageConnection storageConnection = buildStorageConnection(outputName + key.substring(key.lastIndexOf('.')), callback);
+        // Looking up the file may download (AMAZON) or extract it, which must not hold up the rest of the export
+        executor.submit(() -> EXPORT.time(() -> storageConnection.copyToOutput(key)));
+    }
 
-        outputHolder.setFile(file);
-        String outputKey = outputFileNumber
-                .map(integer -> integer + key.substring(key.lastIndexOf('.')))
-                .orElse(key);
+    private StorageConnection buildStorageConnection(String outputKey, CompletionObserver callback) {
+        FileHolder outputHolder = newEmptyFileHolder();
         outputHolder.setKey(outputKey);
 
         outputHolder.setUploadFailureListener((error) -> Log.e(TAG, error));
@@ -452,27 +749,33 @@ public class ConcreteBucketHandler implements BucketHandler {
             outputHolder.setRemoveCompletionListener(callback);
         }
 
-        return storageConnection;
+        return getStorageConnection(outputHolder);
     }
 
-    private void deleteFromDatabase(String id) throws SQLException {
+    /**
+     * Adds every photo of the bucket which has a time to the spatio-temporal index.
+     */
+    private void readSpatioTemporalIndex(SpatioTemporalIndex index) {
         try (DatabaseConnection db = new DatabaseConnection()) {
-            db.delete(id);
+            db.forEachPhoto(bucket, metadata -> {
+                if (metadata.getPhotoDateTime() == null) return;
+                index.add(
+                        metadata.getId(),
+                        metadata.getLatitude(),
+                        metadata.getLongitude(),
+                        SpatioTemporalIndex.toEpochSecond(metadata.getPhotoDateTime())
+                );
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new IllegalStateException("Couldn't read the photos of the bucket", e);
         }
     }
 
-    private void deleteFromSpatialDatabase(String id, double latitude, double longitude) {
-        spatialDatabaseConnection.delete(id, latitude, longitude);
-    }
-
-    private File getFileFromKey(String fileKey, StorageConnection storageConnection) throws IOException {
-        return storageConnection.getFile(fileKey);
-    }
-
     private String getKeyFromId(String id) {
         String fileKey = null;
-        try (DatabaseConnection db = new DatabaseConnection()) {
-            fileKey = db.getPath(id).getKey();
+        try {
+            fileKey = metadataCache.get(id).getPath().getKey();
             Objects.requireNonNull(fileKey, "Retrieved file key was null");
         } catch (SQLException e) {
             e.printStackTrace();
@@ -483,192 +786,247 @@ public class ConcreteBucketHandler implements BucketHandler {
     @Nullable
     @Override
     public PhotoSet getPhotosAround(double latitude, double longitude, int maxResults) {
-        List<ImageMetadata> images = null;
+        return getPhotosAround(latitude, longitude, searchRadiusMeters, maxResults);
+    }
+
+    /**
+     * Waits for the whole result, see {@link #streamPhotosAround(double, double, double, int)}.
+     */
+    @Nullable
+    @Override
+    public PhotoSet getPhotosAround(double latitude, double longitude, double radiusMeters, int maxResults) {
+        PhotoSet set = streamPhotosAround(latitude, longitude, radiusMeters, maxResults);
         try {
-            List<String> ids = spatialDatabaseConnection.getUnsortedImageIds(latitude, longitude, searchRadiusMeters, maxResults);
-            Log.d(TAG, ">>>>>>> UNSORTED IDS:");
-            Log.d(TAG, "Size: " + ids.size());
-            Log.d(TAG, ids.toString());
-            images = getListOfMetadata(ids);
-        } catch (SQLException e) {
-            e.printStackTrace();
+            set.awaitComplete();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return null;
         }
+        return set;
+    }
 
-        if (images == null) {
-            throw new IllegalStateException("Images shouldn't be null");
+    /**
+     * The photos are ranked with the coordinates stored in the spatial index, so the returned set already knows
+     * how many photos it will contain. Their metadata is then fetched in rank order on a background thread.
+     *
+     * The photos around the query point are cached per geohash cell for searches of up to
+     * {@value #MAX_CACHED_RADIUS_METERS}m, see {@link GeoQueryCache}.
+     * Cached photos are filtered and ranked again, so the result is always exact for the given point.
+     */
+    @Override
+    public PhotoSet streamPhotosAround(double latitude, double longitude, double radiusMeters, int maxResults) {
+        NearbyPoints nearest;
+        if (radiusMeters > MAX_CACHED_RADIUS_METERS) {
+            nearest = spatialDatabaseConnection.getNearestImages(latitude, longitude, radiusMeters, maxResults);
         } else {
-            return getPhotoSet(latitude, longitude, images);
+            NearbyPoints candidates = geoQueryCache.get(latitude, longitude, radiusMeters);
+            if (candidates != null) {
+                Log.v(TAG, "Geo query answered from the cache");
+            } else {
+                long cacheVersion = geoQueryCache.getVersion();
+                double cachedRadius = geoQueryCache.getCachedRadius(latitude, radiusMeters);
+                candidates = spatialDatabaseConnection.getNearestImages(latitude, longitude, cachedRadius, Integer.MAX_VALUE);
+                geoQueryCache.put(latitude, longitude, radiusMeters, candidates, cacheVersion);
+            }
+            nearest = candidates.within(latitude, longitude, radiusMeters).nearest(maxResults);
+        }
+        Log.d(TAG, "Nearest ids: " + nearest.getIds());
+
+        int n = nearest.size();
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        for (int i = 0; i < n; i++) {
+            latitudes[i] = nearest.getLatitude(i);
+            longitudes[i] = nearest.getLongitude(i);
         }
+        double[] distances = new double[n];
+        int[] ranked = DistanceRanker.rank(latitude, longitude, latitudes, longitudes, n, n,
+                DistanceRanker.Precision.HAVERSINE, DistanceRanker.Precision.ELLIPSOIDAL, distances);
 
+        PhotoSet set = PhotoSet.filling(latitude, longitude, ranked.length);
+        queryExecutor.submit(() -> {
+            try {
+                for (int from = 0; from < ranked.length; from += STREAM_CHUNK_SIZE) {
+                    int to = Math.min(ranked.length, from + STREAM_CHUNK_SIZE);
+                    List<String> chunk = new ArrayList<>(to - from);
+                    for (int i = from; i < to; i++) chunk.add(nearest.getId(ranked[i]));
+
+                    Map<String, PhotoRecord> records = metadataCache.findAll(chunk);
+                    for (int i = from; i < to; i++) {
+                        String id = nearest.getId(ranked[i]);
+                        PhotoRecord record = records.get(id);
+                        if (record == null) {
+                            Log.w(TAG, "Photo " + id + " is in the spatial index, but not in the database");
+                            continue;
+                        }
+                        set.add(record.getMetadata(), distances[ranked[i]]);
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                // Nobody waits on the future, the set just ends early
+                e.printStackTrace();
+            } finally {
+                set.markComplete();
+            }
+        });
+        return set;
     }
 
-    private PhotoSet getPhotoSet(double latitude, double longitude, List<ImageMetadata> images) {
-        List<PhotoResult> photoResults = new ArrayList<>();
-
-        for (ImageMetadata image : images) {
-            final WayPoint wayPoint = WayPoint.of(latitude, longitude);
-            final Length distance = Geoid.WGS84.distance(WayPoint.of(image.getLatitude(), image.getLongitude()), wayPoint);
-            photoResults.add(new PhotoResult(image, distance.doubleValue()));
+    /**
+     * Only the partitions of the time window around the point are searched, see {@link SpatioTemporalIndex}.
+     */
+    @Nullable
+    @Override
+    public PhotoSet getPhotosAround(double latitude, double longitude, double radiusMeters, int maxResults,
+                                    LocalDateTime from, LocalDateTime to) {
+        try {
+            NearbyPoints nearest = spatialDatabaseConnection.getNearestImages(latitude, longitude, radiusMeters, maxResults, from, to);
+            return getPhotoSet(latitude, longitude, getListOfMetadata(nearest.getIds()));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
         }
+    }
 
-        photoResults.sort(Comparator.comparingDouble(PhotoResult::getDistance));
-        PhotoSet photoSet = new PhotoSet(latitude, longitude);
-
-        for (PhotoResult result : photoResults) {
-            photoSet.add(result.getImageMetadata(), result.getDistance());
+    /**
+     * Candidates come from the spatial index, their headings from a single batched query,
+     * and only the metadata of the ranked photos is fetched.
+     */
+    @Nullable
+    @Override
+    public PhotoSet getPhotosFacing(double latitude, double longitude, double maxDistanceMeters, double maxOffsetDegrees, int maxResults) {
+        NearbyPoints candidates = spatialDatabaseConnection.getNearestImages(latitude, longitude, maxDistanceMeters, Integer.MAX_VALUE);
+        int n = candidates.size();
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        for (int i = 0; i < n; i++) {
+            latitudes[i] = candidates.getLatitude(i);
+            longitudes[i] = candidates.getLongitude(i);
         }
-        return photoSet;
-    }
 
-    private List<ImageMetadata> getListOfMetadata(List<String> ids) throws SQLException {
-        List<ImageMetadata> metadataList = new ArrayList<>();
         try (DatabaseConnection db = new DatabaseConnection()) {
-            for (String id : ids) {
-                ImageMetadata metadata = db.getMetadata(id);
-                if (metadata != null) metadataList.add(metadata);
-                else throw new IllegalStateException("ID not found in the database");
+            double[] bearings = new double[n];
+            double[] bearingAccuracies = new double[n];
+            db.getBearings(candidates.getIds(), bearings, bearingAccuracies);
+
+            double[] offsets = new double[n];
+            int[] ranked = VisibilityQuery.rank(latitude, longitude, latitudes, longitudes, bearings, bearingAccuracies, n,
+                    maxOffsetDegrees, maxResults, offsets);
+            Log.v(TAG, ranked.length + " of " + n + " photos face the point");
+
+            List<String> rankedIds = new ArrayList<>(ranked.length);
+            for (int index : ranked) rankedIds.add(candidates.getId(index));
+            Map<String, PhotoRecord> records = metadataCache.findAll(rankedIds);
+
+            PhotoSet photoSet = new PhotoSet(latitude, longitude);
+            for (int index : ranked) {
+                PhotoRecord record = records.get(candidates.getId(index));
+                if (record != null) photoSet.add(record.getMetadata(), candidates.getDistance(index));
+                else Log.w(TAG, "Photo " + candidates.getId(index) + " is in the spatial index, but not in the database");
             }
+            return photoSet;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
         }
-        return metadataList;
-
-        // TODO: 31/08/18 Test me
-
     }
 
-    private class PhotoResult {
-
-        private final String id;
-        private final Double distance;
-        private final ImageMetadata imageMetadata;
-
-        PhotoResult(ImageMetadata imageMetadata, Double distance) {
-            this.id = imageMetadata.getId();
-            this.distance = distance;
-            this.imageMetadata = imageMetadata;
-        }
-
-        String getId() {
-            return id;
+    /**
+     * Ranks the photos by their distance to the point, closest first.
+     */
+    @VisibleForTesting
+    static PhotoSet getPhotoSet(double latitude, double longitude, List<ImageMetadata> images) {
+        int n = images.size();
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        for (int i = 0; i < n; i++) {
+            latitudes[i] = images.get(i).getLatitude();
+            longitudes[i] = images.get(i).getLongitude();
         }
 
+        double[] distances = new double[n];
+        int[] ranked = DistanceRanker.rank(latitude, longitude, latitudes, longitudes, n, n,
+                DistanceRanker.Precision.HAVERSINE, DistanceRanker.Precision.ELLIPSOIDAL, distances);
 
-        double getDistance() {
-            return distance;
-        }
-
-        ImageMetadata getImageMetadata() {
-            return imageMetadata;
+        PhotoSet photoSet = new PhotoSet(latitude, longitude);
+        for (int index : ranked) {
+            photoSet.add(images.get(index), distances[index]);
         }
+        return photoSet;
     }
 
-
-    private class SpatialDatabaseConnection implements AutoCloseable {
-
-        private RTree<String, Geometry> tree;
-
-        SpatialDatabaseConnection() {
-            this.tree = getRTree();
-        }
-
-        @Override
-        public void close() throws IOException {
-            saveRTree();
-        }
-
-        void saveRTree() throws IOException {
-            FileHolder fileHolder = new FileHolder();
-            fileHolder.setBucket(bucket);
-            getStorageConnection(fileHolder).saveRTree(tree);
-            // FIXME: 13/09/18 RTREE NOT SAVED WHEN EXITING WITH CTRL C
-        }
-
-        private RTree<String, Geometry> getRTree() {
-            FileHolder fileHolder = newEmptyFileHolder();
-            Optional<RTree<String, Geometry>> optionalTree = getStorageConnection(fileHolder).getRTree();
-            return optionalTree.orElseGet(this::newRTree);
-        }
-
-        private RTree<String, Geometry> newRTree() {
-            return RTree.create();
+    @Nullable
+    @Override
+    public PhotoPage getPhotosTakenBetween(LocalDateTime from, LocalDateTime to, @Nullable PhotoPage.Cursor after, int pageSize) {
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            return db.getPhotosTakenBetween(bucket, from, to, after, pageSize);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
         }
+    }
 
-        synchronized void add(String id, double latitude, double longitude) {
-            Log.v(TAG, "add: ADDING TO THE TREE");
-            this.tree = tree.add(id, Geometries.point(latitude, longitude));
-            Log.d(TAG, tree.asString());
+    @Nullable
+    @Override
+    public PhotoPage getPhotosUploadedBetween(LocalDateTime from, LocalDateTime to, @Nullable PhotoPage.Cursor after, int pageSize) {
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            return db.getPhotosUploadedBetween(bucket, from, to, after, pageSize);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
         }
+    }
 
-        synchronized void delete(String id, double latitude, double longitude) {
-            Log.v(TAG, "delete: DELETING FROM THE TREE");
-            tree = tree.delete(id, Geometries.point(latitude, longitude));
-            Log.d(TAG, tree.asString());
+    @Nullable
+    @Override
+    public PhotoPage getPhotosOnRoute(int routeId, @Nullable PhotoPage.Cursor after, int pageSize) {
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            return db.getPhotosOnRoute(bucket, routeId, after, pageSize);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
         }
+    }
 
-        List<String> getUnsortedImageIds(double latitude, double longitude, double searchRadiusMeters) {
-            return getUnsortedImageIds(latitude, longitude, searchRadiusMeters, 100);
+    @Override
+    public void forEachPhotoTakenBetween(LocalDateTime from, LocalDateTime to, Consumer<ImageMetadata> consumer) {
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            db.forEachPhotoTakenBetween(bucket, from, to, consumer);
+        } catch (SQLException e) {
+            e.printStackTrace();
         }
+    }
 
-        List<String> getUnsortedImageIds(double latitude, double longitude, double searchRadiusMeters, int maxResults) {
-            List<String> ids = new ArrayList<>();
-            Observable<Entry<String, Geometry>> searchResult = search(Geometries.point(latitude, longitude), searchRadiusMeters);
-            Objects.requireNonNull(searchResult, "Search result was null");
-
-            searchResult.forEach((entry) -> ids.add(entry.value()));
-
-            System.out.println(ids.size());
-            System.out.println(ids);
-
-            if (Log.debugging) {
-                tree.visualize(600,600)
-                        .save("target/" + ids.size() + ".png");
-            }
-
-            return ids.subList(0, maxResults > ids.size() ? ids.size() : maxResults);
-        }
-
-        @Nullable
-        private Observable<Entry<String, Geometry>> search(Point latLon, final double distanceMeters) {
-            // First we need to calculate an enclosing lat long rectangle for this
-            // distance then we refine on the exact distance
-
-            double distanceKm = distanceMeters / 1000;
-            Position from = Position.create(latLon.x(), latLon.y());
-            Rectangle bounds = createBounds(from, distanceKm);
-
-            System.out.println(tree.asString());
-            return tree
-                    // do the first search using the bounds
-//                    .search(bounds)
-                    .search(latLon, distanceKm)
-                    // refine using the exact distance
-                    .filter(entry -> {
-                        Geometry geometry = entry.geometry();
-                        if (geometry instanceof Point) {
-                            Point point  = (Point) geometry;
-                            return isWithinRange(distanceKm, from, Position.create(point.x(), point.y()));
-                        } else {
-                            return false;
-                        }
-                    });
+    @Override
+    public void forEachPhotoUploadedBetween(LocalDateTime from, LocalDateTime to, Consumer<ImageMetadata> consumer) {
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            db.forEachPhotoUploadedBetween(bucket, from, to, consumer);
+        } catch (SQLException e) {
+            e.printStackTrace();
         }
+    }
 
-        private boolean isWithinRange(double radiusKm, Position a, Position b) {
-            return a.getDistanceToKm(b) < (radiusKm);
+    @Override
+    public void forEachPhotoOnRoute(int routeId, Consumer<ImageMetadata> consumer) {
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            db.forEachPhotoOnRoute(bucket, routeId, consumer);
+        } catch (SQLException e) {
+            e.printStackTrace();
         }
+    }
 
-        private Rectangle createBounds(final Position from, final double distanceKm) {
-            // this calculates a pretty accurate bounding box. Depending on the
-            // performance you require you wouldn't have to be this accurate because
-            // accuracy is enforced later
-            Position north = from.predict(distanceKm, 0);
-            Position south = from.predict(distanceKm, 180);
-            Position east = from.predict(distanceKm, 90);
-            Position west = from.predict(distanceKm, 270);
-
-            return Geometries.rectangle(west.getLon(), south.getLat(), east.getLon(), north.getLat());
+    /**
+     * Photos missing from the database, e.g. because another client just deleted them, are left out.
+     */
+    private List<ImageMetadata> getListOfMetadata(List<String> ids) throws SQLException {
+        Map<String, PhotoRecord> records = metadataCache.findAll(ids);
+        List<ImageMetadata> metadataList = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            PhotoRecord record = records.get(id);
+            if (record != null) metadataList.add(record.getMetadata());
+            else Log.w(TAG, "Photo " + id + " is in the spatial index, but not in the database");
         }
-
+        return metadataList;
     }
 
 }
\ No newline at end of file
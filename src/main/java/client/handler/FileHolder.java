@@ -1,10 +1,12 @@
 package client.handler;
 
 import client.databaseConnections.ImageMetadata;
+import client.metrics.Metrics;
 import client.observers.CompletionObserver;
 import client.observers.FailureObserver;
 import client.observers.ProgressObserver;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
@@ -13,6 +15,8 @@ import java.util.Objects;
 public class FileHolder {
 
     private File file;
+    private File sidecar;
+    private boolean sidecarKnown;
     private ImageMetadata metadata;
     private long totalSize;
     private long uploadedSize;
@@ -48,6 +52,33 @@ public class FileHolder {
         this.totalSize = file.length();
     }
 
+    /**
+     * Sets the number of bytes a transfer without a local file will report, see {@link #onBytesUploaded(long)}.
+     */
+    public void setTotalSize(long totalSize) {
+        this.totalSize = totalSize;
+    }
+
+    /**
+     * Returns the sidecar (_I.json) of the photo if it is known, see {@link #isSidecarKnown()}.
+     */
+    @Nullable
+    File getSidecar() {
+        return sidecar;
+    }
+
+    /**
+     * Returns true if the sidecar was looked up when the file was found, in which case a null sidecar means there is none.
+     */
+    boolean isSidecarKnown() {
+        return sidecarKnown;
+    }
+
+    void setSidecar(@Nullable File sidecar) {
+        this.sidecar = sidecar;
+        this.sidecarKnown = true;
+    }
+
     ImageMetadata getMetadata() {
         return metadata;
     }
@@ -92,6 +123,7 @@ public class FileHolder {
     }
 
     public void onUploadFailure(String error) {
+        Metrics.failure("upload");
         for (FailureObserver observer : uploadFailureObservers) {
             observer.onFailure(error);
         }
@@ -104,6 +136,7 @@ public class FileHolder {
     }
 
     public void onDbFailure(String error) {
+        Metrics.failure("db");
         for (FailureObserver observer : dbFailureObservers) {
             observer.onFailure(error);
         }
@@ -116,6 +149,7 @@ public class FileHolder {
     }
 
     public void onRemoveFailure(String error) {
+        Metrics.failure("remove");
         for (FailureObserver observer : removeFailureObservers) {
             observer.onFailure(error);
         }
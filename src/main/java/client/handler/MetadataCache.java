@@ -0,0 +1,147 @@
+package client.handler;
+
+import client.databaseConnections.DatabaseConnection;
+import client.databaseConnections.PhotoRecord;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read-through cache of the metadata and file paths of photos.
+ *
+ * Concurrent requests for the same id share one database query, and ids missing from the cache
+ * are loaded together with a single query, see {@link DatabaseConnection#findRecords}.
+ * Entries have to be invalidated whenever a photo is deleted. Invalidating waits for the lookups in progress,
+ * so a record read just before the photo was deleted is never put back into the cache afterwards.
+ */
+class MetadataCache {
+
+    private final LoadingCache<String, PhotoRecord> cache;
+    // Held for reading while records are looked up (and stored), and for writing while they are invalidated
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    MetadataCache(long maximumSize) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build(new CacheLoader<String, PhotoRecord>() {
+                    @Override
+                    public PhotoRecord load(String id) throws SQLException {
+                        try (DatabaseConnection db = new DatabaseConnection()) {
+                            return db.getRecord(id);
+                        }
+                    }
+
+                    // Photos missing from the database are left out, getAll then caches the records which were found
+                    // and throws an InvalidCacheLoadException
+                    @Override
+                    public Map<String, PhotoRecord> loadAll(Iterable<? extends String> ids) throws SQLException {
+                        try (DatabaseConnection db = new DatabaseConnection()) {
+                            return db.findRecords(Lists.newArrayList(ids));
+                        }
+                    }
+                });
+    }
+
+    PhotoRecord get(String id) throws SQLException {
+        lock.readLock().lock();
+        try {
+            return cache.get(id);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the records in the order of the ids.
+     *
+     * @throws SQLException if any of the photos is not in the database
+     */
+    Map<String, PhotoRecord> getAll(Iterable<String> ids) throws SQLException {
+        lock.readLock().lock();
+        try {
+            return cache.getAll(ids);
+        } catch (InvalidCacheLoadException e) {
+            throw new SQLException("Not every id has an entry: " + e.getMessage());
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Like {@link #getAll(Iterable)}, but photos missing from the database are left out of the result,
+     * e.g. photos which were just deleted by another client.
+     */
+    Map<String, PhotoRecord> findAll(Collection<String> ids) throws SQLException {
+        lock.readLock().lock();
+        try {
+            return cache.getAll(ids);
+        } catch (InvalidCacheLoadException e) {
+            // The records which were found have been cached
+            return cache.getAllPresent(ids);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void invalidate(String id) {
+        lock.writeLock().lock();
+        try {
+            cache.invalidate(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Invalidates many photos at once, e.g. after they were deleted, waiting for the lookups in progress only once.
+     */
+    void invalidateAll(Iterable<String> ids) {
+        lock.writeLock().lock();
+        try {
+            cache.invalidateAll(ids);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void invalidateAll() {
+        lock.writeLock().lock();
+        try {
+            cache.invalidateAll();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    long size() {
+        return cache.size();
+    }
+
+    CacheStats stats() {
+        return cache.stats();
+    }
+
+    private SQLException unwrap(Exception e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof SQLException) return (SQLException) cause;
+        return new SQLException(cause != null ? cause : e);
+    }
+}
@@ -0,0 +1,53 @@
+package client.handler;
+
+import client.databaseConnections.ImageMetadata;
+import com.google.gson.Gson;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the metadata of exported photos to a single file in the output directory.
+ *
+ * Every photo is one JSON object on its own line (NDJSON), in rank order:
+ *      {"id":"...","distance":12.3,"rank":1,"imageMetadata":{...}}
+ * The distance is left out for exports which are not the result of a geographic query.
+ */
+class ResultManifest implements Closeable {
+
+    static final String MANIFEST_FILE = "results.ndjson";
+
+//    Gson instances are thread safe and cache their type adapters
+    private static final Gson GSON = new Gson();
+
+    private final Writer writer;
+
+    ResultManifest(OutputStream out) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    synchronized void write(ImageMetadata metadata, Double distance, int rank) throws IOException {
+        GSON.toJson(new PhotoResult(metadata, distance, rank), writer);
+        writer.write('\n');
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    private static class PhotoResult {
+
+        private final String id;
+        private final Double distance;
+        private final Integer rank;
+        private final ImageMetadata imageMetadata;
+
+        PhotoResult(ImageMetadata imageMetadata, Double distance, Integer rank) {
+            this.id = imageMetadata.getId();
+            this.distance = distance;
+            this.rank = rank;
+            this.imageMetadata = imageMetadata;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package client.handler;
+
+import client.databaseConnections.ImageMetadata;
+import client.metrics.Histogram;
+import client.metrics.Metrics;
+import client.metrics.Timer;
+import client.spatial.GeoQueryCache;
+import client.spatial.GeoMath;
+import client.spatial.MappedPointIndex;
+import client.spatial.NearbyPoints;
+import client.spatial.SpatioTemporalIndex;
+import client.storageConnections.StorageConnection;
+import client.util.Log;
+import com.github.davidmoten.rtree.Entries;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import com.github.davidmoten.rtree.geometry.Point;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Keeps track of where the photos of a bucket were taken.
+ *
+ * The RTree is only loaded when it is modified. Read only queries are answered from a memory mapped
+ * {@link MappedPointIndex}, which is written next to the RTree whenever the RTree is saved.
+ * Short lived clients which only search the bucket therefore never deserialise the whole RTree.
+ *
+ * Queries with a time window are answered from a {@link SpatioTemporalIndex}, which is also kept next to the RTree.
+ * If it is missing, e.g. in buckets created before it was introduced, it is rebuilt from the database.
+ */
+class SpatialDatabaseConnection implements AutoCloseable {
+
+    private static final String TAG = "SpatialDatabaseConnection";
+
+    private static final Timer GEO_SEARCH = Metrics.timer("bsv_geo_search_seconds", "Finding the photos around a point");
+    private static final Histogram GEO_SEARCH_RESULTS = Metrics.histogram("bsv_geo_search_results", "Photos found around a point, before the closest are picked",
+            0, 1, 10, 100, 1000, 10000, 100000);
+    private static final Timer INDEX_FLUSH = Metrics.timer("bsv_index_flush_seconds", "Saving the spatial indexes which have changed");
+
+    private final Supplier<StorageConnection> storageConnectionSupplier;
+    private final GeoQueryCache<?> queryCache;
+    private final Consumer<SpatioTemporalIndex> temporalIndexSource;
+
+    @Nullable
+    private RTree<String, Geometry> tree;
+    @Nullable
+    private MappedPointIndex pointIndex;
+    private boolean pointIndexChecked;
+    private boolean modified;
+    @Nullable
+    private SpatioTemporalIndex temporalIndex;
+    private boolean temporalIndexModified;
+
+    /**
+     * @param storageConnectionSupplier Returns a new connection to the bucket of this database
+     * @param queryCache Cache of search results, invalidated whenever a photo is added or removed
+     * @param temporalIndexSource Adds every photo of the bucket to an empty spatio-temporal index
+     */
+    SpatialDatabaseConnection(Supplier<StorageConnection> storageConnectionSupplier,
+                              GeoQueryCache<?> queryCache,
+                              Consumer<SpatioTemporalIndex> temporalIndexSource) {
+        this.storageConnectionSupplier = storageConnectionSupplier;
+        this.queryCache = queryCache;
+        this.temporalIndexSource = temporalIndexSource;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Saves the indexes which have changed, so other clients of the bucket can see the new photos.
+     */
+    synchronized void flush() throws IOException {
+        long start = INDEX_FLUSH.start();
+        if (modified) {
+            saveRTree();
+        } else if (tree != null && !isPointIndexUpToDate()) {
+            savePointIndex();
+        }
+        if (temporalIndexModified) {
+            saveTemporalIndex();
+        }
+        INDEX_FLUSH.stop(start);
+    }
+
+    synchronized void saveRTree() throws IOException {
+        if (tree == null) return;
+        storageConnectionSupplier.get().saveRTree(tree);
+        savePointIndex();
+        modified = false;
+        // FIXME: 13/09/18 RTREE NOT SAVED WHEN EXITING WITH CTRL C
+    }
+
+    private void savePointIndex() {
+        Objects.requireNonNull(tree, "Tree was null");
+        int n = tree.size();
+        String[] ids = new String[n];
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+
+        int i = 0;
+        for (Entry<String, Geometry> entry : tree.entries().toBlocking().toIterable()) {
+            Point point = (Point) entry.geometry();
+            ids[i] = entry.value();
+            latitudes[i] = point.x();
+            longitudes[i] = point.y();
+            i++;
+        }
+
+        try {
+            File file = storageConnectionSupplier.get().getIndexFile(StorageConnection.POINT_INDEX_FILE);
+            MappedPointIndex.write(file.toPath(), ids, latitudes, longitudes, i);
+            Log.i(TAG, "Point index saved");
+        } catch (IOException e) {
+            Log.w(TAG, "savePointIndex: Point index not saved: " + e.toString());
+        }
+    }
+
+    private void saveTemporalIndex() {
+        Objects.requireNonNull(temporalIndex, "Spatio-temporal index was null");
+        try {
+            File file = storageConnectionSupplier.get().getIndexFile(StorageConnection.SPATIO_TEMPORAL_INDEX_FILE);
+            temporalIndex.write(file.toPath());
+            temporalIndexModified = false;
+            Log.i(TAG, "Spatio-temporal index saved");
+        } catch (IOException e) {
+            Log.w(TAG, "saveTemporalIndex: Spatio-temporal index not saved: " + e.toString());
+        }
+    }
+
+    private boolean isPointIndexUpToDate() {
+        try {
+            StorageConnection storageConnection = storageConnectionSupplier.get();
+            File index = storageConnection.getIndexFile(StorageConnection.POINT_INDEX_FILE);
+            File rTree = storageConnection.getIndexFile(StorageConnection.RTREE_FILE);
+            // The RTree might have been replaced, e.g. by restoring a backup
+            return index.exists() && (!rTree.exists() || index.lastModified() >= rTree.lastModified());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the point index if queries can be answered from it, otherwise null.
+     */
+    @Nullable
+    private MappedPointIndex getPointIndex() {
+        if (tree != null) return null;
+        if (!pointIndexChecked) {
+            pointIndexChecked = true;
+            if (isPointIndexUpToDate()) {
+                try {
+                    pointIndex = MappedPointIndex.open(storageConnectionSupplier.get().getIndexFile(StorageConnection.POINT_INDEX_FILE).toPath());
+                    Log.v(TAG, "Point index mapped, " + pointIndex.size() + " points");
+                } catch (IOException e) {
+                    Log.w(TAG, "getPointIndex: " + e.toString());
+                }
+            }
+        }
+        return pointIndex;
+    }
+
+    private RTree<String, Geometry> getTree() {
+        if (tree == null) {
+            Optional<RTree<String, Geometry>> optionalTree = storageConnectionSupplier.get().getRTree();
+            tree = optionalTree.orElseGet(RTree::create);
+            pointIndex = null;
+        }
+        return tree;
+    }
+
+    /**
+     * Returns the spatio-temporal index, reading or rebuilding it if necessary.
+     */
+    private SpatioTemporalIndex getTemporalIndex() {
+        if (temporalIndex == null && !loadTemporalIndex()) {
+            Log.i(TAG, "Rebuilding the spatio-temporal index");
+            SpatioTemporalIndex index = new SpatioTemporalIndex();
+            try {
+                temporalIndexSource.accept(index);
+                temporalIndexModified = true;
+                Log.i(TAG, "Spatio-temporal index rebuilt, " + index.size() + " photos");
+            } catch (RuntimeException e) {
+                // Answer this query with what was read, but don't persist an incomplete index
+                Log.e(TAG, "getTemporalIndex: " + e.toString());
+            }
+            temporalIndex = index;
+        }
+        return temporalIndex;
+    }
+
+    /**
+     * Returns false if there is no saved index to read.
+     */
+    private boolean loadTemporalIndex() {
+        if (temporalIndex != null) return true;
+        try {
+            File file = storageConnectionSupplier.get().getIndexFile(StorageConnection.SPATIO_TEMPORAL_INDEX_FILE);
+            if (!file.exists()) return false;
+            temporalIndex = SpatioTemporalIndex.read(file.toPath());
+            Log.v(TAG, "Spatio-temporal index loaded, " + temporalIndex.size() + " photos");
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "loadTemporalIndex: " + e.toString());
+            return false;
+        }
+    }
+
+    synchronized void add(String id, double latitude, double longitude, LocalDateTime photoDateTime) {
+        Log.v(TAG, "add: ADDING TO THE TREE");
+        this.tree = getTree().add(id, Geometries.point(latitude, longitude));
+        modified = true;
+        // A missing index is rebuilt from the database when it is needed, which already includes this photo.
+        // Photos without a time can't be found by a time window anyway
+        if (photoDateTime != null && loadTemporalIndex()) {
+            temporalIndex.add(id, latitude, longitude, SpatioTemporalIndex.toEpochSecond(photoDateTime));
+            temporalIndexModified = true;
+        }
+        queryCache.invalidate(latitude, longitude);
+        Log.d(TAG, tree.asString());
+    }
+
+    synchronized void delete(String id, double latitude, double longitude, LocalDateTime photoDateTime) {
+        Log.v(TAG, "delete: DELETING FROM THE TREE");
+        tree = getTree().delete(id, Geometries.point(latitude, longitude));
+        modified = true;
+        if (photoDateTime != null && loadTemporalIndex()) {
+            temporalIndex.remove(id, latitude, longitude, SpatioTemporalIndex.toEpochSecond(photoDateTime));
+            temporalIndexModified = true;
+        }
+        queryCache.invalidate(latitude, longitude);
+        Log.d(TAG, tree.asString());
+    }
+
+    /**
+     * Removes many photos with a single update of each index.
+     */
+    synchronized void delete(Collection<ImageMetadata> photos) {
+        Log.v(TAG, "delete: DELETING " + photos.size() + " PHOTOS FROM THE TREE");
+        List<Entry<String, Geometry>> entries = new ArrayList<>(photos.size());
+        for (ImageMetadata photo : photos) {
+            entries.add(Entries.<String, Geometry>entry(photo.getId(), Geometries.point(photo.getLatitude(), photo.getLongitude())));
+        }
+        tree = getTree().delete(entries);
+        modified = true;
+
+        boolean updateTemporalIndex = loadTemporalIndex();
+        for (ImageMetadata photo : photos) {
+            if (updateTemporalIndex && photo.getPhotoDateTime() != null) {
+                temporalIndex.remove(photo.getId(), photo.getLatitude(), photo.getLongitude(),
+                        SpatioTemporalIndex.toEpochSecond(photo.getPhotoDateTime()));
+            }
+            queryCache.invalidate(photo.getLatitude(), photo.getLongitude());
+        }
+        temporalIndexModified |= updateTemporalIndex;
+    }
+
+    /**
+     * Forgets every photo, e.g. after the whole bucket was removed.
+     */
+    synchronized void clear() {
+        tree = RTree.create();
+        pointIndex = null;
+        modified = true;
+        temporalIndex = new SpatioTemporalIndex();
+        temporalIndexModified = true;
+        queryCache.invalidateAll();
+    }
+
+    List<String> getNearestImageIds(double latitude, double longitude, double searchRadiusMeters) {
+        return getNearestImageIds(latitude, longitude, searchRadiusMeters, 100);
+    }
+
+    /**
+     * Returns the ids of the (at most) maxResults photos closest to the given point, closest first.
+     */
+    List<String> getNearestImageIds(double latitude, double longitude, double searchRadiusMeters, int maxResults) {
+        return getNearestImages(latitude, longitude, searchRadiusMeters, maxResults).getIds();
+    }
+
+    /**
+     * Finds every photo within the radius, closest first.
+     *
+     * The index is first searched with the bounding box(es) of the search area, see {@link GeoMath#boundingBoxes},
+     * and then refined with the exact great circle distance.
+     * The cost therefore depends on the number of photos around the point, not on the size of the bucket.
+     */
+    synchronized NearbyPoints getNearestImages(double latitude, double longitude, double searchRadiusMeters, int maxResults) {
+        long start = GEO_SEARCH.start();
+        NearbyPoints found = new NearbyPoints();
+        double[][] boxes = GeoMath.boundingBoxes(latitude, longitude, searchRadiusMeters);
+
+        MappedPointIndex index = getPointIndex();
+        for (double[] box : boxes) {
+            if (index != null) {
+                index.search(box[0], box[1], box[2], box[3], (id, pointLatitude, pointLongitude) ->
+                        addIfWithinRange(found, id, latitude, longitude, pointLatitude, pointLongitude, searchRadiusMeters));
+            } else {
+                Rectangle bounds = Geometries.rectangle(box[0], box[1], box[2], box[3]);
+                for (Entry<String, Geometry> entry : getTree().search(bounds).toBlocking().toIterable()) {
+                    Geometry geometry = entry.geometry();
+                    if (geometry instanceof Point) {
+                        Point point = (Point) geometry;
+                        addIfWithinRange(found, entry.value(), latitude, longitude, point.x(), point.y(), searchRadiusMeters);
+                    }
+                }
+            }
+        }
+
+        Log.v(TAG, found.size() + " photos within " + searchRadiusMeters + "m");
+        if (Log.debugging && tree != null) {
+            tree.visualize(600, 600)
+                    .save("target/" + found.size() + ".png");
+        }
+
+        GEO_SEARCH_RESULTS.observe(found.size());
+        NearbyPoints nearest = found.nearest(maxResults);
+        GEO_SEARCH.stop(start);
+        return nearest;
+    }
+
+    /**
+     * Finds the (at most) maxResults photos within the radius taken within [from, to], closest first.
+     */
+    synchronized NearbyPoints getNearestImages(double latitude, double longitude, double searchRadiusMeters, int maxResults,
+                                               LocalDateTime from, LocalDateTime to) {
+        long start = GEO_SEARCH.start();
+        NearbyPoints found = new NearbyPoints();
+        getTemporalIndex().search(latitude, longitude, searchRadiusMeters,
+                SpatioTemporalIndex.toEpochSecond(from), SpatioTemporalIndex.toEpochSecond(to), found);
+        Log.v(TAG, found.size() + " photos within " + searchRadiusMeters + "m taken between " + from + " and " + to);
+        GEO_SEARCH_RESULTS.observe(found.size());
+        NearbyPoints nearest = found.nearest(maxResults);
+        GEO_SEARCH.stop(start);
+        return nearest;
+    }
+
+    private void addIfWithinRange(NearbyPoints found, String id, double latitude, double longitude, double pointLatitude, double pointLongitude, double radiusMeters) {
+        double distance = GeoMath.haversineMeters(latitude, longitude, pointLatitude, pointLongitude);
+        if (distance <= radiusMeters) found.add(id, pointLatitude, pointLongitude, distance);
+    }
+}
@@ -0,0 +1,48 @@
+package client.ingest;
+
+import javax.annotation.Nullable;
+import java.nio.file.Path;
+
+/**
+ * A panorama found by a {@link TripScanner}, together with its sidecar file if the camera wrote one.
+ */
+public final class IngestItem {
+
+    private final Path image;
+    private final long imageSize;
+    @Nullable
+    private final Path sidecar;
+    private final long sidecarSize;
+
+    IngestItem(Path image, long imageSize, @Nullable Path sidecar, long sidecarSize) {
+        this.image = image;
+        this.imageSize = imageSize;
+        this.sidecar = sidecar;
+        this.sidecarSize = sidecarSize;
+    }
+
+    public Path getImage() {
+        return image;
+    }
+
+    public long getImageSize() {
+        return imageSize;
+    }
+
+    @Nullable
+    public Path getSidecar() {
+        return sidecar;
+    }
+
+    /**
+     * Returns 0 if there is no sidecar.
+     */
+    public long getSidecarSize() {
+        return sidecarSize;
+    }
+
+    @Override
+    public String toString() {
+        return image + (sidecar != null ? " + " + sidecar.getFileName() : "");
+    }
+}
@@ -0,0 +1,132 @@
+package client.ingest;
+
+import client.util.Log;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds the panoramas (_E.jpg) of a trip and pairs them with their sidecar files (_I.json).
+ *
+ * Every file is visited once: names and sizes come from the directory listing, so no file is probed afterwards.
+ * The top level folders of a trip (usually one per day) are walked in parallel.
+ * A panorama and its sidecar have to be in the same folder.
+ */
+public final class TripScanner {
+
+    private static final String TAG = "TripScanner";
+
+    public static final String IMAGE_SUFFIX = "_E.jpg";
+    public static final String SIDECAR_SUFFIX = "_I.json";
+
+    private TripScanner() {
+    }
+
+    /**
+     * Returns the panoramas in the folder and all of its sub folders, sorted by path.
+     */
+    public static List<IngestItem> scan(Path root, int parallelism) throws IOException {
+        Listing top = new Listing(root);
+        Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), 1, top);
+
+        List<Listing> listings = new ArrayList<>();
+        listings.add(top);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, top.folders.size())));
+        try {
+            List<Future<Listing>> futures = new ArrayList<>();
+            for (Path folder : top.folders) {
+                futures.add(executor.submit(() -> {
+                    Listing listing = new Listing(folder);
+                    Files.walkFileTree(folder, listing);
+                    return listing;
+                }));
+            }
+            for (Future<Listing> future : futures) listings.add(future.get());
+        } catch (ExecutionException e) {
+            throw new IOException("Couldn't scan " + root, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning " + root, e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return pair(listings);
+    }
+
+    private static List<IngestItem> pair(List<Listing> listings) {
+        Map<String, Found> sidecars = new HashMap<>();
+        for (Listing listing : listings) sidecars.putAll(listing.sidecars);
+
+        List<IngestItem> items = new ArrayList<>();
+        int withoutSidecar = 0;
+        for (Listing listing : listings) {
+            for (Map.Entry<String, Found> entry : listing.images.entrySet()) {
+                Found image = entry.getValue();
+                Found sidecar = sidecars.get(entry.getKey());
+                if (sidecar == null) withoutSidecar++;
+                items.add(new IngestItem(image.path, image.size, sidecar != null ? sidecar.path : null, sidecar != null ? sidecar.size : 0));
+            }
+        }
+        items.sort(Comparator.comparing(IngestItem::getImage));
+
+        Log.v(TAG, "Found " + items.size() + " panoramas, " + withoutSidecar + " without a sidecar");
+        return items;
+    }
+
+    private static final class Found {
+
+        private final Path path;
+        private final long size;
+
+        Found(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Collects the panoramas and sidecars of a walk, keyed by their path without the suffix.
+     */
+    private static final class Listing extends SimpleFileVisitor<Path> {
+
+        private final Path start;
+        private final Map<String, Found> images = new HashMap<>();
+        private final Map<String, Found> sidecars = new HashMap<>();
+//        Sub folders of the start, only filled by walks limited to a depth of 1
+        private final List<Path> folders = new ArrayList<>();
+
+        Listing(Path start) {
+            this.start = start;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            if (attributes.isDirectory()) {
+                if (!file.equals(start)) folders.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            String path = file.toString();
+            if (path.endsWith(IMAGE_SUFFIX)) {
+                images.put(path.substring(0, path.length() - IMAGE_SUFFIX.length()), new Found(file, attributes.size()));
+            } else if (path.endsWith(SIDECAR_SUFFIX)) {
+                sidecars.put(path.substring(0, path.length() - SIDECAR_SUFFIX.length()), new Found(file, attributes.size()));
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+            Log.w(TAG, "Skipped " + file + ": " + e.toString());
+            return FileVisitResult.CONTINUE;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package client.ingest;
+
+import client.handler.BucketHandler;
+import client.handler.FileHolder;
+import client.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Uploads photos as soon as they are dropped into one or more folders, e.g. while a trip is copied off the camera.
+ *
+ * A panorama is uploaded once both its _E.jpg and its _I.json are in the same folder
+ * and neither of them has changed size for {@value #STABLE_MILLIS} ms.
+ * Sub folders, including ones created later, are watched too.
+ * The spatial indexes are saved every {@value #FLUSH_MILLIS} ms while photos keep coming in,
+ * so other clients of the bucket can find them.
+ *
+ * Photos which are already complete when watching starts are left alone, upload them with --upload.
+ * A photo whose upload or database update fails is tried again when one of its files changes.
+ */
+public final class WatchFolderIngest implements Closeable {
+
+    private static final String TAG = "WatchFolderIngest";
+
+    static final long STABLE_MILLIS = 1500;
+    static final long FLUSH_MILLIS = 30_000;
+    private static final long POLL_MILLIS = 250;
+
+    private final BucketHandler handler;
+    private final int routeNumber;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedFolders = new HashMap<>();
+
+//    Photos waiting for their files to be complete, keyed by their path without the suffix
+    private final Map<String, Candidate> pending = new HashMap<>();
+//    Photos being uploaded and photos in the database, updated by the handler's threads too
+    private final Set<String> ingesting = ConcurrentHashMap.newKeySet();
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean indexesChanged = new AtomicBoolean();
+    private final AtomicInteger ingested = new AtomicInteger();
+    private long lastFlush;
+    private volatile boolean closed;
+
+    public WatchFolderIngest(BucketHandler handler, int routeNumber, Collection<Path> folders) throws IOException {
+        this.handler = handler;
+        this.routeNumber = routeNumber;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        for (Path folder : folders) {
+            register(folder);
+            for (IngestItem item : TripScanner.scan(folder, 1)) {
+                if (item.getSidecar() != null) seen.add(getBase(item.getImage().toString()));
+            }
+        }
+        Log.i(TAG, "Watching " + watchedFolders.size() + " folders, " + seen.size() + " photos already there");
+    }
+
+    /**
+     * Watches the folders until {@link #close()} is called or the thread is interrupted.
+     */
+    public void run() throws IOException {
+        lastFlush = System.currentTimeMillis();
+        while (!closed) {
+            try {
+                WatchKey key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handle(key);
+                    key = watchService.poll();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ClosedWatchServiceException e) {
+                break;
+            }
+
+            long now = System.currentTimeMillis();
+            ingestCompletePhotos(now);
+            if (now - lastFlush >= FLUSH_MILLIS) {
+                lastFlush = now;
+                if (indexesChanged.getAndSet(false)) handler.saveIndexes();
+            }
+        }
+        Log.i(TAG, "Stopped watching, " + ingested.get() + " photos ingested");
+    }
+
+    /**
+     * Number of photos uploaded and added to the database so far.
+     */
+    public int getIngested() {
+        return ingested.get();
+    }
+
+    /**
+     * Stops watching. Photos which are being uploaded are finished by the handler.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+    }
+
+    private void register(Path folder) throws IOException {
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                watchedFolders.put(directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY), directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void handle(WatchKey key) throws IOException {
+        Path folder = watchedFolders.get(key);
+        long now = System.currentTimeMillis();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (folder == null) break;
+
+            if (event.kind() == OVERFLOW) {
+                // Events were lost, look at everything again
+                rescan(folder, now);
+                continue;
+            }
+
+            Path path = folder.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                register(path);
+                // Files may have landed before the folder was registered
+                rescan(path, now);
+            } else {
+                track(path, now);
+            }
+        }
+        if (!key.reset()) watchedFolders.remove(key);
+    }
+
+    private void rescan(Path folder, long now) throws IOException {
+        for (IngestItem item : TripScanner.scan(folder, 1)) {
+            track(item.getImage(), now);
+        }
+    }
+
+    private void track(Path file, long now) {
+        String base = getBase(file.toString());
+        if (base == null || seen.contains(base) || ingesting.contains(base)) return;
+        pending.computeIfAbsent(base, Candidate::new).lastChange = now;
+    }
+
+    private void ingestCompletePhotos(long now) {
+        Iterator<Candidate> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            Candidate candidate = iterator.next();
+            if (now - candidate.lastChange < STABLE_MILLIS) continue;
+
+            Path image = Paths.get(candidate.base + TripScanner.IMAGE_SUFFIX);
+            Path sidecar = Paths.get(candidate.base + TripScanner.SIDECAR_SUFFIX);
+            long imageSize;
+            long sidecarSize;
+            try {
+                // Wait for the other half
+                if (!Files.exists(image) || !Files.exists(sidecar)) continue;
+                imageSize = Files.size(image);
+                sidecarSize = Files.size(sidecar);
+            } catch (IOException e) {
+                // Moved away or deleted while it was being checked
+                iterator.remove();
+                continue;
+            }
+
+            if (imageSize == 0 || imageSize != candidate.imageSize || sidecarSize != candidate.sidecarSize) {
+                candidate.imageSize = imageSize;
+                candidate.sidecarSize = sidecarSize;
+                candidate.lastChange = now;
+                continue;
+            }
+
+            iterator.remove();
+            ingest(candidate.base, image, sidecar);
+        }
+    }
+
+    private void ingest(String base, Path image, Path sidecar) {
+        Log.v(TAG, "Ingesting " + image);
+        ingesting.add(base);
+        FileHolder upload = handler.newFileHolder(image.toFile(), sidecar.toFile());
+        upload.setUploadFailureListener((error) -> {
+            Log.e(TAG, error);
+            ingesting.remove(base);
+        });
+        upload.setDbFailureListener((error) -> {
+            Log.e(TAG, error);
+            ingesting.remove(base);
+        });
+        upload.setDbUpdateCompletionListener((fileHolder) -> {
+            seen.add(base);
+            ingesting.remove(base);
+            indexesChanged.set(true);
+            Log.i(TAG, ingested.incrementAndGet() + " INGESTED: " + fileHolder.getKey());
+        });
+        handler.upload(upload, routeNumber);
+    }
+
+    /**
+     * Returns the path of the photo without the suffix, or null if the file doesn't belong to a photo.
+     */
+    private static String getBase(String path) {
+        if (path.endsWith(TripScanner.IMAGE_SUFFIX)) return path.substring(0, path.length() - TripScanner.IMAGE_SUFFIX.length());
+        if (path.endsWith(TripScanner.SIDECAR_SUFFIX)) return path.substring(0, path.length() - TripScanner.SIDECAR_SUFFIX.length());
+        return null;
+    }
+
+    private static final class Candidate {
+
+        private final String base;
+        private long imageSize = -1;
+        private long sidecarSize = -1;
+        private long lastChange;
+
+        Candidate(String base) {
+            this.base = base;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Classes responsible for finding the photos of a trip and feeding them to a bucket.
+ */
+package client.ingest;
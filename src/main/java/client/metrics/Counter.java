@@ -0,0 +1,45 @@
+package client.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events, e.g. failures. Increments from many threads don't contend.
+ */
+public final class Counter extends Metric {
+
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name, String help, String labels) {
+        super(name, help, labels);
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void increment(long n) {
+        count.add(n);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+
+    @Override
+    String getType() {
+        return "counter";
+    }
+
+    @Override
+    void write(Writer out) throws IOException {
+        out.write(sample("", "") + " " + get() + "\n");
+    }
+
+    @Override
+    void collect(Map<String, Object> attributes) {
+        attributes.put(attribute(""), get());
+    }
+}
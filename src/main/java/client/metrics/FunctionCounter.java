@@ -0,0 +1,39 @@
+package client.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * A count kept by someone else and read whenever the metrics are exported, e.g. the hits of a cache.
+ * The count may only go up, or back to 0 when its source is replaced.
+ */
+public final class FunctionCounter extends Metric {
+
+    private final LongSupplier count;
+
+    FunctionCounter(String name, String help, LongSupplier count) {
+        super(name, help, "");
+        this.count = count;
+    }
+
+    public long get() {
+        return count.getAsLong();
+    }
+
+    @Override
+    String getType() {
+        return "counter";
+    }
+
+    @Override
+    void write(Writer out) throws IOException {
+        out.write(sample("", "") + " " + get() + "\n");
+    }
+
+    @Override
+    void collect(Map<String, Object> attributes) {
+        attributes.put(attribute(""), get());
+    }
+}
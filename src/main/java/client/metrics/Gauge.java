@@ -0,0 +1,38 @@
+package client.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A value read whenever the metrics are exported, e.g. the length of a queue.
+ */
+public final class Gauge extends Metric {
+
+    private final DoubleSupplier value;
+
+    Gauge(String name, String help, DoubleSupplier value) {
+        super(name, help, "");
+        this.value = value;
+    }
+
+    public double get() {
+        return value.getAsDouble();
+    }
+
+    @Override
+    String getType() {
+        return "gauge";
+    }
+
+    @Override
+    void write(Writer out) throws IOException {
+        out.write(sample("", "") + " " + format(get()) + "\n");
+    }
+
+    @Override
+    void collect(Map<String, Object> attributes) {
+        attributes.put(attribute(""), get());
+    }
+}
@@ -0,0 +1,109 @@
+package client.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts observed values in fixed buckets, so percentiles can be estimated without keeping the values.
+ *
+ * Buckets are given by their (inclusive) upper bounds, a last bucket catches everything above them.
+ * Percentiles are interpolated within a bucket, so they are only as precise as the buckets.
+ */
+public class Histogram extends Metric {
+
+    private final double[] bounds;
+    private final LongAdder[] counts;
+    private final DoubleAdder sum = new DoubleAdder();
+    private final DoubleAccumulator max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+
+    Histogram(String name, String help, double[] bounds) {
+        super(name, help, "");
+        this.bounds = bounds.clone();
+        Arrays.sort(this.bounds);
+        this.counts = new LongAdder[this.bounds.length + 1];
+        for (int i = 0; i < counts.length; i++) counts[i] = new LongAdder();
+    }
+
+    public void observe(double value) {
+        int bucket = Arrays.binarySearch(bounds, value);
+        if (bucket < 0) bucket = -bucket - 1;
+        counts[bucket].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : counts) count += bucket.sum();
+        return count;
+    }
+
+    public double getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Returns the largest value observed, or NaN if there was none.
+     */
+    public double getMax() {
+        double value = max.get();
+        return value == Double.NEGATIVE_INFINITY ? Double.NaN : value;
+    }
+
+    /**
+     * Estimates the value below which the given fraction (0 to 1) of the observed values lie, or NaN if there was none.
+     */
+    public double getPercentile(double fraction) {
+        long[] snapshot = new long[counts.length];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+            count += snapshot[i];
+        }
+        if (count == 0) return Double.NaN;
+
+        double rank = fraction * count;
+        long below = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] > 0 && below + snapshot[i] >= rank) {
+                double lower = i == 0 ? Math.min(0, bounds.length > 0 ? bounds[0] : 0) : bounds[i - 1];
+                double upper = i < bounds.length ? bounds[i] : getMax();
+                if (!(upper > lower)) return upper;
+                return lower + (upper - lower) * (rank - below) / snapshot[i];
+            }
+            below += snapshot[i];
+        }
+        return getMax();
+    }
+
+    @Override
+    String getType() {
+        return "histogram";
+    }
+
+    @Override
+    void write(Writer out) throws IOException {
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i].sum();
+            String bound = i < bounds.length ? format(bounds[i]) : "+Inf";
+            out.write(sample("_bucket", "le=\"" + bound + "\"") + " " + cumulative + "\n");
+        }
+        out.write(sample("_sum", "") + " " + format(getSum()) + "\n");
+        out.write(sample("_count", "") + " " + cumulative + "\n");
+    }
+
+    @Override
+    void collect(Map<String, Object> attributes) {
+        attributes.put(attribute("_count"), getCount());
+        attributes.put(attribute("_sum"), getSum());
+        attributes.put(attribute("_max"), getMax());
+        attributes.put(attribute("_p50"), getPercentile(0.5));
+        attributes.put(attribute("_p99"), getPercentile(0.99));
+    }
+}
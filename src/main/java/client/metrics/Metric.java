@@ -0,0 +1,74 @@
+package client.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * A named measurement, optionally told apart from others of the same name by a single label.
+ */
+public abstract class Metric {
+
+    private final String name;
+    private final String help;
+    private final String labels;
+
+    Metric(String name, String help, String labels) {
+        this.name = name;
+        this.help = help;
+        this.labels = labels;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    /**
+     * Returns the labels in the text format, e.g. type="db", or an empty string.
+     */
+    String getLabels() {
+        return labels;
+    }
+
+    /**
+     * The metric type of the text format: counter, gauge or histogram.
+     */
+    abstract String getType();
+
+    /**
+     * Writes the samples of this metric in the Prometheus text format, without the HELP and TYPE lines.
+     */
+    abstract void write(Writer out) throws IOException;
+
+    /**
+     * Adds the current values to the attributes exposed over JMX.
+     */
+    abstract void collect(Map<String, Object> attributes);
+
+    /**
+     * Returns the name of a sample with the labels of this metric, plus an optional extra label.
+     */
+    String sample(String suffix, String extraLabel) {
+        String allLabels = labels.isEmpty() ? extraLabel : extraLabel.isEmpty() ? labels : labels + "," + extraLabel;
+        return name + suffix + (allLabels.isEmpty() ? "" : "{" + allLabels + "}");
+    }
+
+    /**
+     * Returns the name of an attribute exposed over JMX, which can't contain the quotes of the labels.
+     */
+    String attribute(String suffix) {
+        if (labels.isEmpty()) return name + suffix;
+        return name + suffix + "." + labels.replace("\"", "");
+    }
+
+    static String format(double value) {
+        if (value == Double.POSITIVE_INFINITY) return "+Inf";
+        if (value == Double.NEGATIVE_INFINITY) return "-Inf";
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+}
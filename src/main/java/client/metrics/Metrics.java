@@ -0,0 +1,144 @@
+package client.metrics;
+
+import client.util.Log;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the metrics of the client.
+ *
+ * Metrics are created on first use and live as long as the client, so they are usually kept in static fields:
+ *      private static final Timer DB_INSERT = Metrics.timer("bsv_db_insert_seconds", "...");
+ *
+ * Every metric is exposed over JMX as an attribute of the MBean {@value #OBJECT_NAME} (histograms as their
+ * count, sum, max and estimated percentiles), and can be written in the Prometheus text format, see {@link #write(Writer)}.
+ */
+public final class Metrics {
+
+    private static final String TAG = "Metrics";
+
+    public static final String OBJECT_NAME = "client:type=Metrics";
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String FAILURES = "bsv_failures_total";
+
+//    Sorted by name, so samples of the same metric are written together
+    private static final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            Log.w(TAG, "Metrics are not available over JMX: " + e.toString());
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String help) {
+        return get(name, "", Counter.class, () -> new Counter(name, help, ""));
+    }
+
+    /**
+     * Returns the counter of the given name and label value, e.g. the failures of a type.
+     */
+    public static Counter counter(String name, String help, String label, String value) {
+        String labels = label + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        return get(name, labels, Counter.class, () -> new Counter(name, help, labels));
+    }
+
+    public static Timer timer(String name, String help) {
+        return get(name, "", Timer.class, () -> new Timer(name, help));
+    }
+
+    /**
+     * @param buckets Upper bounds of the buckets
+     */
+    public static Histogram histogram(String name, String help, double... buckets) {
+        return get(name, "", Histogram.class, () -> new Histogram(name, help, buckets));
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge of the same name, e.g. one of a closed bucket handler.
+     */
+    public static Gauge gauge(String name, String help, DoubleSupplier value) {
+        Gauge gauge = new Gauge(name, help, value);
+        metrics.put(name, gauge);
+        return gauge;
+    }
+
+    /**
+     * Registers a counter read from the given source, replacing any counter of the same name, e.g. one of a closed cache.
+     */
+    public static FunctionCounter counter(String name, String help, LongSupplier count) {
+        FunctionCounter counter = new FunctionCounter(name, help, count);
+        metrics.put(name, counter);
+        return counter;
+    }
+
+    /**
+     * Removes a gauge, so it no longer keeps its source alive.
+     */
+    public static void remove(String name) {
+        metrics.remove(name);
+    }
+
+    /**
+     * Removes a gauge or a counter read from a source, unless it has already been replaced by another one of the same name.
+     */
+    public static void remove(Metric metric) {
+        metrics.remove(metric.getName(), metric);
+    }
+
+    /**
+     * Counts a failure of the given type, e.g. "upload" or "db".
+     */
+    public static void failure(String type) {
+        counter(FAILURES, "Failures by type", "type", type).increment();
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format.
+     */
+    public static void write(Writer out) throws IOException {
+        String previousName = null;
+        for (Metric metric : metrics.values()) {
+            if (!metric.getName().equals(previousName)) {
+                out.write("# HELP " + metric.getName() + " " + metric.getHelp().replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+                out.write("# TYPE " + metric.getName() + " " + metric.getType() + "\n");
+                previousName = metric.getName();
+            }
+            metric.write(out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns the current values of every metric, keyed by their JMX attribute names.
+     */
+    static Map<String, Object> collect() {
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        for (Metric metric : metrics.values()) metric.collect(attributes);
+        return attributes;
+    }
+
+    private static <T extends Metric> T get(String name, String labels, Class<T> type, Supplier<T> factory) {
+        String key = labels.isEmpty() ? name : name + "{" + labels + "}";
+        Metric metric = metrics.computeIfAbsent(key, k -> factory.get());
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(key + " is a " + metric.getType() + ", not a " + type.getSimpleName());
+        }
+        return type.cast(metric);
+    }
+}
@@ -0,0 +1,57 @@
+package client.metrics;
+
+import javax.management.*;
+import java.util.Map;
+
+/**
+ * Exposes every metric of the {@link Metrics} registry as a read only JMX attribute,
+ * e.g. to watch a long running client with jconsole.
+ * Metrics created after a JMX client connected show up once it reloads the MBean info.
+ */
+final class MetricsMBean implements DynamicMBean {
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Object value = Metrics.collect().get(attribute);
+        if (value == null) throw new AttributeNotFoundException(attribute);
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Object> values = Metrics.collect();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Object value = values.get(attribute);
+            if (value != null) list.add(new Attribute(attribute, value));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException {
+        throw new MBeanException(new UnsupportedOperationException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Object> values = Metrics.collect();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                    entry.getKey(), true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Metrics of the client", attributes, null, null, null);
+    }
+}
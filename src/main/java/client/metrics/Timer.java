@@ -0,0 +1,40 @@
+package client.metrics;
+
+/**
+ * A histogram of durations in seconds.
+ *
+ * Usage:
+ *      long start = TIMER.start();
+ *      ...
+ *      TIMER.stop(start);
+ */
+public final class Timer extends Histogram {
+
+    static final double[] BUCKETS = {
+            0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+
+    Timer(String name, String help) {
+        super(name, help, BUCKETS);
+    }
+
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time since start, as returned by {@link #start()}.
+     */
+    public void stop(long start) {
+        observe((System.nanoTime() - start) / 1e9);
+    }
+
+    public void time(Runnable task) {
+        long start = start();
+        try {
+            task.run();
+        } finally {
+            stop(start);
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Classes responsible for measuring the client at runtime and exposing the measurements over JMX and as text.
+ */
+package client.metrics;
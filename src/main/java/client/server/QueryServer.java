@@ -0,0 +1,316 @@
+package client.server;
+
+import client.PhotoSet;
+import client.databaseConnections.ImageMetadata;
+import client.databaseConnections.PhotoPage;
+import client.handler.BucketHandler;
+import client.metrics.Metrics;
+import client.metrics.Timer;
+import client.util.Log;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Answers queries over HTTP, keeping the spatial indexes, the metadata cache and the database connections
+ * of a bucket handler warm between requests.
+ *
+ * Every endpoint answers GET requests with JSON:
+ *      <li> /geo?latitude=..&longitude=..&radius=..[&max=..][&takenFrom=..&takenTo=..][&facing=true&maxAngle=..]
+ *           photos around a point, closest (or best view) first
+ *      <li> /route?id=..[&cursor=..][&pageSize=..] photos of a route in the order they were taken
+ *      <li> /time?from=..&to=..[&uploaded=true][&cursor=..][&pageSize=..] photos taken (or uploaded) within a time window
+ * Times are local date times, e.g. 2018-08-31T10:15. Paged responses contain the cursor of the next page, or null.
+ * Invalid parameters are answered with 400 and {"error": "..."}.
+ * /metrics answers with the metrics of the client in the Prometheus text format, see {@link Metrics}.
+ */
+public class QueryServer implements Closeable {
+
+    private static final String TAG = "QueryServer";
+
+    private static final int DEFAULT_MAX_RESULTS = 100;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 10000;
+
+    private static final Timer REQUESTS = Metrics.timer("bsv_http_request_seconds", "Answering a query over HTTP");
+
+//    Gson instances are thread safe and cache their type adapters
+    private static final Gson GSON = new Gson();
+
+    private final BucketHandler bucketHandler;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    /**
+     * @param threads Number of requests answered at the same time
+     */
+    public QueryServer(BucketHandler bucketHandler, InetSocketAddress address, int threads) throws IOException {
+        this.bucketHandler = bucketHandler;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/geo", new JsonHandler(this::geo));
+        server.createContext("/route", new JsonHandler(this::route));
+        server.createContext("/time", new JsonHandler(this::time));
+        server.createContext("/metrics", QueryServer::writeMetrics);
+    }
+
+    public void start() {
+        server.start();
+        Log.i(TAG, "Listening on " + server.getAddress());
+    }
+
+    /**
+     * Blocks until the server is closed.
+     */
+    public void awaitClose() throws InterruptedException {
+        closed.await();
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        closed.countDown();
+    }
+
+    private static void writeMetrics(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", Metrics.CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                Metrics.write(out);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Answer geo(Map<String, String> parameters) throws IOException {
+        double latitude = getDouble(parameters, "latitude", null);
+        double longitude = getDouble(parameters, "longitude", null);
+        double radius = getDouble(parameters, "radius", null);
+        int maxResults = getInt(parameters, "max", DEFAULT_MAX_RESULTS);
+
+        PhotoSet set;
+        if (Boolean.parseBoolean(parameters.get("facing"))) {
+            set = bucketHandler.getPhotosFacing(latitude, longitude, radius, getDouble(parameters, "maxAngle", 45.0), maxResults);
+        } else if (parameters.containsKey("takenFrom") || parameters.containsKey("takenTo")) {
+            set = bucketHandler.getPhotosAround(latitude, longitude, radius, maxResults,
+                    getDateTime(parameters, "takenFrom", LocalDateTime.MIN),
+                    getDateTime(parameters, "takenTo", LocalDateTime.MAX));
+        } else {
+            set = bucketHandler.streamPhotosAround(latitude, longitude, radius, maxResults);
+        }
+        if (set == null) throw new IOException("Query failed");
+        return out -> writeSet(set, latitude, longitude, out);
+    }
+
+    private void writeSet(PhotoSet set, double latitude, double longitude, JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name("latitude").value(latitude);
+        out.name("longitude").value(longitude);
+        out.name("photos").beginArray();
+        // Photos are written as soon as their metadata has been fetched
+        IOException[] failure = new IOException[1];
+        set.forEach(i -> {
+            if (failure[0] != null) return;
+            try {
+                out.beginObject();
+                out.name("id").value(set.getId(i));
+                out.name("rank").value(i + 1);
+                out.name("distance").value(set.getDistance(i));
+                out.name("imageMetadata");
+                GSON.toJson(set.getImage(i), ImageMetadata.class, out);
+                out.endObject();
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) throw failure[0];
+        out.endArray();
+        out.endObject();
+    }
+
+    private Answer route(Map<String, String> parameters) throws IOException {
+        int routeId = getInt(parameters, "id", null);
+        PhotoPage page = bucketHandler.getPhotosOnRoute(routeId, getCursor(parameters), getPageSize(parameters));
+        if (page == null) throw new IOException("Query failed");
+        return out -> writePage(page, out);
+    }
+
+    private Answer time(Map<String, String> parameters) throws IOException {
+        LocalDateTime from = getDateTime(parameters, "from", null);
+        LocalDateTime to = getDateTime(parameters, "to", null);
+        PhotoPage page = Boolean.parseBoolean(parameters.get("uploaded"))
+                ? bucketHandler.getPhotosUploadedBetween(from, to, getCursor(parameters), getPageSize(parameters))
+                : bucketHandler.getPhotosTakenBetween(from, to, getCursor(parameters), getPageSize(parameters));
+        if (page == null) throw new IOException("Query failed");
+        return out -> writePage(page, out);
+    }
+
+    private void writePage(PhotoPage page, JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name("photos").beginArray();
+        for (ImageMetadata metadata : page.getImages()) GSON.toJson(metadata, ImageMetadata.class, out);
+        out.endArray();
+        out.name("next").value(page.hasNext() ? page.getNext().toString() : null);
+        out.endObject();
+    }
+
+// --------------------------------------------------------------------------------------------------------------------
+
+    @Nullable
+    private static PhotoPage.Cursor getCursor(Map<String, String> parameters) {
+        String cursor = parameters.get("cursor");
+        return cursor == null || cursor.isEmpty() ? null : PhotoPage.Cursor.parse(cursor);
+    }
+
+    private static int getPageSize(Map<String, String> parameters) {
+        int pageSize = getInt(parameters, "pageSize", DEFAULT_PAGE_SIZE);
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) throw new IllegalArgumentException("pageSize must be within [1, " + MAX_PAGE_SIZE + "]");
+        return pageSize;
+    }
+
+    private static double getDouble(Map<String, String> parameters, String name, @Nullable Double defaultValue) {
+        String value = getParameter(parameters, name, defaultValue);
+        try {
+            return value == null ? defaultValue : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    private static int getInt(Map<String, String> parameters, String name, @Nullable Integer defaultValue) {
+        String value = getParameter(parameters, name, defaultValue);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    private static LocalDateTime getDateTime(Map<String, String> parameters, String name, @Nullable LocalDateTime defaultValue) {
+        String value = getParameter(parameters, name, defaultValue);
+        try {
+            return value == null ? defaultValue : LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    /**
+     * Returns null if the parameter is missing and has a default value.
+     */
+    @Nullable
+    private static String getParameter(Map<String, String> parameters, String name, @Nullable Object defaultValue) {
+        String value = parameters.get(name);
+        if (value == null && defaultValue == null) throw new IllegalArgumentException("Missing parameter: " + name);
+        return value;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a parameter is not properly encoded
+     */
+    private static Map<String, String> parseQuery(@Nullable String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) return parameters;
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) continue;
+            int separator = pair.indexOf('=');
+            String name = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return parameters;
+    }
+
+    /**
+     * Runs a query, throwing IllegalArgumentException for invalid parameters.
+     * Nothing is sent to the client until the query has been answered.
+     */
+    private interface Query {
+        Answer answer(Map<String, String> parameters) throws IOException;
+    }
+
+    /**
+     * Streams the answer of a query.
+     */
+    private interface Answer {
+        void write(JsonWriter out) throws IOException;
+    }
+
+    /**
+     * Parses the parameters, streams the JSON answer and turns failures into error responses.
+     */
+    private static class JsonHandler implements HttpHandler {
+
+        private final Query query;
+
+        JsonHandler(Query query) {
+            this.query = query;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            long start = REQUESTS.start();
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    sendError(exchange, 405, "Only GET is supported");
+                    return;
+                }
+
+                Answer answer;
+                try {
+                    answer = query.answer(parseQuery(exchange.getRequestURI().getRawQuery()));
+                } catch (IllegalArgumentException e) {
+                    sendError(exchange, 400, e.getMessage());
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, exchange.getRequestURI() + ": " + e.toString());
+                    Metrics.failure("query");
+                    sendError(exchange, 500, "Query failed");
+                    return;
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(200, 0);
+                try (JsonWriter out = new JsonWriter(new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)))) {
+                    answer.write(out);
+                } catch (IOException | RuntimeException e) {
+                    // Usually the client went away, the status has already been sent
+                    Log.w(TAG, exchange.getRequestURI() + ": " + e.toString());
+                }
+            } finally {
+                exchange.close();
+                REQUESTS.stop(start);
+                Log.v(TAG, exchange.getRequestURI() + " answered in " + (System.nanoTime() - start) / 1000000 + "ms");
+            }
+        }
+
+        private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+            byte[] body = ("{\"error\":" + GSON.toJson(message) + "}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Classes responsible for answering queries of other tools while the client keeps running.
+ */
+package client.server;
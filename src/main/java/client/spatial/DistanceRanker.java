@@ -0,0 +1,190 @@
+package client.spatial;
+
+/**
+ * Ranks candidate photos by their distance from a point.
+ *
+ * Distances are computed in one pass over primitive latitude / longitude arrays, the closest ones are selected
+ * and only those are sorted with {@link IndexSort}, so ranking doesn't allocate anything per candidate.
+ * The cheap precision is used for every candidate, and the exact one only for the top results.
+ */
+public final class DistanceRanker {
+
+    // WGS84 ellipsoid
+    private static final double SEMI_MAJOR_AXIS = 6378137.0;
+    private static final double FLATTENING = 1 / 298.257223563;
+    private static final double SEMI_MINOR_AXIS = SEMI_MAJOR_AXIS * (1 - FLATTENING);
+    // The ellipsoid is curved the least north-south at the equator, and the most at the poles (in every direction)
+    private static final double MIN_RADIUS_OF_CURVATURE = SEMI_MINOR_AXIS * SEMI_MINOR_AXIS / SEMI_MAJOR_AXIS;
+    private static final double MAX_RADIUS_OF_CURVATURE = SEMI_MAJOR_AXIS * SEMI_MAJOR_AXIS / SEMI_MINOR_AXIS;
+
+    /**
+     * A spherical distance is between R / MAX_RADIUS_OF_CURVATURE and R / MIN_RADIUS_OF_CURVATURE times the ellipsoidal one,
+     * so a candidate can only overtake the last of the top results if its spherical distance is within
+     * MAX_RADIUS_OF_CURVATURE / MIN_RADIUS_OF_CURVATURE (about 1.0101) of it. Those candidates are re-ranked as well.
+     * The equirectangular distance adds well under 0.01% to that at the distances it is meant for.
+     */
+    private static final double RERANK_MARGIN = MAX_RADIUS_OF_CURVATURE / MIN_RADIUS_OF_CURVATURE * 1.0001;
+    private static final int MAX_ITERATIONS = 200;
+    private static final double CONVERGENCE = 1e-12;
+
+    public enum Precision {
+        /**
+         * Flat earth approximation, accurate to well under a metre at street level distances
+         */
+        EQUIRECTANGULAR,
+        /**
+         * Great circle distance on a sphere, within 0.6% of the ellipsoidal distance
+         */
+        HAVERSINE,
+        /**
+         * Vincenty's inverse formula on the WGS84 ellipsoid, accurate to within a millimetre
+         */
+        ELLIPSOIDAL
+    }
+
+    private DistanceRanker() {
+    }
+
+    /**
+     * Writes the distance in meters of the first n points from the given point into distances.
+     */
+    public static void distances(double latitude, double longitude,
+                                 double[] latitudes, double[] longitudes, int n,
+                                 Precision precision, double[] distances) {
+        switch (precision) {
+            case EQUIRECTANGULAR:
+                double phi = Math.toRadians(latitude);
+                for (int i = 0; i < n; i++) {
+                    double x = Math.toRadians(normalizeLongitude(longitudes[i] - longitude)) * Math.cos((phi + Math.toRadians(latitudes[i])) / 2);
+                    double y = Math.toRadians(latitudes[i] - latitude);
+                    distances[i] = GeoMath.EARTH_RADIUS_METERS * Math.sqrt(x * x + y * y);
+                }
+                break;
+            case HAVERSINE:
+                for (int i = 0; i < n; i++) {
+                    distances[i] = GeoMath.haversineMeters(latitude, longitude, latitudes[i], longitudes[i]);
+                }
+                break;
+            case ELLIPSOIDAL:
+                for (int i = 0; i < n; i++) {
+                    distances[i] = ellipsoidalMeters(latitude, longitude, latitudes[i], longitudes[i]);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Returns the indices of the (at most) maxResults points closest to the given point, closest first.
+     * Every point is measured with the coarse precision, and the closest ones again with the fine precision.
+     *
+     * @param distances Receives the distance of every point. The distances of the ranked points use the fine precision.
+     */
+    public static int[] rank(double latitude, double longitude,
+                             double[] latitudes, double[] longitudes, int n, int maxResults,
+                             Precision coarse, Precision fine, double[] distances) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        int count = Math.min(Math.max(maxResults, 0), n);
+        if (count == 0) return new int[0];
+
+        distances(latitude, longitude, latitudes, longitudes, n, coarse, distances);
+        IndexSort.select(order, 0, n, count, distances);
+
+        // Points just behind the cut might overtake the last selected ones with the fine precision
+        int candidates = count;
+        if (fine != coarse && count < n) {
+            double cutoff = 0;
+            for (int i = 0; i < count; i++) cutoff = Math.max(cutoff, distances[order[i]]);
+            cutoff *= RERANK_MARGIN;
+            for (int i = count; i < n; i++) {
+                if (distances[order[i]] <= cutoff) {
+                    int temp = order[candidates];
+                    order[candidates++] = order[i];
+                    order[i] = temp;
+                }
+            }
+        }
+
+        if (fine != coarse) {
+            for (int i = 0; i < candidates; i++) {
+                int index = order[i];
+                distances[index] = distance(latitude, longitude, latitudes[index], longitudes[index], fine);
+            }
+        }
+        IndexSort.sort(order, 0, candidates, distances);
+
+        int[] ranked = new int[count];
+        System.arraycopy(order, 0, ranked, 0, count);
+        return ranked;
+    }
+
+    public static double distance(double latitude1, double longitude1, double latitude2, double longitude2, Precision precision) {
+        switch (precision) {
+            case EQUIRECTANGULAR:
+                double x = Math.toRadians(normalizeLongitude(longitude2 - longitude1)) * Math.cos(Math.toRadians(latitude1 + latitude2) / 2);
+                double y = Math.toRadians(latitude2 - latitude1);
+                return GeoMath.EARTH_RADIUS_METERS * Math.sqrt(x * x + y * y);
+            case HAVERSINE:
+                return GeoMath.haversineMeters(latitude1, longitude1, latitude2, longitude2);
+            default:
+                return ellipsoidalMeters(latitude1, longitude1, latitude2, longitude2);
+        }
+    }
+
+    /**
+     * Vincenty's inverse formula. Falls back to the haversine distance for nearly antipodal points,
+     * for which the iteration doesn't converge.
+     */
+    public static double ellipsoidalMeters(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double l = Math.toRadians(normalizeLongitude(longitude2 - longitude1));
+        double u1 = Math.atan((1 - FLATTENING) * Math.tan(Math.toRadians(latitude1)));
+        double u2 = Math.atan((1 - FLATTENING) * Math.tan(Math.toRadians(latitude2)));
+        double sinU1 = Math.sin(u1);
+        double cosU1 = Math.cos(u1);
+        double sinU2 = Math.sin(u2);
+        double cosU2 = Math.cos(u2);
+
+        double lambda = l;
+        double sinSigma, cosSigma, sigma, cos2Alpha, cos2SigmaM;
+        int iterations = 0;
+        while (true) {
+            double sinLambda = Math.sin(lambda);
+            double cosLambda = Math.cos(lambda);
+            double a = cosU2 * sinLambda;
+            double b = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            sinSigma = Math.sqrt(a * a + b * b);
+            if (sinSigma == 0) return 0;
+
+            cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            cos2Alpha = 1 - sinAlpha * sinAlpha;
+            // On the equator cos2Alpha is 0
+            cos2SigmaM = cos2Alpha == 0 ? 0 : cosSigma - 2 * sinU1 * sinU2 / cos2Alpha;
+
+            double c = FLATTENING / 16 * cos2Alpha * (4 + FLATTENING * (4 - 3 * cos2Alpha));
+            double previous = lambda;
+            lambda = l + (1 - c) * FLATTENING * sinAlpha
+                    * (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+
+            if (Math.abs(lambda - previous) < CONVERGENCE) break;
+            if (++iterations >= MAX_ITERATIONS) {
+                return GeoMath.haversineMeters(latitude1, longitude1, latitude2, longitude2);
+            }
+        }
+
+        double uSquared = cos2Alpha * (SEMI_MAJOR_AXIS * SEMI_MAJOR_AXIS - SEMI_MINOR_AXIS * SEMI_MINOR_AXIS) / (SEMI_MINOR_AXIS * SEMI_MINOR_AXIS);
+        double a = 1 + uSquared / 16384 * (4096 + uSquared * (-768 + uSquared * (320 - 175 * uSquared)));
+        double b = uSquared / 1024 * (256 + uSquared * (-128 + uSquared * (74 - 47 * uSquared)));
+        double deltaSigma = b * sinSigma * (cos2SigmaM + b / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                - b / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+
+        return SEMI_MINOR_AXIS * a * (sigma - deltaSigma);
+    }
+
+    private static double normalizeLongitude(double degrees) {
+        if (degrees > 180) return degrees - 360;
+        if (degrees < -180) return degrees + 360;
+        return degrees;
+    }
+}
@@ -0,0 +1,119 @@
+package client.spatial;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Encodes locations as geohashes: strings in which every character halves the cell
+ * alternately in longitude and latitude. Nearby locations share a prefix.
+ *
+ * A precision of 8 characters describes a cell of roughly 38m x 19m.
+ */
+public final class GeoHash {
+
+    private static final char[] BASE_32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private GeoHash() {
+    }
+
+    public static String encode(double latitude, double longitude, int precision) {
+        double minLatitude = -90;
+        double maxLatitude = 90;
+        double minLongitude = -180;
+        double maxLongitude = 180;
+
+        char[] hash = new char[precision];
+        boolean isLongitude = true;
+        for (int i = 0; i < precision; i++) {
+            int value = 0;
+            for (int bit = 0; bit < 5; bit++) {
+                value <<= 1;
+                if (isLongitude) {
+                    double middle = (minLongitude + maxLongitude) / 2;
+                    if (longitude >= middle) {
+                        value |= 1;
+                        minLongitude = middle;
+                    } else {
+                        maxLongitude = middle;
+                    }
+                } else {
+                    double middle = (minLatitude + maxLatitude) / 2;
+                    if (latitude >= middle) {
+                        value |= 1;
+                        minLatitude = middle;
+                    } else {
+                        maxLatitude = middle;
+                    }
+                }
+                isLongitude = !isLongitude;
+            }
+            hash[i] = BASE_32[value];
+        }
+        return new String(hash);
+    }
+
+    /**
+     * Returns the cells of the given precision which overlap the box, given in degrees.
+     * The box must not cross the antimeridian, see {@link GeoMath#boundingBoxes}.
+     */
+    public static Set<String> covering(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, int precision) {
+        double latitudeDegrees = cellHeightDegrees(precision);
+        double longitudeDegrees = cellWidthDegrees(precision);
+        int[] range = coveringRange(minLatitude, minLongitude, maxLatitude, maxLongitude, precision);
+
+        Set<String> cells = new LinkedHashSet<>();
+        for (int row = range[0]; row <= range[1]; row++) {
+            double latitude = -90 + (row + 0.5) * latitudeDegrees;
+            for (int column = range[2]; column <= range[3]; column++) {
+                cells.add(encode(latitude, -180 + (column + 0.5) * longitudeDegrees, precision));
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Returns the number of cells {@link #covering} would return, without creating them.
+     */
+    public static long coveringSize(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, int precision) {
+        int[] range = coveringRange(minLatitude, minLongitude, maxLatitude, maxLongitude, precision);
+        return Math.max(0, range[1] - range[0] + 1) * (long) Math.max(0, range[3] - range[2] + 1);
+    }
+
+    /**
+     * Returns the first and last row and the first and last column of the cells overlapping the box.
+     */
+    private static int[] coveringRange(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, int precision) {
+        double latitudeDegrees = cellHeightDegrees(precision);
+        double longitudeDegrees = cellWidthDegrees(precision);
+        int rows = (int) Math.round(180 / latitudeDegrees);
+        int columns = (int) Math.round(360 / longitudeDegrees);
+
+        // Cells are counted from the south west corner of the world, a box touching 90 or 180 ends in the last one
+        return new int[]{
+                Math.max(0, (int) Math.floor((minLatitude + 90) / latitudeDegrees)),
+                Math.min(rows - 1, (int) Math.floor((maxLatitude + 90) / latitudeDegrees)),
+                Math.max(0, (int) Math.floor((minLongitude + 180) / longitudeDegrees)),
+                Math.min(columns - 1, (int) Math.floor((maxLongitude + 180) / longitudeDegrees))
+        };
+    }
+
+    private static double cellHeightDegrees(int precision) {
+        return 180 / Math.pow(2, precision * 5 / 2);
+    }
+
+    private static double cellWidthDegrees(int precision) {
+        return 360 / Math.pow(2, (precision * 5 + 1) / 2);
+    }
+
+    /**
+     * Returns the length of the diagonal of a cell at the given latitude, in meters.
+     */
+    public static double cellDiagonalMeters(double latitude, int precision) {
+        double latitudeDegrees = cellHeightDegrees(precision);
+        double longitudeDegrees = cellWidthDegrees(precision);
+
+        double height = Math.toRadians(latitudeDegrees) * GeoMath.EARTH_RADIUS_METERS;
+        double width = Math.toRadians(longitudeDegrees) * GeoMath.EARTH_RADIUS_METERS * Math.cos(Math.toRadians(latitude));
+        return Math.sqrt(height * height + width * width);
+    }
+}
@@ -0,0 +1,73 @@
+package client.spatial;
+
+/**
+ * Geographic calculations on a spherical earth, working on primitive doubles only.
+ */
+public final class GeoMath {
+
+    public static final double EARTH_RADIUS_METERS = 6371008.8;
+
+    private GeoMath() {
+    }
+
+    /**
+     * Returns the latitude / longitude boxes enclosing every location within the given distance of a point.
+     * Each box is {min latitude, min longitude, max latitude, max longitude} in degrees.
+     *
+     * Usually there is one box. There are two if the area crosses the antimeridian,
+     * and the box spans every longitude if the area contains a pole.
+     *
+     * Based on: Jan Philip Matuschek, "Finding Points Within a Distance of a Latitude/Longitude Using Bounding Coordinates"
+     */
+    public static double[][] boundingBoxes(double latitude, double longitude, double radiusMeters) {
+        double angularRadius = radiusMeters / EARTH_RADIUS_METERS;
+        if (angularRadius >= Math.PI) {
+            return new double[][]{{-90, -180, 90, 180}};
+        }
+
+        double phi = Math.toRadians(latitude);
+        double minPhi = phi - angularRadius;
+        double maxPhi = phi + angularRadius;
+
+        if (minPhi <= -Math.PI / 2 || maxPhi >= Math.PI / 2) {
+            return new double[][]{{
+                    Math.toDegrees(Math.max(minPhi, -Math.PI / 2)),
+                    -180,
+                    Math.toDegrees(Math.min(maxPhi, Math.PI / 2)),
+                    180
+            }};
+        }
+
+        double deltaLongitude = Math.toDegrees(Math.asin(Math.sin(angularRadius) / Math.cos(phi)));
+        double minLatitude = Math.toDegrees(minPhi);
+        double maxLatitude = Math.toDegrees(maxPhi);
+        double minLongitude = longitude - deltaLongitude;
+        double maxLongitude = longitude + deltaLongitude;
+
+        if (minLongitude < -180) {
+            return new double[][]{
+                    {minLatitude, minLongitude + 360, maxLatitude, 180},
+                    {minLatitude, -180, maxLatitude, maxLongitude}
+            };
+        } else if (maxLongitude > 180) {
+            return new double[][]{
+                    {minLatitude, minLongitude, maxLatitude, 180},
+                    {minLatitude, -180, maxLatitude, maxLongitude - 360}
+            };
+        }
+        return new double[][]{{minLatitude, minLongitude, maxLatitude, maxLongitude}};
+    }
+
+    /**
+     * Great circle distance between two locations given in degrees.
+     */
+    public static double haversineMeters(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double sinHalfDeltaPhi = Math.sin((phi2 - phi1) / 2);
+        double sinHalfDeltaLambda = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+
+        double a = sinHalfDeltaPhi * sinHalfDeltaPhi + Math.cos(phi1) * Math.cos(phi2) * sinHalfDeltaLambda * sinHalfDeltaLambda;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
@@ -0,0 +1,222 @@
+package client.spatial;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * A bounded, least recently used cache of geographic search results.
+ *
+ * Queries are keyed by the geohash cell of the query point and the search radius,
+ * so repeated searches around the same spot share one entry.
+ * An entry has to hold every photo within {@link #getCachedRadius} of the point it was searched for,
+ * which covers the search radius around any other point of the same cell. Every hit therefore still has
+ * to be filtered by its own radius and cut to its own number of results.
+ * The cache is bounded by the total weight of its entries, e.g. the number of photos they hold,
+ * and the least recently used entries are dropped first.
+ * Whenever a photo is added or removed, every entry whose search area could contain that photo is dropped.
+ * The entries are found through the coarse geohash cells their search areas overlap, so only the entries
+ * around the photo are looked at.
+ *
+ * @param <V> The cached result
+ */
+public class GeoQueryCache<V> {
+
+    public static final int DEFAULT_PRECISION = 8;
+    // Cells of roughly 4.9km x 4.9km, through which the entries around a changed photo are found
+    private static final int INDEX_PRECISION = 5;
+    // Entries searching further are checked on every change, instead of being registered in thousands of cells
+    private static final double MAX_INDEXED_RADIUS_METERS = 50000;
+
+    private final int precision;
+    private final long maxWeight;
+    private final ToIntFunction<V> weigher;
+    private final LinkedHashMap<String, CachedQuery<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Map<String, CachedQuery<V>>> queriesByCell = new HashMap<>();
+    private final Map<String, CachedQuery<V>> unindexedQueries = new HashMap<>();
+
+    private long weight;
+    private long version;
+    private long hits;
+    private long misses;
+
+    public GeoQueryCache(int maxEntries) {
+        this(maxEntries, DEFAULT_PRECISION);
+    }
+
+    public GeoQueryCache(int maxEntries, int precision) {
+        this(maxEntries, precision, result -> 1);
+    }
+
+    /**
+     * @param maxWeight Largest total weight of the cached results
+     * @param weigher Weight of a result, e.g. the number of photos in it. Results heavier than maxWeight aren't cached
+     */
+    public GeoQueryCache(long maxWeight, int precision, ToIntFunction<V> weigher) {
+        this.precision = precision;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    private String getKey(double latitude, double longitude, double radiusMeters) {
+        return GeoHash.encode(latitude, longitude, precision) + "/" + radiusMeters;
+    }
+
+    /**
+     * Returns the radius a result has to be searched with before it is put into the cache:
+     * the given radius plus the diagonal of the cell of the point.
+     */
+    public double getCachedRadius(double latitude, double radiusMeters) {
+        return radiusMeters + GeoHash.cellDiagonalMeters(latitude, precision);
+    }
+
+    /**
+     * Returns the cached result of any point in the same cell, or null if there is none.
+     */
+    public synchronized V get(double latitude, double longitude, double radiusMeters) {
+        CachedQuery<V> query = entries.get(getKey(latitude, longitude, radiusMeters));
+        if (query == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return query.result;
+    }
+
+    /**
+     * Changes whenever an entry is invalidated. Pass it to {@link #put} to avoid caching a result
+     * that was computed while the underlying data changed.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Caches the result unless the cache was invalidated since the given version was read.
+     * Least recently used entries are dropped until the total weight fits again.
+     *
+     * @param result Every photo within {@link #getCachedRadius} of the point, not just the ones within the radius
+     */
+    public synchronized void put(double latitude, double longitude, double radiusMeters, V result, long version) {
+        if (version != this.version) return;
+        int resultWeight = weigher.applyAsInt(result);
+        if (resultWeight > maxWeight) return;
+
+        String key = getKey(latitude, longitude, radiusMeters);
+        CachedQuery<V> replaced = entries.remove(key);
+        if (replaced != null) forget(key, replaced);
+
+        double cachedRadius = getCachedRadius(latitude, radiusMeters);
+        Set<String> cells = cachedRadius > MAX_INDEXED_RADIUS_METERS ? null : getCells(latitude, longitude, cachedRadius);
+        CachedQuery<V> query = new CachedQuery<>(latitude, longitude, cachedRadius, result, resultWeight, cells);
+        entries.put(key, query);
+        weight += resultWeight;
+        if (cells == null) {
+            unindexedQueries.put(key, query);
+        } else {
+            for (String cell : cells) queriesByCell.computeIfAbsent(cell, c -> new HashMap<>()).put(key, query);
+        }
+
+        Iterator<Map.Entry<String, CachedQuery<V>>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight) {
+            Map.Entry<String, CachedQuery<V>> entry = eldest.next();
+            eldest.remove();
+            forget(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the coarse cells which overlap the area in which a change invalidates the query.
+     */
+    private Set<String> getCells(double latitude, double longitude, double radiusMeters) {
+        Set<String> cells = new HashSet<>();
+        double margin = GeoHash.cellDiagonalMeters(latitude, precision);
+        for (double[] box : GeoMath.boundingBoxes(latitude, longitude, radiusMeters + 2 * margin)) {
+            cells.addAll(GeoHash.covering(box[0], box[1], box[2], box[3], INDEX_PRECISION));
+        }
+        return cells;
+    }
+
+    /**
+     * Removes an entry, which has already been taken out of the entries, from the weight and the cells.
+     */
+    private void forget(String key, CachedQuery<V> query) {
+        weight -= query.weight;
+        if (query.cells == null) {
+            unindexedQueries.remove(key);
+            return;
+        }
+        for (String cell : query.cells) {
+            Map<String, CachedQuery<V>> queries = queriesByCell.get(cell);
+            if (queries == null) continue;
+            queries.remove(key);
+            if (queries.isEmpty()) queriesByCell.remove(cell);
+        }
+    }
+
+    /**
+     * Drops every entry whose search area could contain the given location.
+     */
+    public synchronized void invalidate(double latitude, double longitude) {
+        version++;
+        double margin = GeoHash.cellDiagonalMeters(latitude, precision);
+        Map<String, CachedQuery<V>> candidates = new HashMap<>(unindexedQueries);
+        Map<String, CachedQuery<V>> around = queriesByCell.get(GeoHash.encode(latitude, longitude, INDEX_PRECISION));
+        if (around != null) candidates.putAll(around);
+
+        for (Map.Entry<String, CachedQuery<V>> candidate : candidates.entrySet()) {
+            CachedQuery<V> query = candidate.getValue();
+            double distance = GeoMath.haversineMeters(query.latitude, query.longitude, latitude, longitude);
+            if (distance <= query.radiusMeters + margin) {
+                entries.remove(candidate.getKey());
+                forget(candidate.getKey(), query);
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        version++;
+        entries.clear();
+        queriesByCell.clear();
+        unindexedQueries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total weight of the cached results.
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static class CachedQuery<V> {
+
+        private final double latitude;
+        private final double longitude;
+        private final double radiusMeters;
+        private final V result;
+        private final int weight;
+        // Coarse cells the query is registered in, null if it is checked on every change
+        private final Set<String> cells;
+
+        CachedQuery(double latitude, double longitude, double radiusMeters, V result, int weight, Set<String> cells) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.radiusMeters = radiusMeters;
+            this.result = result;
+            this.weight = weight;
+            this.cells = cells;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package client.spatial;
+
+/**
+ * Sorts an array of indices by the values they point to, without boxing either of them.
+ */
+public final class IndexSort {
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private IndexSort() {
+    }
+
+    /**
+     * Sorts indices[from, to) so that keys[indices[i]] is ascending.
+     */
+    public static void sort(int[] indices, int from, int to, double[] keys) {
+        while (to - from > INSERTION_SORT_THRESHOLD) {
+            int pivotIndex = medianOfThree(indices, from, from + (to - from) / 2, to - 1, keys);
+            double pivot = keys[indices[pivotIndex]];
+
+            int i = from;
+            int j = to - 1;
+            while (i <= j) {
+                while (keys[indices[i]] < pivot) i++;
+                while (keys[indices[j]] > pivot) j--;
+                if (i <= j) {
+                    swap(indices, i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            // Recurse into the smaller half to bound the stack depth
+            if (j - from < to - i) {
+                sort(indices, from, j + 1, keys);
+                from = i;
+            } else {
+                sort(indices, i, to, keys);
+                to = j + 1;
+            }
+        }
+        insertionSort(indices, from, to, keys);
+    }
+
+    /**
+     * Reorders indices[from, to) so that the first k of them point to the k smallest keys, in no particular order.
+     * Runs in linear time on average, so it is much cheaper than sorting when k is small.
+     */
+    public static void select(int[] indices, int from, int to, int k, double[] keys) {
+        int target = from + k;
+        while (to - from > INSERTION_SORT_THRESHOLD) {
+            if (target <= from || target >= to) return;
+            int pivotIndex = medianOfThree(indices, from, from + (to - from) / 2, to - 1, keys);
+            double pivot = keys[indices[pivotIndex]];
+
+            int i = from;
+            int j = to - 1;
+            while (i <= j) {
+                while (keys[indices[i]] < pivot) i++;
+                while (keys[indices[j]] > pivot) j--;
+                if (i <= j) {
+                    swap(indices, i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            // [from, j] <= pivot <= [i, to), only the part containing the boundary needs more work
+            if (target <= j + 1) {
+                to = j + 1;
+            } else if (target >= i) {
+                from = i;
+            } else {
+                return;
+            }
+        }
+        insertionSort(indices, from, to, keys);
+    }
+
+    private static int medianOfThree(int[] indices, int a, int b, int c, double[] keys) {
+        double ka = keys[indices[a]];
+        double kb = keys[indices[b]];
+        double kc = keys[indices[c]];
+        if (ka < kb) {
+            if (kb < kc) return b;
+            return ka < kc ? c : a;
+        } else {
+            if (ka < kc) return a;
+            return kb < kc ? c : b;
+        }
+    }
+
+    private static void insertionSort(int[] indices, int from, int to, double[] keys) {
+        for (int i = from + 1; i < to; i++) {
+            int index = indices[i];
+            double key = keys[index];
+            int j = i - 1;
+            while (j >= from && keys[indices[j]] > key) {
+                indices[j + 1] = indices[j];
+                j--;
+            }
+            indices[j + 1] = index;
+        }
+    }
+
+    private static void swap(int[] indices, int i, int j) {
+        int temp = indices[i];
+        indices[i] = indices[j];
+        indices[j] = temp;
+    }
+}
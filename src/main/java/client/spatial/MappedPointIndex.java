@@ -0,0 +1,269 @@
+package client.spatial;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read only R-tree of points which is queried directly from a memory mapped file.
+ *
+ * Opening the index only maps the file, so its cost doesn't depend on the number of points.
+ * Only the nodes touched by a query are paged in, and ids are only decoded for matching points.
+ * The tree is packed with the Sort-Tile-Recursive algorithm when it is written.
+ *
+ * File layout (big endian):
+ *      <li> header: magic, version, number of points, node size, number of levels, level offsets
+ *      <li> levels: bounding boxes of the nodes (min lat, min lon, max lat, max lon), root level first
+ *      <li> leaves: latitude, longitude and id offset of every point
+ *      <li> ids: length prefixed UTF-8 strings
+ *
+ * A single index is limited to 2GB, which is roughly 35 million points.
+ */
+public final class MappedPointIndex {
+
+    private static final int MAGIC = 0x42535649; // BSVI
+    private static final int VERSION = 1;
+    private static final int NODE_SIZE = 16;
+    private static final int NODE_BYTES = 4 * 8;
+    private static final int LEAF_BYTES = 8 + 8 + 4;
+
+    /**
+     * Receives every point found by a search.
+     */
+    public interface Visitor {
+        void visit(String id, double latitude, double longitude);
+    }
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int nodeSize;
+    private final int[] levelCounts;
+    private final int[] levelOffsets;
+    private final int leafOffset;
+    private final int idOffset;
+
+    private MappedPointIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) throw new IOException("Not a point index");
+        this.size = buffer.getInt(8);
+        this.nodeSize = buffer.getInt(12);
+        int levels = buffer.getInt(16);
+
+        this.levelCounts = new int[levels];
+        this.levelOffsets = new int[levels];
+        int position = 20;
+        for (int level = 0; level < levels; level++) {
+            levelCounts[level] = buffer.getInt(position);
+            levelOffsets[level] = buffer.getInt(position + 4);
+            position += 8;
+        }
+        this.leafOffset = buffer.getInt(position);
+        this.idOffset = buffer.getInt(position + 4);
+    }
+
+    /**
+     * Maps an index written by {@link #write(Path, String[], double[], double[], int)}.
+     */
+    public static MappedPointIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedPointIndex(buffer);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Visits every point within the given bounding box (inclusive).
+     */
+    public void search(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, Visitor visitor) {
+        if (size == 0) return;
+        // Level 0 is the root, which is a single node
+        search(0, 0, minLatitude, minLongitude, maxLatitude, maxLongitude, visitor);
+    }
+
+    private void search(int level, int node, double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, Visitor visitor) {
+        int nodePosition = levelOffsets[level] + node * NODE_BYTES;
+        if (buffer.getDouble(nodePosition) > maxLatitude
+                || buffer.getDouble(nodePosition + 8) > maxLongitude
+                || buffer.getDouble(nodePosition + 16) < minLatitude
+                || buffer.getDouble(nodePosition + 24) < minLongitude) {
+            return;
+        }
+
+        boolean isLastLevel = level == levelCounts.length - 1;
+        int childCount = isLastLevel ? size : levelCounts[level + 1];
+        int from = node * nodeSize;
+        int to = Math.min(from + nodeSize, childCount);
+
+        for (int child = from; child < to; child++) {
+            if (!isLastLevel) {
+                search(level + 1, child, minLatitude, minLongitude, maxLatitude, maxLongitude, visitor);
+                continue;
+            }
+
+            int leafPosition = leafOffset + child * LEAF_BYTES;
+            double latitude = buffer.getDouble(leafPosition);
+            double longitude = buffer.getDouble(leafPosition + 8);
+            if (latitude >= minLatitude && latitude <= maxLatitude && longitude >= minLongitude && longitude <= maxLongitude) {
+                visitor.visit(readId(buffer.getInt(leafPosition + 16)), latitude, longitude);
+            }
+        }
+    }
+
+    private String readId(int offset) {
+        int position = idOffset + offset;
+        int length = buffer.getShort(position) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position + 2);
+        slice.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the first n points to the given file.
+     * The file is replaced atomically, so readers never see a partially written index.
+     */
+    public static void write(Path file, String[] ids, double[] latitudes, double[] longitudes, int n) throws IOException {
+        int[] order = sortTileRecursive(latitudes, longitudes, n);
+
+        // Bounding boxes of every level, from the nodes directly above the leaves up to the root
+        List<double[]> levels = new ArrayList<>();
+        if (n > 0) {
+            double[] boxes = leafBoxes(order, latitudes, longitudes, n);
+            levels.add(0, boxes);
+            while (boxes.length / 4 > 1) {
+                boxes = parentBoxes(boxes);
+                levels.add(0, boxes);
+            }
+        }
+
+        byte[][] idBytes = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            idBytes[i] = ids[order[i]].getBytes(StandardCharsets.UTF_8);
+            if (idBytes[i].length > 0xFFFF) throw new IOException("Id too long: " + ids[order[i]]);
+        }
+
+        int headerBytes = 20 + levels.size() * 8 + 8;
+        int[] levelOffsets = new int[levels.size()];
+        long position = headerBytes;
+        for (int level = 0; level < levels.size(); level++) {
+            levelOffsets[level] = (int) position;
+            position += (long) levels.get(level).length / 4 * NODE_BYTES;
+        }
+        long leafOffset = position;
+        long idOffset = leafOffset + (long) n * LEAF_BYTES;
+        long end = idOffset;
+        for (byte[] bytes : idBytes) end += 2 + bytes.length;
+        if (end > Integer.MAX_VALUE) throw new IOException("Too many points for a single index: " + n);
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(NODE_SIZE);
+            out.writeInt(levels.size());
+            for (int level = 0; level < levels.size(); level++) {
+                out.writeInt(levels.get(level).length / 4);
+                out.writeInt(levelOffsets[level]);
+            }
+            out.writeInt((int) leafOffset);
+            out.writeInt((int) idOffset);
+
+            for (double[] boxes : levels) {
+                for (double value : boxes) out.writeDouble(value);
+            }
+
+            int offset = 0;
+            for (int i = 0; i < n; i++) {
+                out.writeDouble(latitudes[order[i]]);
+                out.writeDouble(longitudes[order[i]]);
+                out.writeInt(offset);
+                offset += 2 + idBytes[i].length;
+            }
+
+            for (byte[] bytes : idBytes) {
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Orders the points so that every run of NODE_SIZE consecutive points is spatially close:
+     * the points are sorted by latitude, cut into vertical slices, and every slice is sorted by longitude.
+     */
+    private static int[] sortTileRecursive(double[] latitudes, double[] longitudes, int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+
+        int leafNodes = (n + NODE_SIZE - 1) / NODE_SIZE;
+        int slices = (int) Math.ceil(Math.sqrt(leafNodes));
+        int sliceSize = Math.max(1, slices * NODE_SIZE);
+
+        IndexSort.sort(order, 0, n, latitudes);
+        for (int from = 0; from < n; from += sliceSize) {
+            IndexSort.sort(order, from, Math.min(n, from + sliceSize), longitudes);
+        }
+        return order;
+    }
+
+    private static double[] leafBoxes(int[] order, double[] latitudes, double[] longitudes, int n) {
+        int nodes = (n + NODE_SIZE - 1) / NODE_SIZE;
+        double[] boxes = new double[nodes * 4];
+        for (int node = 0; node < nodes; node++) {
+            double minLatitude = Double.POSITIVE_INFINITY;
+            double minLongitude = Double.POSITIVE_INFINITY;
+            double maxLatitude = Double.NEGATIVE_INFINITY;
+            double maxLongitude = Double.NEGATIVE_INFINITY;
+            for (int i = node * NODE_SIZE; i < Math.min(n, (node + 1) * NODE_SIZE); i++) {
+                minLatitude = Math.min(minLatitude, latitudes[order[i]]);
+                minLongitude = Math.min(minLongitude, longitudes[order[i]]);
+                maxLatitude = Math.max(maxLatitude, latitudes[order[i]]);
+                maxLongitude = Math.max(maxLongitude, longitudes[order[i]]);
+            }
+            setBox(boxes, node, minLatitude, minLongitude, maxLatitude, maxLongitude);
+        }
+        return boxes;
+    }
+
+    private static double[] parentBoxes(double[] children) {
+        int childCount = children.length / 4;
+        int nodes = (childCount + NODE_SIZE - 1) / NODE_SIZE;
+        double[] boxes = new double[nodes * 4];
+        for (int node = 0; node < nodes; node++) {
+            double minLatitude = Double.POSITIVE_INFINITY;
+            double minLongitude = Double.POSITIVE_INFINITY;
+            double maxLatitude = Double.NEGATIVE_INFINITY;
+            double maxLongitude = Double.NEGATIVE_INFINITY;
+            for (int child = node * NODE_SIZE; child < Math.min(childCount, (node + 1) * NODE_SIZE); child++) {
+                minLatitude = Math.min(minLatitude, children[child * 4]);
+                minLongitude = Math.min(minLongitude, children[child * 4 + 1]);
+                maxLatitude = Math.max(maxLatitude, children[child * 4 + 2]);
+                maxLongitude = Math.max(maxLongitude, children[child * 4 + 3]);
+            }
+            setBox(boxes, node, minLatitude, minLongitude, maxLatitude, maxLongitude);
+        }
+        return boxes;
+    }
+
+    private static void setBox(double[] boxes, int node, double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        boxes[node * 4] = minLatitude;
+        boxes[node * 4 + 1] = minLongitude;
+        boxes[node * 4 + 2] = maxLatitude;
+        boxes[node * 4 + 3] = maxLongitude;
+    }
+}
@@ -0,0 +1,163 @@
+package client.spatial;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The photos found by a radius search: ids, locations and distances from the query point,
+ * kept in parallel primitive arrays.
+ */
+public class NearbyPoints {
+
+    private String[] ids;
+    private double[] latitudes;
+    private double[] longitudes;
+    private double[] distances;
+    private int size;
+
+    public NearbyPoints() {
+        this(16);
+    }
+
+    public NearbyPoints(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        this.ids = new String[capacity];
+        this.latitudes = new double[capacity];
+        this.longitudes = new double[capacity];
+        this.distances = new double[capacity];
+    }
+
+    public void add(String id, double latitude, double longitude, double distanceMeters) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            distances = Arrays.copyOf(distances, capacity);
+        }
+        ids[size] = id;
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        distances[size] = distanceMeters;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getId(int i) {
+        return ids[i];
+    }
+
+    public double getLatitude(int i) {
+        return latitudes[i];
+    }
+
+    public double getLongitude(int i) {
+        return longitudes[i];
+    }
+
+    public double getDistance(int i) {
+        return distances[i];
+    }
+
+    /**
+     * Returns the points within the radius of another location, with their distances from that location.
+     */
+    public NearbyPoints within(double latitude, double longitude, double radiusMeters) {
+        NearbyPoints within = new NearbyPoints(size);
+        for (int i = 0; i < size; i++) {
+            double distance = GeoMath.haversineMeters(latitude, longitude, latitudes[i], longitudes[i]);
+            if (distance <= radiusMeters) within.add(ids[i], latitudes[i], longitudes[i], distance);
+        }
+        return within;
+    }
+
+    /**
+     * Returns the (at most) n closest points, closest first.
+     * If n is smaller than the number of points, only the n closest are sorted.
+     */
+    public NearbyPoints nearest(int n) {
+        int count = Math.min(Math.max(n, 0), size);
+        int[] order = count < size ? select(count) : new int[size];
+        if (count == size) {
+            for (int i = 0; i < size; i++) order[i] = i;
+        }
+        IndexSort.sort(order, 0, count, distances);
+
+        NearbyPoints nearest = new NearbyPoints(count);
+        for (int i = 0; i < count; i++) {
+            int index = order[i];
+            nearest.add(ids[index], latitudes[index], longitudes[index], distances[index]);
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns the indices of the n closest points in no particular order, keeping them in a max heap of size n.
+     */
+    private int[] select(int n) {
+        int[] heap = new int[n];
+        if (n == 0) return heap;
+        for (int i = 0; i < n; i++) {
+            heap[i] = i;
+            siftUp(heap, i);
+        }
+        for (int i = n; i < size; i++) {
+            if (distances[i] < distances[heap[0]]) {
+                heap[0] = i;
+                siftDown(heap, n);
+            }
+        }
+        return heap;
+    }
+
+    private void siftUp(int[] heap, int child) {
+        while (child > 0) {
+            int parent = (child - 1) / 2;
+            if (distances[heap[parent]] >= distances[heap[child]]) return;
+            swap(heap, parent, child);
+            child = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int n) {
+        int parent = 0;
+        while (true) {
+            int largest = parent;
+            int left = 2 * parent + 1;
+            int right = left + 1;
+            if (left < n && distances[heap[left]] > distances[heap[largest]]) largest = left;
+            if (right < n && distances[heap[right]] > distances[heap[largest]]) largest = right;
+            if (largest == parent) return;
+            swap(heap, parent, largest);
+            parent = largest;
+        }
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        int swapped = heap[i];
+        heap[i] = heap[j];
+        heap[j] = swapped;
+    }
+
+    /**
+     * Returns a read only view of the ids.
+     */
+    public List<String> getIds() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                if (index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+                return ids[index];
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
@@ -0,0 +1,247 @@
+package client.spatial;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Answers "photos within a radius of a point, taken between two times" without a full spatial search.
+ *
+ * The photos are partitioned by the day they were taken, and every day by the geohash cell they were taken in.
+ * Every partition keeps its points in parallel primitive arrays together with their bounding box. A query looks up
+ * the cells covering the search area in every day of its time window, and only scans the partitions whose
+ * bounding box intersects the search area.
+ *
+ * Times are seconds since the epoch of the photo's local date and time, see {@link #toEpochSecond(LocalDateTime)}.
+ * Photos without a time can't be added. The index is not thread safe.
+ */
+public final class SpatioTemporalIndex {
+
+    private static final int MAGIC = 0x42535654; // BSVT
+    private static final int VERSION = 1;
+    static final long PARTITION_SECONDS = 24 * 60 * 60;
+    // Cells of roughly 1.2km x 0.6km, a day of photos is usually spread over a few dozen of them
+    static final int CELL_PRECISION = 6;
+    // Searches covering more cells, a radius of roughly 25km at the equator, scan the cells of every day instead
+    private static final int MAX_COVERING_CELLS = 4096;
+
+    private final NavigableMap<Long, Map<String, Partition>> days = new TreeMap<>();
+    private int size;
+
+    public static long toEpochSecond(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    public void add(String id, double latitude, double longitude, long epochSecond) {
+        days.computeIfAbsent(Math.floorDiv(epochSecond, PARTITION_SECONDS), key -> new HashMap<>())
+                .computeIfAbsent(GeoHash.encode(latitude, longitude, CELL_PRECISION), key -> new Partition())
+                .add(id, latitude, longitude, epochSecond);
+        size++;
+    }
+
+    /**
+     * Returns false if the photo wasn't in the index.
+     */
+    public boolean remove(String id, double latitude, double longitude, long epochSecond) {
+        long day = Math.floorDiv(epochSecond, PARTITION_SECONDS);
+        Map<String, Partition> cells = days.get(day);
+        if (cells == null) return false;
+
+        String cell = GeoHash.encode(latitude, longitude, CELL_PRECISION);
+        Partition partition = cells.get(cell);
+        if (partition == null || !partition.remove(id)) return false;
+        if (partition.size == 0) cells.remove(cell);
+        if (cells.isEmpty()) days.remove(day);
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        days.clear();
+        size = 0;
+    }
+
+    /**
+     * Adds every photo within the radius, taken within [fromEpochSecond, toEpochSecond], to found.
+     */
+    public void search(double latitude, double longitude, double radiusMeters,
+                       long fromEpochSecond, long toEpochSecond, NearbyPoints found) {
+        if (fromEpochSecond > toEpochSecond) return;
+        double[][] boxes = GeoMath.boundingBoxes(latitude, longitude, radiusMeters);
+        Map<Long, Map<String, Partition>> window = days.subMap(
+                Math.floorDiv(fromEpochSecond, PARTITION_SECONDS), true,
+                Math.floorDiv(toEpochSecond, PARTITION_SECONDS), true);
+
+        Set<String> covering = covering(boxes);
+        for (Map<String, Partition> cells : window.values()) {
+            // Look the covering cells up, unless the day has fewer cells than that anyway
+            Iterable<Partition> candidates;
+            if (covering != null && covering.size() < cells.size()) {
+                List<Partition> partitions = new ArrayList<>();
+                for (String cell : covering) {
+                    Partition partition = cells.get(cell);
+                    if (partition != null) partitions.add(partition);
+                }
+                candidates = partitions;
+            } else {
+                candidates = cells.values();
+            }
+
+            for (Partition partition : candidates) {
+                if (partition.intersects(boxes)) {
+                    partition.search(latitude, longitude, radiusMeters, boxes, fromEpochSecond, toEpochSecond, found);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cells overlapping the boxes, or null if there are more than {@link #MAX_COVERING_CELLS}.
+     */
+    private static Set<String> covering(double[][] boxes) {
+        long n = 0;
+        for (double[] box : boxes) n += GeoHash.coveringSize(box[0], box[1], box[2], box[3], CELL_PRECISION);
+        if (n > MAX_COVERING_CELLS) return null;
+
+        Set<String> cells = new HashSet<>();
+        for (double[] box : boxes) cells.addAll(GeoHash.covering(box[0], box[1], box[2], box[3], CELL_PRECISION));
+        return cells;
+    }
+
+    private static boolean contains(double[][] boxes, double latitude, double longitude) {
+        for (double[] box : boxes) {
+            if (latitude >= box[0] && latitude <= box[2] && longitude >= box[1] && longitude <= box[3]) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads an index written by {@link #write(Path)}.
+     */
+    public static SpatioTemporalIndex read(Path file) throws IOException {
+        SpatioTemporalIndex index = new SpatioTemporalIndex();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Not a spatio-temporal index: " + file);
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String id = in.readUTF();
+                double latitude = in.readDouble();
+                double longitude = in.readDouble();
+                long time = in.readLong();
+                index.add(id, latitude, longitude, time);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * The file is replaced atomically, so readers never see a partially written index.
+     */
+    public void write(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            for (Map<String, Partition> cells : days.values()) {
+                for (Partition partition : cells.values()) {
+                    for (int i = 0; i < partition.size; i++) {
+                        out.writeUTF(partition.ids[i]);
+                        out.writeDouble(partition.latitudes[i]);
+                        out.writeDouble(partition.longitudes[i]);
+                        out.writeLong(partition.times[i]);
+                    }
+                }
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Partition {
+
+        private String[] ids = new String[16];
+        private double[] latitudes = new double[16];
+        private double[] longitudes = new double[16];
+        private long[] times = new long[16];
+        private int size;
+
+        // Only ever grows, removing points keeps it conservative
+        private double minLatitude = Double.POSITIVE_INFINITY;
+        private double minLongitude = Double.POSITIVE_INFINITY;
+        private double maxLatitude = Double.NEGATIVE_INFINITY;
+        private double maxLongitude = Double.NEGATIVE_INFINITY;
+
+        void add(String id, double latitude, double longitude, long time) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                latitudes = Arrays.copyOf(latitudes, capacity);
+                longitudes = Arrays.copyOf(longitudes, capacity);
+                times = Arrays.copyOf(times, capacity);
+            }
+            ids[size] = id;
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            times[size] = time;
+            size++;
+
+            minLatitude = Math.min(minLatitude, latitude);
+            minLongitude = Math.min(minLongitude, longitude);
+            maxLatitude = Math.max(maxLatitude, latitude);
+            maxLongitude = Math.max(maxLongitude, longitude);
+        }
+
+        boolean remove(String id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i].equals(id)) {
+                    // The order within a partition doesn't matter, so the last point fills the gap
+                    size--;
+                    ids[i] = ids[size];
+                    latitudes[i] = latitudes[size];
+                    longitudes[i] = longitudes[size];
+                    times[i] = times[size];
+                    ids[size] = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void search(double latitude, double longitude, double radiusMeters, double[][] boxes,
+                    long fromEpochSecond, long toEpochSecond, NearbyPoints found) {
+            for (int i = 0; i < size; i++) {
+                long time = times[i];
+                if (time < fromEpochSecond || time > toEpochSecond) continue;
+                if (!contains(boxes, latitudes[i], longitudes[i])) continue;
+
+                double distance = GeoMath.haversineMeters(latitude, longitude, latitudes[i], longitudes[i]);
+                if (distance <= radiusMeters) found.add(ids[i], latitudes[i], longitudes[i], distance);
+            }
+        }
+
+        boolean intersects(double[][] boxes) {
+            for (double[] box : boxes) {
+                if (minLatitude <= box[2] && maxLatitude >= box[0] && minLongitude <= box[3] && maxLongitude >= box[1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package client.spatial;
+
+/**
+ * Ranks panoramas by how squarely they face a target point.
+ *
+ * The angular offset of a camera is the difference between its heading and the bearing from the camera
+ * to the target, reduced by the accuracy of the heading: 0 means the target is straight ahead, 180 right behind.
+ * Offsets are computed in one pass over primitive arrays, without any per candidate objects,
+ * which leaves the loop simple enough for the JIT to unroll.
+ *
+ * Candidates are expected to be pruned with the spatial index first, see {@link GeoMath#boundingBoxes}.
+ */
+public final class VisibilityQuery {
+
+    private VisibilityQuery() {
+    }
+
+    /**
+     * Initial great circle bearing from the first to the second location, in degrees clockwise from north [0, 360).
+     */
+    public static double bearingDegrees(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double deltaLambda = Math.toRadians(longitude2 - longitude1);
+        double y = Math.sin(deltaLambda) * Math.cos(phi2);
+        double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(deltaLambda);
+        double bearing = Math.toDegrees(Math.atan2(y, x));
+        return bearing < 0 ? bearing + 360 : bearing;
+    }
+
+    /**
+     * Writes the angular offset in degrees [0, 180] of the first n cameras from the target into offsets.
+     * Cameras without a known heading (NaN) get an offset of NaN.
+     */
+    public static void angularOffsets(double targetLatitude, double targetLongitude,
+                                      double[] latitudes, double[] longitudes,
+                                      double[] bearings, double[] bearingAccuracies, int n,
+                                      double[] offsets) {
+        double phi2 = Math.toRadians(targetLatitude);
+        double sinPhi2 = Math.sin(phi2);
+        double cosPhi2 = Math.cos(phi2);
+        for (int i = 0; i < n; i++) {
+            double phi1 = Math.toRadians(latitudes[i]);
+            double deltaLambda = Math.toRadians(targetLongitude - longitudes[i]);
+            double y = Math.sin(deltaLambda) * cosPhi2;
+            double x = Math.cos(phi1) * sinPhi2 - Math.sin(phi1) * cosPhi2 * Math.cos(deltaLambda);
+            double toTarget = Math.toDegrees(Math.atan2(y, x));
+
+            // Difference of two angles folded into [0, 180]
+            double difference = Math.abs(toTarget - bearings[i]) % 360;
+            if (difference > 180) difference = 360 - difference;
+            offsets[i] = Math.max(0, difference - Math.abs(bearingAccuracies[i]));
+        }
+    }
+
+    /**
+     * Returns the indices of the (at most) maxResults cameras facing the target most squarely, best first.
+     * Cameras with an offset above maxOffsetDegrees, or without a heading, are left out.
+     *
+     * @param offsets Receives the angular offset of every camera
+     */
+    public static int[] rank(double targetLatitude, double targetLongitude,
+                             double[] latitudes, double[] longitudes,
+                             double[] bearings, double[] bearingAccuracies, int n,
+                             double maxOffsetDegrees, int maxResults, double[] offsets) {
+        angularOffsets(targetLatitude, targetLongitude, latitudes, longitudes, bearings, bearingAccuracies, n, offsets);
+
+        int[] order = new int[n];
+        int candidates = 0;
+        for (int i = 0; i < n; i++) {
+            // NaN fails the comparison as well
+            if (offsets[i] <= maxOffsetDegrees) order[candidates++] = i;
+        }
+
+        int count = Math.min(Math.max(maxResults, 0), candidates);
+        IndexSort.select(order, 0, candidates, count, offsets);
+        IndexSort.sort(order, 0, count, offsets);
+
+        int[] ranked = new int[count];
+        System.arraycopy(order, 0, ranked, 0, count);
+        return ranked;
+    }
+}
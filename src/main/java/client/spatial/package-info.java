@@ -0,0 +1,4 @@
+/**
+ * Spatial indexes and geographic calculations used by the photo search.
+ */
+package client.spatial;
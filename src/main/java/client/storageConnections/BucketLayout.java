@@ -0,0 +1,126 @@
+package client.storageConnections;
+
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Specifies where the files of a local bucket are placed.
+ *
+ * FLAT buckets keep every file directly in the bucket folder: /HOME/BUCKET_NAME/KEY
+ * SHARDED buckets spread the files over two levels of sub folders derived from the image id:
+ * /HOME/BUCKET_NAME/ab/cd/KEY
+ * so that no single directory grows beyond a few thousand entries.
+ *
+ * New buckets are always sharded. Buckets created before sharding was introduced stay flat
+ * until they are migrated with {@link BucketMigration}.
+ * The layout never changes the file keys stored in the database.
+ */
+public enum BucketLayout {
+    FLAT,
+    SHARDED;
+
+    static final String MARKER_FILE = ".sharded";
+
+    // Files which live in the root of the bucket regardless of the layout
+    private static final Set<String> BUCKET_FILES = new HashSet<>(Arrays.asList(
+            StorageConnection.RTREE_FILE,
+            StorageConnection.POINT_INDEX_FILE,
+            StorageConnection.SPATIO_TEMPORAL_INDEX_FILE,
+            MARKER_FILE
+    ));
+
+    private static final Map<Path, BucketLayout> layouts = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the layout of the given bucket folder, without changing it.
+     * A bucket which doesn't contain any files yet is sharded.
+     */
+    static BucketLayout of(Path bucketFolder) {
+        return layouts.computeIfAbsent(bucketFolder.toAbsolutePath(), BucketLayout::detect);
+    }
+
+    /**
+     * Returns the layout of the given bucket folder, creating the folder and marking it as sharded
+     * if it doesn't contain any files yet. Has to be used instead of {@link #of(Path)} before writing into a bucket.
+     */
+    static BucketLayout forWriting(Path bucketFolder) throws IOException {
+        BucketLayout layout = of(bucketFolder);
+        Path marker = bucketFolder.resolve(MARKER_FILE);
+        if (layout == SHARDED && !Files.exists(marker)) {
+            Files.createDirectories(bucketFolder);
+            try {
+                Files.createFile(marker);
+            } catch (FileAlreadyExistsException e) {
+//                Marked by another upload in the meantime
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * Has to be called whenever a bucket folder is removed or migrated.
+     */
+    static void forget(Path bucketFolder) {
+        layouts.remove(bucketFolder.toAbsolutePath());
+    }
+
+    private static BucketLayout detect(Path bucketFolder) {
+        if (Files.exists(bucketFolder.resolve(MARKER_FILE))) return SHARDED;
+
+        try {
+            if (Files.isDirectory(bucketFolder) && containsFiles(bucketFolder)) return FLAT;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not determine the layout of " + bucketFolder, e);
+        }
+        return SHARDED;
+    }
+
+    private static boolean containsFiles(Path bucketFolder) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(bucketFolder)) {
+            for (Path path : stream) {
+                if (isStoredFile(path)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true for files that were uploaded into the bucket,
+     * as opposed to the bucket's own files such as the RTree or the output folder.
+     */
+    static boolean isStoredFile(Path path) {
+        return Files.isRegularFile(path) && !BUCKET_FILES.contains(path.getFileName().toString());
+    }
+
+    /**
+     * Returns the location of the given key within the bucket folder.
+     */
+    Path resolve(Path bucketFolder, String key) {
+        if (this == FLAT) return bucketFolder.resolve(key);
+
+        String hash = Hashing.murmur3_32().hashString(getId(key), StandardCharsets.UTF_8).toString();
+        return bucketFolder
+                .resolve(hash.substring(0, 2))
+                .resolve(hash.substring(2, 4))
+                .resolve(key);
+    }
+
+    /**
+     * Keys are in the form: ID-FILENAME
+     */
+    private static String getId(String key) {
+        int separator = key.indexOf('-');
+        return separator > 0 ? key.substring(0, separator) : key;
+    }
+}
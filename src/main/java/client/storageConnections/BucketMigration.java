@@ -0,0 +1,60 @@
+package client.storageConnections;
+
+import client.util.Log;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Migrates an existing flat local bucket to the {@link BucketLayout#SHARDED} layout.
+ *
+ * Files are moved, not copied, so the migration is cheap as long as the bucket is on one volume.
+ * The bucket is only marked as sharded once every file has been moved,
+ * therefore an interrupted migration can simply be started again.
+ *
+ * NEVER run the migration while another client is using the bucket.
+ */
+public class BucketMigration {
+
+    private static final String TAG = "BucketMigration";
+
+    private BucketMigration() {
+    }
+
+    /**
+     * Returns the number of files which were moved.
+     */
+    public static int migrateToShardedLayout(String bucket) throws IOException {
+        Path bucketFolder = Paths.get(System.getProperty("user.home"), bucket);
+        if (!Files.isDirectory(bucketFolder)) throw new IOException("Bucket does not exist: " + bucketFolder);
+
+        BucketLayout.forget(bucketFolder);
+        if (BucketLayout.forWriting(bucketFolder) == BucketLayout.SHARDED) {
+            Log.i(TAG, "Bucket is already sharded");
+            return 0;
+        }
+
+        int moved = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(bucketFolder)) {
+            for (Path path : stream) {
+                if (!BucketLayout.isStoredFile(path)) continue;
+
+                Path destination = BucketLayout.SHARDED.resolve(bucketFolder, path.getFileName().toString());
+                Files.createDirectories(destination.getParent());
+                Files.move(path, destination, StandardCopyOption.ATOMIC_MOVE);
+
+                moved++;
+                if (moved % 10000 == 0) Log.i(TAG, moved + " files moved");
+            }
+        }
+
+        Files.createFile(bucketFolder.resolve(BucketLayout.MARKER_FILE));
+        BucketLayout.forget(bucketFolder);
+        Log.i(TAG, "Migration finished, " + moved + " files moved");
+        return moved;
+    }
+}
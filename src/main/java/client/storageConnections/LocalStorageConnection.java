@@ -11,14 +11,20 @@ import org.apache.commons.io.FileUtils;
 
 import javax.annotation.Nullable;
 import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Stores the photos in a local folder in the user's home directory:
  * /HOME/BUCKET_NAME
+ * See {@link BucketLayout} for how the files are placed within that folder.
  *
  * @author Chris Gora
  * @version 1.0, 01.09.2018
@@ -27,8 +33,17 @@ public class LocalStorageConnection extends StorageConnection {
 
     private static final String TAG = "LocalStorageConnection";
 
+    static final String PARTIAL_SUFFIX = ".part";
+
+    private final TransferMode transferMode;
+
     public LocalStorageConnection(FileHolder fileHolder) {
+        this(fileHolder, TransferMode.COPY);
+    }
+
+    public LocalStorageConnection(FileHolder fileHolder, TransferMode transferMode) {
         super(fileHolder, StorageType.LOCAL);
+        this.transferMode = Objects.requireNonNull(transferMode, "Transfer mode was null");
     }
 
     @Nullable
@@ -38,7 +53,39 @@ public class LocalStorageConnection extends StorageConnection {
     }
 
     public void clearOutput() throws IOException {
-        FileUtils.deleteDirectory(new File(getDestination(true, "NA")).getParentFile());
+        FileUtils.deleteDirectory(getOutputFolder().toFile());
+    }
+
+    @Override
+    public Set<String> listOutput() throws IOException {
+        Set<String> keys = new HashSet<>();
+        Path output = getOutputFolder();
+        if (!Files.isDirectory(output)) return keys;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(output)) {
+            for (Path path : stream) {
+                if (Files.isRegularFile(path)) keys.add(path.getFileName().toString());
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public void removeFromOutput(String key) throws IOException {
+        Files.deleteIfExists(Paths.get(getDestination(true, key)));
+    }
+
+    /**
+     * Returns the file in the output sub directory for the key, the folder is created if necessary.
+     */
+    Path getOutputFile(String key) throws IOException {
+        Path destination = Paths.get(getDestination(true, key));
+        Files.createDirectories(destination.getParent());
+        return destination;
+    }
+
+    private Path getOutputFolder() throws IOException {
+        return Paths.get(getDestination(true, "NA")).getParent();
     }
 
     @Override
@@ -46,14 +93,13 @@ public class LocalStorageConnection extends StorageConnection {
         String source = getSource();
         String destination = null;
         try {
-            destination = getDestination(false);
+            destination = getDestination(false, fileHolder.getKey(), true);
         } catch (IOException e) {
             fileHolder.onUploadFailure(e.toString());
             return;
         }
 
-        File file = new File(destination);
-        copy(source, destination, file);
+        transfer(source, destination);
     }
 
     @Override
@@ -82,8 +128,117 @@ public class LocalStorageConnection extends StorageConnection {
 
         }
 
-        File file = new File(destination);
-        copy(source, destination, file);
+        // Only complete files ever appear under their output name, see moveIntoOutput
+        Path partial = Paths.get(destination + PARTIAL_SUFFIX);
+        try {
+            Files.deleteIfExists(partial);
+        } catch (IOException e) {
+            fileHolder.onUploadFailure(e.toString());
+            return;
+        }
+
+        if (transfer(source, partial.toString())) {
+            try {
+                moveIntoOutput(partial, Paths.get(destination));
+            } catch (IOException e) {
+                fileHolder.onUploadFailure(e.toString());
+            }
+        } else {
+            // The failure was already reported, the next export would remove the partial file otherwise
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not remove the partial file " + partial + ": " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Replaces the output file with a completely written partial file in one step.
+     * An export which is interrupted therefore leaves at most a partial file behind, which the next export removes
+     * as it doesn't belong to any photo, instead of a truncated photo which would be taken as already exported.
+     */
+    static void moveIntoOutput(Path partial, Path destination) throws IOException {
+        Files.move(partial, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public OutputStream openOutput(String key) throws IOException {
+        return Files.newOutputStream(getOutputFile(key));
+    }
+
+    /**
+     * Transfers the source according to the transfer mode, falling back to a full copy
+     * when linking or cloning isn't possible. Returns false if the transfer failed.
+     */
+    private boolean transfer(String source, String destination) {
+        boolean transferred = false;
+        if (transferMode == TransferMode.LINK) {
+            transferred = link(source, destination);
+        } else if (transferMode == TransferMode.CLONE) {
+            transferred = clone(source, destination);
+        }
+
+        if (!transferred) return copy(source, destination, new File(destination));
+        fileHolder.onBytesUploaded(fileHolder.getFile().length());
+        return true;
+    }
+
+    /**
+     * Hard links the destination to the source.
+     * Returns false if the link could not be created, e.g. because the files are on different volumes
+     * or because the destination already exists.
+     */
+    private boolean link(String source, String destination) {
+        Path destinationPath = Paths.get(destination);
+        try {
+            Files.createDirectories(destinationPath.getParent());
+            Files.createLink(destinationPath, Paths.get(source));
+            Log.v(TAG, "Linked " + source + " to " + destination);
+            return true;
+        } catch (UnsupportedOperationException | IOException e) {
+            Log.v(TAG, "Could not link, copying instead: " + e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Creates a copy-on-write clone of the source using the system's cp command.
+     * Returns false if the file system or the platform does not support cloning.
+     */
+    private boolean clone(String source, String destination) {
+        String os = System.getProperty("os.name").toLowerCase();
+        ProcessBuilder builder;
+        if (os.contains("linux")) {
+            builder = new ProcessBuilder("cp", "--reflink=always", source, destination);
+        } else if (os.contains("mac")) {
+            builder = new ProcessBuilder("cp", "-c", source, destination);
+        } else {
+            Log.v(TAG, "Cloning is not supported on " + os + ", copying instead");
+            return false;
+        }
+
+        Path destinationPath = Paths.get(destination);
+        try {
+            Files.createDirectories(destinationPath.getParent());
+            if (Files.exists(destinationPath)) return false;
+
+            Process process = builder.redirectErrorStream(true).start();
+            if (process.waitFor() == 0) {
+                Log.v(TAG, "Cloned " + source + " to " + destination);
+                return true;
+            }
+
+            Log.v(TAG, "Could not clone, copying instead (cp exit code " + process.exitValue() + ")");
+            Files.deleteIfExists(destinationPath);
+            return false;
+        } catch (IOException e) {
+            Log.v(TAG, "Could not clone, copying instead: " + e.toString());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
     private String getDestination(boolean output) throws IOException {
@@ -91,13 +246,23 @@ public class LocalStorageConnection extends StorageConnection {
     }
 
     private String getDestination(boolean output, String key) throws IOException {
+        return getDestination(output, key, false);
+    }
+
+    /**
+     * @param write True if a file is about to be written into the bucket, see {@link BucketLayout#forWriting(Path)}
+     */
+    private String getDestination(boolean output, String key, boolean write) throws IOException {
         String bucket = Objects.requireNonNull(fileHolder.getBucket(), "Bucket was null");
         Objects.requireNonNull(key, "Key was null");
         Path destinationPath = null;
         if (output) {
             destinationPath = Paths.get(System.getProperty("user.home"), bucket, "output", key);
+        } else {
+            Path bucketFolder = Paths.get(System.getProperty("user.home"), bucket);
+            BucketLayout layout = write ? BucketLayout.forWriting(bucketFolder) : BucketLayout.of(bucketFolder);
+            destinationPath = layout.resolve(bucketFolder, key);
         }
-        else destinationPath = Paths.get(System.getProperty("user.home"), bucket, key);
         return destinationPath.toString();
     }
 
@@ -106,7 +271,7 @@ public class LocalStorageConnection extends StorageConnection {
         return fileHolder.getFile().getPath();
     }
 
-    private void copy(String source, String destination, File file) {
+    private boolean copy(String source, String destination, File file) {
         boolean createFileSuccessful = false;
         try {
 
@@ -121,10 +286,10 @@ public class LocalStorageConnection extends StorageConnection {
                 createFileSuccessful = file.createNewFile();
             } else if (file.exists()) {
                 fileHolder.onUploadFailure("Duplicate filename");
-                return;
+                return false;
             } else {
                 fileHolder.onUploadFailure("Unknown error due to directory or empty file creation");
-                return;
+                return false;
             }
 
         } catch (IOException e) {
@@ -147,19 +312,22 @@ public class LocalStorageConnection extends StorageConnection {
             } catch (IOException e) {
                 e.printStackTrace();
                 fileHolder.onUploadFailure(e.toString());
+                return false;
             }
 
         }
+        return createFileSuccessful;
     }
 
     @Override
     public void removeFile() {
-        Objects.requireNonNull(fileHolder.getFile(), "File was null");
+        Objects.requireNonNull(fileHolder.getKey(), "Key was null");
         String filePathString = null;
         try {
             filePathString = getDestination(false);
         } catch (IOException e) {
             fileHolder.onRemoveFailure(e.toString());
+            return;
         }
 
         File file = new File(filePathString);
@@ -168,7 +336,9 @@ public class LocalStorageConnection extends StorageConnection {
             if (successful) fileHolder.onRemoveSuccess();
             else fileHolder.onRemoveFailure("Remove not successful");
         } else {
-            fileHolder.onRemoveFailure("File does not exist");
+            // Nothing left to remove, e.g. the file was removed by an earlier delete which failed later on
+            Log.w(TAG, "File to remove does not exist: " + filePathString);
+            fileHolder.onRemoveSuccess();
         }
     }
 
@@ -190,6 +360,7 @@ public class LocalStorageConnection extends StorageConnection {
         }
         else if (folder.exists()) {
             FileUtils.deleteDirectory(folder);
+            BucketLayout.forget(filePath);
             fileHolder.onRemoveSuccess();
         } else {
             fileHolder.onRemoveFailure("Remove failure - unknown reason");
@@ -237,6 +408,12 @@ public class LocalStorageConnection extends StorageConnection {
 
     }
 
+    @Override
+    public File getIndexFile(String name) {
+        String bucket = Objects.requireNonNull(fileHolder.getBucket(), "Bucket was null");
+        return Paths.get(System.getProperty("user.home"), bucket, name).toFile();
+    }
+
     private File getRTreeFile() {
         String bucket = Objects.requireNonNull(fileHolder.getBucket(), "Bucket was null");
         String key = Objects.requireNonNull(RTREE_FILE, "Key was null");
@@ -0,0 +1,160 @@
+package client.storageConnections;
+
+import client.handler.FileHolder;
+import client.util.Log;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.geometry.Geometry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Stores the photos of a bucket in a few large pack files instead of one file per photo:
+ * /HOME/BUCKET_NAME/packs
+ *
+ * Backing up or moving a bucket therefore only needs a handful of large sequential copies.
+ * Deleted photos keep using space until {@link #compact()} is called.
+ *
+ * The RTree and the output folder are kept exactly like in a {@link LocalStorageConnection}.
+ */
+public class PackStorageConnection extends StorageConnection {
+
+    private static final String TAG = "PackStorageConnection";
+
+    private static final String PACK_FOLDER = "packs";
+
+    // A segment is rewritten once a quarter of it belongs to deleted photos
+    private static final double COMPACTION_THRESHOLD = 0.25;
+
+    private final LocalStorageConnection local;
+
+    public PackStorageConnection(FileHolder fileHolder) {
+        super(fileHolder, StorageType.PACK);
+        this.local = new LocalStorageConnection(fileHolder);
+    }
+
+    private Path getPackFolder() {
+        String bucket = Objects.requireNonNull(fileHolder.getBucket(), "Bucket was null");
+        return Paths.get(System.getProperty("user.home"), bucket, PACK_FOLDER);
+    }
+
+    private PackStore getStore() {
+        return PackStore.of(getPackFolder());
+    }
+
+    @Override
+    public void copyFile() {
+        File file = Objects.requireNonNull(fileHolder.getFile(), "File was null");
+        String key = Objects.requireNonNull(fileHolder.getKey(), "Key was null");
+        try {
+            getStore().put(key, file, fileHolder::onBytesUploaded);
+        } catch (IOException e) {
+            e.printStackTrace();
+            fileHolder.onUploadFailure(e.toString());
+        }
+    }
+
+    /**
+     * Extracts the photo from its pack file into a temporary file, which is removed when the client exits.
+     * Exports don't need it, see {@link #copyToOutput(String)}.
+     */
+    @Override
+    public File getFile(String key) throws IOException {
+        Path extracted = Files.createTempFile("bsv-pack-", "-" + key);
+        extracted.toFile().deleteOnExit();
+        getStore().copyTo(key, extracted);
+        return extracted.toFile();
+    }
+
+    @Override
+    public void removeFile() {
+        String key = Objects.requireNonNull(fileHolder.getKey(), "Key was null");
+        try {
+            // Nothing left to remove if the file does not exist, like in a LocalStorageConnection
+            if (!getStore().delete(key)) Log.w(TAG, "File to remove does not exist: " + key);
+            fileHolder.onRemoveSuccess();
+        } catch (IOException e) {
+            fileHolder.onRemoveFailure(e.toString());
+        }
+    }
+
+    @Override
+    public void removeAll() throws IOException {
+        if (Files.exists(getPackFolder())) getStore().removeAll();
+        local.removeAll();
+    }
+
+    /**
+     * Reclaims the space of deleted photos. Returns the number of bytes reclaimed.
+     * Should not be called while photos are being uploaded or exported.
+     */
+    public long compact() throws IOException {
+        return getStore().compact(COMPACTION_THRESHOLD);
+    }
+
+    @Override
+    public void copyFileToOutput() {
+        local.copyFileToOutput();
+    }
+
+    /**
+     * Copies the photo straight from its pack file into the output folder.
+     */
+    @Override
+    public void copyToOutput(String key) {
+        String outputKey = Objects.requireNonNull(fileHolder.getKey(), "Key was null");
+        try {
+            PackStore store = getStore();
+            fileHolder.setTotalSize(store.length(key));
+            Path destination = local.getOutputFile(outputKey);
+            Path partial = destination.resolveSibling(destination.getFileName() + LocalStorageConnection.PARTIAL_SUFFIX);
+            store.copyTo(key, partial, fileHolder::onBytesUploaded);
+            LocalStorageConnection.moveIntoOutput(partial, destination);
+        } catch (IOException e) {
+            e.printStackTrace();
+            fileHolder.onUploadFailure(e.toString());
+        }
+    }
+
+    @Override
+    public OutputStream openOutput(String key) throws IOException {
+        return local.openOutput(key);
+    }
+
+    @Override
+    public Set<String> listOutput() throws IOException {
+        return local.listOutput();
+    }
+
+    @Override
+    public void removeFromOutput(String key) throws IOException {
+        local.removeFromOutput(key);
+    }
+
+    @Override
+    public void clearOutput() throws IOException {
+        local.clearOutput();
+    }
+
+    @Override
+    public File getIndexFile(String name) throws IOException {
+        return local.getIndexFile(name);
+    }
+
+    @Override
+    public Optional<RTree<String, Geometry>> getRTree() {
+        return local.getRTree();
+    }
+
+    @Override
+    public void saveRTree(RTree<String, Geometry> tree) throws IOException {
+        local.saveRTree(tree);
+    }
+}
@@ -0,0 +1,401 @@
+package client.storageConnections;
+
+import client.util.Log;
+import com.google.common.io.CountingInputStream;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+
+/**
+ * Stores many files in a few large, append only segment files.
+ *
+ * Every stored file is addressed by (segment, offset, length) in an in-memory index.
+ * The index is persisted as an append only log of PUT and DELETE records,
+ * which is replayed when the store is opened. A record that was only partially written is dropped.
+ *
+ * Deleting a file only removes it from the index. The space is reclaimed by {@link #compact(double)},
+ * which rewrites the live files of sparse segments into new segments.
+ *
+ * There is exactly one store per folder, see {@link #of(Path)}.
+ * Files are read without holding the store's monitor, so reads don't wait for writes. Compaction and closing
+ * replace or close segment channels, so they wait for the reads in progress, see {@link #channelLock}.
+ */
+class PackStore implements Closeable {
+
+    private static final String TAG = "PackStore";
+
+    static final String INDEX_FILE = "index.log";
+    private static final String SEGMENT_SUFFIX = ".pack";
+    private static final int INDEX_MAGIC = 0x42535650; // BSVP
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    private static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+    private static final int TRANSFER_CHUNK = 1 << 20;
+
+    private static final Map<Path, PackStore> stores = new ConcurrentHashMap<>();
+
+    private final Path folder;
+    private final long segmentSize;
+    private final Map<String, Location> index;
+    private final Map<Integer, FileChannel> channels;
+    // Held for reading while a channel is used outside the monitor, and for writing while channels are closed.
+    // Always taken before the monitor
+    private final ReadWriteLock channelLock = new ReentrantReadWriteLock();
+
+    private DataOutputStream indexLog;
+    private int currentSegment;
+
+    /**
+     * Returns the store kept in the given folder, opening it if necessary.
+     */
+    static PackStore of(Path folder) {
+        return stores.computeIfAbsent(folder.toAbsolutePath(), path -> {
+            try {
+                return new PackStore(path, DEFAULT_SEGMENT_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    PackStore(Path folder, long segmentSize) throws IOException {
+        this.folder = folder;
+        this.segmentSize = segmentSize;
+        this.index = new HashMap<>();
+        this.channels = new HashMap<>();
+        open();
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(folder);
+        currentSegment = 1;
+        replayIndex();
+        for (int segment : listSegments()) currentSegment = Math.max(currentSegment, segment);
+        indexLog = newIndexLog(true);
+    }
+
+    /**
+     * Loads the index from its log. A record that was only partially written before a crash is cut off,
+     * so new records are appended right after the last complete one.
+     */
+    private void replayIndex() throws IOException {
+        File indexFile = folder.resolve(INDEX_FILE).toFile();
+        if (!indexFile.exists() || indexFile.length() == 0) return;
+
+        long complete = 0;
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+             DataInputStream in = new DataInputStream(counter)) {
+            if (in.readInt() != INDEX_MAGIC) throw new IOException("Not a pack index: " + indexFile);
+            complete = counter.getCount();
+            while (true) {
+                byte operation = in.readByte();
+                String key = in.readUTF();
+                if (operation == PUT) {
+                    Location location = new Location(in.readInt(), in.readLong(), in.readLong());
+                    index.put(key, location);
+                    currentSegment = Math.max(currentSegment, location.segment);
+                } else if (operation == DELETE) {
+                    index.remove(key);
+                } else {
+                    throw new IOException("Corrupt pack index: " + indexFile);
+                }
+                complete = counter.getCount();
+            }
+        } catch (EOFException e) {
+            // End of the log, or a record that was only partially written before a crash
+        }
+
+        if (complete < indexFile.length()) {
+            Log.w(TAG, "Dropping " + (indexFile.length() - complete) + " bytes of a partially written pack index record");
+            try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(complete);
+            }
+        }
+        Log.v(TAG, "Pack index loaded, " + index.size() + " files");
+    }
+
+    private DataOutputStream newIndexLog(boolean append) throws IOException {
+        File indexFile = folder.resolve(INDEX_FILE).toFile();
+        boolean writeHeader = !append || indexFile.length() == 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, append)));
+        if (writeHeader) out.writeInt(INDEX_MAGIC);
+        out.flush();
+        return out;
+    }
+
+    /**
+     * Appends the source file to the current segment.
+     * The progress consumer is called with the number of bytes written after each chunk.
+     */
+    synchronized void put(String key, File source, LongConsumer progress) throws IOException {
+        if (index.containsKey(key)) throw new FileAlreadyExistsException("Duplicate filename: " + key);
+
+        FileChannel segment = getWritableSegment();
+        long offset = segment.size();
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            long length = in.size();
+            transfer(in, 0, length, segment, progress, source.toString());
+            // The file has to be on disk before the index points at it
+            segment.force(false);
+
+            Location location = new Location(currentSegment, offset, length);
+            writePut(indexLog, key, location);
+            indexLog.flush();
+            index.put(key, location);
+        }
+    }
+
+    private FileChannel getWritableSegment() throws IOException {
+        FileChannel segment = getChannel(currentSegment);
+        if (segment.size() >= segmentSize) {
+            currentSegment++;
+            segment = getChannel(currentSegment);
+        }
+        segment.position(segment.size());
+        return segment;
+    }
+
+    private FileChannel getChannel(int segment) throws IOException {
+        FileChannel channel = channels.get(segment);
+        if (channel == null) {
+            channel = FileChannel.open(getSegmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channels.put(segment, channel);
+        }
+        return channel;
+    }
+
+    private Path getSegmentPath(int segment) {
+        return folder.resolve(String.format("%08d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    synchronized boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Returns the length of a stored file.
+     */
+    synchronized long length(String key) throws FileNotFoundException {
+        Location location = index.get(key);
+        if (location == null) throw new FileNotFoundException("No file for the key: " + key);
+        return location.length;
+    }
+
+    void copyTo(String key, Path destination) throws IOException {
+        copyTo(key, destination, written -> {});
+    }
+
+    /**
+     * Copies a stored file to the destination using positional reads.
+     * The progress consumer is called with the number of bytes written after each chunk.
+     */
+    void copyTo(String key, Path destination, LongConsumer progress) throws IOException {
+        channelLock.readLock().lock();
+        try {
+            Location location;
+            FileChannel segment;
+            synchronized (this) {
+                location = index.get(key);
+                if (location == null) throw new FileNotFoundException("No file for the key: " + key);
+                segment = getChannel(location.segment);
+            }
+
+            try (FileChannel out = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                transfer(segment, location.offset, location.length, out, progress, key);
+            }
+        } finally {
+            channelLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Transfers exactly length bytes, failing instead of spinning if the source ends early,
+     * e.g. a segment which is shorter than its index record after a crash.
+     */
+    private static void transfer(FileChannel from, long position, long length, WritableByteChannel to, LongConsumer progress, String name) throws IOException {
+        long done = 0;
+        while (done < length) {
+            long written = from.transferTo(position + done, Math.min(TRANSFER_CHUNK, length - done), to);
+            if (written <= 0) throw new EOFException("Only " + done + " of " + length + " bytes of " + name + " could be read");
+            done += written;
+            progress.accept(written);
+        }
+    }
+
+    /**
+     * Returns false if there was no file for the given key.
+     */
+    synchronized boolean delete(String key) throws IOException {
+        if (!index.containsKey(key)) return false;
+        indexLog.writeByte(DELETE);
+        indexLog.writeUTF(key);
+        indexLog.flush();
+        index.remove(key);
+        return true;
+    }
+
+    synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Rewrites every segment in which at least the given fraction of the space belongs to deleted files.
+     * Returns the number of bytes reclaimed.
+     */
+    long compact(double minDeadFraction) throws IOException {
+        channelLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                return compactSegments(minDeadFraction);
+            }
+        } finally {
+            channelLock.writeLock().unlock();
+        }
+    }
+
+    private long compactSegments(double minDeadFraction) throws IOException {
+        Map<Integer, List<Map.Entry<String, Location>>> liveBySegment = new TreeMap<>();
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            liveBySegment.computeIfAbsent(entry.getValue().segment, s -> new ArrayList<>()).add(entry);
+        }
+
+        List<Integer> sparseSegments = new ArrayList<>();
+        long reclaimed = 0;
+        for (int segment : listSegments()) {
+            long total = Files.size(getSegmentPath(segment));
+            long live = 0;
+            for (Map.Entry<String, Location> entry : liveBySegment.getOrDefault(segment, Collections.emptyList())) {
+                live += entry.getValue().length;
+            }
+
+            if (total > 0 && (total - live) >= minDeadFraction * total) {
+                sparseSegments.add(segment);
+                reclaimed += total - live;
+            }
+        }
+
+        if (sparseSegments.isEmpty()) return 0;
+
+        // Live files are always moved into segments which are newer than any existing one
+        currentSegment = Math.max(currentSegment, listSegments().isEmpty() ? 0 : Collections.max(listSegments())) + 1;
+
+        for (int segment : sparseSegments) {
+            List<Map.Entry<String, Location>> entries = liveBySegment.getOrDefault(segment, Collections.emptyList());
+            entries.sort(Comparator.comparingLong(entry -> entry.getValue().offset));
+
+            FileChannel from = getChannel(segment);
+            for (Map.Entry<String, Location> entry : entries) {
+                Location old = entry.getValue();
+                FileChannel to = getWritableSegment();
+                long offset = to.size();
+                transfer(from, old.offset, old.length, to, written -> {}, entry.getKey());
+                entry.setValue(new Location(currentSegment, offset, old.length));
+            }
+        }
+
+        for (FileChannel channel : channels.values()) channel.force(false);
+        writeIndexSnapshot();
+
+        for (int segment : sparseSegments) {
+            FileChannel channel = channels.remove(segment);
+            if (channel != null) channel.close();
+            Files.deleteIfExists(getSegmentPath(segment));
+        }
+
+        Log.i(TAG, "Compaction finished, " + reclaimed + " bytes reclaimed");
+        return reclaimed;
+    }
+
+    /**
+     * Replaces the index log with one PUT record per live file.
+     */
+    private void writeIndexSnapshot() throws IOException {
+        indexLog.close();
+        Path snapshot = folder.resolve(INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(snapshot.toFile())))) {
+            out.writeInt(INDEX_MAGIC);
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                writePut(out, entry.getKey(), entry.getValue());
+            }
+        }
+        Files.move(snapshot, folder.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexLog = newIndexLog(true);
+    }
+
+    private void writePut(DataOutputStream out, String key, Location location) throws IOException {
+        out.writeByte(PUT);
+        out.writeUTF(key);
+        out.writeInt(location.segment);
+        out.writeLong(location.offset);
+        out.writeLong(location.length);
+    }
+
+    private List<Integer> listSegments() throws IOException {
+        List<Integer> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                segments.add(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Removes every file and the folder itself.
+     */
+    void removeAll() throws IOException {
+        channelLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                close();
+                index.clear();
+                FileUtils.deleteDirectory(folder.toFile());
+                stores.remove(folder);
+            }
+        } finally {
+            channelLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channelLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                for (FileChannel channel : channels.values()) channel.close();
+                channels.clear();
+                if (indexLog != null) indexLog.close();
+            }
+        } finally {
+            channelLock.writeLock().unlock();
+        }
+    }
+
+    private static class Location {
+
+        private final int segment;
+        private final long offset;
+        private final long length;
+
+        Location(int segment, long offset, long length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package client.storageConnections;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the S3 client and transfer manager shared by every S3 connection.
+ *
+ * Clients own a connection pool and transfer managers own a thread pool, so they are created once
+ * and never shut down: their threads are daemons and die with the application.
+ * The region has been hardcoded to EU_WEST_2 (EU London Servers)
+ * unless the {@value #ENDPOINT_PROPERTY} system property points at another S3 compatible server,
+ * e.g. a local stand-in used for testing.
+ */
+final class S3Clients {
+
+    static final String ENDPOINT_PROPERTY = "bsv.s3.endpoint";
+    static final String REGION_PROPERTY = "bsv.s3.region";
+
+//    Photos smaller than the threshold are sent with a single request, larger ones in parallel parts
+    static final long MULTIPART_THRESHOLD = 16 * 1024 * 1024;
+    static final long PART_SIZE = 8 * 1024 * 1024;
+    private static final int TRANSFER_THREADS = 16;
+    private static final int MAX_CONNECTIONS = 64;
+
+    private static AmazonS3 client;
+    private static TransferManager transfers;
+
+    private S3Clients() {
+    }
+
+    static synchronized AmazonS3 client() {
+        if (client == null) client = newClient();
+        return client;
+    }
+
+    static synchronized TransferManager transfers() {
+        if (transfers == null) {
+            transfers = TransferManagerBuilder.standard()
+                    .withS3Client(client())
+                    .withMultipartUploadThreshold(MULTIPART_THRESHOLD)
+                    .withMinimumUploadPartSize(PART_SIZE)
+                    .withExecutorFactory(S3Clients::newTransferExecutor)
+                    .build();
+        }
+        return transfers;
+    }
+
+    /**
+     * Creates a new client, only tests and tools need a client of their own.
+     */
+    static AmazonS3 newClient() {
+        ClientConfiguration configuration = new ClientConfiguration()
+                .withMaxConnections(MAX_CONNECTIONS)
+                .withTcpKeepAlive(true);
+        AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard().withClientConfiguration(configuration);
+
+        String endpoint = System.getProperty(ENDPOINT_PROPERTY);
+        if (endpoint == null) return builder.withRegion(Regions.EU_WEST_2).build();
+
+//        Stand-ins rarely support virtual hosted buckets
+        String region = System.getProperty(REGION_PROPERTY, Regions.EU_WEST_2.getName());
+        return builder
+                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, region))
+                .withPathStyleAccessEnabled(true)
+                .build();
+    }
+
+    private static ExecutorService newTransferExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(TRANSFER_THREADS, (runnable) -> {
+            Thread thread = new Thread(runnable, "s3-transfer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -1,28 +1,39 @@
 package client.storageConnections;
 
 import client.handler.FileHolder;
-import com.amazonaws.event.ProgressEvent;
-import com.amazonaws.event.ProgressEventType;
+import client.util.Log;
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.regions.Regions;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.DeleteObjectRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest;
-import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.InternalStructure;
 import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.Serializer;
+import com.github.davidmoten.rtree.Serializers;
 import com.github.davidmoten.rtree.geometry.Geometry;
+import org.apache.commons.io.FileUtils;
 
 import javax.annotation.Nullable;
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Stores the photos in a bucket on the Amazon S3 Servers.
- * The region has been hardcoded to EU_WEST_2 (EU London Servers)
+ * The region has been hardcoded to EU_WEST_2 (EU London Servers), see {@link S3Clients}.
+ *
+ * Photos are downloaded into /HOME/BUCKET_NAME/objects before they are exported,
+ * the output folder is kept locally exactly like in a {@link LocalStorageConnection}.
  *
  * @author Chris Gora
  * @version 1.0, 01.09.2018
@@ -31,120 +42,235 @@ import java.util.Optional;
 @Deprecated
 public class S3Connection extends StorageConnection {
 
-    private static AmazonS3 s3 = null;
-//    private AmazonS3 s3;
+    private static final String TAG = "S3Connection";
+
+    private static final int PURGE_PARALLELISM = 16;
+    private static final String UPLOADS_FOLDER = ".uploads";
+    private static final String OBJECTS_FOLDER = "objects";
+    private static final int MAX_SAVE_ATTEMPTS = 3;
+
+    private final AmazonS3 s3;
+    private final LocalStorageConnection local;
     private FileHolder fileHolder;
 
     public S3Connection(FileHolder fileHolder) {
         super(fileHolder, StorageType.AMAZON);
-        if (s3 == null) {
-
-            s3 = AmazonS3ClientBuilder
-                    .standard()
-                    .withRegion(Regions.EU_WEST_2)
-                    .build();
-        }
-
+        this.s3 = S3Clients.client();
+        this.local = new LocalStorageConnection(fileHolder);
         this.fileHolder = fileHolder;
     }
 
     @Override
     public void clearOutput() throws IOException {
-        throw new RuntimeException("Implement me");
+        local.clearOutput();
     }
 
+    /**
+     * Copies the downloaded photo, see {@link #getFile(String)}, into the local output folder.
+     */
     @Override
     public void copyFileToOutput() {
-        throw new RuntimeException("Implement me");
+        local.copyFileToOutput();
     }
 
-    @Nullable
     @Override
-    public File getFile(String key) {
-        throw new RuntimeException("Implement me");
+    public OutputStream openOutput(String key) throws IOException {
+        return local.openOutput(key);
     }
 
     @Override
-    public void copyFile() {
-        Objects.requireNonNull(fileHolder.getFile(), "File was null");
-        String bucket  = Objects.requireNonNull(fileHolder.getBucket(), "Bucket was null");
-        String key = Objects.requireNonNull(fileHolder.getKey(), "Key was null");
-            PutObjectRequest request = new PutObjectRequest(fileHolder.getBucket(), fileHolder.getKey(), fileHolder.getFile());
-            request.setGeneralProgressListener((progressEvent) -> {
-
-//                ProgressUpdateNotifier notifier = new ProgressUpdateNotifier(fileHolder, progressEvent.getBytesTransferred());
-//                Platform.runLater(notifier);
-
-//                System.out.println("PROGRESS: " + progressEvent);
-
-                if (Thread.interrupted()) {
-                    s3.shutdown();
-                }
+    public Set<String> listOutput() throws IOException {
+        return local.listOutput();
+    }
 
-                if (progressEvent.getEventType() == ProgressEventType.CLIENT_REQUEST_FAILED_EVENT
-                    || progressEvent.getEventType() == ProgressEventType.TRANSFER_FAILED_EVENT
-                    || progressEvent.getEventType() == ProgressEventType.TRANSFER_PART_FAILED_EVENT) {
+    @Override
+    public void removeFromOutput(String key) throws IOException {
+        local.removeFromOutput(key);
+    }
 
-                    fileHolder.onUploadFailure(progressEvent.toString());
-                } else {
-                    fileHolder.onBytesUploaded(progressEvent.getBytesTransferred());
-                }
+    /**
+     * Downloads the photo into /HOME/BUCKET_NAME/objects, unless it was downloaded before.
+     * Keys are never reused for a different photo, so a downloaded photo stays valid until it is removed.
+     */
+    @Override
+    public File getFile(String key) throws IOException {
+        String bucket = Objects.requireNonNull(fileHolder.getBucket(), "Bucket was null");
+        Objects.requireNonNull(key, "Key was null");
 
-//                fileHolder.setUploadCompletionListener((fileHolder) -> {
-//                    System.out.println("S3 shutdown");
-//                    s3.shutdown();
-//                });
+        Path downloaded = getCacheFolder().resolve(OBJECTS_FOLDER).resolve(key);
+        if (!Files.exists(downloaded)) {
+            Files.createDirectories(downloaded.getParent());
+            Path partial = Files.createTempFile(downloaded.getParent(), key, ".part");
+            try {
+                s3.getObject(new GetObjectRequest(bucket, key), partial.toFile());
+                Files.move(partial, downloaded, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AmazonClientException e) {
+                throw new IOException("Couldn't download " + key + " from " + bucket, e);
+            } finally {
+                Files.deleteIfExists(partial);
+            }
+        }
+        return downloaded.toFile();
+    }
 
-                // FIXME: 16/07/18 Am I creating a million executors ?? - run with visual VM
-            });
+    @Override
+    public void copyFile() {
+        File file = Objects.requireNonNull(fileHolder.getFile(), "File was null");
+        String bucket  = Objects.requireNonNull(fileHolder.getBucket(), "Bucket was null");
+        String key = Objects.requireNonNull(fileHolder.getKey(), "Key was null");
 
-            s3.putObject(request);
+        Path stateFile = Paths.get(System.getProperty("user.home"), bucket, UPLOADS_FOLDER, key + ".json");
+        try {
+            new S3Upload(S3Clients.transfers(), stateFile).upload(bucket, key, file, fileHolder::onBytesUploaded);
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage());
+            fileHolder.onUploadFailure(e.toString());
+        }
     }
 
-    // TODO: 24/07/18 Test file removal and wire up with db fail
-
     @Override
     public void removeFile() {
         String bucket  = Objects.requireNonNull(fileHolder.getBucket(), "Bucket was null");
         String key = Objects.requireNonNull(fileHolder.getKey(), "Key was null");
-        DeleteObjectRequest request= new DeleteObjectRequest(bucket, key);
-        request.setGeneralProgressListener(this::progressChanged);
-        s3.deleteObject(request);
+        try {
+            Files.deleteIfExists(getCacheFolder().resolve(OBJECTS_FOLDER).resolve(key));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not remove the downloaded copy of " + key + ": " + e.toString());
+        }
+        try {
+            // Succeeds for keys which don't exist too
+            s3.deleteObject(new DeleteObjectRequest(bucket, key));
+            fileHolder.onRemoveSuccess();
+        } catch (AmazonClientException e) {
+            fileHolder.onRemoveFailure(e.toString());
+        }
     }
 
     @Override
-    public void removeAll() {
+    public void removeAll() throws IOException {
         String bucket  = Objects.requireNonNull(fileHolder.getBucket(), "Bucket was null");
 
-        List<DeleteObjectsRequest.KeyVersion> keys = new ArrayList<>();
-
-        s3.listObjects(bucket).getObjectSummaries().forEach((s) -> keys.add(new DeleteObjectsRequest.KeyVersion(s.getKey())));
-
-        if (!keys.isEmpty()) {
-            DeleteObjectsRequest request= new DeleteObjectsRequest(bucket).withKeys(keys);
-            request.setGeneralProgressListener(this::progressChanged);
-            s3.deleteObjects(request);
+        try {
+            long deleted = new S3Purge(s3, PURGE_PARALLELISM).purge(bucket);
+            FileUtils.deleteDirectory(getCacheFolder().resolve(OBJECTS_FOLDER).toFile());
+            Log.d(TAG, "Removed " + deleted + " objects from " + bucket);
+            fileHolder.onRemoveSuccess();
+        } catch (IOException e) {
+            fileHolder.onRemoveFailure(e.getMessage());
+            throw e;
         }
     }
 
-    private void progressChanged(ProgressEvent progressEvent) {
-        boolean done = progressEvent.getEventType() == ProgressEventType.TRANSFER_COMPLETED_EVENT;
-        if (done) fileHolder.onRemoveSuccess();
-        else {
-            boolean error = progressEvent.getEventType() == ProgressEventType.CLIENT_REQUEST_FAILED_EVENT
-                    || progressEvent.getEventType() == ProgressEventType.TRANSFER_FAILED_EVENT
-                    || progressEvent.getEventType() == ProgressEventType.TRANSFER_PART_FAILED_EVENT;
-            if (error) fileHolder.onRemoveFailure(progressEvent.toString());
-        }
+    /**
+     * Returns the local copy of an index file, indexes derived from the RTree are only kept locally.
+     * The copy of the RTree is brought up to date first, so they can be compared with it.
+     */
+    @Override
+    public File getIndexFile(String name) throws IOException {
+        if (RTREE_FILE.equals(name)) getIndexCache().fetch(RTREE_FILE);
+        Path folder = getCacheFolder();
+        Files.createDirectories(folder);
+        return folder.resolve(name).toFile();
     }
 
+    /**
+     * Reads the RTree from its local copy, which is only downloaded again if the one in the bucket has changed.
+     */
     @Override
     public Optional<RTree<String, Geometry>> getRTree() {
-        throw new RuntimeException("Implement me!");
+        try {
+            Path rTree = getIndexCache().fetch(RTREE_FILE);
+            if (rTree == null || Files.size(rTree) == 0) return Optional.empty();
+
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(rTree))) {
+                return Optional.of(Serializers.flatBuffers().utf8().read(in, Files.size(rTree), InternalStructure.DEFAULT));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Optional.empty();
+        }
     }
 
+    /**
+     * Writes the RTree to its local copy and uploads it.
+     *
+     * If another client has saved the RTree since it was fetched, its version is fetched and the photos added and removed
+     * since the last fetch are applied to it before trying again. The RTree in the bucket is never overwritten blindly.
+     *
+     * @throws IOException if the RTree still couldn't be saved, the photos added since the last save are then not indexed in the bucket
+     */
     @Override
-    public void saveRTree(RTree<String, Geometry> tree) {
-        throw new RuntimeException("Implement me!");
+    public void saveRTree(RTree<String, Geometry> tree) throws IOException {
+        S3IndexCache cache = getIndexCache();
+        Path rTree = cache.getLocalFile(RTREE_FILE);
+        Files.createDirectories(rTree.getParent());
+
+        // The version this client's changes were made to
+        RTree<String, Geometry> base = readRTree(rTree);
+        for (int attempt = 1; ; attempt++) {
+            writeRTree(tree, rTree);
+            try {
+                cache.save(RTREE_FILE);
+                return;
+            } catch (S3IndexCache.ConflictException e) {
+                if (attempt == MAX_SAVE_ATTEMPTS) throw e;
+                Log.w(TAG, "saveRTree: " + e.getMessage() + ", merging (attempt " + attempt + ")");
+            }
+
+            RTree<String, Geometry> theirs = readRTree(cache.fetch(RTREE_FILE));
+            tree = merge(base, tree, theirs);
+            base = theirs;
+        }
+    }
+
+    /**
+     * Applies the entries added to and removed from base in ours to theirs.
+     */
+    static RTree<String, Geometry> merge(RTree<String, Geometry> base, RTree<String, Geometry> ours, RTree<String, Geometry> theirs) {
+        Set<Entry<String, Geometry>> baseEntries = entries(base);
+        Set<Entry<String, Geometry>> ourEntries = entries(ours);
+        Set<Entry<String, Geometry>> theirEntries = entries(theirs);
+
+        List<Entry<String, Geometry>> added = new ArrayList<>();
+        for (Entry<String, Geometry> entry : ourEntries) {
+            if (!baseEntries.contains(entry) && !theirEntries.contains(entry)) added.add(entry);
+        }
+        List<Entry<String, Geometry>> removed = new ArrayList<>();
+        for (Entry<String, Geometry> entry : baseEntries) {
+            if (!ourEntries.contains(entry) && theirEntries.contains(entry)) removed.add(entry);
+        }
+        return theirs.delete(removed, true).add(added);
+    }
+
+    private static Set<Entry<String, Geometry>> entries(RTree<String, Geometry> tree) {
+        Set<Entry<String, Geometry>> entries = new HashSet<>();
+        for (Entry<String, Geometry> entry : tree.entries().toBlocking().toIterable()) entries.add(entry);
+        return entries;
+    }
+
+    private static RTree<String, Geometry> readRTree(@Nullable Path file) throws IOException {
+        if (file == null || !Files.exists(file) || Files.size(file) == 0) return RTree.create();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            return Serializers.flatBuffers().utf8().read(in, Files.size(file), InternalStructure.DEFAULT);
+        }
+    }
+
+    private static void writeRTree(RTree<String, Geometry> tree, Path file) throws IOException {
+        Path temporary = file.resolveSibling(RTREE_FILE + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+            Serializer<String, Geometry> serializer = Serializers.flatBuffers().utf8();
+            serializer.write(tree, out);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path getCacheFolder() {
+        String bucket = Objects.requireNonNull(fileHolder.getBucket(), "Bucket was null");
+        return Paths.get(System.getProperty("user.home"), bucket);
+    }
+
+    private S3IndexCache getIndexCache() {
+        String bucket = Objects.requireNonNull(fileHolder.getBucket(), "Bucket was null");
+        return new S3IndexCache(s3, bucket, getCacheFolder());
     }
 }
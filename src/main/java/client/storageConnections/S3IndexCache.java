@@ -0,0 +1,186 @@
+package client.storageConnections;
+
+import client.util.Log;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Keeps local copies of index files stored in a bucket.
+ *
+ * Next to every copy is a {@value #ETAG_SUFFIX} file with the ETag of the object it was fetched from or saved as.
+ * Fetches are conditional, so an index is only downloaded when the remote object has changed.
+ * Saves are skipped when the local copy matches the remote object, and are rejected when the remote object
+ * has changed since it was fetched, so an older index never overwrites a newer one.
+ */
+final class S3IndexCache {
+
+    private static final String TAG = "S3IndexCache";
+    static final String ETAG_SUFFIX = ".etag";
+
+    private final AmazonS3 s3;
+    private final String bucket;
+    private final Path folder;
+
+    S3IndexCache(AmazonS3 s3, String bucket, Path folder) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.folder = folder;
+    }
+
+    Path getLocalFile(String key) {
+        return folder.resolve(key);
+    }
+
+    /**
+     * Brings the local copy of the object up to date and returns it.
+     * Returns null if the object doesn't exist and there is no local copy which hasn't been saved yet.
+     * If the bucket can't be reached the local copy is returned as it is.
+     */
+    @Nullable
+    Path fetch(String key) throws IOException {
+        Path local = getLocalFile(key);
+        String etag = readETag(key);
+        if (etag != null && !Files.exists(local)) etag = null;
+
+        Path temporary = local.resolveSibling(local.getFileName() + ".download");
+        try {
+            Files.createDirectories(folder);
+            GetObjectRequest request = new GetObjectRequest(bucket, key);
+            if (etag != null) request.withNonmatchingETagConstraint(etag);
+
+            // Null if the constraint wasn't met, i.e. the local copy is up to date
+            ObjectMetadata metadata = s3.getObject(request, temporary.toFile());
+            if (metadata == null) {
+                Log.v(TAG, key + " is up to date");
+                return local;
+            }
+
+            Files.move(temporary, local, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writeETag(key, metadata.getETag());
+            Log.i(TAG, "Fetched " + key + ", " + metadata.getContentLength() + " bytes");
+            return local;
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() != 404) throw new IOException("Couldn't fetch " + key, e);
+
+            if (etag != null) {
+                // The object was removed since it was fetched, e.g. the bucket was cleared
+                Files.deleteIfExists(local);
+                Files.deleteIfExists(getETagFile(key));
+            }
+            return Files.exists(local) ? local : null;
+        } catch (AmazonClientException e) {
+            Log.w(TAG, "fetch: Using the local copy of " + key + ": " + e.getMessage());
+            return Files.exists(local) ? local : null;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Uploads the local copy of the object, unless the remote object is identical.
+     *
+     * @throws ConflictException if the remote object was changed or created since the local copy was fetched,
+     *                           {@link #fetch(String)} brings the local copy up to date again
+     * @throws IOException if the object couldn't be saved for any other reason
+     */
+    void save(String key) throws IOException {
+        Path local = getLocalFile(key);
+        String etag = readETag(key);
+        String checksum = md5(local);
+
+        try {
+            String remoteETag = getRemoteETag(key);
+            if (remoteETag != null && remoteETag.equals(checksum)) {
+                writeETag(key, remoteETag);
+                Log.v(TAG, key + " unchanged, not saved");
+                return;
+            }
+            if (remoteETag != null && !remoteETag.equals(etag)) {
+                throw new ConflictException(key);
+            }
+
+            PutObjectRequest request = new PutObjectRequest(bucket, key, local.toFile());
+            // Closes the window between the check above and the upload on servers supporting conditional writes
+            if (remoteETag == null) request.putCustomRequestHeader("If-None-Match", "*");
+            else request.putCustomRequestHeader("If-Match", "\"" + remoteETag + "\"");
+
+            PutObjectResult result = s3.putObject(request);
+            writeETag(key, result.getETag());
+            Log.i(TAG, "Saved " + key);
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 412) {
+                throw new ConflictException(key);
+            }
+            throw new IOException("Couldn't save " + key, e);
+        } catch (AmazonClientException e) {
+            throw new IOException("Couldn't save " + key, e);
+        }
+    }
+
+    /**
+     * Thrown when an object can't be saved because another client has changed it since it was fetched.
+     */
+    static final class ConflictException extends IOException {
+
+        ConflictException(String key) {
+            super(key + " was changed by another client, fetch it again before saving");
+        }
+    }
+
+    @Nullable
+    private String getRemoteETag(String key) {
+        try {
+            return s3.getObjectMetadata(bucket, key).getETag();
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) return null;
+            throw e;
+        }
+    }
+
+    private Path getETagFile(String key) {
+        return folder.resolve(key + ETAG_SUFFIX);
+    }
+
+    @Nullable
+    private String readETag(String key) throws IOException {
+        Path file = getETagFile(key);
+        if (!Files.exists(file)) return null;
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+    }
+
+    private void writeETag(String key, String etag) throws IOException {
+        Files.write(getETagFile(key), etag.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the hex MD5 of the file, which is the ETag of objects uploaded with a single request.
+     */
+    private static String md5(Path file) throws IOException {
+        try (DigestInputStream in = new DigestInputStream(Files.newInputStream(file), MessageDigest.getInstance("MD5"))) {
+            byte[] buffer = new byte[1 << 16];
+            while (in.read(buffer) != -1) {
+                // Reading updates the digest
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : in.getMessageDigest().digest()) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package client.storageConnections;
+
+import client.util.Log;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes every object of a bucket.
+ *
+ * The listing is paged, and every page is deleted with a single batch request while the next page is listed.
+ * Up to {@code parallelism} batches are deleted at the same time, and a few more pages are kept ready,
+ * so the memory used doesn't depend on the size of the bucket.
+ * Keys which fail to delete are retried with an exponential backoff, anything else is left in the bucket.
+ *
+ * Only the current versions are deleted, versioned buckets keep their delete markers.
+ */
+final class S3Purge {
+
+    private static final String TAG = "S3Purge";
+
+//    Maximum number of keys S3 accepts in a single batch delete
+    static final int BATCH_SIZE = 1000;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BACKOFF_MILLIS = 200;
+
+    private final AmazonS3 s3;
+    private final int parallelism;
+
+    S3Purge(AmazonS3 s3, int parallelism) {
+        this.s3 = s3;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Deletes every object in the bucket and returns the number of deleted objects.
+     *
+     * @throws IOException if some objects couldn't be deleted, after they were retried
+     */
+    long purge(String bucket) throws IOException {
+        AtomicLong deleted = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        Semaphore pages = new Semaphore(parallelism * 2);
+        try {
+            ListObjectsV2Request request = new ListObjectsV2Request()
+                    .withBucketName(bucket)
+                    .withMaxKeys(BATCH_SIZE);
+            ListObjectsV2Result result;
+            do {
+                result = s3.listObjectsV2(request);
+                List<String> keys = new ArrayList<>(result.getObjectSummaries().size());
+                for (S3ObjectSummary summary : result.getObjectSummaries()) keys.add(summary.getKey());
+
+                if (!keys.isEmpty()) {
+                    pages.acquire();
+                    executor.execute(() -> {
+                        try {
+                            List<String> remaining = deleteBatch(bucket, keys, errors);
+                            deleted.addAndGet(keys.size() - remaining.size());
+                            failed.addAndGet(remaining.size());
+                        } finally {
+                            pages.release();
+                        }
+                    });
+                }
+                request.setContinuationToken(result.getNextContinuationToken());
+            } while (result.isTruncated());
+
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                Log.d(TAG, "Deleted " + deleted.get() + " objects from " + bucket);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while purging " + bucket, e);
+        } catch (AmazonClientException e) {
+            throw new IOException("Couldn't list " + bucket, e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Log.d(TAG, "Deleted " + deleted.get() + " objects from " + bucket);
+        if (failed.get() > 0) {
+            throw new IOException("Couldn't delete " + failed.get() + " objects from " + bucket + ": " + errors.peek());
+        }
+        return deleted.get();
+    }
+
+    /**
+     * Deletes the keys, retrying the ones which failed, and returns the keys which are still in the bucket.
+     */
+    private List<String> deleteBatch(String bucket, List<String> keys, ConcurrentLinkedQueue<String> errors) {
+        List<String> remaining = keys;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && !remaining.isEmpty(); attempt++) {
+            if (attempt > 0 && !backOff(attempt)) break;
+
+            List<DeleteObjectsRequest.KeyVersion> versions = new ArrayList<>(remaining.size());
+            for (String key : remaining) versions.add(new DeleteObjectsRequest.KeyVersion(key));
+
+            try {
+                s3.deleteObjects(new DeleteObjectsRequest(bucket).withKeys(versions).withQuiet(true));
+                remaining = new ArrayList<>();
+            } catch (MultiObjectDeleteException e) {
+                List<String> failed = new ArrayList<>(e.getErrors().size());
+                for (MultiObjectDeleteException.DeleteError error : e.getErrors()) {
+                    failed.add(error.getKey());
+                    if (attempt == MAX_ATTEMPTS - 1) errors.add(error.getKey() + ": " + error.getCode());
+                }
+                remaining = failed;
+            } catch (AmazonClientException e) {
+//                Throttling, server and network errors fail the whole batch
+                Log.e(TAG, "Batch delete failed, attempt " + (attempt + 1) + ": " + e.getMessage());
+                if (attempt == MAX_ATTEMPTS - 1) errors.add(e.getMessage());
+            }
+        }
+        return remaining;
+    }
+
+    private boolean backOff(int attempt) {
+        long millis = BACKOFF_MILLIS << (attempt - 1);
+        try {
+            Thread.sleep(millis + ThreadLocalRandom.current().nextLong(millis));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package client.storageConnections;
+
+import client.util.Log;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.event.ProgressEvent;
+import com.amazonaws.event.ProgressEventType;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.transfer.PauseResult;
+import com.amazonaws.services.s3.transfer.PauseStatus;
+import com.amazonaws.services.s3.transfer.PersistableTransfer;
+import com.amazonaws.services.s3.transfer.PersistableUpload;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.Upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+
+/**
+ * Uploads a single file, in parallel parts if it is large enough.
+ *
+ * A multipart upload which is interrupted, or still running when the application shuts down, is paused
+ * and its state is saved to a file, which lists the upload id and the part size. The next upload of the same key
+ * resumes it: the parts already stored by S3 are skipped. An application which is killed outright can't save
+ * the state, the upload then starts from the beginning.
+ * The size and modification time of the uploaded file are saved next to the state, and the state is discarded
+ * if the file has changed since, so an object is never assembled from parts of two different files.
+ * The state files are removed once the upload is complete.
+ */
+final class S3Upload {
+
+    private static final String TAG = "S3Upload";
+
+    // Uploads which are paused, so they can be resumed, if the application shuts down while they are running
+    private static final Set<S3Upload> RUNNING = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> RUNNING.forEach(S3Upload::pause), "s3-upload-pause"));
+    }
+
+    private final TransferManager transfers;
+    private final Path stateFile;
+
+//    Bytes passed to the progress consumer so far
+    private long reported;
+    private volatile Upload current;
+    private volatile File file;
+    private volatile boolean paused;
+
+    S3Upload(TransferManager transfers, Path stateFile) {
+        this.transfers = transfers;
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * Uploads the file and blocks until it is stored.
+     * The progress consumer receives the number of bytes uploaded since its previous call,
+     * parts skipped when an upload is resumed are reported as uploaded.
+     *
+     * @throws IOException if the upload failed, or was paused because the thread was interrupted
+     */
+    void upload(String bucket, String key, File file, LongConsumer progress) throws IOException {
+        Upload upload = resume(bucket, key, file);
+        boolean resumed = upload != null;
+        if (!resumed) upload = transfers.upload(new PutObjectRequest(bucket, key, file));
+
+        Upload current = upload;
+        current.addProgressListener((ProgressEvent progressEvent) -> {
+            if (progressEvent.getEventType() == ProgressEventType.REQUEST_BYTE_TRANSFER_EVENT) {
+                report(current.getProgress().getBytesTransferred(), progress);
+            }
+        });
+
+        this.file = file;
+        this.current = current;
+        RUNNING.add(this);
+        try {
+            current.waitForCompletion();
+            report(file.length(), progress);
+            deleteState();
+        } catch (InterruptedException e) {
+            // Don't shut the shared client down, only pause this upload so it can be resumed
+            PauseStatus status = pause();
+            Thread.currentThread().interrupt();
+            throw new IOException("Upload of " + key + " paused: " + status, e);
+        } catch (AmazonClientException e) {
+            // The saved upload may have been aborted or expired, start again next time
+            if (resumed && !paused) deleteState();
+            throw new IOException("Upload of " + key + " failed", e);
+        } finally {
+            RUNNING.remove(this);
+        }
+    }
+
+    /**
+     * Pauses the running upload and saves its state, if it can be resumed. Uploads which can't are cancelled.
+     */
+    private PauseStatus pause() {
+        paused = true;
+        PauseResult<PersistableUpload> result = current.tryPause(true);
+        if (result.getInfoToResume() != null) saveState(result.getInfoToResume(), file);
+        return result.getPauseStatus();
+    }
+
+    /**
+     * The file next to the state which identifies the version of the uploaded file: "size lastModified".
+     */
+    private Path getSourceFile() {
+        return stateFile.resolveSibling(stateFile.getFileName() + ".source");
+    }
+
+    private static String getVersion(File file) {
+        return file.length() + " " + file.lastModified();
+    }
+
+    /**
+     * Resumes the saved upload of the key, if there is one and it is still valid.
+     */
+    private Upload resume(String bucket, String key, File file) {
+        if (!Files.exists(stateFile)) return null;
+
+        try (InputStream in = Files.newInputStream(stateFile)) {
+            PersistableUpload state = PersistableTransfer.deserializeFrom(in);
+            Path sourceFile = getSourceFile();
+            String version = Files.exists(sourceFile) ? new String(Files.readAllBytes(sourceFile), StandardCharsets.UTF_8) : null;
+            if (!bucket.equals(state.getBucketName())
+                    || !key.equals(state.getKey())
+                    || !file.getAbsolutePath().equals(new File(state.getFile()).getAbsolutePath())
+                    || !getVersion(file).equals(version)) {
+                Log.d(TAG, "Discarding the saved upload of " + key + ", the file has changed");
+                deleteState();
+                return null;
+            }
+            Log.d(TAG, "Resuming upload of " + key);
+            return transfers.resumeUpload(state);
+        } catch (IOException | AmazonClientException | IllegalArgumentException e) {
+            Log.e(TAG, "Couldn't resume upload of " + key + ": " + e.getMessage());
+            try {
+                deleteState();
+            } catch (IOException deleteException) {
+                deleteException.printStackTrace();
+            }
+            return null;
+        }
+    }
+
+    private void saveState(PersistableTransfer state, File file) {
+        try {
+            Files.createDirectories(stateFile.getParent());
+            Files.write(getSourceFile(), getVersion(file).getBytes(StandardCharsets.UTF_8));
+            try (OutputStream out = Files.newOutputStream(stateFile)) {
+                state.serialize(out);
+            }
+        } catch (IOException e) {
+            // The upload goes on, it just can't be resumed
+            e.printStackTrace();
+        }
+    }
+
+    private void deleteState() throws IOException {
+        Files.deleteIfExists(stateFile);
+        Files.deleteIfExists(getSourceFile());
+    }
+
+    private synchronized void report(long transferred, LongConsumer progress) {
+        if (transferred > reported) {
+            progress.accept(transferred - reported);
+            reported = transferred;
+        }
+    }
+}
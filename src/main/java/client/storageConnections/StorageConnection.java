@@ -8,7 +8,9 @@ import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * An interface for interacting with a photo file storage.
@@ -22,7 +24,9 @@ import java.util.Optional;
  */
 public abstract class StorageConnection {
 
-    static final String RTREE_FILE = "rtree.tree";
+    public static final String RTREE_FILE = "rtree.tree";
+    public static final String POINT_INDEX_FILE = "rtree.idx";
+    public static final String SPATIO_TEMPORAL_INDEX_FILE = "spacetime.idx";
     final FileHolder fileHolder;
     private final StorageType type;
 
@@ -58,11 +62,51 @@ public abstract class StorageConnection {
 
     /**
      * Copies the file into the output sub directory of the specified bucket.
+     * An existing output file with the same key is replaced.
+     * Local storage links or clones instead of copying if its {@link TransferMode} asks for it.
      *
      * Should be submitted as a Runnable and not executed on the main thread.
      */
     public abstract void copyFileToOutput();
 
+    /**
+     * Copies the photo stored in the bucket under the given key into the output sub directory,
+     * under the key of the file holder. Calls the same callback methods as {@link #copyFileToOutput()}.
+     * Unless a storage can read its photos directly, the photo is looked up with {@link #getFile(String)} first.
+     *
+     * Should be submitted as a Runnable and not executed on the main thread.
+     */
+    public void copyToOutput(String key) {
+        try {
+            File file = getFile(key);
+            if (file == null) {
+                fileHolder.onUploadFailure("No file for the key: " + key);
+                return;
+            }
+            fileHolder.setFile(file);
+        } catch (IOException e) {
+            fileHolder.onUploadFailure(e.toString());
+            return;
+        }
+        copyFileToOutput();
+    }
+
+    /**
+     * Opens a file in the output sub directory of the bucket for writing, replacing any existing file with the same key.
+     * Used for files generated by the client, e.g. the manifest of an export.
+     */
+    public abstract OutputStream openOutput(String key) throws IOException;
+
+    /**
+     * Returns the keys of all files currently in the output sub directory of the bucket.
+     */
+    public abstract Set<String> listOutput() throws IOException;
+
+    /**
+     * Removes a single file from the output sub directory of the bucket.
+     */
+    public abstract void removeFromOutput(String key) throws IOException;
+
     /**
      * Removes a file from the bucket.
      * Calls the following callback methods:
@@ -90,6 +134,12 @@ public abstract class StorageConnection {
     @Nullable
     public abstract File getFile(String key) throws IOException;
 
+    /**
+     * Returns the local file under which an index file with the given name is kept for this bucket.
+     * The file doesn't have to exist yet.
+     */
+    public abstract File getIndexFile(String name) throws IOException;
+
     // TODO: 30/08/18 Javadoc
     public abstract Optional<RTree<String, Geometry>> getRTree();
 
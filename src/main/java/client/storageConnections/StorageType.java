@@ -2,6 +2,7 @@ package client.storageConnections;
 
 public enum StorageType {
     LOCAL,
+    PACK,
     @Deprecated
     AMAZON
 }
@@ -0,0 +1,23 @@
+package client.storageConnections;
+
+/**
+ * Specifies how a file is transferred into a local bucket, or from the bucket into its output directory.
+ *
+ * LINK and CLONE only work when the source and the bucket are on the same volume.
+ * In every other case the transfer falls back to a full COPY.
+ */
+public enum TransferMode {
+    /**
+     * Streams every byte of the file into the bucket.
+     */
+    COPY,
+    /**
+     * Creates a hard link. The bucket and the source share the same data,
+     * so the source file must not be modified after the upload, and an exported file must not be modified at all.
+     */
+    LINK,
+    /**
+     * Creates a copy-on-write clone (reflink) where the file system supports it (e.g. btrfs, xfs, APFS).
+     */
+    CLONE
+}
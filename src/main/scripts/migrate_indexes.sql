@@ -0,0 +1,11 @@
+USE bristol_streetview_schema;
+
+-- Indexes used by the time range and route queries, see DatabaseConnection.
+-- Databases created with the current init.sql already have them.
+-- Running this script twice fails with "Duplicate key name", which is harmless.
+
+ALTER TABLE Photo
+  ADD INDEX photo_taken_idx (bucketName, photoTimestamp, id),
+  ADD INDEX photo_uploaded_idx (bucketName, uploadTimestamp, id),
+  ADD INDEX photo_route_idx (bucketName, routeId, photoTimestamp, id),
+  ALGORITHM = INPLACE, LOCK = NONE;
@@ -13,11 +13,19 @@ import org.junit.rules.TestName;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.time.Month;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
@@ -210,9 +218,103 @@ public class BucketHandlerTest {
 
     }
 
+    /**
+     * Returns the file with the given key in the local bucket, wherever the layout placed it, or null.
+     */
+    private static Path findStoredFile(String key) throws IOException {
+        Path bucketFolder = Paths.get(System.getProperty("user.home"), "bristol-streetview-photos");
+        if (!Files.isDirectory(bucketFolder)) return null;
+        try (Stream<Path> paths = Files.walk(bucketFolder)) {
+            return paths.filter(path -> path.getFileName().toString().equals(key)).findFirst().orElse(null);
+        }
+    }
+
+    private List<String> deletePhotos(String... ids) throws IOException {
+        List<String> done = Collections.synchronizedList(new ArrayList<>());
+        try (BucketHandler bucketHandler = newTestUploader()) {
+            bucketHandler.deletePhotos(fileHolder -> done.add(fileHolder.getKey()), ids);
+        }
+        return done;
+    }
+
+    @Test
+    public void deletePhotosTest() throws Exception {
+        uploadAssertionsTest();
+
+        String id = "0236451263344ab88f9940679b1dc59b";
+        String key;
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            key = db.getPath(id).getKey();
+        }
+        Assert.assertNotNull("Uploaded file not found", findStoredFile(key));
+
+        // Unknown ids are reported as done as well
+        List<String> done = deletePhotos(id, "unknown-photo");
+        Assert.assertEquals("Wrong ids reported", new HashSet<>(Arrays.asList(id, "unknown-photo")), new HashSet<>(done));
+        Assert.assertEquals("Ids reported more than once", 2, done.size());
+
+        Assert.assertNull("File not removed", findStoredFile(key));
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            Assert.assertTrue("Row not deleted", db.findRecords(Collections.singletonList(id)).isEmpty());
+        }
+
+        File file = new File(Objects.requireNonNull(getClass().getClassLoader().getResource("client/test.jpg")).getFile());
+        ImageMetadata metadata = new ImageMetadata(file, 0);
+        try (BucketHandler bucketHandler = newTestUploader()) {
+            PhotoSet set = bucketHandler.getPhotosAround(metadata.getLatitude(), metadata.getLongitude(), 100, 10);
+            Objects.requireNonNull(set, "PhotoSet was null");
+            Assert.assertEquals("Photo still in the spatial index", 0, set.getExpectedSize());
+        }
+
+        System.out.println(name.getMethodName() + ": PASSED");
+    }
+
+    @Test
+    public void deletePhotosWithoutFileTest() throws Exception {
+        uploadAssertionsTest();
+
+        // Removed by an earlier delete which failed before the row was deleted
+        String id = "0236451263344ab88f9940679b1dc59b";
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            Files.delete(Objects.requireNonNull(findStoredFile(db.getPath(id).getKey()), "Uploaded file not found"));
+        }
+
+        Assert.assertEquals("Wrong ids reported", Collections.singletonList(id), deletePhotos(id));
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            Assert.assertTrue("Row not deleted", db.findRecords(Collections.singletonList(id)).isEmpty());
+        }
+
+        System.out.println(name.getMethodName() + ": PASSED");
+    }
+
+    @Test
+    public void missingRecordTest() throws Exception {
+        uploadAssertionsTest();
+
+        // The photo stays in the spatial index, but its row is gone
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            db.delete("0236451263344ab88f9940679b1dc59b");
+        }
+
+        File file = new File(Objects.requireNonNull(getClass().getClassLoader().getResource("client/test.jpg")).getFile());
+        ImageMetadata metadata = new ImageMetadata(file, 0);
+
+        try (BucketHandler bucketHandler = newTestUploader()) {
+            PhotoSet set = bucketHandler.streamPhotosAround(metadata.getLatitude(), metadata.getLongitude(), 100, 10);
+            Assert.assertEquals("Photo not ranked", 1, set.getExpectedSize());
+
+            set.awaitComplete();
+            Assert.assertEquals("Missing photo added", 0, set.size());
+            Assert.assertEquals("Expected size not corrected", 0, set.getExpectedSize());
+            Assert.assertEquals("Page after the result", -1, set.getNextCursor(0, 10));
+        }
+
+        System.out.println(name.getMethodName() + ": PASSED");
+    }
+
 //    @Ignore("Ignored to avoid getting trip 2 files")
     @Test
-    public void getPhotoTest() throws InterruptedException, IOException {
+    public void getPhotoTest()throws InterruptedException, IOException {
 
         try (BucketHandler bucketHandler = newTestUploader()) {
             bucketHandler.deleteAll(null);
@@ -1,6 +1,30 @@
 package client;
 
+import client.databaseConnections.ConnectionPoolTest;
 import client.databaseConnections.DatabaseConnectionTest;
+import client.databaseConnections.PhotoPageTest;
+import client.databaseConnections.SidecarReaderTest;
+import client.handler.MetadataCacheTest;
+import client.handler.ResultManifestTest;
+import client.handler.TransferModeTest;
+import client.ingest.TripScannerTest;
+import client.ingest.WatchFolderIngestTest;
+import client.metrics.MetricsTest;
+import client.server.QueryServerTest;
+import client.spatial.DistanceRankerTest;
+import client.spatial.GeoHashTest;
+import client.spatial.GeoMathTest;
+import client.spatial.GeoQueryCacheTest;
+import client.spatial.MappedPointIndexTest;
+import client.spatial.NearbyPointsTest;
+import client.spatial.SpatioTemporalIndexTest;
+import client.spatial.VisibilityQueryTest;
+import client.storageConnections.BucketLayoutTest;
+import client.storageConnections.PackStoreTest;
+import client.storageConnections.S3ConnectionTest;
+import client.storageConnections.S3IndexCacheTest;
+import client.storageConnections.S3PurgeTest;
+import client.storageConnections.S3UploadTest;
 import client.util.Log;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -17,7 +41,32 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
         DatabaseConnectionTest.class,
+        PhotoPageTest.class,
+        ConnectionPoolTest.class,
         ImageMetadataTest.class,
+        PhotoSetTest.class,
+        SidecarReaderTest.class,
+        TripScannerTest.class,
+        WatchFolderIngestTest.class,
+        TransferModeTest.class,
+        MetadataCacheTest.class,
+        ResultManifestTest.class,
+        BucketLayoutTest.class,
+        PackStoreTest.class,
+        S3PurgeTest.class,
+        S3UploadTest.class,
+        S3IndexCacheTest.class,
+        S3ConnectionTest.class,
+        DistanceRankerTest.class,
+        GeoMathTest.class,
+        GeoHashTest.class,
+        NearbyPointsTest.class,
+        MappedPointIndexTest.class,
+        GeoQueryCacheTest.class,
+        SpatioTemporalIndexTest.class,
+        VisibilityQueryTest.class,
+        MetricsTest.class,
+        QueryServerTest.class,
         BucketHandlerTest.class
 })
 
@@ -0,0 +1,114 @@
+package client;
+
+import client.databaseConnections.ImageMetadata;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class PhotoSetTest {
+
+    private static ImageMetadata newImage(int i) {
+        LocalDateTime dateTime = i % 2 == 0 ? LocalDateTime.of(2018, 9, 1, 12, 0, i, i * 1000) : null;
+        return new ImageMetadata("photo" + i, 2688, 5376, dateTime, 51.45 + i * 0.001, -2.6 - i * 0.001,
+                "camera", 3, i * 10, 5, 2.5);
+    }
+
+    @Test
+    public void metadataTest() {
+        PhotoSet set = new PhotoSet(51.45, -2.6);
+        for (int i = 0; i < 40; i++) set.add(newImage(i), i);
+
+        Assert.assertEquals("Wrong size", 40, set.size());
+        Assert.assertEquals("Wrong expected size", 40, set.getExpectedSize());
+        for (int i = 0; i < 40; i++) {
+            ImageMetadata expected = newImage(i);
+            ImageMetadata actual = set.getImages().get("photo" + i);
+            Assert.assertNotNull("Photo " + i + " missing", actual);
+            Assert.assertEquals("Wrong id", expected.getId(), actual.getId());
+            Assert.assertEquals("Wrong height", expected.getHeight(), actual.getHeight());
+            Assert.assertEquals("Wrong width", expected.getWidth(), actual.getWidth());
+            Assert.assertEquals("Wrong time", expected.getPhotoDateTime(), actual.getPhotoDateTime());
+            Assert.assertEquals("Wrong latitude", expected.getLatitude(), actual.getLatitude(), 0);
+            Assert.assertEquals("Wrong longitude", expected.getLongitude(), actual.getLongitude(), 0);
+            Assert.assertEquals("Wrong serial number", expected.getSerialNumber(), actual.getSerialNumber());
+            Assert.assertEquals("Wrong route", expected.getRouteNumber(), actual.getRouteNumber());
+            Assert.assertEquals("Wrong bearing", expected.getBearing(), actual.getBearing(), 0);
+            Assert.assertEquals("Wrong bearing accuracy", expected.getBearingAccuracy(), actual.getBearingAccuracy(), 0);
+            Assert.assertEquals("Wrong location accuracy", expected.getLocationAccuracy(), actual.getLocationAccuracy(), 0);
+            Assert.assertEquals("Wrong distance", i, set.getDistances().get("photo" + i), 0);
+            Assert.assertEquals("Wrong rank", "photo" + i, set.getIds().get(i));
+        }
+        Assert.assertNull("Unknown photo found", set.getImages().get("photo40"));
+    }
+
+    @Test
+    public void missingRecordTest() throws InterruptedException {
+        // Ten photos were ranked, but three of them are not in the database any more
+        PhotoSet set = PhotoSet.filling(51.45, -2.6, 10);
+        Assert.assertFalse("Filling set complete", set.isComplete());
+        Assert.assertEquals("Wrong expected size while filling", 10, set.getExpectedSize());
+
+        List<Integer> consumed = Collections.synchronizedList(new ArrayList<>());
+        Thread consumer = new Thread(() -> set.forEach(consumed::add));
+        consumer.start();
+
+        for (int i = 0; i < 10; i++) {
+            if (i == 2 || i == 5 || i == 9) continue;
+            set.add(newImage(i), i);
+        }
+        Assert.assertEquals("Wrong expected size before completion", 10, set.getExpectedSize());
+        Assert.assertEquals("Wrong cursor before completion", 5, set.getNextCursor(0, 5));
+        set.markComplete();
+
+        consumer.join(5000);
+        Assert.assertFalse("Consumer still waiting for the missing photos", consumer.isAlive());
+        Assert.assertEquals("Wrong photos consumed", Arrays.asList(0, 1, 2, 3, 4, 5, 6), consumed);
+        Assert.assertEquals("Wrong size", 7, set.size());
+        Assert.assertEquals("Expected size not corrected", 7, set.getExpectedSize());
+        Assert.assertEquals("Wrong ids", Arrays.asList("photo0", "photo1", "photo3", "photo4", "photo6", "photo7", "photo8"),
+                set.getIds());
+
+        PhotoSet last = set.getPage(5, 5);
+        Assert.assertEquals("Wrong size of the last page", 2, last.size());
+        Assert.assertTrue("Page not complete", last.isComplete());
+        Assert.assertEquals("Wrong first id of the last page", "photo7", last.getId(0));
+        Assert.assertEquals("Page after the last one", -1, set.getNextCursor(5, 5));
+        Assert.assertEquals("Wrong size of a page past the end", 0, set.getPage(10, 5).size());
+    }
+
+    @Test
+    public void emptyFillTest() throws InterruptedException {
+        // None of the ranked photos are in the database
+        PhotoSet set = PhotoSet.filling(51.45, -2.6, 3);
+        set.markComplete();
+        set.awaitComplete();
+
+        List<Integer> consumed = new ArrayList<>();
+        set.forEach(consumed::add);
+        Assert.assertTrue("Photos consumed from an empty set", consumed.isEmpty());
+        Assert.assertEquals("Wrong expected size", 0, set.getExpectedSize());
+        Assert.assertEquals("Wrong cursor", -1, set.getNextCursor(0, 5));
+        Assert.assertTrue("Wrong ids", set.getIds().isEmpty());
+    }
+
+    @Test
+    public void pageWaitsForPhotosTest() throws InterruptedException {
+        PhotoSet set = PhotoSet.filling(51.45, -2.6, 4);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 4; i++) set.add(newImage(i), i);
+            set.markComplete();
+        });
+        producer.start();
+
+        PhotoSet page = set.getPage(2, 2);
+        Assert.assertEquals("Page returned before its photos were added", 2, page.size());
+        Assert.assertEquals("Wrong first id", "photo2", page.getId(0));
+        Assert.assertEquals("Wrong distance", 3, page.getDistance(1), 0);
+        producer.join(5000);
+    }
+}
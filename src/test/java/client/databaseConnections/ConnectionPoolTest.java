@@ -0,0 +1,172 @@
+package client.databaseConnections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConnectionPoolTest {
+
+    /**
+     * State of a fake connection, which can be dropped by the "server".
+     */
+    private static final class FakeConnection {
+        boolean valid = true;
+        boolean closed;
+        int validations;
+    }
+
+    private final List<FakeConnection> opened = new ArrayList<>();
+
+    private Connection open() {
+        FakeConnection fake = new FakeConnection();
+        Connection connection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isValid":
+                            fake.validations++;
+                            return fake.valid && !fake.closed;
+                        case "isClosed":
+                            return fake.closed;
+                        case "close":
+                            fake.closed = true;
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        synchronized (this) {
+            opened.add(fake);
+        }
+        return connection;
+    }
+
+    @Test
+    public void reuseTest() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(this::open, 2);
+        Connection first = pool.borrow();
+        Assert.assertEquals("Wrong number of active connections", 1, pool.getActive());
+        pool.release(first);
+        Assert.assertEquals("Wrong number of active connections", 0, pool.getActive());
+        Assert.assertEquals("Wrong number of idle connections", 1, pool.getIdle());
+
+        Assert.assertSame("Idle connection not reused", first, pool.borrow());
+        Assert.assertEquals("Wrong number of connections opened", 1, opened.size());
+        Assert.assertEquals("Idle connection not validated", 1, opened.get(0).validations);
+    }
+
+    @Test
+    public void revalidationTest() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(this::open, 2);
+        Connection first = pool.borrow();
+        Connection second = pool.borrow();
+        pool.release(first);
+        pool.release(second);
+
+        // Dropped by the server while they were idle
+        opened.get(0).valid = false;
+        opened.get(1).valid = false;
+
+        Connection third = pool.borrow();
+        Assert.assertNotSame("Dropped connection handed out", first, third);
+        Assert.assertNotSame("Dropped connection handed out", second, third);
+        Assert.assertEquals("Wrong number of connections opened", 3, opened.size());
+        Assert.assertTrue("Dropped connection not closed", opened.get(0).closed);
+        Assert.assertTrue("Dropped connection not closed", opened.get(1).closed);
+        Assert.assertEquals("Dropped connections kept", 0, pool.getIdle());
+        Assert.assertEquals("Wrong number of active connections", 1, pool.getActive());
+    }
+
+    @Test
+    public void mostRecentlyUsedFirstTest() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(this::open, 2);
+        Connection first = pool.borrow();
+        Connection second = pool.borrow();
+        pool.release(first);
+        pool.release(second);
+
+        Assert.assertSame("Least recently used connection handed out", second, pool.borrow());
+    }
+
+    @Test
+    public void closedConnectionTest() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(this::open, 2);
+        Connection connection = pool.borrow();
+        connection.close();
+        pool.release(connection);
+
+        Assert.assertEquals("Closed connection kept", 0, pool.getIdle());
+        Assert.assertEquals("Permit not returned", 0, pool.getActive());
+    }
+
+    @Test
+    public void failedOpenTest() {
+        ConnectionPool pool = new ConnectionPool(() -> {
+            throw new SQLException("Server not available");
+        }, 1);
+        for (int i = 0; i < 3; i++) {
+            try {
+                pool.borrow();
+                Assert.fail("Borrowed a connection which couldn't be opened");
+            } catch (SQLException e) {
+                Assert.assertEquals("Wrong exception", "Server not available", e.getMessage());
+            }
+        }
+        Assert.assertEquals("Permit of a failed open kept", 0, pool.getActive());
+    }
+
+    @Test
+    public void waitForReleaseTest() throws Exception {
+        ConnectionPool pool = new ConnectionPool(this::open, 1);
+        Connection first = pool.borrow();
+
+        AtomicReference<Connection> borrowed = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                borrowed.set(pool.borrow());
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        });
+        thread.start();
+        thread.join(500);
+        Assert.assertTrue("Borrowed beyond the maximum", thread.isAlive());
+
+        pool.release(first);
+        thread.join(5000);
+        Assert.assertSame("Released connection not handed out", first, borrowed.get());
+        Assert.assertEquals("Wrong number of connections opened", 1, opened.size());
+    }
+
+    @Test
+    public void closeTest() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(this::open, 2);
+        Connection idle = pool.borrow();
+        Connection borrowed = pool.borrow();
+        pool.release(idle);
+
+        pool.close();
+        Assert.assertTrue("Idle connection not closed", opened.get(0).closed);
+        Assert.assertFalse("Borrowed connection closed", opened.get(1).closed);
+
+        pool.release(borrowed);
+        Assert.assertTrue("Connection released after closing not closed", opened.get(1).closed);
+        Assert.assertEquals("Connection kept after closing", 0, pool.getIdle());
+
+        try {
+            pool.borrow();
+            Assert.fail("Borrowed from a closed pool");
+        } catch (SQLException e) {
+            Assert.assertEquals("Wrong exception", "Connection pool closed", e.getMessage());
+        }
+    }
+}
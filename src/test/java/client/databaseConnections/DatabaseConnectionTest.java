@@ -7,6 +7,7 @@ import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.time.Month;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -367,4 +368,127 @@ public class DatabaseConnectionTest {
         Assert.assertTrue("Missing id", set.contains("1234570"));
         Assert.assertTrue("Missing id", set.contains("1234571"));
     }
-}
\ No newline at end of file
+
+    /**
+     * Inserts photos 0 to 6 into route 5, taken in pairs at the same time, except photo 6 which has no time.
+     */
+    private static void insertRoute(DatabaseConnection db) throws SQLException {
+        db.deleteAll("test-bucket");
+        for (int i = 0; i < 7; i++) {
+            db.insertPhotoRow(
+                    "route-photo-" + i,
+                    1000,
+                    1000,
+                    i < 6 ? LocalDateTime.of(2017, Month.AUGUST, 1, 13, 40 + i / 2) : null,
+                    LocalDateTime.of(2018, Month.JULY, 23, 12, 6 - i),
+                    51.45,
+                    -2.6,
+                    "12345567",
+                    5,
+                    "test-bucket",
+                    "route-key-" + i,
+                    0.0,
+                    0.0,
+                    0.0
+            );
+        }
+    }
+
+    private static List<String> getIds(List<ImageMetadata> images) {
+        List<String> ids = new ArrayList<>();
+        images.forEach((image) -> ids.add(image.getId()));
+        return ids;
+    }
+
+    @Test
+    public void takenBetweenPagesTest() throws SQLException {
+        List<String> ids = new ArrayList<>();
+        int pages = 0;
+
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            insertRoute(db);
+            PhotoPage.Cursor cursor = null;
+            do {
+                PhotoPage page = db.getPhotosTakenBetween("test-bucket",
+                        LocalDateTime.of(2017, Month.AUGUST, 1, 13, 40),
+                        LocalDateTime.of(2017, Month.AUGUST, 1, 13, 42), cursor, 4);
+                ids.addAll(getIds(page.getImages()));
+                // Cursors are passed around as strings, e.g. by the query server
+                cursor = page.hasNext() ? PhotoPage.Cursor.parse(page.getNext().toString()) : null;
+                pages++;
+            } while (cursor != null);
+        }
+
+        // Photos with the same time are ordered by their id, and none is returned twice across the pages
+        Assert.assertEquals("Incorrect photos", Arrays.asList("route-photo-0", "route-photo-1", "route-photo-2",
+                "route-photo-3", "route-photo-4", "route-photo-5"), ids);
+        Assert.assertEquals("Incorrect number of pages", 2, pages);
+    }
+
+    @Test
+    public void uploadedBetweenPagesTest() throws SQLException {
+        List<String> ids = new ArrayList<>();
+
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            insertRoute(db);
+            PhotoPage first = db.getPhotosUploadedBetween("test-bucket",
+                    LocalDateTime.of(2018, Month.JULY, 23, 12, 0),
+                    LocalDateTime.of(2018, Month.JULY, 23, 12, 4), null, 3);
+            Assert.assertTrue("Full page without a next page", first.hasNext());
+            ids.addAll(getIds(first.getImages()));
+
+            PhotoPage second = db.getPhotosUploadedBetween("test-bucket",
+                    LocalDateTime.of(2018, Month.JULY, 23, 12, 0),
+                    LocalDateTime.of(2018, Month.JULY, 23, 12, 4), first.getNext(), 3);
+            Assert.assertFalse("Last page with a next page", second.hasNext());
+            ids.addAll(getIds(second.getImages()));
+        }
+
+        // Uploaded in reverse, the photo without a time is included
+        Assert.assertEquals("Incorrect photos", Arrays.asList("route-photo-6", "route-photo-5", "route-photo-4",
+                "route-photo-3", "route-photo-2"), ids);
+    }
+
+    @Test
+    public void routePagesTest() throws SQLException {
+        List<String> paged = new ArrayList<>();
+        List<String> streamed = new ArrayList<>();
+
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            insertRoute(db);
+            PhotoPage.Cursor cursor = null;
+            do {
+                PhotoPage page = db.getPhotosOnRoute("test-bucket", 5, cursor, 2);
+                paged.addAll(getIds(page.getImages()));
+                cursor = page.getNext();
+            } while (cursor != null);
+
+            db.forEachPhotoOnRoute("test-bucket", 5, image -> streamed.add(image.getId()));
+            Assert.assertTrue("Photos on another route",
+                    db.getPhotosOnRoute("test-bucket", 6, null, 2).getImages().isEmpty());
+        }
+
+        // The photo without a time has no place in the route
+        List<String> expected = Arrays.asList("route-photo-0", "route-photo-1", "route-photo-2",
+                "route-photo-3", "route-photo-4", "route-photo-5");
+        Assert.assertEquals("Incorrect paged photos", expected, paged);
+        Assert.assertEquals("Incorrect streamed photos", expected, streamed);
+    }
+
+    @Test
+    public void takenBetweenStreamTest() throws SQLException {
+        List<ImageMetadata> images = new ArrayList<>();
+
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            insertRoute(db);
+            db.forEachPhotoTakenBetween("test-bucket",
+                    LocalDateTime.of(2017, Month.AUGUST, 1, 13, 41),
+                    LocalDateTime.of(2017, Month.AUGUST, 1, 13, 42), images::add);
+        }
+
+        Assert.assertEquals("Incorrect photos", Arrays.asList("route-photo-2", "route-photo-3",
+                "route-photo-4", "route-photo-5"), getIds(images));
+        Assert.assertEquals("Incorrect time", LocalDateTime.of(2017, Month.AUGUST, 1, 13, 41),
+                images.get(0).getPhotoDateTime());
+    }
+}
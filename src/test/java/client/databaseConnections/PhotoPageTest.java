@@ -0,0 +1,48 @@
+package client.databaseConnections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+public class PhotoPageTest {
+
+    @Test
+    public void cursorTest() {
+        Timestamp timestamp = Timestamp.valueOf(LocalDateTime.of(2017, 8, 1, 13, 45, 12, 123456789));
+        PhotoPage.Cursor cursor = new PhotoPage.Cursor(timestamp, "0236451263344ab88f9940679b1dc59b");
+
+        PhotoPage.Cursor parsed = PhotoPage.Cursor.parse(cursor.toString());
+        Assert.assertEquals("Wrong timestamp", timestamp, parsed.getTimestamp());
+        Assert.assertEquals("Wrong nanos", 123456789, parsed.getTimestamp().getNanos());
+        Assert.assertEquals("Wrong id", "0236451263344ab88f9940679b1dc59b", parsed.getId());
+        Assert.assertEquals("Wrong string", cursor.toString(), parsed.toString());
+    }
+
+    @Test
+    public void cursorSeparatorInIdTest() {
+        Timestamp timestamp = Timestamp.valueOf(LocalDateTime.of(2017, 8, 1, 13, 45));
+        PhotoPage.Cursor parsed = PhotoPage.Cursor.parse(new PhotoPage.Cursor(timestamp, "a_b_c").toString());
+        Assert.assertEquals("Wrong id", "a_b_c", parsed.getId());
+        Assert.assertEquals("Wrong timestamp", timestamp, parsed.getTimestamp());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingPartCursorTest() {
+        PhotoPage.Cursor.parse("1501595100000_0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidTimeCursorTest() {
+        PhotoPage.Cursor.parse("yesterday_0_0236451263344ab88f9940679b1dc59b");
+    }
+
+    @Test
+    public void lastPageTest() {
+        PhotoPage page = new PhotoPage(Collections.emptyList(), null);
+        Assert.assertFalse("Last page with a next page", page.hasNext());
+        Assert.assertNull("Last page with a cursor", page.getNext());
+    }
+}
@@ -0,0 +1,17 @@
+package client.databaseConnections;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Creates result pages for tests outside of the database package, without a database.
+ */
+public final class PhotoPages {
+
+    private PhotoPages() {
+    }
+
+    public static PhotoPage newPage(List<ImageMetadata> images, @Nullable PhotoPage.Cursor next) {
+        return new PhotoPage(images, next);
+    }
+}
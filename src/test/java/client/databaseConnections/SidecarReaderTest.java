@@ -0,0 +1,40 @@
+package client.databaseConnections;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class SidecarReaderTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path newSidecar(String name, String json) throws IOException {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void readTest() throws IOException {
+        Path file = newSidecar("a_I.json", "{\"id\":\"a\",\"bearing\":12.5,\"bearingAccuracy\":3,"
+                + "\"camera\":{\"model\":\"x\",\"modes\":[1,2,{\"deep\":null}]},\"locationAccuracy\":4.25,\"notes\":null}");
+
+        ExtraPhotoInfo info = SidecarReader.read(file);
+        Assert.assertEquals("Incorrect id", "a", info.getId());
+        Assert.assertEquals("Incorrect bearing", 12.5, info.getBearing(), 0);
+        Assert.assertEquals("Incorrect bearing accuracy", 3, info.getBearingAccuracy(), 0);
+        Assert.assertEquals("Incorrect location accuracy", 4.25, info.getLocationAccuracy(), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedTest() throws IOException {
+        SidecarReader.read(newSidecar("b_I.json", "{\"id\":\"b\",\"bearing\":\"north\"}"));
+    }
+}
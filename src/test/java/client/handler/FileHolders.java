@@ -0,0 +1,21 @@
+package client.handler;
+
+import javax.annotation.Nullable;
+import java.io.File;
+
+/**
+ * Creates file holders for tests outside of the handler package, without a handler.
+ */
+public final class FileHolders {
+
+    private FileHolders() {
+    }
+
+    public static FileHolder newFileHolder(File file, @Nullable File sidecar, String bucket) {
+        FileHolder fileHolder = new FileHolder();
+        fileHolder.setFile(file);
+        fileHolder.setSidecar(sidecar);
+        fileHolder.setBucket(bucket);
+        return fileHolder;
+    }
+}
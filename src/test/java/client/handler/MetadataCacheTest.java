@@ -0,0 +1,104 @@
+package client.handler;
+
+import client.databaseConnections.DatabaseConnection;
+import client.databaseConnections.ImageMetadata;
+import client.databaseConnections.PhotoRecord;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Needs the test database, like {@link client.databaseConnections.DatabaseConnectionTest}.
+ */
+public class MetadataCacheTest {
+
+    private static final String BUCKET = "test-bucket";
+
+    @Before
+    public void setUp() throws SQLException {
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            db.deleteAll(BUCKET);
+            for (int i = 0; i < 3; i++) {
+                ImageMetadata metadata = new ImageMetadata("cache-photo-" + i, 1000, 2000,
+                        LocalDateTime.of(2017, Month.AUGUST, 1, 13, 45, i), 51.45, -2.6, "12345567", 1, 90, 5, 2);
+                db.insertPhotoRow(metadata, LocalDateTime.of(2018, Month.JULY, 23, 12, 31), 1, BUCKET, "cache-key-" + i);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            db.deleteAll(BUCKET);
+        }
+    }
+
+    @Test
+    public void getTest() throws SQLException {
+        MetadataCache cache = new MetadataCache(100);
+
+        PhotoRecord record = cache.get("cache-photo-1");
+        Assert.assertEquals("Wrong id", "cache-photo-1", record.getMetadata().getId());
+        Assert.assertEquals("Wrong width", 2000, record.getMetadata().getWidth());
+        Assert.assertEquals("Wrong bucket", BUCKET, record.getPath().getBucket());
+        Assert.assertEquals("Wrong key", "cache-key-1", record.getPath().getKey());
+
+        Assert.assertSame("Record not cached", record, cache.get("cache-photo-1"));
+        Assert.assertEquals("Wrong hit count", 1, cache.stats().hitCount());
+    }
+
+    @Test(expected = SQLException.class)
+    public void getMissingTest() throws SQLException {
+        new MetadataCache(100).get("cache-photo-3");
+    }
+
+    @Test
+    public void findAllTest() throws SQLException {
+        MetadataCache cache = new MetadataCache(100);
+        cache.get("cache-photo-0");
+
+        // One cached, one loaded and one missing from the database
+        Map<String, PhotoRecord> records = cache.findAll(Arrays.asList("cache-photo-0", "cache-photo-2", "cache-photo-3"));
+        Assert.assertEquals("Wrong records", Arrays.asList("cache-photo-0", "cache-photo-2"),
+                new ArrayList<>(records.keySet()));
+        Assert.assertEquals("Wrong key", "cache-key-2", records.get("cache-photo-2").getPath().getKey());
+        Assert.assertEquals("Found records not cached", 2, cache.size());
+
+        Assert.assertTrue("Missing photos found", cache.findAll(Collections.singletonList("cache-photo-3")).isEmpty());
+    }
+
+    @Test(expected = SQLException.class)
+    public void getAllMissingTest() throws SQLException {
+        new MetadataCache(100).getAll(Arrays.asList("cache-photo-0", "cache-photo-3"));
+    }
+
+    @Test
+    public void invalidateTest() throws SQLException {
+        MetadataCache cache = new MetadataCache(100);
+        Assert.assertEquals("Wrong records", 3,
+                cache.getAll(Arrays.asList("cache-photo-0", "cache-photo-1", "cache-photo-2")).size());
+
+        try (DatabaseConnection db = new DatabaseConnection()) {
+            db.delete(Arrays.asList("cache-photo-0", "cache-photo-1"));
+        }
+        // Still cached until the deleted photos are invalidated
+        Assert.assertEquals("Cached records not returned", 3,
+                cache.findAll(Arrays.asList("cache-photo-0", "cache-photo-1", "cache-photo-2")).size());
+
+        cache.invalidateAll(Arrays.asList("cache-photo-0", "cache-photo-1"));
+        Map<String, PhotoRecord> records = cache.findAll(Arrays.asList("cache-photo-0", "cache-photo-1", "cache-photo-2"));
+        Assert.assertEquals("Deleted photos found", Collections.singleton("cache-photo-2"), records.keySet());
+
+        cache.invalidate("cache-photo-2");
+        Assert.assertEquals("Photo not invalidated", 0, cache.size());
+    }
+}
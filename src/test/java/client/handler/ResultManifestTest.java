@@ -0,0 +1,109 @@
+package client.handler;
+
+import client.databaseConnections.ImageMetadata;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ResultManifestTest {
+
+    private static ImageMetadata newImage(String id, LocalDateTime photoDateTime) {
+        return new ImageMetadata(id, 2688, 5376, photoDateTime, 51.4545, -2.5879, "Kamera-\u00dc", 3, 90, 5, 2.5);
+    }
+
+    private static List<JsonObject> read(ByteArrayOutputStream out) {
+        String manifest = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue("Last line not terminated", manifest.endsWith("\n"));
+
+        List<JsonObject> lines = new ArrayList<>();
+        for (String line : manifest.split("\n")) {
+            Assert.assertFalse("Line break within a photo", line.isEmpty());
+            lines.add(new JsonParser().parse(line).getAsJsonObject());
+        }
+        return lines;
+    }
+
+    @Test
+    public void writeTest() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ResultManifest manifest = new ResultManifest(out)) {
+            manifest.write(newImage("first", LocalDateTime.of(2017, 1, 1, 0, 0, 52)), 12.5, 1);
+            manifest.write(newImage("second", null), 30.0, 2);
+        }
+
+        List<JsonObject> lines = read(out);
+        Assert.assertEquals("Wrong number of lines", 2, lines.size());
+
+        JsonObject first = lines.get(0);
+        Assert.assertEquals("Wrong id", "first", first.get("id").getAsString());
+        Assert.assertEquals("Wrong rank", 1, first.get("rank").getAsInt());
+        Assert.assertEquals("Wrong distance", 12.5, first.get("distance").getAsDouble(), 0);
+
+        JsonObject metadata = first.getAsJsonObject("imageMetadata");
+        Assert.assertEquals("Wrong id in the metadata", "first", metadata.get("id").getAsString());
+        Assert.assertEquals("Wrong latitude", 51.4545, metadata.get("latitude").getAsDouble(), 0);
+        Assert.assertEquals("Wrong longitude", -2.5879, metadata.get("longitude").getAsDouble(), 0);
+        Assert.assertEquals("Wrong bearing", 90, metadata.get("bearing").getAsDouble(), 0);
+        Assert.assertEquals("Wrong route", 3, metadata.get("routeNumber").getAsInt());
+        Assert.assertEquals("Wrong serial number", "Kamera-\u00dc", metadata.get("serialNumber").getAsString());
+        Assert.assertTrue("Time left out", metadata.has("photoDateTime"));
+
+        JsonObject second = lines.get(1);
+        Assert.assertEquals("Wrong order", "second", second.get("id").getAsString());
+        Assert.assertEquals("Wrong rank", 2, second.get("rank").getAsInt());
+        Assert.assertFalse("Missing time written", second.getAsJsonObject("imageMetadata").has("photoDateTime"));
+    }
+
+    @Test
+    public void withoutDistanceTest() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ResultManifest manifest = new ResultManifest(out)) {
+            manifest.write(newImage("first", null), null, 1);
+        }
+
+        JsonObject line = read(out).get(0);
+        Assert.assertFalse("Distance of a photo which wasn't searched for", line.has("distance"));
+        Assert.assertEquals("Wrong rank", 1, line.get("rank").getAsInt());
+    }
+
+    @Test
+    public void concurrentWriteTest() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ResultManifest manifest = new ResultManifest(out)) {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int offset = t * 500;
+                Thread thread = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            manifest.write(newImage("photo" + (offset + i), null), (double) i, offset + i);
+                        }
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) thread.join();
+        }
+
+        // Every photo on a line of its own, however the writes were interleaved
+        Set<String> ids = new HashSet<>();
+        for (JsonObject line : read(out)) {
+            Assert.assertEquals("Wrong rank", "photo" + line.get("rank").getAsInt(), line.get("id").getAsString());
+            ids.add(line.get("id").getAsString());
+        }
+        Assert.assertEquals("Wrong number of photos", 2000, ids.size());
+    }
+}
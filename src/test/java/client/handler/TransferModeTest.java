@@ -0,0 +1,207 @@
+package client.handler;
+
+import client.storageConnections.LocalStorageConnection;
+import client.storageConnections.StorageConnection;
+import client.storageConnections.TransferMode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Transfers of local buckets, with the home directory redirected into a temporary folder.
+ */
+public class TransferModeTest {
+
+    private static final String BUCKET = "transfer-test";
+    private static final String KEY = "0236451263344ab88f9940679b1dc59b";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private String home;
+    private String error;
+    private int completed;
+
+    @Before
+    public void setUp() {
+        home = System.getProperty("user.home");
+        System.setProperty("user.home", folder.getRoot().getPath());
+        error = null;
+        completed = 0;
+    }
+
+    @After
+    public void tearDown() {
+        System.setProperty("user.home", home);
+    }
+
+    private File newPhoto(String name, long seed) throws IOException {
+        byte[] bytes = new byte[10000];
+        new Random(seed).nextBytes(bytes);
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    private FileHolder newFileHolder(String key) {
+        FileHolder fileHolder = new FileHolder();
+        fileHolder.setKey(key);
+        fileHolder.setBucket(BUCKET);
+        fileHolder.setUploadCompletionListener(holder -> completed++);
+        fileHolder.setUploadFailureListener(error -> this.error = error);
+        return fileHolder;
+    }
+
+    /**
+     * Puts the photo into the bucket like an ingest with the default transfer mode, returning the file in the bucket.
+     */
+    private File store(File photo) throws IOException {
+        return store(photo, TransferMode.COPY);
+    }
+
+    private File store(File photo, TransferMode transferMode) throws IOException {
+        completed = 0;
+        FileHolder fileHolder = newFileHolder(KEY);
+        fileHolder.setFile(photo);
+        StorageConnection connection = new LocalStorageConnection(fileHolder, transferMode);
+        connection.copyFile();
+        Assert.assertNull("Could not store the photo: " + error, error);
+        Assert.assertEquals("Upload not completed once", 1, completed);
+        return connection.getFile(KEY);
+    }
+
+    /**
+     * Exports the photo like the handler does, returning the file in the output directory.
+     */
+    private Path export(TransferMode transferMode) throws IOException {
+        completed = 0;
+        StorageConnection connection = new LocalStorageConnection(newFileHolder(KEY), transferMode);
+        connection.copyToOutput(KEY);
+        Assert.assertNull("Export failed: " + error, error);
+        Assert.assertEquals("Export not completed once", 1, completed);
+        Assert.assertEquals("Wrong output files", Collections.singleton(KEY), connection.listOutput());
+        return folder.getRoot().toPath().resolve(BUCKET).resolve("output").resolve(KEY);
+    }
+
+    private static void assertSameContents(File expected, Path actual) throws IOException {
+        Assert.assertArrayEquals("Wrong contents of " + actual, Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual));
+    }
+
+    @Test
+    public void storeCopyTest() throws IOException {
+        File photo = newPhoto("photo.jpg", 1);
+
+        File stored = store(photo, TransferMode.COPY);
+        assertSameContents(photo, stored.toPath());
+        Assert.assertFalse("Copy shares the file of the source", Files.isSameFile(photo.toPath(), stored.toPath()));
+    }
+
+    @Test
+    public void storeLinkTest() throws IOException {
+        File photo = newPhoto("photo.jpg", 1);
+
+        File stored = store(photo, TransferMode.LINK);
+        assertSameContents(photo, stored.toPath());
+        Assert.assertTrue("Bucket is not linked to the source", Files.isSameFile(photo.toPath(), stored.toPath()));
+    }
+
+    @Test
+    public void storeCloneTest() throws IOException {
+        File photo = newPhoto("photo.jpg", 1);
+
+        // Falls back to a copy where the file system can't clone
+        File stored = store(photo, TransferMode.CLONE);
+        assertSameContents(photo, stored.toPath());
+        Assert.assertFalse("Clone shares the file of the source", Files.isSameFile(photo.toPath(), stored.toPath()));
+    }
+
+    @Test
+    public void storeDuplicateTest() throws IOException {
+        File photo = newPhoto("photo.jpg", 1);
+        File stored = store(photo, TransferMode.COPY);
+
+        // Linking fails as the key is taken, and so does the copy it falls back to
+        FileHolder fileHolder = newFileHolder(KEY);
+        fileHolder.setFile(newPhoto("other.jpg", 2));
+        new LocalStorageConnection(fileHolder, TransferMode.LINK).copyFile();
+        Assert.assertEquals("Duplicate not reported", "Duplicate filename", error);
+        assertSameContents(photo, stored.toPath());
+    }
+
+    @Test
+    public void exportCopyTest() throws IOException {
+        File stored = store(newPhoto("photo.jpg", 1));
+
+        Path output = export(TransferMode.COPY);
+        assertSameContents(stored, output);
+        Assert.assertFalse("Copy shares the file of the bucket", Files.isSameFile(stored.toPath(), output));
+    }
+
+    @Test
+    public void exportLinkTest() throws IOException {
+        File stored = store(newPhoto("photo.jpg", 1));
+
+        Path output = export(TransferMode.LINK);
+        assertSameContents(stored, output);
+        Assert.assertTrue("Output is not linked to the bucket", Files.isSameFile(stored.toPath(), output));
+    }
+
+    @Test
+    public void exportCloneTest() throws IOException {
+        File stored = store(newPhoto("photo.jpg", 1));
+
+        // Falls back to a copy where the file system can't clone
+        Path output = export(TransferMode.CLONE);
+        assertSameContents(stored, output);
+        Assert.assertFalse("Clone shares the file of the bucket", Files.isSameFile(stored.toPath(), output));
+    }
+
+    @Test
+    public void exportReplacesPartialTest() throws IOException {
+        File stored = store(newPhoto("photo.jpg", 1));
+
+        // Left behind by an export which was interrupted
+        Path output = folder.getRoot().toPath().resolve(BUCKET).resolve("output").resolve(KEY);
+        Files.createDirectories(output.getParent());
+        Files.write(output.resolveSibling(KEY + ".part"), new byte[]{1, 2, 3});
+
+        for (TransferMode transferMode : TransferMode.values()) {
+            export(transferMode);
+            assertSameContents(stored, output);
+            Assert.assertFalse("Partial file left behind", Files.exists(output.resolveSibling(KEY + ".part")));
+        }
+    }
+
+    @Test
+    public void exportReplacesOutputTest() throws IOException {
+        File stored = store(newPhoto("photo.jpg", 1));
+
+        for (TransferMode transferMode : TransferMode.values()) {
+            Path output = folder.getRoot().toPath().resolve(BUCKET).resolve("output").resolve(KEY);
+            Files.createDirectories(output.getParent());
+            Files.write(output, new byte[]{1, 2, 3});
+
+            export(transferMode);
+            assertSameContents(stored, output);
+        }
+    }
+
+    @Test
+    public void exportMissingPhotoTest() throws IOException {
+        StorageConnection connection = new LocalStorageConnection(newFileHolder(KEY), TransferMode.LINK);
+        connection.copyToOutput(KEY);
+        Assert.assertNotNull("Export of a missing photo succeeded", error);
+        Assert.assertEquals("Export of a missing photo completed", 0, completed);
+        Assert.assertTrue("Output of a missing photo", connection.listOutput().isEmpty());
+    }
+}
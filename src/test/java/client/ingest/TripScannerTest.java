@@ -0,0 +1,53 @@
+package client.ingest;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class TripScannerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path newFile(Path parent, String name, int size) throws IOException {
+        Files.createDirectories(parent);
+        return Files.write(parent.resolve(name), new byte[size]);
+    }
+
+    @Test
+    public void scanTest() throws IOException {
+        Path trip = folder.getRoot().toPath();
+        newFile(trip, "a_E.jpg", 10);
+        newFile(trip, "a_I.json", 2);
+        newFile(trip, "notes.txt", 1);
+        Path day = trip.resolve("2018-08-31");
+        newFile(day, "b_E.jpg", 20);
+        newFile(day.resolve("morning"), "c_E.jpg", 30);
+        newFile(day.resolve("morning"), "c_I.json", 3);
+        // Sidecars are only paired within the same folder
+        newFile(trip.resolve("2018-09-01"), "b_I.json", 4);
+
+        List<IngestItem> items = TripScanner.scan(trip, 4);
+
+        Assert.assertEquals("Incorrect number of panoramas", 3, items.size());
+
+        IngestItem b = items.get(0);
+        Assert.assertEquals("Incorrect image", day.resolve("b_E.jpg"), b.getImage());
+        Assert.assertEquals("Incorrect size", 20, b.getImageSize());
+        Assert.assertNull("Sidecar from another folder", b.getSidecar());
+
+        IngestItem c = items.get(1);
+        Assert.assertEquals("Incorrect sidecar", day.resolve("morning").resolve("c_I.json"), c.getSidecar());
+        Assert.assertEquals("Incorrect sidecar size", 3, c.getSidecarSize());
+
+        IngestItem a = items.get(2);
+        Assert.assertEquals("Incorrect image", trip.resolve("a_E.jpg"), a.getImage());
+        Assert.assertEquals("Incorrect sidecar", trip.resolve("a_I.json"), a.getSidecar());
+    }
+}
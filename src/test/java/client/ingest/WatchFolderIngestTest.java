@@ -0,0 +1,155 @@
+package client.ingest;
+
+import client.handler.BucketHandler;
+import client.handler.FileHolder;
+import client.handler.FileHolders;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class WatchFolderIngestTest {
+
+    private static final int ROUTE = 7;
+    // Long enough for the files to be stable and for slow file systems to deliver their events
+    private static final long TIMEOUT_MILLIS = WatchFolderIngest.STABLE_MILLIS + 10_000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final BlockingQueue<FileHolder> uploads = new LinkedBlockingQueue<>();
+    private WatchFolderIngest ingest;
+    private Thread watcher;
+
+    /**
+     * Records the uploads instead of uploading, every other method of the handler fails.
+     */
+    private BucketHandler newRecordingHandler() {
+        return (BucketHandler) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{BucketHandler.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "newFileHolder":
+                            return FileHolders.newFileHolder((File) args[0], args.length > 1 ? (File) args[1] : null, "watch-test");
+                        case "upload":
+                            Assert.assertEquals("Wrong route", ROUTE, args[1]);
+                            uploads.add((FileHolder) args[0]);
+                            return null;
+                        case "saveIndexes":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private void startWatching() throws IOException {
+        ingest = new WatchFolderIngest(newRecordingHandler(), ROUTE, Collections.singletonList(folder.getRoot().toPath()));
+        watcher = new Thread(() -> {
+            try {
+                ingest.run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        watcher.start();
+    }
+
+    @Before
+    public void setUp() {
+        uploads.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (ingest != null) ingest.close();
+        if (watcher != null) watcher.join(5000);
+    }
+
+    private static void writePhoto(Path folder, String name) throws IOException {
+        Files.createDirectories(folder);
+        Files.write(folder.resolve(name + TripScanner.IMAGE_SUFFIX), new byte[1000]);
+        Files.write(folder.resolve(name + TripScanner.SIDECAR_SUFFIX), "{}".getBytes());
+    }
+
+    private FileHolder awaitUpload(String name) throws InterruptedException {
+        FileHolder upload = uploads.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        Assert.assertNotNull("Photo not uploaded: " + name, upload);
+        Assert.assertEquals("Wrong photo uploaded", name + TripScanner.IMAGE_SUFFIX, upload.getFile().getName());
+        return upload;
+    }
+
+    private void assertNoUpload() throws InterruptedException {
+        FileHolder upload = uploads.poll(WatchFolderIngest.STABLE_MILLIS * 3, TimeUnit.MILLISECONDS);
+        Assert.assertNull("Unexpected upload", upload);
+    }
+
+    @Test
+    public void ingestTest() throws Exception {
+        startWatching();
+        writePhoto(folder.getRoot().toPath(), "a");
+
+        FileHolder upload = awaitUpload("a");
+        upload.onDbSuccess();
+        Assert.assertEquals("Photo not counted", 1, ingest.getIngested());
+
+        // Photos in the database are not uploaded again when their files change
+        Files.write(folder.getRoot().toPath().resolve("a" + TripScanner.SIDECAR_SUFFIX), "{ }".getBytes());
+        assertNoUpload();
+    }
+
+    @Test
+    public void waitsForSidecarTest() throws Exception {
+        startWatching();
+        Path root = folder.getRoot().toPath();
+        Files.write(root.resolve("b" + TripScanner.IMAGE_SUFFIX), new byte[1000]);
+        assertNoUpload();
+
+        Files.write(root.resolve("b" + TripScanner.SIDECAR_SUFFIX), "{}".getBytes());
+        awaitUpload("b");
+    }
+
+    @Test
+    public void existingPhotosTest() throws Exception {
+        writePhoto(folder.getRoot().toPath(), "c");
+        startWatching();
+
+        // Left to --upload, even when one of its files changes
+        Files.write(folder.getRoot().toPath().resolve("c" + TripScanner.SIDECAR_SUFFIX), "{ }".getBytes());
+        assertNoUpload();
+        Assert.assertEquals("Existing photo counted", 0, ingest.getIngested());
+    }
+
+    @Test
+    public void retryTest() throws Exception {
+        startWatching();
+        writePhoto(folder.getRoot().toPath(), "d");
+        awaitUpload("d").onDbFailure("Database not available");
+        Assert.assertEquals("Failed photo counted", 0, ingest.getIngested());
+
+        // Tried again once one of its files changes
+        Files.write(folder.getRoot().toPath().resolve("d" + TripScanner.SIDECAR_SUFFIX), "{ }".getBytes());
+        awaitUpload("d").onDbSuccess();
+        Assert.assertEquals("Photo not counted", 1, ingest.getIngested());
+    }
+
+    @Test
+    public void newFolderTest() throws Exception {
+        startWatching();
+        writePhoto(folder.getRoot().toPath().resolve("2018-09-01").resolve("morning"), "e");
+
+        FileHolder upload = awaitUpload("e");
+        Assert.assertEquals("Wrong folder", "morning", upload.getFile().getParentFile().getName());
+    }
+}
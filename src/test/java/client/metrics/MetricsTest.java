@@ -0,0 +1,80 @@
+package client.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+
+public class MetricsTest {
+
+    @Test
+    public void histogramTest() {
+        Histogram histogram = Metrics.histogram("test_histogram", "Test", 10, 20, 50, 100);
+        for (int i = 1; i <= 100; i++) histogram.observe(i);
+
+        Assert.assertEquals("Wrong count", 100, histogram.getCount());
+        Assert.assertEquals("Wrong sum", 5050, histogram.getSum(), 0);
+        Assert.assertEquals("Wrong max", 100, histogram.getMax(), 0);
+        Assert.assertEquals("Wrong median", 50, histogram.getPercentile(0.5), 1);
+        Assert.assertEquals("Wrong 99th percentile", 99, histogram.getPercentile(0.99), 1);
+        Assert.assertSame("Histogram not reused", histogram, Metrics.histogram("test_histogram", "Test", 10, 20, 50, 100));
+    }
+
+    @Test
+    public void prometheusFormatTest() throws Exception {
+        Timer timer = Metrics.timer("test_timer_seconds", "Test timer");
+        timer.observe(0.003);
+        timer.observe(7);
+        Metrics.counter("test_failures_total", "Test failures", "type", "db").increment();
+        Metrics.counter("test_failures_total", "Test failures", "type", "upload").increment(2);
+        Metrics.gauge("test_queue_depth", "Test gauge", () -> 42);
+
+        StringWriter out = new StringWriter();
+        Metrics.write(out);
+        String text = out.toString();
+
+        Assert.assertTrue(text, text.contains("# TYPE test_timer_seconds histogram\n"));
+        Assert.assertTrue(text, text.contains("test_timer_seconds_bucket{le=\"0.005\"} 1\n"));
+        Assert.assertTrue(text, text.contains("test_timer_seconds_bucket{le=\"+Inf\"} 2\n"));
+        Assert.assertTrue(text, text.contains("test_timer_seconds_count 2\n"));
+        Assert.assertTrue(text, text.contains("test_failures_total{type=\"db\"} 1\n"));
+        Assert.assertTrue(text, text.contains("test_failures_total{type=\"upload\"} 2\n"));
+        Assert.assertTrue(text, text.contains("test_queue_depth 42\n"));
+        Assert.assertEquals("HELP not written once per metric", text.indexOf("# HELP test_failures_total"), text.lastIndexOf("# HELP test_failures_total"));
+    }
+
+    @Test
+    public void jmxTest() throws Exception {
+        Metrics.counter("test_jmx_total", "Test").increment(3);
+        Object value = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(Metrics.OBJECT_NAME), "test_jmx_total");
+        Assert.assertEquals("Wrong JMX value", 3L, value);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void typeMismatchTest() {
+        Metrics.counter("test_mismatch", "Test");
+        Metrics.timer("test_mismatch", "Test");
+    }
+
+    @Test
+    public void functionCounterTest() throws Exception {
+        long[] hits = {5};
+        FunctionCounter first = Metrics.counter("test_cache_hits_total", "Test cache hits", () -> hits[0]);
+        hits[0]++;
+
+        StringWriter out = new StringWriter();
+        Metrics.write(out);
+        String text = out.toString();
+        Assert.assertTrue(text, text.contains("# TYPE test_cache_hits_total counter\n"));
+        Assert.assertTrue(text, text.contains("test_cache_hits_total 6\n"));
+
+        // A newer source replaces the first one, which may then no longer remove it
+        FunctionCounter second = Metrics.counter("test_cache_hits_total", "Test cache hits", () -> 1);
+        Metrics.remove(first);
+        Assert.assertEquals("Replaced counter removed", 1L, Metrics.collect().get("test_cache_hits_total"));
+        Metrics.remove(second);
+        Assert.assertFalse("Counter not removed", Metrics.collect().containsKey("test_cache_hits_total"));
+    }
+}
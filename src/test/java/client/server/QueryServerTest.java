@@ -0,0 +1,203 @@
+package client.server;
+
+import client.PhotoSet;
+import client.databaseConnections.ImageMetadata;
+import client.databaseConnections.PhotoPage;
+import client.databaseConnections.PhotoPages;
+import client.handler.BucketHandler;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Scanner;
+
+public class QueryServerTest {
+
+    private static final String CURSOR = "1501595100000_0_b";
+
+    // Name of the handler method called last, and its arguments
+    private String called;
+    private Object[] arguments;
+    private boolean failing;
+
+    private QueryServer server;
+    private int port;
+
+    private static ImageMetadata newImage(String id, double latitude) {
+        return new ImageMetadata(id, 2688, 5376, null, latitude, -2.6, "camera", 3, 90, 5, 2.5);
+    }
+
+    private static PhotoSet newSet(double latitude, double longitude) {
+        PhotoSet set = new PhotoSet(latitude, longitude);
+        set.add(newImage("a", 51.4501), 11.1);
+        set.add(newImage("b", 51.4502), 22.2);
+        return set;
+    }
+
+    /**
+     * Answers every query with two photos, or with null while failing, and records which query it was.
+     */
+    private BucketHandler newHandler() {
+        return (BucketHandler) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{BucketHandler.class},
+                (proxy, method, args) -> {
+                    synchronized (this) {
+                        called = method.getName();
+                        arguments = args;
+                    }
+                    if (failing) return null;
+                    switch (method.getName()) {
+                        case "streamPhotosAround":
+                        case "getPhotosAround":
+                        case "getPhotosFacing":
+                            return newSet((double) args[0], (double) args[1]);
+                        case "getPhotosOnRoute":
+                        case "getPhotosTakenBetween":
+                        case "getPhotosUploadedBetween":
+                            return PhotoPages.newPage(Arrays.asList(newImage("a", 51.4501), newImage("b", 51.4502)),
+                                    PhotoPage.Cursor.parse(CURSOR));
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new QueryServer(newHandler(), new InetSocketAddress("localhost", port), 2);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static final class Response {
+        int status;
+        JsonObject body;
+    }
+
+    private Response request(String method, String pathAndQuery) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + pathAndQuery).openConnection();
+        connection.setRequestMethod(method);
+        Response response = new Response();
+        response.status = connection.getResponseCode();
+        try (InputStream in = response.status < 400 ? connection.getInputStream() : connection.getErrorStream();
+             Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name()).useDelimiter("\\A")) {
+            response.body = new JsonParser().parse(scanner.next()).getAsJsonObject();
+        } finally {
+            connection.disconnect();
+        }
+        return response;
+    }
+
+    private JsonObject get(String pathAndQuery) throws IOException {
+        Response response = request("GET", pathAndQuery);
+        Assert.assertEquals("Wrong status of " + pathAndQuery + ": " + response.body, 200, response.status);
+        return response.body;
+    }
+
+    private void assertError(int status, String message, String pathAndQuery) throws IOException {
+        Response response = request("GET", pathAndQuery);
+        Assert.assertEquals("Wrong status of " + pathAndQuery, status, response.status);
+        Assert.assertEquals("Wrong error of " + pathAndQuery, message, response.body.get("error").getAsString());
+    }
+
+    private synchronized void assertCalled(String method, Object... expected) {
+        Assert.assertEquals("Wrong query", method, called);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals("Wrong argument " + i + " of " + method, expected[i], arguments[i]);
+        }
+    }
+
+    @Test
+    public void geoTest() throws IOException {
+        JsonObject body = get("/geo?latitude=51.45&longitude=-2.6&radius=100&max=5");
+        assertCalled("streamPhotosAround", 51.45, -2.6, 100.0, 5);
+
+        Assert.assertEquals("Wrong latitude", 51.45, body.get("latitude").getAsDouble(), 0);
+        JsonArray photos = body.getAsJsonArray("photos");
+        Assert.assertEquals("Wrong number of photos", 2, photos.size());
+        JsonObject first = photos.get(0).getAsJsonObject();
+        Assert.assertEquals("Wrong id", "a", first.get("id").getAsString());
+        Assert.assertEquals("Wrong rank", 1, first.get("rank").getAsInt());
+        Assert.assertEquals("Wrong distance", 11.1, first.get("distance").getAsDouble(), 0);
+        Assert.assertEquals("Wrong metadata", 51.4501, first.getAsJsonObject("imageMetadata").get("latitude").getAsDouble(), 0);
+        Assert.assertEquals("Wrong rank", 2, photos.get(1).getAsJsonObject().get("rank").getAsInt());
+    }
+
+    @Test
+    public void geoVariantsTest() throws IOException {
+        get("/geo?latitude=51.45&longitude=-2.6&radius=100");
+        assertCalled("streamPhotosAround", 51.45, -2.6, 100.0, 100);
+
+        get("/geo?latitude=51.45&longitude=-2.6&radius=100&facing=true&maxAngle=30");
+        assertCalled("getPhotosFacing", 51.45, -2.6, 100.0, 30.0, 100);
+
+        get("/geo?latitude=51.45&longitude=-2.6&radius=100&takenFrom=2018-08-31T10%3A15");
+        assertCalled("getPhotosAround", 51.45, -2.6, 100.0, 100, LocalDateTime.of(2018, 8, 31, 10, 15), LocalDateTime.MAX);
+    }
+
+    @Test
+    public void routeTest() throws IOException {
+        JsonObject body = get("/route?id=7&pageSize=2");
+        assertCalled("getPhotosOnRoute", 7, null, 2);
+        Assert.assertEquals("Wrong number of photos", 2, body.getAsJsonArray("photos").size());
+        Assert.assertEquals("Wrong next cursor", CURSOR, body.get("next").getAsString());
+
+        get("/route?id=7&cursor=" + CURSOR);
+        synchronized (this) {
+            Assert.assertEquals("Cursor not passed on", CURSOR, String.valueOf(arguments[1]));
+        }
+    }
+
+    @Test
+    public void timeTest() throws IOException {
+        get("/time?from=2018-08-31T10:15&to=2018-08-31T11:00");
+        assertCalled("getPhotosTakenBetween", LocalDateTime.of(2018, 8, 31, 10, 15), LocalDateTime.of(2018, 8, 31, 11, 0), null, 100);
+
+        get("/time?from=2018-08-31T10:15&to=2018-08-31T11:00&uploaded=true&pageSize=10");
+        assertCalled("getPhotosUploadedBetween", LocalDateTime.of(2018, 8, 31, 10, 15), LocalDateTime.of(2018, 8, 31, 11, 0), null, 10);
+    }
+
+    @Test
+    public void invalidParametersTest() throws IOException {
+        assertError(400, "Missing parameter: radius", "/geo?latitude=51.45&longitude=-2.6");
+        assertError(400, "Invalid latitude: north", "/geo?latitude=north&longitude=-2.6&radius=100");
+        assertError(400, "Invalid from: yesterday", "/time?from=yesterday&to=2018-08-31T11:00");
+        assertError(400, "pageSize must be within [1, 10000]", "/route?id=7&pageSize=0");
+        assertError(400, "Invalid cursor: 12", "/route?id=7&cursor=12");
+        assertError(400, "Missing parameter: id", "/route");
+    }
+
+    @Test
+    public void failedQueryTest() throws IOException {
+        failing = true;
+        assertError(500, "Query failed", "/geo?latitude=51.45&longitude=-2.6&radius=100");
+        assertError(500, "Query failed", "/route?id=7");
+    }
+
+    @Test
+    public void methodTest() throws IOException {
+        Response response = request("POST", "/geo?latitude=51.45&longitude=-2.6&radius=100");
+        Assert.assertEquals("Wrong status", 405, response.status);
+        Assert.assertNull("Query answered", called);
+    }
+}
@@ -0,0 +1,100 @@
+package client.spatial;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class DistanceRankerTest {
+
+    @Test
+    public void ellipsoidalDistanceTest() {
+        // Flinders Peak to Buninyong, the reference example of Vincenty's paper
+        double distance = DistanceRanker.ellipsoidalMeters(-37.95103341666667, 144.42486788888889, -37.65282113888889, 143.92649552777777);
+        Assert.assertEquals("Wrong distance", 54972.271, distance, 0.001);
+        Assert.assertEquals("Wrong distance", 0, DistanceRanker.ellipsoidalMeters(51.45, -2.6, 51.45, -2.6), 0);
+    }
+
+    @Test
+    public void precisionsAgreeTest() {
+        double haversine = DistanceRanker.distance(51.45868, -2.60385, 51.4579453, -2.6036475, DistanceRanker.Precision.HAVERSINE);
+        double equirectangular = DistanceRanker.distance(51.45868, -2.60385, 51.4579453, -2.6036475, DistanceRanker.Precision.EQUIRECTANGULAR);
+        double ellipsoidal = DistanceRanker.distance(51.45868, -2.60385, 51.4579453, -2.6036475, DistanceRanker.Precision.ELLIPSOIDAL);
+        Assert.assertEquals("Wrong distance", 82.89, ellipsoidal, 0.1);
+        Assert.assertEquals("Wrong distance", ellipsoidal, haversine, ellipsoidal * 0.006);
+        Assert.assertEquals("Wrong distance", haversine, equirectangular, 0.01);
+    }
+
+    @Test
+    public void rankTest() {
+        assertRanked(51.45, -2.6, 0.1);
+    }
+
+    /**
+     * North-south distances are overestimated most by the spherical distance at the equator,
+     * while east-west ones are underestimated, so the coarse order is least reliable there.
+     */
+    @Test
+    public void rankAtTheEquatorTest() {
+        assertRanked(0, 30, 0.1);
+    }
+
+    /**
+     * The worst case: a point to the east looks 0.67% closer, relative to one to the north, than it is.
+     */
+    @Test
+    public void rankNorthAgainstEastTest() {
+        double[] latitudes = {0, Math.toDegrees(999.5 / 6335439.0)};
+        double[] longitudes = {Math.toDegrees(1000 / 6378137.0), 0};
+        double east = DistanceRanker.ellipsoidalMeters(0, 0, latitudes[0], longitudes[0]);
+        double north = DistanceRanker.ellipsoidalMeters(0, 0, latitudes[1], longitudes[1]);
+        Assert.assertTrue("North not closer for a meaningful test", north < east);
+        Assert.assertTrue("North not further for a meaningful test", GeoMath.haversineMeters(0, 0, latitudes[1], longitudes[1])
+                > 1.006 * GeoMath.haversineMeters(0, 0, latitudes[0], longitudes[0]));
+
+        int[] ranked = DistanceRanker.rank(0, 0, latitudes, longitudes, 2, 1,
+                DistanceRanker.Precision.HAVERSINE, DistanceRanker.Precision.ELLIPSOIDAL, new double[2]);
+        Assert.assertArrayEquals("Closest point not ranked", new int[]{1}, ranked);
+    }
+
+    @Test
+    public void rankAtHighLatitudeTest() {
+        assertRanked(78.2, 15.6, 0.1);
+    }
+
+    /**
+     * Ranks points spread over a square of the given size around the point and checks the result against
+     * the ellipsoidal distance of every point.
+     */
+    private void assertRanked(double latitude, double longitude, double degrees) {
+        int n = 10000;
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        Random random = new Random(42);
+        for (int i = 0; i < n; i++) {
+            latitudes[i] = latitude - degrees / 2 + random.nextDouble() * degrees;
+            longitudes[i] = longitude - degrees / 2 + random.nextDouble() * degrees;
+        }
+
+        double[] distances = new double[n];
+        int[] ranked = DistanceRanker.rank(latitude, longitude, latitudes, longitudes, n, 100,
+                DistanceRanker.Precision.HAVERSINE, DistanceRanker.Precision.ELLIPSOIDAL, distances);
+
+        Assert.assertEquals("Wrong number of results", 100, ranked.length);
+        double last = distances[ranked[ranked.length - 1]];
+        for (int i = 0; i < ranked.length; i++) {
+            double expected = DistanceRanker.ellipsoidalMeters(latitude, longitude, latitudes[ranked[i]], longitudes[ranked[i]]);
+            Assert.assertEquals("Wrong distance", expected, distances[ranked[i]], 1e-6);
+            if (i > 0) Assert.assertTrue("Not sorted", distances[ranked[i - 1]] <= distances[ranked[i]]);
+        }
+        for (int i = 0; i < n; i++) {
+            Assert.assertTrue("Closer point not ranked",
+                    DistanceRanker.ellipsoidalMeters(latitude, longitude, latitudes[i], longitudes[i]) >= last || contains(ranked, i));
+        }
+    }
+
+    private boolean contains(int[] array, int value) {
+        for (int element : array) if (element == value) return true;
+        return false;
+    }
+}
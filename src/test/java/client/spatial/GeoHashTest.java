@@ -0,0 +1,51 @@
+package client.spatial;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.Set;
+
+public class GeoHashTest {
+
+    @Test
+    public void encodeTest() {
+        Assert.assertEquals("Wrong hash", "gcnhsz", GeoHash.encode(51.4548, -2.6033, 6));
+        Assert.assertEquals("Wrong hash", "u4pruydqqvj", GeoHash.encode(57.64911, 10.40744, 11));
+    }
+
+    @Test
+    public void coveringTest() {
+        Random random = new Random(42);
+        double minLatitude = 51.43;
+        double minLongitude = -2.63;
+        double maxLatitude = 51.48;
+        double maxLongitude = -2.55;
+        Set<String> cells = GeoHash.covering(minLatitude, minLongitude, maxLatitude, maxLongitude, 6);
+
+        for (int i = 0; i < 10000; i++) {
+            double latitude = minLatitude + random.nextDouble() * (maxLatitude - minLatitude);
+            double longitude = minLongitude + random.nextDouble() * (maxLongitude - minLongitude);
+            Assert.assertTrue("Cell not covered", cells.contains(GeoHash.encode(latitude, longitude, 6)));
+        }
+        Assert.assertTrue("Corner not covered", cells.contains(GeoHash.encode(maxLatitude, maxLongitude, 6)));
+        // About 0.05 x 0.08 degrees in cells of 0.0055 x 0.011 degrees
+        Assert.assertTrue("Too many cells: " + cells.size(), cells.size() <= 11 * 9);
+    }
+
+    @Test
+    public void coveringEdgeOfTheWorldTest() {
+        Set<String> cells = GeoHash.covering(89.99, 179.99, 90, 180, 4);
+        Assert.assertEquals("Wrong cells", 1, cells.size());
+        Assert.assertTrue("Corner not covered", cells.contains(GeoHash.encode(90, 180, 4)));
+    }
+
+    @Test
+    public void coveringSizeTest() {
+        Assert.assertEquals("Wrong size", GeoHash.covering(51.43, -2.63, 51.48, -2.55, 6).size(),
+                GeoHash.coveringSize(51.43, -2.63, 51.48, -2.55, 6));
+        Assert.assertEquals("Wrong size", 1, GeoHash.coveringSize(89.99, 179.99, 90, 180, 4));
+        // The whole world at precision 6, too many cells for an int
+        Assert.assertEquals("Wrong size", 1L << 30, GeoHash.coveringSize(-90, -180, 90, 180, 6));
+    }
+}
@@ -0,0 +1,88 @@
+package client.spatial;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class GeoMathTest {
+
+    private boolean contains(double[][] boxes, double latitude, double longitude) {
+        for (double[] box : boxes) {
+            if (latitude >= box[0] && longitude >= box[1] && latitude <= box[2] && longitude <= box[3]) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks that every one of many random locations around the point which is within the radius lies in a box.
+     */
+    private void assertEnclosed(double latitude, double longitude, double radiusMeters) {
+        double[][] boxes = GeoMath.boundingBoxes(latitude, longitude, radiusMeters);
+        double spread = Math.toDegrees(radiusMeters / GeoMath.EARTH_RADIUS_METERS) * 3;
+        Random random = new Random(42);
+        int within = 0;
+        for (int i = 0; i < 100000; i++) {
+            double pointLatitude = Math.max(-90, Math.min(90, latitude + (random.nextDouble() * 2 - 1) * spread));
+            double pointLongitude = longitude + (random.nextDouble() * 2 - 1) * spread * 50;
+            pointLongitude = ((pointLongitude + 540) % 360) - 180;
+            if (GeoMath.haversineMeters(latitude, longitude, pointLatitude, pointLongitude) > radiusMeters) continue;
+
+            within++;
+            Assert.assertTrue("Not enclosed: " + pointLatitude + ", " + pointLongitude, contains(boxes, pointLatitude, pointLongitude));
+        }
+        Assert.assertTrue("Too few locations within the radius", within > 100);
+    }
+
+    @Test
+    public void haversineTest() {
+        Assert.assertEquals("Wrong distance", 0, GeoMath.haversineMeters(51.45, -2.6, 51.45, -2.6), 0);
+        // One degree of latitude
+        Assert.assertEquals("Wrong distance", 111195, GeoMath.haversineMeters(51, -2.6, 52, -2.6), 1);
+        Assert.assertEquals("Wrong distance across the antimeridian", 2 * 11.1195, GeoMath.haversineMeters(0, 179.9999, 0, -179.9999), 0.01);
+    }
+
+    @Test
+    public void singleBoxTest() {
+        double[][] boxes = GeoMath.boundingBoxes(51.45, -2.6, 1000);
+        Assert.assertEquals("Wrong number of boxes", 1, boxes.length);
+        Assert.assertEquals("Wrong min latitude", 51.45 - 0.008993, boxes[0][0], 1e-5);
+        Assert.assertEquals("Wrong max latitude", 51.45 + 0.008993, boxes[0][2], 1e-5);
+        assertEnclosed(51.45, -2.6, 1000);
+    }
+
+    @Test
+    public void antimeridianTest() {
+        double[][] east = GeoMath.boundingBoxes(10, 179.995, 2000);
+        Assert.assertEquals("Wrong number of boxes", 2, east.length);
+        Assert.assertEquals("Box doesn't end at the antimeridian", 180, east[0][3], 0);
+        Assert.assertEquals("Box doesn't start at the antimeridian", -180, east[1][1], 0);
+        Assert.assertTrue("Location across the antimeridian not enclosed", contains(east, 10, -179.995));
+        assertEnclosed(10, 179.995, 2000);
+
+        double[][] west = GeoMath.boundingBoxes(-10, -179.995, 2000);
+        Assert.assertEquals("Wrong number of boxes", 2, west.length);
+        Assert.assertTrue("Location across the antimeridian not enclosed", contains(west, -10, 179.995));
+        assertEnclosed(-10, -179.995, 2000);
+    }
+
+    @Test
+    public void poleTest() {
+        double[][] north = GeoMath.boundingBoxes(89.995, 0, 2000);
+        Assert.assertArrayEquals("Box doesn't span every longitude", new double[]{-180, 180},
+                new double[]{north[0][1], north[0][3]}, 0);
+        Assert.assertEquals("Box doesn't reach the pole", 90, north[0][2], 0);
+        assertEnclosed(89.995, 0, 2000);
+
+        double[][] south = GeoMath.boundingBoxes(-89.995, 120, 2000);
+        Assert.assertEquals("Box doesn't reach the pole", -90, south[0][0], 0);
+        assertEnclosed(-89.995, 120, 2000);
+    }
+
+    @Test
+    public void wholeEarthTest() {
+        double[][] boxes = GeoMath.boundingBoxes(51.45, -2.6, 500000000);
+        Assert.assertEquals("Wrong number of boxes", 1, boxes.length);
+        Assert.assertTrue("Antipode not enclosed", contains(boxes, -51.45, 177.4));
+    }
+}
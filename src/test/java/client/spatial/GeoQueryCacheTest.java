@@ -0,0 +1,103 @@
+package client.spatial;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class GeoQueryCacheTest {
+
+    // Cells of roughly 1.2km x 0.6km
+    private static final int PRECISION = 6;
+
+    private final NearbyPoints photos = new NearbyPoints();
+
+    public GeoQueryCacheTest() {
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            photos.add(String.valueOf(i), 51.45 + random.nextDouble() * 0.02, -2.61 + random.nextDouble() * 0.03, 0);
+        }
+    }
+
+    private NearbyPoints search(double latitude, double longitude, double radiusMeters, int maxResults) {
+        return photos.within(latitude, longitude, radiusMeters).nearest(maxResults);
+    }
+
+    @Test
+    public void sameCellTest() {
+        GeoQueryCache<NearbyPoints> cache = new GeoQueryCache<>(16, PRECISION);
+        double[] first = {51.4548, -2.6033};
+        double[] second = {51.4596, -2.5932};
+        Assert.assertEquals("Points not in the same cell",
+                GeoHash.encode(first[0], first[1], PRECISION), GeoHash.encode(second[0], second[1], PRECISION));
+
+        Assert.assertNull("Empty cache hit", cache.get(first[0], first[1], 100));
+        long version = cache.getVersion();
+        cache.put(first[0], first[1], 100, search(first[0], first[1], cache.getCachedRadius(first[0], 100), Integer.MAX_VALUE), version);
+
+        NearbyPoints cached = cache.get(second[0], second[1], 100);
+        Assert.assertNotNull("Point in the same cell missed", cached);
+        Assert.assertEquals("Wrong hit count", 1, cache.getHits());
+
+        NearbyPoints expected = search(second[0], second[1], 100, 20);
+        NearbyPoints actual = cached.within(second[0], second[1], 100).nearest(20);
+        Assert.assertEquals("Too few photos for a meaningful test", 20, expected.size());
+        Assert.assertEquals("Wrong photos for the second point", expected.getIds(), actual.getIds());
+        for (int i = 0; i < actual.size(); i++) {
+            Assert.assertTrue("Photo outside the radius", actual.getDistance(i) <= 100);
+        }
+
+        Assert.assertNull("Other radius hit", cache.get(second[0], second[1], 50));
+    }
+
+    @Test
+    public void invalidationTest() {
+        GeoQueryCache<NearbyPoints> cache = new GeoQueryCache<>(16, PRECISION);
+        cache.put(51.4566, -2.5950, 100, new NearbyPoints(), cache.getVersion());
+        cache.put(51.4100, -2.5950, 100, new NearbyPoints(), cache.getVersion());
+
+        // Within the cached radius of the first entry, but outside its search radius
+        cache.invalidate(51.4566 + 0.0012, -2.5950);
+        Assert.assertNull("Entry not invalidated", cache.get(51.4566, -2.5950, 100));
+        Assert.assertNotNull("Far entry invalidated", cache.get(51.4100, -2.5950, 100));
+
+        long stale = cache.getVersion();
+        cache.invalidate(0, 0);
+        cache.put(51.4566, -2.5950, 100, new NearbyPoints(), stale);
+        Assert.assertNull("Stale result cached", cache.get(51.4566, -2.5950, 100));
+
+        cache.invalidateAll();
+        Assert.assertEquals("Cache not cleared", 0, cache.size());
+    }
+
+    @Test
+    public void weightTest() {
+        GeoQueryCache<NearbyPoints> cache = new GeoQueryCache<>(500, PRECISION, NearbyPoints::size);
+        NearbyPoints first = search(51.4566, -2.5950, 300, Integer.MAX_VALUE);
+        NearbyPoints second = search(51.4600, -2.6000, 300, Integer.MAX_VALUE);
+        Assert.assertTrue("Wrong result sizes for a meaningful test", first.size() + second.size() > 500 && second.size() <= 500);
+
+        cache.put(51.4566, -2.5950, 300, first, cache.getVersion());
+        cache.put(51.4600, -2.6000, 300, second, cache.getVersion());
+        Assert.assertEquals("Eldest entry not dropped", 1, cache.size());
+        Assert.assertEquals("Wrong weight", second.size(), cache.getWeight());
+        Assert.assertNull("Eldest entry still cached", cache.get(51.4566, -2.5950, 300));
+
+        cache.put(51.4566, -2.5950, 5000, photos, cache.getVersion());
+        Assert.assertNull("Result heavier than the cache cached", cache.get(51.4566, -2.5950, 5000));
+        Assert.assertNotNull("Entry dropped for a result which wasn't cached", cache.get(51.4600, -2.6000, 300));
+    }
+
+    @Test
+    public void invalidationNearCellBorderTest() {
+        GeoQueryCache<NearbyPoints> cache = new GeoQueryCache<>(16, PRECISION);
+//        Searches 2km around a point, so the change lies in another coarse cell than the query point
+        cache.put(51.4566, -2.5950, 2000, new NearbyPoints(), cache.getVersion());
+        cache.put(-33.86, 151.2, 2000, new NearbyPoints(), cache.getVersion());
+
+        cache.invalidate(51.4566 + 0.017, -2.5950 + 0.02);
+        Assert.assertNull("Entry not invalidated", cache.get(51.4566, -2.5950, 2000));
+        Assert.assertNotNull("Far entry invalidated", cache.get(-33.86, 151.2, 2000));
+        Assert.assertEquals("Wrong weight", 1, cache.getWeight());
+    }
+}
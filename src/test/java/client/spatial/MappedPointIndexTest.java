@@ -0,0 +1,88 @@
+package client.spatial;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class MappedPointIndexTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripTest() throws IOException {
+        String[] ids = {"1", "22", "\u00fcn\u00efcode-333"};
+        double[] latitudes = {51.45, -33.86, 0};
+        double[] longitudes = {-2.6, 151.2, 179.99};
+        Path file = folder.getRoot().toPath().resolve("points.idx");
+        MappedPointIndex.write(file, ids, latitudes, longitudes, ids.length);
+
+        MappedPointIndex index = MappedPointIndex.open(file);
+        Assert.assertEquals("Wrong size", 3, index.size());
+
+        Set<String> found = new HashSet<>();
+        index.search(-90, -180, 90, 180, (id, latitude, longitude) -> {
+            found.add(id + "@" + latitude + "," + longitude);
+        });
+        Assert.assertEquals("Wrong points", 3, found.size());
+        for (int i = 0; i < ids.length; i++) {
+            Assert.assertTrue("Point not found: " + ids[i], found.contains(ids[i] + "@" + latitudes[i] + "," + longitudes[i]));
+        }
+    }
+
+    @Test
+    public void emptyIndexTest() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("points.idx");
+        MappedPointIndex.write(file, new String[0], new double[0], new double[0], 0);
+
+        MappedPointIndex index = MappedPointIndex.open(file);
+        Assert.assertEquals("Wrong size", 0, index.size());
+        index.search(-90, -180, 90, 180, (id, latitude, longitude) -> Assert.fail("Point found in an empty index"));
+    }
+
+    @Test
+    public void boxSearchTest() throws IOException {
+        // Enough points for several levels of nodes
+        int n = 20000;
+        String[] ids = new String[n];
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        Random random = new Random(42);
+        for (int i = 0; i < n; i++) {
+            ids[i] = String.valueOf(i);
+            latitudes[i] = 51.4 + random.nextDouble() * 0.1;
+            longitudes[i] = -2.65 + random.nextDouble() * 0.1;
+        }
+        Path file = folder.getRoot().toPath().resolve("points.idx");
+        MappedPointIndex.write(file, ids, latitudes, longitudes, n);
+        MappedPointIndex index = MappedPointIndex.open(file);
+
+        for (int query = 0; query < 50; query++) {
+            double minLatitude = 51.4 + random.nextDouble() * 0.1;
+            double minLongitude = -2.65 + random.nextDouble() * 0.1;
+            double maxLatitude = minLatitude + random.nextDouble() * 0.02;
+            double maxLongitude = minLongitude + random.nextDouble() * 0.02;
+
+            Set<String> expected = new HashSet<>();
+            for (int i = 0; i < n; i++) {
+                if (latitudes[i] >= minLatitude && latitudes[i] <= maxLatitude
+                        && longitudes[i] >= minLongitude && longitudes[i] <= maxLongitude) {
+                    expected.add(ids[i]);
+                }
+            }
+
+            Set<String> found = new HashSet<>();
+            index.search(minLatitude, minLongitude, maxLatitude, maxLongitude, (id, latitude, longitude) -> {
+                Assert.assertTrue("Point found twice: " + id, found.add(id));
+            });
+            Assert.assertEquals("Wrong points in the box", expected, found);
+        }
+    }
+}
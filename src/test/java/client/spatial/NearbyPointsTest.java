@@ -0,0 +1,30 @@
+package client.spatial;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class NearbyPointsTest {
+
+    @Test
+    public void nearestTest() {
+        Random random = new Random(42);
+        NearbyPoints points = new NearbyPoints();
+        double[] distances = new double[1000];
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = random.nextDouble() * 1000;
+            points.add(String.valueOf(i), 0, 0, distances[i]);
+        }
+        Arrays.sort(distances);
+
+        for (int n : new int[]{0, 1, 10, 999, 1000, 5000}) {
+            NearbyPoints nearest = points.nearest(n);
+            Assert.assertEquals("Wrong size", Math.min(n, 1000), nearest.size());
+            for (int i = 0; i < nearest.size(); i++) {
+                Assert.assertEquals("Wrong distance at " + i, distances[i], nearest.getDistance(i), 0);
+            }
+        }
+    }
+}
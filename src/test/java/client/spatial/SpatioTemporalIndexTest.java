@@ -0,0 +1,120 @@
+package client.spatial;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class SpatioTemporalIndexTest {
+
+    private static final long START = SpatioTemporalIndex.toEpochSecond(LocalDateTime.of(2018, 8, 31, 0, 0));
+    private static final int N = 20000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final String[] ids = new String[N];
+    private final double[] latitudes = new double[N];
+    private final double[] longitudes = new double[N];
+    private final long[] times = new long[N];
+
+    public SpatioTemporalIndexTest() {
+        // Ten days of photos spread over a few kilometres, i.e. many cells per day
+        Random random = new Random(42);
+        for (int i = 0; i < N; i++) {
+            ids[i] = String.valueOf(i);
+            latitudes[i] = 51.44 + random.nextDouble() * 0.04;
+            longitudes[i] = -2.62 + random.nextDouble() * 0.06;
+            times[i] = START + (long) (random.nextDouble() * 10 * SpatioTemporalIndex.PARTITION_SECONDS);
+        }
+    }
+
+    private SpatioTemporalIndex newIndex() {
+        SpatioTemporalIndex index = new SpatioTemporalIndex();
+        for (int i = 0; i < N; i++) index.add(ids[i], latitudes[i], longitudes[i], times[i]);
+        return index;
+    }
+
+    private Set<String> search(SpatioTemporalIndex index, double latitude, double longitude, double radiusMeters, long from, long to) {
+        NearbyPoints found = new NearbyPoints();
+        index.search(latitude, longitude, radiusMeters, from, to, found);
+        Set<String> ids = new HashSet<>(found.getIds());
+        Assert.assertEquals("Photo found twice", found.size(), ids.size());
+        return ids;
+    }
+
+    private Set<String> scan(double latitude, double longitude, double radiusMeters, long from, long to) {
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < N; i++) {
+            if (times[i] < from || times[i] > to) continue;
+            if (GeoMath.haversineMeters(latitude, longitude, latitudes[i], longitudes[i]) <= radiusMeters) expected.add(ids[i]);
+        }
+        return expected;
+    }
+
+    @Test
+    public void searchTest() {
+        SpatioTemporalIndex index = newIndex();
+        Assert.assertEquals("Wrong size", N, index.size());
+
+        Random random = new Random(7);
+        for (int query = 0; query < 100; query++) {
+            double latitude = 51.44 + random.nextDouble() * 0.04;
+            double longitude = -2.62 + random.nextDouble() * 0.06;
+            double radius = 50 + random.nextDouble() * 1500;
+            long from = START + (long) (random.nextDouble() * 8 * SpatioTemporalIndex.PARTITION_SECONDS);
+            long to = from + (long) (random.nextDouble() * 2 * SpatioTemporalIndex.PARTITION_SECONDS);
+
+            Assert.assertEquals("Wrong photos", scan(latitude, longitude, radius, from, to), search(index, latitude, longitude, radius, from, to));
+        }
+    }
+
+    @Test
+    public void largeRadiusTest() {
+        SpatioTemporalIndex index = newIndex();
+        long from = START + SpatioTemporalIndex.PARTITION_SECONDS;
+        long to = from + 2 * SpatioTemporalIndex.PARTITION_SECONDS;
+        // Too many covering cells to look up, every cell of a day is scanned instead
+        Assert.assertEquals("Wrong photos", scan(51.2, -2.3, 40000, from, to), search(index, 51.2, -2.3, 40000, from, to));
+    }
+
+    @Test
+    public void windowBoundsTest() {
+        SpatioTemporalIndex index = newIndex();
+        Assert.assertEquals("Photo at the bounds missed", Collections.singleton(ids[0]),
+                search(index, latitudes[0], longitudes[0], 1, times[0], times[0]));
+        Assert.assertTrue("Empty window", search(index, latitudes[0], longitudes[0], 100000, times[0], times[0] - 1).isEmpty());
+        Assert.assertEquals("Unbounded window", N, search(index, 51.46, -2.59, 100000,
+                SpatioTemporalIndex.toEpochSecond(LocalDateTime.MIN), SpatioTemporalIndex.toEpochSecond(LocalDateTime.MAX)).size());
+    }
+
+    @Test
+    public void removeTest() {
+        SpatioTemporalIndex index = newIndex();
+        Assert.assertTrue("Photo not removed", index.remove(ids[0], latitudes[0], longitudes[0], times[0]));
+        Assert.assertFalse("Photo removed twice", index.remove(ids[0], latitudes[0], longitudes[0], times[0]));
+        Assert.assertFalse("Photo removed from the wrong day", index.remove(ids[1], latitudes[1], longitudes[1], times[1] + 20 * SpatioTemporalIndex.PARTITION_SECONDS));
+        Assert.assertEquals("Wrong size", N - 1, index.size());
+        Assert.assertFalse("Removed photo found", search(index, latitudes[0], longitudes[0], 10, times[0], times[0]).contains(ids[0]));
+    }
+
+    @Test
+    public void writeAndReadTest() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("spacetime.idx");
+        newIndex().write(file);
+        SpatioTemporalIndex index = SpatioTemporalIndex.read(file);
+
+        Assert.assertEquals("Wrong size", N, index.size());
+        long from = START + SpatioTemporalIndex.PARTITION_SECONDS / 2;
+        long to = from + 3 * SpatioTemporalIndex.PARTITION_SECONDS;
+        Assert.assertEquals("Wrong photos", scan(51.46, -2.59, 800, from, to), search(index, 51.46, -2.59, 800, from, to));
+    }
+}
@@ -0,0 +1,107 @@
+package client.spatial;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class VisibilityQueryTest {
+
+    private static final double TARGET_LATITUDE = 51.4545;
+    private static final double TARGET_LONGITUDE = -2.5879;
+
+    @Test
+    public void bearingTest() {
+        Assert.assertEquals("Wrong bearing north", 0, VisibilityQuery.bearingDegrees(0, 0, 1, 0), 1e-9);
+        Assert.assertEquals("Wrong bearing east", 90, VisibilityQuery.bearingDegrees(0, 0, 0, 1), 1e-9);
+        Assert.assertEquals("Wrong bearing south", 180, VisibilityQuery.bearingDegrees(0, 0, -1, 0), 1e-9);
+        Assert.assertEquals("Wrong bearing west", 270, VisibilityQuery.bearingDegrees(0, 0, 0, -1), 1e-9);
+
+        double bearing = VisibilityQuery.bearingDegrees(TARGET_LATITUDE, TARGET_LONGITUDE, TARGET_LATITUDE + 0.001, TARGET_LONGITUDE - 0.00001);
+        Assert.assertTrue("Bearing outside [0, 360): " + bearing, bearing >= 0 && bearing < 360);
+        Assert.assertEquals("Wrong bearing just west of north", 360, bearing, 1);
+    }
+
+    private static double offset(double bearing, double bearingAccuracy) {
+        // Camera 100m south of the target, the target is straight north of it
+        double[] offsets = new double[1];
+        VisibilityQuery.angularOffsets(TARGET_LATITUDE, TARGET_LONGITUDE,
+                new double[]{TARGET_LATITUDE - 0.0009}, new double[]{TARGET_LONGITUDE},
+                new double[]{bearing}, new double[]{bearingAccuracy}, 1, offsets);
+        return offsets[0];
+    }
+
+    @Test
+    public void offsetTest() {
+        Assert.assertEquals("Facing the target", 0, offset(0, 0), 1e-6);
+        Assert.assertEquals("Facing away from the target", 180, offset(180, 0), 1e-6);
+        Assert.assertEquals("Facing sideways", 90, offset(270, 0), 1e-6);
+        Assert.assertEquals("Heading across north", 10, offset(350, 0), 1e-6);
+        Assert.assertEquals("Heading above 360", 10, offset(370, 0), 1e-6);
+        Assert.assertEquals("Negative heading", 10, offset(-10, 0), 1e-6);
+        Assert.assertEquals("Accuracy not subtracted", 15, offset(20, 5), 1e-6);
+        Assert.assertEquals("Accuracy above the offset", 0, offset(20, 30), 1e-6);
+        Assert.assertTrue("Offset without a heading", Double.isNaN(offset(Double.NaN, 0)));
+    }
+
+    @Test
+    public void rankTest() {
+        Random random = new Random(42);
+        int n = 2000;
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        double[] bearings = new double[n];
+        double[] bearingAccuracies = new double[n];
+        for (int i = 0; i < n; i++) {
+            latitudes[i] = TARGET_LATITUDE + (random.nextDouble() - 0.5) * 0.004;
+            longitudes[i] = TARGET_LONGITUDE + (random.nextDouble() - 0.5) * 0.006;
+            bearings[i] = i % 100 == 0 ? Double.NaN : random.nextDouble() * 360;
+            bearingAccuracies[i] = random.nextDouble() * 10;
+        }
+
+        double[] offsets = new double[n];
+        int[] ranked = VisibilityQuery.rank(TARGET_LATITUDE, TARGET_LONGITUDE, latitudes, longitudes,
+                bearings, bearingAccuracies, n, 30, 50, offsets);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            double toTarget = VisibilityQuery.bearingDegrees(latitudes[i], longitudes[i], TARGET_LATITUDE, TARGET_LONGITUDE);
+            double difference = Math.abs(toTarget - bearings[i]) % 360;
+            if (difference > 180) difference = 360 - difference;
+            double offset = Math.max(0, difference - bearingAccuracies[i]);
+            if (!Double.isNaN(bearings[i])) Assert.assertEquals("Wrong offset of " + i, offset, offsets[i], 1e-9);
+            if (offset <= 30) expected.add(i);
+        }
+        expected.sort(Comparator.comparingDouble(i -> offsets[i]));
+        Assert.assertTrue("Too few cameras for a meaningful test", expected.size() > 50);
+
+        Assert.assertEquals("Wrong number of results", 50, ranked.length);
+        for (int i = 0; i < ranked.length; i++) {
+            Assert.assertFalse("Camera without a heading ranked", Double.isNaN(bearings[ranked[i]]));
+            Assert.assertEquals("Wrong offset at rank " + i, offsets[expected.get(i)], offsets[ranked[i]], 0);
+            if (i > 0) Assert.assertTrue("Not ranked best first", offsets[ranked[i - 1]] <= offsets[ranked[i]]);
+        }
+    }
+
+    @Test
+    public void rankMaxOffsetTest() {
+        // Cameras south of the target with headings across north, one without a heading
+        double[] latitudes = {TARGET_LATITUDE - 0.0009, TARGET_LATITUDE - 0.0009, TARGET_LATITUDE - 0.0009, TARGET_LATITUDE - 0.0009};
+        double[] longitudes = {TARGET_LONGITUDE, TARGET_LONGITUDE, TARGET_LONGITUDE, TARGET_LONGITUDE};
+        double[] bearings = {20, 355, Double.NaN, 180};
+        double[] bearingAccuracies = {0, 0, 0, 0};
+        double[] offsets = new double[4];
+
+        int[] ranked = VisibilityQuery.rank(TARGET_LATITUDE, TARGET_LONGITUDE, latitudes, longitudes,
+                bearings, bearingAccuracies, 4, 45, 10, offsets);
+        Assert.assertArrayEquals("Wrong cameras", new int[]{1, 0}, ranked);
+
+        Assert.assertEquals("Results without a limit", 0, VisibilityQuery.rank(TARGET_LATITUDE, TARGET_LONGITUDE,
+                latitudes, longitudes, bearings, bearingAccuracies, 4, 45, 0, offsets).length);
+        Assert.assertArrayEquals("Only the first camera", new int[]{0}, VisibilityQuery.rank(TARGET_LATITUDE, TARGET_LONGITUDE,
+                latitudes, longitudes, bearings, bearingAccuracies, 1, 45, 10, offsets));
+    }
+}
@@ -0,0 +1,148 @@
+package client.storageConnections;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BucketLayoutTest {
+
+    private static final String BUCKET = "layout-test";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private String home;
+    private Path bucketFolder;
+
+    @Before
+    public void setUp() {
+        home = System.getProperty("user.home");
+        System.setProperty("user.home", folder.getRoot().getPath());
+        bucketFolder = folder.getRoot().toPath().resolve(BUCKET);
+    }
+
+    @After
+    public void tearDown() {
+        System.setProperty("user.home", home);
+        BucketLayout.forget(bucketFolder);
+    }
+
+    private static String newKey(int i) {
+        return String.format("%032x", i) + "-photo" + i + ".jpg";
+    }
+
+    private List<String> writeFlatBucket(int files) throws IOException {
+        Files.createDirectories(bucketFolder);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            String key = newKey(i);
+            Files.write(bucketFolder.resolve(key), key.getBytes());
+            keys.add(key);
+        }
+        Files.write(bucketFolder.resolve(StorageConnection.RTREE_FILE), new byte[]{1});
+        Files.createDirectories(bucketFolder.resolve("output"));
+        return keys;
+    }
+
+    @Test
+    public void newBucketTest() throws IOException {
+        Assert.assertEquals("New bucket not sharded", BucketLayout.SHARDED, BucketLayout.of(bucketFolder));
+        Assert.assertFalse("Bucket created without writing", Files.exists(bucketFolder));
+
+        Assert.assertEquals("New bucket not sharded", BucketLayout.SHARDED, BucketLayout.forWriting(bucketFolder));
+        Assert.assertTrue("Bucket not marked", Files.exists(bucketFolder.resolve(BucketLayout.MARKER_FILE)));
+
+        // Still sharded after files were written and the layout was forgotten
+        Path photo = BucketLayout.SHARDED.resolve(bucketFolder, newKey(1));
+        Files.createDirectories(photo.getParent());
+        Files.write(photo, new byte[]{1});
+        Files.write(bucketFolder.resolve(StorageConnection.RTREE_FILE), new byte[]{1});
+        BucketLayout.forget(bucketFolder);
+        Assert.assertEquals("Marked bucket not sharded", BucketLayout.SHARDED, BucketLayout.of(bucketFolder));
+    }
+
+    @Test
+    public void flatBucketTest() throws IOException {
+        writeFlatBucket(3);
+
+        Assert.assertEquals("Existing bucket not flat", BucketLayout.FLAT, BucketLayout.forWriting(bucketFolder));
+        Assert.assertFalse("Flat bucket marked", Files.exists(bucketFolder.resolve(BucketLayout.MARKER_FILE)));
+        Assert.assertEquals("Wrong location in a flat bucket",
+                bucketFolder.resolve(newKey(1)), BucketLayout.FLAT.resolve(bucketFolder, newKey(1)));
+    }
+
+    @Test
+    public void bucketFilesOnlyTest() throws IOException {
+        // A bucket with an index, but without any photos yet
+        writeFlatBucket(0);
+        Assert.assertEquals("Bucket without photos not sharded", BucketLayout.SHARDED, BucketLayout.of(bucketFolder));
+    }
+
+    @Test
+    public void resolveTest() {
+        String id = String.format("%032x", 42);
+        Path photo = BucketLayout.SHARDED.resolve(bucketFolder, id + "-photo.jpg");
+        Path sidecar = BucketLayout.SHARDED.resolve(bucketFolder, id + "-photo_I.json");
+
+        Assert.assertEquals("Wrong file name", id + "-photo.jpg", photo.getFileName().toString());
+        Assert.assertEquals("Files of one photo in different folders", photo.getParent(), sidecar.getParent());
+        Assert.assertEquals("Wrong depth", bucketFolder, photo.getParent().getParent().getParent());
+        Assert.assertTrue("Wrong folder name", photo.getParent().getFileName().toString().matches("[0-9a-f]{2}"));
+        Assert.assertTrue("Wrong folder name", photo.getParent().getParent().getFileName().toString().matches("[0-9a-f]{2}"));
+        Assert.assertEquals("Key without a file name", bucketFolder.relativize(photo.getParent()),
+                bucketFolder.relativize(BucketLayout.SHARDED.resolve(bucketFolder, id).getParent()));
+    }
+
+    @Test
+    public void migrationTest() throws IOException {
+        List<String> keys = writeFlatBucket(50);
+        Assert.assertEquals("Existing bucket not flat", BucketLayout.FLAT, BucketLayout.of(bucketFolder));
+
+        Assert.assertEquals("Wrong number of files moved", 50, BucketMigration.migrateToShardedLayout(BUCKET));
+        Assert.assertEquals("Migrated bucket not sharded", BucketLayout.SHARDED, BucketLayout.of(bucketFolder));
+        for (String key : keys) {
+            Path path = BucketLayout.SHARDED.resolve(bucketFolder, key);
+            Assert.assertTrue("File not moved: " + key, Files.exists(path));
+            Assert.assertArrayEquals("Wrong contents of " + key, key.getBytes(), Files.readAllBytes(path));
+            Assert.assertFalse("File left in the root: " + key, Files.exists(bucketFolder.resolve(key)));
+        }
+        Assert.assertTrue("RTree moved", Files.exists(bucketFolder.resolve(StorageConnection.RTREE_FILE)));
+        Assert.assertTrue("Output folder moved", Files.isDirectory(bucketFolder.resolve("output")));
+
+        Assert.assertEquals("Sharded bucket migrated again", 0, BucketMigration.migrateToShardedLayout(BUCKET));
+    }
+
+    @Test
+    public void interruptedMigrationTest() throws IOException {
+        List<String> keys = writeFlatBucket(10);
+
+        // Moved before the migration was interrupted, the bucket isn't marked yet
+        for (String key : keys.subList(0, 4)) {
+            Path destination = BucketLayout.SHARDED.resolve(bucketFolder, key);
+            Files.createDirectories(destination.getParent());
+            Files.move(bucketFolder.resolve(key), destination);
+        }
+        BucketLayout.forget(bucketFolder);
+        Assert.assertEquals("Partly migrated bucket not flat", BucketLayout.FLAT, BucketLayout.of(bucketFolder));
+
+        Assert.assertEquals("Wrong number of files moved", 6, BucketMigration.migrateToShardedLayout(BUCKET));
+        Assert.assertEquals("Migrated bucket not sharded", BucketLayout.SHARDED, BucketLayout.of(bucketFolder));
+        for (String key : keys) {
+            Assert.assertTrue("File not moved: " + key, Files.exists(BucketLayout.SHARDED.resolve(bucketFolder, key)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void missingBucketTest() throws IOException {
+        BucketMigration.migrateToShardedLayout(BUCKET);
+    }
+}
@@ -0,0 +1,148 @@
+package client.storageConnections;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+public class PackStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File newFile(String name, int size, long seed) throws IOException {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    private void assertStored(PackStore store, String key, File expected) throws IOException {
+        Path copy = folder.getRoot().toPath().resolve(key + ".copy");
+        long[] progress = new long[1];
+        store.copyTo(key, copy, bytes -> progress[0] += bytes);
+        Assert.assertArrayEquals("Wrong contents of " + key, Files.readAllBytes(expected.toPath()), Files.readAllBytes(copy));
+        Assert.assertEquals("Incorrect length of " + key, expected.length(), store.length(key));
+        Assert.assertEquals("Incorrect progress of " + key, expected.length(), progress[0]);
+    }
+
+    @Test
+    public void putAndReopenTest() throws IOException {
+        Path packs = folder.newFolder("packs").toPath();
+        File a = newFile("a.jpg", 5000, 1);
+        File b = newFile("b.jpg", 7000, 2);
+
+        long[] progress = new long[1];
+        try (PackStore store = new PackStore(packs, 8000)) {
+            store.put("a", a, bytes -> progress[0] += bytes);
+            store.put("b", b, bytes -> progress[0] += bytes);
+            Assert.assertEquals("Incorrect progress", 12000, progress[0]);
+        }
+
+        try (PackStore store = new PackStore(packs, 8000)) {
+            Assert.assertEquals("Incorrect number of files", 2, store.size());
+            assertStored(store, "a", a);
+            assertStored(store, "b", b);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void duplicateKeyTest() throws IOException {
+        File a = newFile("a.jpg", 100, 1);
+        try (PackStore store = new PackStore(folder.newFolder("packs").toPath(), 8000)) {
+            store.put("a", a, bytes -> {});
+            store.put("a", a, bytes -> {});
+        }
+    }
+
+    @Test
+    public void deleteAndCompactTest() throws IOException {
+        Path packs = folder.newFolder("packs").toPath();
+        File a = newFile("a.jpg", 3000, 1);
+        File b = newFile("b.jpg", 3000, 2);
+        File c = newFile("c.jpg", 3000, 3);
+
+        try (PackStore store = new PackStore(packs, 1 << 20)) {
+            store.put("a", a, bytes -> {});
+            store.put("b", b, bytes -> {});
+            store.put("c", c, bytes -> {});
+
+            Assert.assertTrue(store.delete("b"));
+            Assert.assertFalse(store.delete("b"));
+
+            Assert.assertEquals("Incorrect number of bytes reclaimed", 3000, store.compact(0.25));
+            Assert.assertEquals("Nothing left to reclaim", 0, store.compact(0.25));
+            assertStored(store, "a", a);
+            assertStored(store, "c", c);
+        }
+
+        try (PackStore store = new PackStore(packs, 1 << 20)) {
+            Assert.assertEquals("Incorrect number of files", 2, store.size());
+            Assert.assertFalse(store.contains("b"));
+            assertStored(store, "c", c);
+        }
+    }
+
+    @Test
+    public void partialIndexRecordTest() throws IOException {
+        Path packs = folder.newFolder("packs").toPath();
+        File a = newFile("a.jpg", 1000, 1);
+        File b = newFile("b.jpg", 1000, 2);
+        File c = newFile("c.jpg", 1000, 3);
+
+        try (PackStore store = new PackStore(packs, 1 << 20)) {
+            store.put("a", a, bytes -> {});
+            store.put("b", b, bytes -> {});
+        }
+
+//        Cut the log in the middle of the last record, as a crash would
+        Path log = packs.resolve(PackStore.INDEX_FILE);
+        byte[] bytes = Files.readAllBytes(log);
+        Files.write(log, Arrays.copyOf(bytes, bytes.length - 5));
+
+        try (PackStore store = new PackStore(packs, 1 << 20)) {
+            Assert.assertEquals("Partial record not dropped", 1, store.size());
+            Assert.assertFalse(store.contains("b"));
+            store.put("c", c, progress -> {});
+        }
+
+        try (PackStore store = new PackStore(packs, 1 << 20)) {
+            Assert.assertEquals("Incorrect number of files", 2, store.size());
+            assertStored(store, "a", a);
+            assertStored(store, "c", c);
+        }
+    }
+
+    @Test
+    public void shortSegmentTest() throws IOException {
+        Path packs = folder.newFolder("packs").toPath();
+        File a = newFile("a.jpg", 1000, 1);
+
+        try (PackStore store = new PackStore(packs, 1 << 20)) {
+            store.put("a", a, bytes -> {});
+        }
+
+//        The index record was written, but the end of the file never reached the disk
+        try (FileChannel segment = FileChannel.open(packs.resolve("00000001.pack"), StandardOpenOption.WRITE)) {
+            segment.truncate(600);
+        }
+
+        try (PackStore store = new PackStore(packs, 1 << 20)) {
+            store.copyTo("a", folder.getRoot().toPath().resolve("a.copy"));
+            Assert.fail("Short segment read");
+        } catch (EOFException e) {
+            // Expected
+        }
+    }
+}
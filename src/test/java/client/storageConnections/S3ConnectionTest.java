@@ -0,0 +1,46 @@
+package client.storageConnections;
+
+import com.github.davidmoten.rtree.Entry;
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Geometry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class S3ConnectionTest {
+
+    private static Set<String> ids(RTree<String, Geometry> tree) {
+        Set<String> ids = new HashSet<>();
+        for (Entry<String, Geometry> entry : tree.entries().toBlocking().toIterable()) ids.add(entry.value());
+        return ids;
+    }
+
+    @Test
+    public void mergeTest() {
+        RTree<String, Geometry> base = RTree.<String, Geometry>create()
+                .add("kept", Geometries.point(51.5, -0.12))
+                .add("removedByUs", Geometries.point(51.6, -0.13))
+                .add("removedByThem", Geometries.point(51.7, -0.14));
+
+        RTree<String, Geometry> ours = base
+                .delete("removedByUs", Geometries.point(51.6, -0.13))
+                .add("addedByUs", Geometries.point(51.8, -0.15));
+
+        RTree<String, Geometry> theirs = base
+                .delete("removedByThem", Geometries.point(51.7, -0.14))
+                .add("addedByThem", Geometries.point(51.9, -0.16));
+
+        Set<String> merged = ids(S3Connection.merge(base, ours, theirs));
+        Set<String> expected = new HashSet<>();
+        expected.add("kept");
+        expected.add("addedByUs");
+        expected.add("addedByThem");
+        Assert.assertEquals("Incorrect merge", expected, merged);
+
+        // Nothing changed by us, their version is kept as it is
+        Assert.assertEquals("Incorrect merge", ids(theirs), ids(S3Connection.merge(base, base, theirs)));
+    }
+}
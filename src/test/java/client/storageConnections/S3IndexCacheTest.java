@@ -0,0 +1,88 @@
+package client.storageConnections;
+
+import com.amazonaws.services.s3.AmazonS3;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Runs against the server given by -Dbsv.s3.endpoint, e.g. a local S3 compatible stand-in.
+ */
+public class S3IndexCacheTest {
+
+    private static final String KEY = StorageConnection.RTREE_FILE;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private AmazonS3 s3;
+    private String bucket;
+
+    @Before
+    public void setUp() {
+        Assume.assumeNotNull(System.getProperty(S3Clients.ENDPOINT_PROPERTY));
+        s3 = S3Clients.client();
+        bucket = "index-test-" + System.currentTimeMillis();
+        s3.createBucket(bucket);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (s3 != null) {
+            new S3Purge(s3, 4).purge(bucket);
+            s3.deleteBucket(bucket);
+        }
+    }
+
+    private S3IndexCache newCache(String name) throws IOException {
+        return new S3IndexCache(s3, bucket, folder.newFolder(name).toPath());
+    }
+
+    private void write(S3IndexCache cache, String contents) throws IOException {
+        Files.write(cache.getLocalFile(KEY), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void fetchTest() throws IOException {
+        S3IndexCache writer = newCache("writer");
+        S3IndexCache reader = newCache("reader");
+        Assert.assertNull("Missing index fetched", reader.fetch(KEY));
+
+        write(writer, "first");
+        writer.save(KEY);
+        Assert.assertEquals("Incorrect index", "first", read(reader.fetch(KEY)));
+
+        // An unchanged index is not downloaded again
+        long lastModified = Files.getLastModifiedTime(reader.getLocalFile(KEY)).toMillis();
+        Assert.assertEquals("Incorrect index", "first", read(reader.fetch(KEY)));
+        Assert.assertEquals("Index downloaded again", lastModified, Files.getLastModifiedTime(reader.getLocalFile(KEY)).toMillis());
+
+        write(writer, "second");
+        writer.save(KEY);
+        Assert.assertEquals("Incorrect index", "second", read(reader.fetch(KEY)));
+    }
+
+    @Test(expected = S3IndexCache.ConflictException.class)
+    public void staleSaveTest() throws IOException {
+        S3IndexCache first = newCache("first");
+        S3IndexCache second = newCache("second");
+        write(first, "first");
+        first.save(KEY);
+        second.fetch(KEY);
+
+        write(first, "newer");
+        first.save(KEY);
+
+        // Based on an index which has been replaced since
+        write(second, "older");
+        second.save(KEY);
+    }
+}
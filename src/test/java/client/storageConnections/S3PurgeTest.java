@@ -0,0 +1,102 @@
+package client.storageConnections;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+public class S3PurgeTest {
+
+    /**
+     * Bucket kept in memory, the first delete of every key fails.
+     */
+    private static class FlakyS3 extends AbstractAmazonS3 {
+
+        private final ConcurrentSkipListSet<String> keys = new ConcurrentSkipListSet<>();
+        private final Set<String> failedOnce = Collections.synchronizedSet(new HashSet<>());
+        private int batches = 0;
+
+        @Override
+        public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+            NavigableSet<String> tail = request.getContinuationToken() == null
+                    ? keys
+                    : keys.tailSet(request.getContinuationToken(), false);
+
+            ListObjectsV2Result result = new ListObjectsV2Result();
+            Iterator<String> iterator = tail.iterator();
+            String last = null;
+            while (iterator.hasNext() && result.getObjectSummaries().size() < request.getMaxKeys()) {
+                S3ObjectSummary summary = new S3ObjectSummary();
+                last = iterator.next();
+                summary.setKey(last);
+                result.getObjectSummaries().add(summary);
+            }
+            result.setTruncated(iterator.hasNext());
+            result.setNextContinuationToken(iterator.hasNext() ? last : null);
+            return result;
+        }
+
+        @Override
+        public DeleteObjectsResult deleteObjects(DeleteObjectsRequest request) {
+            Assert.assertTrue("Batch too large", request.getKeys().size() <= S3Purge.BATCH_SIZE);
+            synchronized (this) {
+                batches++;
+            }
+
+            List<MultiObjectDeleteException.DeleteError> errors = new ArrayList<>();
+            List<DeleteObjectsResult.DeletedObject> deleted = new ArrayList<>();
+            for (DeleteObjectsRequest.KeyVersion version : request.getKeys()) {
+                if (failedOnce.add(version.getKey())) {
+                    MultiObjectDeleteException.DeleteError error = new MultiObjectDeleteException.DeleteError();
+                    error.setKey(version.getKey());
+                    error.setCode("InternalError");
+                    errors.add(error);
+                } else {
+                    keys.remove(version.getKey());
+                    DeleteObjectsResult.DeletedObject object = new DeleteObjectsResult.DeletedObject();
+                    object.setKey(version.getKey());
+                    deleted.add(object);
+                }
+            }
+            if (!errors.isEmpty()) throw new MultiObjectDeleteException(errors, deleted);
+            return new DeleteObjectsResult(deleted);
+        }
+    }
+
+    @Test
+    public void purgeAllPagesTest() throws IOException {
+        FlakyS3 s3 = new FlakyS3();
+        for (int i = 0; i < 4321; i++) s3.keys.add(String.format("photo-%05d.jpg", i));
+
+        long deleted = new S3Purge(s3, 4).purge("bucket");
+
+        Assert.assertEquals("Incorrect number of deleted objects", 4321, deleted);
+        Assert.assertTrue("Bucket not empty", s3.keys.isEmpty());
+        Assert.assertEquals("Incorrect number of batches", 10, s3.batches);
+    }
+
+    /**
+     * Runs against the server given by -Dbsv.s3.endpoint, e.g. a local S3 compatible stand-in.
+     */
+    @Test
+    public void purgeStandInTest() throws IOException {
+        Assume.assumeNotNull(System.getProperty(S3Clients.ENDPOINT_PROPERTY));
+
+        AmazonS3 s3 = S3Clients.newClient();
+        String bucket = "purge-test-" + System.currentTimeMillis();
+        s3.createBucket(bucket);
+        for (int i = 0; i < 2500; i++) s3.putObject(bucket, "photo-" + i + ".jpg", "x");
+
+        long deleted = new S3Purge(s3, 8).purge(bucket);
+
+        Assert.assertEquals("Incorrect number of deleted objects", 2500, deleted);
+        Assert.assertTrue("Bucket not empty", s3.listObjectsV2(bucket).getObjectSummaries().isEmpty());
+        s3.deleteBucket(bucket);
+    }
+}
@@ -0,0 +1,119 @@
+package client.storageConnections;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.transfer.PersistableUpload;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Runs against the server given by -Dbsv.s3.endpoint, e.g. a local S3 compatible stand-in.
+ */
+public class S3UploadTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private AmazonS3 s3;
+    private String bucket;
+
+    @Before
+    public void setUp() {
+        Assume.assumeNotNull(System.getProperty(S3Clients.ENDPOINT_PROPERTY));
+        s3 = S3Clients.client();
+        bucket = "upload-test-" + System.currentTimeMillis();
+        s3.createBucket(bucket);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (s3 != null) {
+            new S3Purge(s3, 4).purge(bucket);
+            s3.deleteBucket(bucket);
+        }
+    }
+
+    private File newFile(String name, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    private long upload(File file, Path stateFile) throws IOException {
+        long[] progress = new long[1];
+        new S3Upload(S3Clients.transfers(), stateFile).upload(bucket, file.getName(), file, bytes -> progress[0] += bytes);
+        return progress[0];
+    }
+
+    @Test
+    public void singlePartTest() throws IOException {
+        File file = newFile("small.jpg", 100_000);
+        Path stateFile = folder.getRoot().toPath().resolve("small.json");
+
+        Assert.assertEquals("Incorrect progress", file.length(), upload(file, stateFile));
+        Assert.assertEquals("Incorrect size", file.length(), s3.getObjectMetadata(bucket, file.getName()).getContentLength());
+    }
+
+    @Test
+    public void multipartTest() throws IOException {
+        File file = newFile("large.jpg", (int) (S3Clients.MULTIPART_THRESHOLD + 3 * S3Clients.PART_SIZE / 2));
+        Path stateFile = folder.getRoot().toPath().resolve("large.json");
+
+        Assert.assertEquals("Incorrect progress", file.length(), upload(file, stateFile));
+        ObjectMetadata metadata = s3.getObjectMetadata(bucket, file.getName());
+        Assert.assertEquals("Incorrect size", file.length(), metadata.getContentLength());
+        Assert.assertTrue("Not a multipart upload", metadata.getETag().contains("-"));
+        Assert.assertFalse("Upload state not removed", Files.exists(stateFile));
+    }
+
+    @Test
+    public void replacedFileTest() throws IOException {
+        File file = newFile("replaced.jpg", 100_000);
+        Path stateFile = folder.getRoot().toPath().resolve("replaced.json");
+
+//        State of an upload of an earlier version of the file, which S3 no longer knows
+        PersistableUpload state = new PersistableUpload(bucket, file.getName(), file.getAbsolutePath(), "expired-upload-id",
+                S3Clients.PART_SIZE, S3Clients.MULTIPART_THRESHOLD);
+        try (OutputStream out = Files.newOutputStream(stateFile)) {
+            state.serialize(out);
+        }
+        Files.write(stateFile.resolveSibling("replaced.json.source"), "1 1".getBytes(StandardCharsets.UTF_8));
+
+        Assert.assertEquals("Incorrect progress", file.length(), upload(file, stateFile));
+        Assert.assertEquals("Incorrect size", file.length(), s3.getObjectMetadata(bucket, file.getName()).getContentLength());
+        Assert.assertFalse("Upload state not removed", Files.exists(stateFile));
+    }
+
+    @Test
+    public void interruptedTest() throws IOException {
+        File file = newFile("interrupted.jpg", (int) (S3Clients.MULTIPART_THRESHOLD + 3 * S3Clients.PART_SIZE));
+        Path stateFile = folder.getRoot().toPath().resolve("interrupted.json");
+
+        Thread uploader = Thread.currentThread();
+        long[] progress = new long[1];
+        try {
+            new S3Upload(S3Clients.transfers(), stateFile).upload(bucket, file.getName(), file, bytes -> {
+                progress[0] += bytes;
+                if (progress[0] > S3Clients.PART_SIZE) uploader.interrupt();
+            });
+            Assert.fail("Upload not interrupted");
+        } catch (IOException e) {
+            Assert.assertTrue("Interrupt not kept", Thread.interrupted());
+        }
+        Assert.assertTrue("Upload state not saved", Files.exists(stateFile));
+
+        Assert.assertEquals("Incorrect progress", file.length(), upload(file, stateFile));
+        Assert.assertEquals("Incorrect size", file.length(), s3.getObjectMetadata(bucket, file.getName()).getContentLength());
+        Assert.assertFalse("Upload state not removed", Files.exists(stateFile));
+    }
+}